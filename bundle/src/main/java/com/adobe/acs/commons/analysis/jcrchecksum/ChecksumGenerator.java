@@ -20,6 +20,7 @@
 
 package com.adobe.acs.commons.analysis.jcrchecksum;
 
+import org.apache.sling.api.resource.ResourceResolver;
 import org.osgi.annotation.versioning.ProviderType;
 
 import javax.jcr.RepositoryException;
@@ -60,4 +61,43 @@ public interface ChecksumGenerator {
      */
     Map<String, String> generateChecksums(Session session, String path, ChecksumGeneratorOptions options)
             throws RepositoryException, IOException;
-}
\ No newline at end of file
+
+    /**
+     * Generates Merkle-tree checksums for the content tree whose root is defined by the path param, respecting the
+     * excludes of the {@link ChecksumGeneratorOptions} (included node types are not considered as every node is
+     * hashed). Each node's checksum combines its own properties with the checksums of its child nodes, so two
+     * instances can compare the root checksums and descend only into the subtrees whose checksums differ.
+     * Generates map of checksum hashes in the format [ ABSOLUTE PATH ] : [ CHECKSUM OF NODE SUBTREE ] for the root
+     * and its descendants up to depth levels below it.
+     *
+     * @param session     the session
+     * @param path        the root path to generate checksums for
+     * @param options     the {@link ChecksumGeneratorOptions} that define the checksum generation
+     * @param depth       the number of levels below the root to include in the result; 0 only returns the root
+     * @param reuseCached true to reuse checksums computed earlier for the same user for leaf jcr:content nodes
+     *                    (e.g. binaries) whose last modified date is unchanged
+     * @return the map of abs path ~&gt; checksums, parents before their children
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    Map<String, String> generateMerkleChecksums(Session session, String path, ChecksumGeneratorOptions options,
+                                                int depth, boolean reuseCached) throws RepositoryException, IOException;
+
+    /**
+     * Same as {@link #generateMerkleChecksums(Session, String, ChecksumGeneratorOptions, int, boolean)}, but computes
+     * the subtrees of the root's children in parallel, each on a clone of the provided resource resolver.
+     *
+     * @param resourceResolver the resource resolver
+     * @param path             the root path to generate checksums for
+     * @param options          the {@link ChecksumGeneratorOptions} that define the checksum generation
+     * @param depth            the number of levels below the root to include in the result; 0 only returns the root
+     * @param reuseCached      true to reuse checksums computed earlier for the same user for leaf jcr:content nodes
+     *                         (e.g. binaries) whose last modified date is unchanged
+     * @return the map of abs path ~&gt; checksums, parents before their children
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    Map<String, String> generateMerkleChecksums(ResourceResolver resourceResolver, String path,
+                                                ChecksumGeneratorOptions options, int depth, boolean reuseCached)
+            throws RepositoryException, IOException;
+}
@@ -23,11 +23,20 @@ package com.adobe.acs.commons.analysis.jcrchecksum.impl;
 import com.adobe.acs.commons.analysis.jcrchecksum.ChecksumGenerator;
 import com.adobe.acs.commons.analysis.jcrchecksum.ChecksumGeneratorOptions;
 import com.adobe.acs.commons.analysis.jcrchecksum.impl.options.DefaultChecksumGeneratorOptions;
+import com.adobe.acs.commons.fam.ThrottledTaskRunner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.vault.util.Text;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,6 +52,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -50,6 +60,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Utility that generates checksums for JCR paths.  The checksum is calculated using a depth first traversal
@@ -62,6 +75,18 @@ import java.util.TreeMap;
 public class ChecksumGeneratorImpl implements ChecksumGenerator {
     private static final Logger log = LoggerFactory.getLogger(ChecksumGeneratorImpl.class);
 
+    private static final String PN_CQ_LAST_MODIFIED = "cq:lastModified";
+
+    private static final long MERKLE_CACHE_SIZE = 100000L;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY, policy = ReferencePolicy.DYNAMIC)
+    private volatile ThrottledTaskRunner throttledTaskRunner;
+
+    // [ USER ID : PATH @ LAST MODIFIED # OPTIONS CHECKSUM ] ~> [ CHECKSUM OF NODE ]
+    private final Cache<String, String> merkleChecksumCache = CacheBuilder.newBuilder()
+            .maximumSize(MERKLE_CACHE_SIZE)
+            .build();
+
     /**
      * Convenience method for  generateChecksums(session, path, new DefaultChecksumGeneratorOptions()).
      *
@@ -101,6 +126,255 @@ public class ChecksumGeneratorImpl implements ChecksumGenerator {
         return traverseTree(node, options);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> generateMerkleChecksums(Session session, String path, ChecksumGeneratorOptions options,
+                                                       int depth, boolean reuseCached)
+            throws RepositoryException, IOException {
+        final Map<String, String> checksums = new LinkedHashMap<>();
+        final Node node = session.getNode(path);
+
+        if (!isExcludedSubTree(node, options)) {
+            generateMerkleChecksum(node, options, depth, reuseCached, checksums);
+        }
+
+        return checksums;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("squid:S3776")
+    public Map<String, String> generateMerkleChecksums(final ResourceResolver resourceResolver, final String path,
+                                                       final ChecksumGeneratorOptions options, final int depth,
+                                                       final boolean reuseCached)
+            throws RepositoryException, IOException {
+        final Session session = resourceResolver.adaptTo(Session.class);
+        final ThrottledTaskRunner taskRunner = throttledTaskRunner;
+        final Node node = session.getNode(path);
+
+        if (taskRunner == null || isExcludedSubTree(node, options)) {
+            return generateMerkleChecksums(session, path, options, depth, reuseCached);
+        }
+
+        // Each child subtree is checksummed on its own session; the root then combines the results
+        final List<Node> children = getMerkleChildren(node, options);
+        final List<Map<String, String>> childResults = new ArrayList<>();
+        final String[] childChecksums = new String[children.size()];
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final CountDownLatch pending = new CountDownLatch(children.size());
+
+        for (int i = 0; i < children.size(); i++) {
+            final int index = i;
+            final String childPath = children.get(i).getPath();
+            final Map<String, String> childResult = Collections.synchronizedMap(new LinkedHashMap<>());
+            childResults.add(childResult);
+
+            if (failure.get() != null) {
+                pending.countDown();
+                continue;
+            }
+
+            // Resource resolvers are not thread safe, so the clone is created here and closed by the worker
+            final ResourceResolver childResourceResolver;
+            try {
+                childResourceResolver = resourceResolver.clone(null);
+            } catch (LoginException e) {
+                failure.compareAndSet(null, e);
+                pending.countDown();
+                continue;
+            }
+
+            taskRunner.scheduleWork(() -> {
+                try (ResourceResolver workerResourceResolver = childResourceResolver) {
+                    final Node child = workerResourceResolver.adaptTo(Session.class).getNode(childPath);
+                    childChecksums[index] = generateMerkleChecksum(child, options, depth - 1, reuseCached, childResult);
+                } catch (RepositoryException | IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    pending.countDown();
+                }
+            });
+        }
+
+        try {
+            pending.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while generating checksums for " + path, e);
+        }
+
+        if (failure.get() instanceof IOException) {
+            throw (IOException) failure.get();
+        } else if (failure.get() != null) {
+            throw new RepositoryException("Could not generate checksums for " + path, failure.get());
+        }
+
+        final Map<String, String> namedChildChecksums = new LinkedHashMap<>();
+        for (int i = 0; i < children.size(); i++) {
+            if (childChecksums[i] != null) {
+                namedChildChecksums.put(children.get(i).getName(), childChecksums[i]);
+            }
+        }
+
+        final Map<String, String> checksums = new LinkedHashMap<>();
+        final String checksum = aggregateMerkleChecksum(node, options, namedChildChecksums);
+
+        if (checksum != null) {
+            checksums.put(path, checksum);
+            // Followed by the paths beneath the root, in the order of the root's children
+            for (final Map<String, String> childResult : childResults) {
+                checksums.putAll(childResult);
+            }
+        }
+
+        return checksums;
+    }
+
+    /**
+     * Generates the Merkle-tree checksum of a node's subtree, collecting the checksums of the node and its
+     * descendants up to depth levels below it.
+     * @param node the node whose subtree to create a checksum for
+     * @param options the checksum generator options
+     * @param depth the number of levels below the node to collect checksums for; negative collects none
+     * @param reuseCached true to reuse previously computed checksums for unchanged leaf jcr:content nodes
+     * @param checksums the map to collect the checksums into
+     * @return the checksum of the node's subtree or null if there is nothing to checksum
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    protected String generateMerkleChecksum(final Node node,
+                                            final ChecksumGeneratorOptions options,
+                                            final int depth,
+                                            final boolean reuseCached,
+                                            final Map<String, String> checksums)
+            throws RepositoryException, IOException {
+        final String path = node.getPath();
+
+        if (depth >= 0) {
+            // Reserve the position so parents are listed before their children
+            checksums.put(path, "");
+        }
+
+        final String cacheKey = reuseCached ? getMerkleCacheKey(node, options) : null;
+        String checksum = cacheKey != null ? merkleChecksumCache.getIfPresent(cacheKey) : null;
+
+        if (checksum == null || depth > 0) {
+            final Map<String, String> childChecksums = new LinkedHashMap<>();
+
+            for (final Node child : getMerkleChildren(node, options)) {
+                final String childChecksum = generateMerkleChecksum(child, options, depth - 1, reuseCached, checksums);
+                if (childChecksum != null) {
+                    childChecksums.put(child.getName(), childChecksum);
+                }
+            }
+
+            checksum = aggregateMerkleChecksum(node, options, childChecksums);
+
+            if (cacheKey != null && checksum != null) {
+                merkleChecksumCache.put(cacheKey, checksum);
+            }
+        } else {
+            log.debug("Reusing cached checksum for [ {} ] ~> {}", path, checksum);
+        }
+
+        if (depth >= 0) {
+            if (checksum != null) {
+                checksums.put(path, checksum);
+            } else {
+                checksums.remove(path);
+            }
+        }
+
+        return checksum;
+    }
+
+    /**
+     * Combines the checksum of a node's properties with the checksums of its children.
+     * @param node the node
+     * @param options the checksum generator options
+     * @param childChecksums the checksums of the node's children keyed by child name, in JCR order
+     * @return the checksum or null if the node has neither checksum-able properties nor children
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    protected String aggregateMerkleChecksum(final Node node,
+                                             final ChecksumGeneratorOptions options,
+                                             final Map<String, String> childChecksums)
+            throws RepositoryException, IOException {
+        final Map<String, String> checksums = new LinkedHashMap<>();
+
+        if (!isExcludedNodeName(node, options)) {
+            final String checksum = generatePropertyChecksums(node.getPath(), node, options);
+            if (checksum != null) {
+                // Child names cannot be empty, so the node's own properties cannot collide with a child
+                checksums.put("", checksum);
+            }
+        }
+
+        if (hasOrderedChildren(node)) {
+            checksums.putAll(childChecksums);
+        } else {
+            checksums.putAll(new TreeMap<>(childChecksums));
+        }
+
+        return aggregateChecksums(checksums);
+    }
+
+    private List<Node> getMerkleChildren(final Node node, final ChecksumGeneratorOptions options) throws RepositoryException {
+        final List<Node> children = new ArrayList<>();
+        final NodeIterator nodes = node.getNodes();
+
+        while (nodes.hasNext()) {
+            final Node child = nodes.nextNode();
+            if (!isExcludedSubTree(child, options) && !isExcludedNodeType(child, options)) {
+                children.add(child);
+            }
+        }
+
+        return children;
+    }
+
+    /**
+     * Only leaf jcr:content nodes (such as the nt:resource holding a rendition's binary) are cached, as a last
+     * modified date only describes the node it is set on and not its descendants; the checksums of all other nodes
+     * are always recombined from their children. The key includes the session's user, as what a checksum covers
+     * depends on the user's read access.
+     * @param node the node
+     * @param options the checksum generator options
+     * @return the cache key or null if the node's checksum cannot be cached
+     * @throws RepositoryException
+     */
+    private String getMerkleCacheKey(final Node node, final ChecksumGeneratorOptions options) throws RepositoryException {
+        if (!JcrConstants.JCR_CONTENT.equals(node.getName()) || node.hasNodes()) {
+            return null;
+        }
+
+        Calendar lastModified = null;
+        if (node.hasProperty(PN_CQ_LAST_MODIFIED)) {
+            lastModified = node.getProperty(PN_CQ_LAST_MODIFIED).getDate();
+        } else if (node.hasProperty(JcrConstants.JCR_LASTMODIFIED)) {
+            lastModified = node.getProperty(JcrConstants.JCR_LASTMODIFIED).getDate();
+        }
+
+        if (lastModified == null) {
+            return null;
+        }
+
+        final String optionsKey = DigestUtils.sha1Hex(StringUtils.join(new Object[]{
+                new TreeSet<>(options.getExcludedNodeTypes()),
+                new TreeSet<>(options.getExcludedProperties()),
+                new TreeSet<>(options.getSortedProperties()),
+                new TreeSet<>(options.getExcludedSubTrees()),
+                new TreeSet<>(options.getExcludedNodeNames())}, "|"));
+
+        return node.getSession().getUserID() + ":" + node.getPath() + "@" + lastModified.getTimeInMillis()
+                + "#" + optionsKey;
+    }
+
     /**
      * Traverse the tree for candidate aggregate nodes.
      * @param node the current node being traversed
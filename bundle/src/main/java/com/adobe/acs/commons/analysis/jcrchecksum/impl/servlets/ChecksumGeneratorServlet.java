@@ -25,6 +25,8 @@ import com.adobe.acs.commons.analysis.jcrchecksum.ChecksumGeneratorOptions;
 import com.adobe.acs.commons.analysis.jcrchecksum.impl.options.ChecksumGeneratorOptionsFactory;
 import com.adobe.acs.commons.analysis.jcrchecksum.impl.options.RequestChecksumGeneratorOptions;
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
@@ -109,11 +111,20 @@ public class ChecksumGeneratorServlet extends BaseChecksumServlet {
         }
 
         final Session session = request.getResourceResolver().adaptTo(Session.class);
+        final String merkleDepth = request.getParameter(ServletConstants.MERKLE_DEPTH);
+        final boolean reuseCached = Boolean.parseBoolean(request.getParameter(ServletConstants.REUSE_CACHED));
 
         for (final String path : paths) {
             log.debug("Generating checksum for path [ {} ]", path);
 
-            Map<String, String> checksums = checksumGenerator.generateChecksums(session, path, options);
+            final Map<String, String> checksums;
+            if (StringUtils.isNotBlank(merkleDepth)) {
+                // Merkle-tree mode; clients compare the returned checksums and request only the differing subtrees
+                checksums = checksumGenerator.generateMerkleChecksums(request.getResourceResolver(), path, options,
+                        Math.max(0, NumberUtils.toInt(merkleDepth, 0)), reuseCached);
+            } else {
+                checksums = checksumGenerator.generateChecksums(session, path, options);
+            }
 
             log.debug("Collected [ {} ] checksum entries under [ {} ]", checksums.size(), path);
 
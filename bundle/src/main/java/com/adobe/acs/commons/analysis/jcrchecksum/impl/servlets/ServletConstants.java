@@ -37,4 +37,8 @@ public final class ServletConstants {
     public static final String JSON_SERVLET_EXTENSION = "json";
 
     public static final String OPTIONS_NAME = "optionsName";
+
+    public static final String MERKLE_DEPTH = "merkleDepth";
+
+    public static final String REUSE_CACHED = "reuseCached";
 }
@@ -18,7 +18,7 @@
  * #L%
  */
 
-@Version("2.2.0")
+@Version("2.3.0")
 package com.adobe.acs.commons.analysis.jcrchecksum;
 
 import org.osgi.annotation.versioning.Version;
\ No newline at end of file
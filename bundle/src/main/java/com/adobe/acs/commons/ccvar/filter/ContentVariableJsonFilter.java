@@ -23,13 +23,8 @@ package com.adobe.acs.commons.ccvar.filter;
 import com.adobe.acs.commons.ccvar.PropertyAggregatorService;
 import com.adobe.acs.commons.ccvar.PropertyConfigService;
 import com.adobe.acs.commons.ccvar.util.ContentVariableReplacementUtil;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
-import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.engine.EngineConstants;
 import org.osgi.framework.Constants;
@@ -49,10 +44,10 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -96,29 +91,39 @@ public class ContentVariableJsonFilter implements Filter {
         SlingHttpServletRequest slingHttpServletRequest = (SlingHttpServletRequest) servletRequest;
         RequestPathInfo currentPathInfo = slingHttpServletRequest.getRequestPathInfo();
         if (StringUtils.equals(currentPathInfo.getExtension(), "json") && shouldProcess(slingHttpServletRequest.getPathInfo())) {
-            CapturingResponseWrapper capturingResponseWrapper = new CapturingResponseWrapper((SlingHttpServletResponse) servletResponse);
-            filterChain.doFilter(servletRequest, capturingResponseWrapper);
-
-            String currentResponse = capturingResponseWrapper.getCaptureAsString();
-            String toReturn = currentResponse;
+            Map<String, Object> contentVariableReplacements = getReplacements(slingHttpServletRequest);
+            if (contentVariableReplacements.isEmpty()) {
+                filterChain.doFilter(servletRequest, servletResponse);
+                return;
+            }
+            ContentVariableJsonResponseWrapper responseWrapper = new ContentVariableJsonResponseWrapper(
+                    (HttpServletResponse) servletResponse,
+                    value -> replaceInString(value, contentVariableReplacements));
             try {
-                Map<String, Object> contentVariableReplacements = propertyAggregatorService.getProperties(slingHttpServletRequest);
-                if (contentVariableReplacements.size() > 0) {
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    JsonNode currentTree = objectMapper.readTree(currentResponse);
-                    replaceInElements(currentTree, contentVariableReplacements);
-                    toReturn = currentTree.toString();
-                }
-            } catch (Exception e) {
-                LOG.error("Exception during JSON property replacement", e);
+                filterChain.doFilter(servletRequest, responseWrapper);
             } finally {
-                servletResponse.getWriter().write(toReturn);
+                responseWrapper.finish();
             }
         } else {
             filterChain.doFilter(servletRequest, servletResponse);
         }
     }
 
+    /**
+     * Gets the content variables for the current request, or an empty map if they cannot be aggregated.
+     *
+     * @param request Current request
+     * @return the current map of content variables
+     */
+    private Map<String, Object> getReplacements(SlingHttpServletRequest request) {
+        try {
+            return propertyAggregatorService.getProperties(request);
+        } catch (Exception e) {
+            LOG.error("Exception during JSON property replacement", e);
+            return Collections.emptyMap();
+        }
+    }
+
     /**
      * Checks the current URL path against the included and excluded patterns. Exclusions hold priority.
      *
@@ -156,83 +161,15 @@ public class ContentVariableJsonFilter implements Filter {
     }
 
     /**
-     * Delegate replacement to different object types.
-     *
-     * @param node Input JSON node
-     * @param contentVariableReplacements current map of content variables
-     */
-    private void replaceInElements(JsonNode node, Map<String, Object> contentVariableReplacements) {
-        if (node.isArray()) {
-            replaceInArray(node, contentVariableReplacements);
-        } else if (node.isObject()) {
-            replaceInObject(node, contentVariableReplacements);
-        }
-    }
-
-    /**
-     * Iterates through array items and replaces any placeholders found.
-     *
-     * @param node Array node
-     * @param contentVariableReplacements current map of content variables
-     */
-    private void replaceInArray(JsonNode node, Map<String, Object> contentVariableReplacements) {
-        if (node.get(0) != null && node.get(0).isTextual()) {
-            List<String> updated = new LinkedList<>();
-            for (JsonNode arrayItem : node) {
-                String current = arrayItem.asText();
-                updated.add(replaceInString(current, contentVariableReplacements));
-            }
-            ((ArrayNode) node).removeAll();
-            for (int i = 0; i < updated.size(); i++) {
-                ((ArrayNode) node).insert(i, updated.get(i));
-            }
-        } else if (node.get(0) != null && node.get(0).isContainerNode()) {
-            for (JsonNode arrayItem : node) {
-                replaceInElements(arrayItem, contentVariableReplacements);
-            }
-        }
-    }
-
-    /**
-     * Iterates over keys to replace any placeholders in the values.
-     *
-     * @param node Object node
-     * @param contentVariableReplacements current map of content variables
-     */
-    private void replaceInObject(JsonNode node, Map<String, Object> contentVariableReplacements) {
-        Iterator<String> fieldNames = node.fieldNames();
-        while (fieldNames.hasNext()) {
-            String name = fieldNames.next();
-            JsonNode nodeValue = node.get(name);
-            if (nodeValue.isContainerNode()) {
-                replaceInElements(nodeValue, contentVariableReplacements);
-            } else if (nodeValue.isTextual()) {
-                String current = nodeValue.asText();
-                String replaced = replaceInString(current, contentVariableReplacements);
-                if (!StringUtils.equals(current, replaced)) {
-                    ((ObjectNode) node).put(name, replaced);
-                }
-            }
-        }
-    }
-
-    /**
-     * Reusable method to replace placeholders in the input string./
+     * Reusable method to replace placeholders in the input string.
      *
      * @param input String input
      * @param contentVariableReplacements current map of content variables
      * @return The replaced or original String
      */
     private String replaceInString(String input, Map<String, Object> contentVariableReplacements) {
-        final List<String> keys = ContentVariableReplacementUtil.getKeys(input);
-        for (String key : keys) {
-            // If the placeholder key is in the map then replace it
-            if (ContentVariableReplacementUtil.hasKey(contentVariableReplacements, key)) {
-                String replaceValue = (String) ContentVariableReplacementUtil.getValue(contentVariableReplacements, key);
-                input = ContentVariableReplacementUtil.doReplacement(input, key, replaceValue, propertyConfigService.getAction(key));
-            }
-        }
-        return input;
+        return ContentVariableReplacementUtil.replacePlaceholders(input, contentVariableReplacements,
+                propertyConfigService);
     }
 
     @Override
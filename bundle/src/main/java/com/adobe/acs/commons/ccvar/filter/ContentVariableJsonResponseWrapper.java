@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.ccvar.filter;
+
+import org.apache.commons.io.output.WriterOutputStream;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.function.UnaryOperator;
+
+/**
+ * Response Wrapper used to rewrite the string values of JSON responses while they are written, instead of capturing
+ * the whole response. Responses that do not have a JSON content type when their output is first requested are
+ * written through unchanged.
+ */
+class ContentVariableJsonResponseWrapper extends HttpServletResponseWrapper {
+
+    private final UnaryOperator<String> replacer;
+    private ServletOutputStream output;
+    private WriterOutputStream decoder;
+    private ContentVariableJsonWriter jsonWriter;
+    private PrintWriter writer;
+
+    /**
+     * @param response the wrapped response
+     * @param replacer the function used to rewrite the decoded string values
+     */
+    ContentVariableJsonResponseWrapper(HttpServletResponse response, UnaryOperator<String> replacer) {
+        super(response);
+        this.replacer = replacer;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException(
+                    "getWriter() has already been called on this response.");
+        }
+
+        if (output == null) {
+            if (!isJson()) {
+                output = super.getOutputStream();
+            } else {
+                jsonWriter = new ContentVariableJsonWriter(super.getWriter(), replacer);
+                decoder = new WriterOutputStream(jsonWriter, getCharacterEncoding());
+                output = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        decoder.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        decoder.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        decoder.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        decoder.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        // do nothing
+                    }
+                };
+            }
+        }
+
+        return output;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (output != null) {
+            throw new IllegalStateException(
+                    "getOutputStream() has already been called on this response.");
+        }
+
+        if (writer == null) {
+            if (!isJson()) {
+                writer = super.getWriter();
+            } else {
+                jsonWriter = new ContentVariableJsonWriter(super.getWriter(), replacer);
+                writer = new PrintWriter(jsonWriter);
+            }
+        }
+
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        } else if (output != null) {
+            output.flush();
+        }
+        super.flushBuffer();
+    }
+
+    /**
+     * Writes out anything still held for rewriting. Must be called once the response is complete.
+     *
+     * @throws IOException if the wrapped response cannot be written to
+     */
+    void finish() throws IOException {
+        if (decoder != null) {
+            // Also closes the rewriting writer once the remaining bytes are decoded
+            decoder.close();
+        } else if (jsonWriter != null) {
+            writer.flush();
+            jsonWriter.close();
+        }
+    }
+
+    private boolean isJson() {
+        return StringUtils.contains(getContentType(), "json");
+    }
+}
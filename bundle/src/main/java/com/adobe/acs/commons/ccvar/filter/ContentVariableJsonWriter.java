@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.ccvar.filter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link Writer} that rewrites the JSON string values passing through it as they are written. Everything outside of
+ * string literals is written straight to the target, and string literals are only held until they are complete, so
+ * memory use does not depend on the size of the response. Only string values containing a placeholder are decoded,
+ * rewritten and encoded again; field names are never rewritten.
+ */
+class ContentVariableJsonWriter extends Writer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentVariableJsonWriter.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String PLACEHOLDER_BEGIN = "((";
+
+    private enum State {
+        /** Outside of any string literal. */
+        OUTSIDE,
+        /** Inside a string literal. */
+        STRING,
+        /** Right after a backslash inside a string literal. */
+        ESCAPE,
+        /** After a string literal with a placeholder, until it is known whether it was a field name. */
+        PENDING
+    }
+
+    private final Writer target;
+    private final UnaryOperator<String> replacer;
+    private final StringBuilder literal = new StringBuilder();
+    private final StringBuilder whitespace = new StringBuilder();
+    private State state = State.OUTSIDE;
+
+    /**
+     * @param target   the writer the rewritten JSON is written to
+     * @param replacer the function used to rewrite the decoded string values
+     */
+    ContentVariableJsonWriter(Writer target, UnaryOperator<String> replacer) {
+        this.target = target;
+        this.replacer = replacer;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            char c = cbuf[i];
+            switch (state) {
+                case OUTSIDE:
+                    if (c == '"') {
+                        // Write everything up to the literal as is and start collecting it
+                        target.write(cbuf, start, i - start);
+                        start = i + 1;
+                        state = State.STRING;
+                    }
+                    break;
+                case STRING:
+                    if (c == '\\') {
+                        state = State.ESCAPE;
+                    } else if (c == '"') {
+                        literal.append(cbuf, start, i - start);
+                        start = i + 1;
+                        endLiteral();
+                    }
+                    break;
+                case ESCAPE:
+                    state = State.STRING;
+                    break;
+                default:
+                    if (Character.isWhitespace(c)) {
+                        whitespace.append(c);
+                        start = i + 1;
+                    } else {
+                        // A colon after the literal means it was a field name
+                        writePending(c == ':');
+                        state = State.OUTSIDE;
+                        if (c == '"') {
+                            start = i + 1;
+                            state = State.STRING;
+                        } else {
+                            start = i;
+                        }
+                    }
+                    break;
+            }
+        }
+        if (state == State.OUTSIDE) {
+            target.write(cbuf, start, end - start);
+        } else if (state != State.PENDING) {
+            literal.append(cbuf, start, end - start);
+        }
+    }
+
+    /**
+     * Writes the remaining literal, if any, and flushes the target. The target itself is left open.
+     *
+     * @throws IOException if the target cannot be written to
+     */
+    @Override
+    public void close() throws IOException {
+        if (state == State.PENDING) {
+            writePending(false);
+        } else if (state != State.OUTSIDE) {
+            // Unterminated literal, written as it was received
+            target.write('"');
+            target.append(literal);
+            literal.setLength(0);
+        }
+        state = State.OUTSIDE;
+        target.flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        target.flush();
+    }
+
+    /**
+     * Handles a complete string literal. Literals without a placeholder are written right away, the others are held
+     * until the next token shows whether they are a field name or a value.
+     */
+    private void endLiteral() throws IOException {
+        if (literal.indexOf(PLACEHOLDER_BEGIN) < 0) {
+            target.write('"');
+            target.append(literal);
+            target.write('"');
+            literal.setLength(0);
+            state = State.OUTSIDE;
+        } else {
+            state = State.PENDING;
+        }
+    }
+
+    /**
+     * Writes the held literal, rewritten unless it is a field name, followed by the whitespace after it.
+     *
+     * @param fieldName whether the literal is a field name
+     */
+    private void writePending(boolean fieldName) throws IOException {
+        target.write('"');
+        if (fieldName) {
+            target.append(literal);
+        } else {
+            target.append(rewrite(literal));
+        }
+        target.write('"');
+        target.append(whitespace);
+        literal.setLength(0);
+        whitespace.setLength(0);
+    }
+
+    /**
+     * Decodes the raw literal, applies the replacements and encodes the result again.
+     *
+     * @param raw the raw contents of the literal, without the quotes
+     * @return the encoded contents of the rewritten literal
+     */
+    private CharSequence rewrite(CharSequence raw) {
+        String quoted = "\"" + raw + "\"";
+        try (JsonParser parser = JSON_FACTORY.createParser(quoted)) {
+            parser.nextToken();
+            String value = parser.getText();
+            String replaced = replacer.apply(value);
+            if (replaced.equals(value)) {
+                return raw;
+            }
+            return new String(JsonStringEncoder.getInstance().quoteAsString(replaced));
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Exception during JSON property replacement, leaving the value as is", e);
+            return raw;
+        }
+    }
+}
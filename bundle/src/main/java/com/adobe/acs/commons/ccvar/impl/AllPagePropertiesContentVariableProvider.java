@@ -24,31 +24,87 @@ import com.adobe.acs.commons.ccvar.PropertyConfigService;
 import com.adobe.acs.commons.ccvar.util.PropertyAggregatorUtil;
 import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.PageManager;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default {@link ContentVariableProvider} provided that will aggregate the current and inherited page properties
  * based on the request information passed in.
+ *
+ * The aggregated properties of each page are cached per user and invalidated whenever the page or one of its
+ * ancestors changes, since the inherited properties of a page depend on all of its ancestors.
  */
-@Component(service = ContentVariableProvider.class)
-public class AllPagePropertiesContentVariableProvider implements ContentVariableProvider {
+@Component(
+        service = {ContentVariableProvider.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=/content",
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        }
+)
+@Designate(ocd = AllPagePropertiesContentVariableProvider.Config.class)
+public class AllPagePropertiesContentVariableProvider implements ContentVariableProvider, ResourceChangeListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(AllPagePropertiesContentVariableProvider.class);
 
     public static final String PAGE_PROP_PREFIX = "page_properties";
     private static final String INHERITED_PAGE_PROP_PREFIX = "inherited_page_properties";
+    private static final String JCR_CONTENT = "/jcr:content";
+    private static final char KEY_SEPARATOR = '\u0000';
 
     @Reference
     private PropertyConfigService propertyConfigService;
 
+    /**
+     * Sorted index of the cached keys, so that a page and all of its descendants can be found as key ranges.
+     */
+    private final NavigableSet<String> cacheIndex = new ConcurrentSkipListSet<>();
+
+    /**
+     * Incremented on every change so that properties read before a change are not cached after it.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile Cache<String, Map<String, Object>> pageCache;
+
+    @Activate
+    protected void activate(Config config) {
+        cacheIndex.clear();
+        if (config.cache_size() > 0) {
+            pageCache = CacheBuilder.newBuilder()
+                    .maximumSize(config.cache_size())
+                    .removalListener(this::onRemoval)
+                    .build();
+        } else {
+            pageCache = null;
+        }
+    }
+
     @Override
     public void addProperties(Map<String, Object> map, SlingHttpServletRequest request) {
         Resource resource = request.getResource();
@@ -65,6 +121,44 @@ public class AllPagePropertiesContentVariableProvider implements ContentVariable
             return;
         }
 
+        Cache<String, Map<String, Object>> cache = pageCache;
+        if (cache == null) {
+            addPageProperties(map, page);
+            return;
+        }
+
+        String key = page.getPath() + KEY_SEPARATOR + StringUtils.defaultString(resource.getResourceResolver().getUserID());
+        Map<String, Object> pageProperties = cache.getIfPresent(key);
+        if (pageProperties == null) {
+            long current = generation.get();
+            Map<String, Object> properties = new HashMap<>();
+            addPageProperties(properties, page);
+            pageProperties = Collections.unmodifiableMap(properties);
+            if (current == generation.get()) {
+                // Indexed before it is cached, so that a concurrent change can always find it
+                cacheIndex.add(key);
+                cache.put(key, pageProperties);
+                if (current != generation.get()) {
+                    cache.invalidate(key);
+                }
+            }
+        }
+        // Properties already provided for this request are not overridden, as addPropertiesToMap does without
+        // shouldOverride when the properties are added directly
+        for (Map.Entry<String, Object> entry : pageProperties.entrySet()) {
+            if (!map.containsKey(entry.getKey())) {
+                map.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Add the current page properties and the properties inherited from all of its ancestors to the given map.
+     *
+     * @param map  the map that should be updated with the properties and their values
+     * @param page the current page
+     */
+    private void addPageProperties(Map<String, Object> map, Page page) {
         // Add current page properties
         addPagePropertiesToMap(map, page, PAGE_PROP_PREFIX, propertyConfigService);
 
@@ -100,4 +194,43 @@ public class AllPagePropertiesContentVariableProvider implements ContentVariable
         Page page = pageManager.getContainingPage(request.getResource());
         return page != null && page.getPath().startsWith("/content/");
     }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        Cache<String, Map<String, Object>> cache = pageCache;
+        if (cache == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        for (ResourceChange change : changes) {
+            String pagePath = StringUtils.substringBefore(change.getPath(), JCR_CONTENT);
+            // The page itself for every user, followed by all of its descendants
+            cache.invalidateAll(cacheIndex.subSet(pagePath + KEY_SEPARATOR, pagePath + (char) (KEY_SEPARATOR + 1)));
+            cache.invalidateAll(cacheIndex.subSet(pagePath + "/", pagePath + (char) ('/' + 1)));
+        }
+    }
+
+    private void onRemoval(RemovalNotification<String, Map<String, Object>> notification) {
+        // A replaced entry is still cached under the same key
+        if (notification.getCause() != RemovalCause.REPLACED) {
+            cacheIndex.remove(notification.getKey());
+        }
+    }
+
+    @ObjectClassDefinition(
+            name = "ACS AEM Commons - Contextual Content Variable All Page Properties Provider"
+    )
+    @interface Config {
+
+        /**
+         * The maximum number of aggregated page property maps to cache.
+         *
+         * @return The cache size
+         */
+        @AttributeDefinition(
+                name = "Cache Size",
+                description = "Maximum number of pages (per user) whose aggregated properties are cached. 0 disables the cache."
+        )
+        int cache_size() default 1000;
+    }
 }
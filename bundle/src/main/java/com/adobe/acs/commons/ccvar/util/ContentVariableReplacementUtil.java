@@ -19,6 +19,7 @@
  */
 package com.adobe.acs.commons.ccvar.util;
 
+import com.adobe.acs.commons.ccvar.PropertyConfigService;
 import com.adobe.acs.commons.ccvar.TransformAction;
 import org.apache.commons.lang3.StringUtils;
 
@@ -116,13 +117,61 @@ public class ContentVariableReplacementUtil {
      * @return The fully replaced value
      */
     public static String doReplacement(String input, String key, String replacement, TransformAction action) {
+        return input.replace(getPlaceholder(key), transform(replacement, action));
+    }
+
+    /**
+     * Replaces every placeholder found in the input with its value in a single pass over the input. Placeholders
+     * whose key is not present in the map are left untouched, and replaced values are not scanned again. Actions and
+     * escaping are applied the same way as {@link #doReplacement(String, String, String, TransformAction)}.
+     *
+     * @param input The input string containing the placeholders
+     * @param contentVariableReplacements Current map of content variable keys and values
+     * @param propertyConfigService The service used to look up the action of each placeholder key
+     * @return The fully replaced value, or the input itself when nothing was replaced
+     */
+    public static String replacePlaceholders(String input, Map<String, Object> contentVariableReplacements,
+                                             PropertyConfigService propertyConfigService) {
+        if (input == null || !input.contains(PLACEHOLDER_BEGIN)) {
+            return input;
+        }
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(input);
+        StringBuilder output = null;
+        int last = 0;
+        while (matcher.find()) {
+            String key = matcher.group(1);
+            if (!hasKey(contentVariableReplacements, key)) {
+                continue;
+            }
+            if (output == null) {
+                output = new StringBuilder(input.length() + 16);
+            }
+            String replacement = String.valueOf(getValue(contentVariableReplacements, key));
+            output.append(input, last, matcher.start())
+                    .append(transform(replacement, propertyConfigService.getAction(key)));
+            last = matcher.end();
+        }
+        if (output == null) {
+            return input;
+        }
+        return output.append(input, last, input.length()).toString();
+    }
+
+    /**
+     * Executes the optional action on the value and applies the base escaping unless the action disables it.
+     *
+     * @param replacement The value to be transformed
+     * @param action The action found in the placeholder key
+     * @return The transformed value
+     */
+    private static String transform(String replacement, TransformAction action) {
         if (action != null) {
             if (action.disableEscaping()) {
-                return input.replace(getPlaceholder(key), action.execute(replacement));
+                return action.execute(replacement);
             }
-            return input.replace(getPlaceholder(key), baseEscaping(action.execute(replacement)));
+            return baseEscaping(action.execute(replacement));
         }
-        return input.replace(getPlaceholder(key), baseEscaping(replacement));
+        return baseEscaping(replacement);
     }
 
     /**
@@ -20,40 +20,46 @@
 
 package com.adobe.acs.commons.errorpagehandler.cache.impl;
 
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 class CacheEntry {
-    private String data;
+    private static final byte[] EMPTY = new byte[0];
+
+    /* Stored as UTF-8, which is about half the size of the String for typical markup */
+    private byte[] data;
 
     private final AtomicInteger hits;
 
     private final AtomicInteger misses;
 
+    private final AtomicBoolean refreshing;
+
     private Date expiresAt;
 
+    private Date refreshAt;
+
     public CacheEntry() {
         this.hits = new AtomicInteger();
         this.misses = new AtomicInteger();
-        this.data = "";
+        this.refreshing = new AtomicBoolean();
+        this.data = EMPTY;
         this.expiresAt = new Date(0);
+        this.refreshAt = new Date(0);
     }
 
     public final String getData() {
-        if (data == null) {
-            return "";
-        } else {
-            return data;
-        }
+        return new String(data, StandardCharsets.UTF_8);
     }
 
     public final void setData(final String data) {
         if (data == null) {
-            this.data = "";
+            this.data = EMPTY;
         } else {
-            this.data = data;
+            this.data = data.getBytes(StandardCharsets.UTF_8);
         }
     }
 
@@ -83,6 +89,33 @@ class CacheEntry {
         this.expiresAt = calendar.getTime();
     }
 
+    /**
+     * @param date the date to check
+     * @return true if the entry is due to be re-rendered ahead of its expiry
+     */
+    public final boolean isRefreshDue(final Date date) {
+        return refreshAt.before(date);
+    }
+
+    public final void setRefreshIn(final int refreshInSeconds) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.SECOND, refreshInSeconds);
+        this.refreshAt = calendar.getTime();
+    }
+
+    /**
+     * Claims the refresh of this entry, so only one request re-renders it.
+     *
+     * @return true if the caller should refresh the entry
+     */
+    public final boolean startRefresh() {
+        return refreshing.compareAndSet(false, true);
+    }
+
+    public final void endRefresh() {
+        refreshing.set(false);
+    }
+
     public final float getHitRate() {
         final int total = this.getTotal();
         if (total == 0) {
@@ -106,6 +139,6 @@ class CacheEntry {
     }
 
     final int getBytes() {
-        return getData().getBytes(Charset.forName("UTF-8")).length;
+        return data.length;
     }
 }
@@ -22,6 +22,11 @@ package com.adobe.acs.commons.errorpagehandler.cache.impl;
 
 import com.adobe.acs.commons.util.ResourceDataUtil;
 import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
@@ -42,28 +47,68 @@ import javax.management.openmbean.TabularType;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Error page cache, bounded by the UTF-8 size of the cached pages.
+ *
+ * Concurrent misses for the same error page wait for a single render. An entry in the last fifth of its TTL
+ * is re-rendered by the next request to see it while other requests keep being served the cached page, so a
+ * popular error page does not expire under load. This refresh runs on a request thread because rendering an
+ * error page needs the request being handled.
+ */
 public final class ErrorPageCacheImpl extends AnnotatedStandardMBean implements ErrorPageCache, ErrorPageCacheMBean {
     private static final Logger log = LoggerFactory.getLogger(ErrorPageCacheImpl.class);
 
     private static final int KB_IN_BYTES = 1000;
 
-    private final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+    public static final int DEFAULT_MAX_SIZE_IN_KB = 10 * KB_IN_BYTES;
+
+    /* Entries are refreshed in the last 1/REFRESH_WINDOW_DIVISOR of their TTL */
+    private static final int REFRESH_WINDOW_DIVISOR = 5;
+
+    private final Cache<String, CacheEntry> cache;
 
     private final int ttl;
 
+    private final long maxSizeInKB;
+
     private final boolean serveAuthenticatedFromCache;
 
+    /* Counters of entries which have expired, been evicted or been refreshed, so totals survive them */
+    private final LongAdder retiredHits = new LongAdder();
+
+    private final LongAdder retiredMisses = new LongAdder();
+
+    private final LongAdder refreshes = new LongAdder();
+
 
     public ErrorPageCacheImpl(int ttl, boolean serveAuthenticatedFromCache) throws NotCompliantMBeanException {
+        this(ttl, serveAuthenticatedFromCache, DEFAULT_MAX_SIZE_IN_KB);
+    }
+
+    public ErrorPageCacheImpl(int ttl, boolean serveAuthenticatedFromCache, long maxSizeInKB)
+            throws NotCompliantMBeanException {
         super(ErrorPageCacheMBean.class);
         this.ttl = ttl;
+        this.maxSizeInKB = maxSizeInKB;
         this.serveAuthenticatedFromCache = serveAuthenticatedFromCache;
+        this.cache = CacheBuilder.newBuilder()
+                .recordStats()
+                // A single segment so the whole size bound is available to every error page
+                .concurrencyLevel(1)
+                .maximumWeight(maxSizeInKB * KB_IN_BYTES)
+                .<String, CacheEntry>weigher((path, entry) -> path.length() + entry.getBytes())
+                .expireAfterWrite(Math.max(0, ttl), TimeUnit.SECONDS)
+                .<String, CacheEntry>removalListener(this::onRemoval)
+                .build();
 
         log.info("Starting ACS AEM Commons Error Page Handler Cache");
         log.info(" > TTL (in seconds): {}", ttl);
+        log.info(" > Max size (in KB): {}", maxSizeInKB);
         log.info(" > Serve authenticated requests from cache: {}", serveAuthenticatedFromCache);
     }
 
@@ -80,55 +125,102 @@ public final class ErrorPageCacheImpl extends AnnotatedStandardMBean implements
         }
 
         final long start = System.currentTimeMillis();
-        CacheEntry cacheEntry = cache.get(path);
-        final boolean newEntry = cacheEntry == null;
-
-        if (newEntry || cacheEntry.isExpired(new Date())) {
+        final Date now = new Date();
+        final CacheEntry cacheEntry = cache.getIfPresent(path);
+
+        if (cacheEntry != null && !cacheEntry.isExpired(now)) {
+            if (cacheEntry.isRefreshDue(now) && cacheEntry.startRefresh()) {
+                // Refresh ahead of expiry; concurrent requests are served the current entry meanwhile
+                try {
+                    final CacheEntry refreshed = render(path, request, response);
+                    cache.put(path, refreshed);
+                    refreshes.increment();
+
+                    if (log.isDebugEnabled()) {
+                        final long time = System.currentTimeMillis() - start;
+                        log.debug("Served cache REFRESH for [ {} ] in [ {} ] ms", path, time);
+                    }
+
+                    return refreshed.getData();
+                } finally {
+                    cacheEntry.endRefresh();
+                }
+            }
 
-            // Cache Miss
-            String data = ResourceDataUtil.getIncludeAsString(path, request, response);
+            // Cache Hit
+            cacheEntry.incrementHits();
 
-            if (data == null) {
-                log.debug("Error page representation to cache is null. Setting to empty string.");
-                data = "";
+            if (log.isDebugEnabled()) {
+                final long time = System.currentTimeMillis() - start;
+                log.debug("Served cache HIT for [ {} ] in [ {} ] ms", path, time);
             }
 
-            if (newEntry) {
-                cacheEntry = new CacheEntry();
-            }
+            return cacheEntry.getData();
+        }
 
-            cacheEntry.setData(data);
-            cacheEntry.setExpiresIn(ttl);
-            cacheEntry.incrementMisses();
+        if (cacheEntry != null && cache.asMap().remove(path, cacheEntry)) {
+            // An explicit removal is not counted by onRemoval, so keep the expired entry's counts here
+            retire(cacheEntry);
+        }
 
-            if (newEntry) {
-                // Add entry to cache
-                cache.put(path, cacheEntry);
+        // Cache Miss; concurrent misses for the same error page wait for this render
+        final AtomicBoolean rendered = new AtomicBoolean();
+        final CacheEntry loaded;
+        try {
+            loaded = cache.get(path, () -> {
+                rendered.set(true);
+                return render(path, request, response);
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new IllegalStateException("Could not render error page " + path, e.getCause());
+        }
 
-            if (log.isDebugEnabled()) {
-                final long time = System.currentTimeMillis() - start;
-                log.debug("Served cache MISS for [ {} ] in [ {} ] ms", path, time);
-            }
+        if (!rendered.get()) {
+            // Served the render of a concurrent request
+            loaded.incrementHits();
+        }
 
-            return data;
-        } else {
-            // Cache Hit
+        if (log.isDebugEnabled()) {
+            final long time = System.currentTimeMillis() - start;
+            log.debug("Served cache {} for [ {} ] in [ {} ] ms", rendered.get() ? "MISS" : "HIT", path, time);
+        }
 
-            final String data = cacheEntry.getData();
+        return loaded.getData();
+    }
 
-            cacheEntry.incrementHits();
-            cache.put(path, cacheEntry);
+    private CacheEntry render(final String path,
+                              final SlingHttpServletRequest request,
+                              final SlingHttpServletResponse response) {
+        String data = ResourceDataUtil.getIncludeAsString(path, request, response);
 
-            if (log.isDebugEnabled()) {
-                final long time = System.currentTimeMillis() - start;
-                log.debug("Served cache HIT for [ {} ] in [ {} ] ms", path, time);
-            }
+        if (data == null) {
+            log.debug("Error page representation to cache is null. Setting to empty string.");
+            data = "";
+        }
+
+        final CacheEntry cacheEntry = new CacheEntry();
+        cacheEntry.setData(data);
+        cacheEntry.setExpiresIn(ttl);
+        cacheEntry.setRefreshIn(ttl - ttl / REFRESH_WINDOW_DIVISOR);
+        cacheEntry.incrementMisses();
+        return cacheEntry;
+    }
 
-            return data;
+    private void onRemoval(final RemovalNotification<String, CacheEntry> notification) {
+        final CacheEntry cacheEntry = notification.getValue();
+        if (cacheEntry != null && notification.getCause() != RemovalCause.EXPLICIT) {
+            retire(cacheEntry);
         }
     }
 
+    private void retire(final CacheEntry cacheEntry) {
+        retiredHits.add(cacheEntry.getHits());
+        retiredMisses.add(cacheEntry.getMisses());
+    }
+
     private boolean isAnonymousRequest(final SlingHttpServletRequest request) {
         return (request.getAuthType() == null || request.getRemoteUser() == null);
     }
@@ -142,29 +234,29 @@ public final class ErrorPageCacheImpl extends AnnotatedStandardMBean implements
 
     @Override
     public final int getTotalHits() {
-        int hits = 0;
+        long hits = retiredHits.sum();
 
-        for (final CacheEntry entry : this.cache.values()) {
+        for (final CacheEntry entry : this.cache.asMap().values()) {
             hits = hits + entry.getHits();
         }
 
-        return hits;
+        return (int) hits;
     }
 
     @Override
     public final int getCacheEntriesCount() {
-        return this.cache.size();
+        return (int) this.cache.size();
     }
 
     @Override
     public final int getTotalMisses() {
-        int misses = 0;
+        long misses = retiredMisses.sum();
 
-        for (final Map.Entry<String, CacheEntry> entry : this.cache.entrySet()) {
-            misses = misses + entry.getValue().getMisses();
+        for (final CacheEntry entry : this.cache.asMap().values()) {
+            misses = misses + entry.getMisses();
         }
 
-        return misses;
+        return (int) misses;
     }
 
     @Override
@@ -176,13 +268,28 @@ public final class ErrorPageCacheImpl extends AnnotatedStandardMBean implements
     public final long getCacheSizeInKB() {
         long bytes = 0;
 
-        for (final CacheEntry entry : this.cache.values()) {
+        for (final CacheEntry entry : this.cache.asMap().values()) {
             bytes = bytes + entry.getBytes();
         }
 
         return bytes / KB_IN_BYTES;
     }
 
+    @Override
+    public final long getMaxCacheSizeInKB() {
+        return maxSizeInKB;
+    }
+
+    @Override
+    public final long getTotalEvictions() {
+        return this.cache.stats().evictionCount();
+    }
+
+    @Override
+    public final long getTotalRefreshes() {
+        return refreshes.sum();
+    }
+
 
     @SuppressWarnings("squid:S1192")
     public final TabularData getCacheEntries() throws OpenDataException {
@@ -203,7 +310,7 @@ public final class ErrorPageCacheImpl extends AnnotatedStandardMBean implements
                         new String[]{"errorPage" })
         );
 
-        for (final Map.Entry<String, CacheEntry> entry : this.cache.entrySet()) {
+        for (final Map.Entry<String, CacheEntry> entry : this.cache.asMap().entrySet()) {
             final CacheEntry cacheEntry = entry.getValue();
 
             final Map<String, Object> data = new HashMap<String, Object>();
@@ -224,12 +331,14 @@ public final class ErrorPageCacheImpl extends AnnotatedStandardMBean implements
 
     @Override
     public final void clearCache() {
-        this.cache.clear();
+        this.cache.invalidateAll();
+        this.retiredHits.reset();
+        this.retiredMisses.reset();
     }
 
     @Override
     public final String getCacheData(final String errorPage) {
-        final CacheEntry cacheEntry = this.cache.get(StringUtils.trim(errorPage));
+        final CacheEntry cacheEntry = this.cache.getIfPresent(StringUtils.trim(errorPage));
         if (cacheEntry == null) {
             return "";
         }
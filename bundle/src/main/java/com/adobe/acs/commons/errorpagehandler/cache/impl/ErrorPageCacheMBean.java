@@ -46,6 +46,16 @@ public interface ErrorPageCacheMBean {
     @SuppressWarnings("checkstyle:abbreviationaswordinname")
     long getCacheSizeInKB();
 
+    @Description("Maximum cache size in KB")
+    @SuppressWarnings("checkstyle:abbreviationaswordinname")
+    long getMaxCacheSizeInKB();
+
+    @Description("Total entries evicted to stay within the maximum cache size")
+    long getTotalEvictions();
+
+    @Description("Total entries re-rendered ahead of their expiry")
+    long getTotalRefreshes();
+
     @Description("Details for each cache entry")
     TabularData getCacheEntries() throws OpenDataException;
 
@@ -47,6 +47,8 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.api.wrappers.SlingHttpServletRequestWrapper;
 import org.apache.sling.auth.core.AuthUtil;
 import org.apache.sling.commons.auth.Authenticator;
@@ -71,6 +73,7 @@ import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.SortedMap;
@@ -205,6 +208,12 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
     private static final String PROP_TTL = "cache.ttl";
     private static final String LEGACY_PROP_TTL = "ttl";
 
+    @Property(label = "Max cache size (in KB)",
+            description = "Maximum size of all cached error pages in KB. Least recently used error pages are "
+                    + "evicted beyond this size. [ Default: 10000 ]",
+            intValue = ErrorPageCacheImpl.DEFAULT_MAX_SIZE_IN_KB)
+    private static final String PROP_MAX_SIZE_IN_KB = "cache.max-size-kb";
+
     /* Enable/Disables error images */
     private static final boolean DEFAULT_ERROR_IMAGES_ENABLED = false;
 
@@ -243,6 +252,28 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
             value = { "png", "jpeg", "jpg", "gif" })
     private static final String PROP_ERROR_IMAGE_EXTENSIONS = "error-images.extensions";
 
+    /* Error pages index */
+    private static final String[] DEFAULT_INDEX_PATHS = {};
+
+    @Property(
+            label = "Error pages index paths",
+            description = "Content roots under which the pages setting the errorPages property are indexed in memory "
+                    + "and kept current from resource changes, so error pages are found without repository reads. "
+                    + "The index is built by walking the page tree in the background. "
+                    + "Leave empty to look up the errorPages property on each error. [ Optional ] [ Default: empty ]",
+            cardinality = Integer.MAX_VALUE,
+            value = {})
+    private static final String PROP_INDEX_PATHS = "error-page.index.paths";
+
+    private static final int DEFAULT_INDEX_MAX_NODES = 100000;
+
+    @Property(
+            label = "Error pages index node limit",
+            description = "Maximum number of nodes walked to build the error pages index. If the content roots hold "
+                    + "more, the errorPages property is looked up on each error instead. [ Optional ] [ Default: 100000 ]",
+            intValue = DEFAULT_INDEX_MAX_NODES)
+    private static final String PROP_INDEX_MAX_NODES = "error-page.index.max-nodes";
+
     @Reference
     private ResourceResolverFactory resourceResolverFactory;
 
@@ -261,6 +292,10 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
 
     private ServiceRegistration cacheRegistration;
 
+    private ErrorPagesIndex errorPagesIndex;
+
+    private ServiceRegistration errorPagesIndexRegistration;
+
     /**
      * Find the JCR full path to the most appropriate Error Page.
      *
@@ -341,21 +376,14 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
      */
     private String findErrorsPath(SlingHttpServletRequest request, Resource errorResource) {
         final String errorResourcePath = errorResource.getPath();
-        Resource real = findFirstRealParentOrSelf(request, errorResource);
+        final ErrorPagesIndex index = this.errorPagesIndex;
 
-        String errorsPath = null;
-        if (real != null) {
-            log.trace("Found real resource at [ {} ]", real.getPath());
-            if (!JcrConstants.JCR_CONTENT.equals(real.getName())) {
-                Resource tmp = real.getChild(JcrConstants.JCR_CONTENT);
-                if (tmp != null) {
-                    real = tmp;
-                }
-            }
-            final InheritanceValueMap pageProperties = new HierarchyNodeInheritanceValueMap(real);
-            errorsPath = pageProperties.getInherited(ERROR_PAGE_PROPERTY, String.class);
+        String errorsPath;
+        if (index != null && index.isReady() && index.covers(errorResourcePath)) {
+            errorsPath = index.find(errorResourcePath);
+            log.trace("Found errors path [ {} ] in the index for [ {} ]", errorsPath, errorResourcePath);
         } else {
-            log.trace("No page found for [ {} ]", errorResource);
+            errorsPath = findInheritedErrorsPath(request, errorResource);
         }
 
         if (errorsPath == null) {
@@ -373,6 +401,32 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
         return errorsPath;
     }
 
+    /**
+     * Looks up the errors path inherited by the first real parent of the error resource.
+     *
+     * @param request the request object
+     * @param errorResource the error resource
+     * @return the inherited errors path or null if none is set
+     */
+    private String findInheritedErrorsPath(SlingHttpServletRequest request, Resource errorResource) {
+        Resource real = findFirstRealParentOrSelf(request, errorResource);
+
+        if (real == null) {
+            log.trace("No page found for [ {} ]", errorResource);
+            return null;
+        }
+
+        log.trace("Found real resource at [ {} ]", real.getPath());
+        if (!JcrConstants.JCR_CONTENT.equals(real.getName())) {
+            Resource tmp = real.getChild(JcrConstants.JCR_CONTENT);
+            if (tmp != null) {
+                real = tmp;
+            }
+        }
+        final InheritanceValueMap pageProperties = new HierarchyNodeInheritanceValueMap(real);
+        return pageProperties.getInherited(ERROR_PAGE_PROPERTY, String.class);
+    }
+
     /**
      * Gets the resource object for the provided path.
      * <p>
@@ -830,6 +884,14 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
             cacheRegistration.unregister();
             cacheRegistration = null;
         }
+        if (errorPagesIndexRegistration != null) {
+            errorPagesIndexRegistration.unregister();
+            errorPagesIndexRegistration = null;
+        }
+        if (errorPagesIndex != null) {
+            errorPagesIndex.close();
+            errorPagesIndex = null;
+        }
     }
 
     @SuppressWarnings("squid:S1149")
@@ -863,6 +925,10 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
                 PropertiesUtil.toStringArray(config.get(legacyPrefix + PROP_SEARCH_PATHS),
                         DEFAULT_SEARCH_PATHS)));
 
+        final String[] indexPaths = PropertiesUtil.toStringArray(config.get(PROP_INDEX_PATHS), DEFAULT_INDEX_PATHS);
+        final int indexMaxNodes = PropertiesUtil.toInteger(config.get(PROP_INDEX_MAX_NODES), DEFAULT_INDEX_MAX_NODES);
+        configureErrorPagesIndex(componentContext, indexPaths, indexMaxNodes);
+
         /** Not Found Handling **/
         this.notFoundBehavior = PropertiesUtil.toString(config.get(PROP_NOT_FOUND_DEFAULT_BEHAVIOR),
                 DEFAULT_NOT_FOUND_DEFAULT_BEHAVIOR);
@@ -884,8 +950,11 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
         boolean serveAuthenticatedFromCache = PropertiesUtil.toBoolean(config.get(PROP_SERVE_AUTHENTICATED_FROM_CACHE),
                 PropertiesUtil.toBoolean(LEGACY_PROP_SERVE_AUTHENTICATED_FROM_CACHE,
                         DEFAULT_SERVE_AUTHENTICATED_FROM_CACHE));
+
+        long maxSizeInKB = PropertiesUtil.toLong(config.get(PROP_MAX_SIZE_IN_KB),
+                ErrorPageCacheImpl.DEFAULT_MAX_SIZE_IN_KB);
         try {
-            cache = new ErrorPageCacheImpl(ttl, serveAuthenticatedFromCache);
+            cache = new ErrorPageCacheImpl(ttl, serveAuthenticatedFromCache, maxSizeInKB);
 
             Dictionary<String, Object> serviceProps = new Hashtable<String, Object>();
             serviceProps.put("jmx.objectname", "com.adobe.acs.commons:type=ErrorPageHandlerCache");
@@ -941,10 +1010,13 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
         pw.printf("Error Page Extension: %s", this.errorPageExtension).println();
         pw.printf("Fallback Error Page Name: %s", this.fallbackErrorName).println();
 
+        pw.printf("Error Pages Index - Paths: %s", Arrays.toString(indexPaths)).println();
+
         pw.printf("Resource Not Found - Behavior: %s", this.notFoundBehavior).println();
         pw.printf("Resource Not Found - Exclusion Path Patterns %s", Arrays.toString(tmpNotFoundExclusionPatterns)).println();
 
         pw.printf("Cache - TTL: %s", ttl).println();
+        pw.printf("Cache - Max size (in KB): %s", maxSizeInKB).println();
         pw.printf("Cache - Serve Authenticated: %s", serveAuthenticatedFromCache).println();
 
         pw.printf("Error Images - Enabled: %s", this.errorImagesEnabled).println();
@@ -954,6 +1026,42 @@ public final class ErrorPageHandlerImpl implements ErrorPageHandlerService {
         log.debug(sw.toString());
     }
 
+    /**
+     * Registers the error pages index for resource changes under the content roots and builds it in the background.
+     * The errorPages property is looked up on each error until the index is ready.
+     *
+     * @param componentContext the component context
+     * @param paths the content roots to index
+     * @param maxNodes the maximum number of nodes walked to build the index
+     */
+    @SuppressWarnings("squid:S1149")
+    private void configureErrorPagesIndex(ComponentContext componentContext, String[] paths, int maxNodes) {
+        final List<String> roots = new ArrayList<String>();
+        for (final String path : paths) {
+            if (StringUtils.startsWith(StringUtils.strip(path), "/")) {
+                roots.add(StringUtils.strip(path));
+            }
+        }
+
+        if (roots.isEmpty()) {
+            return;
+        }
+
+        final ErrorPagesIndex index = new ErrorPagesIndex(resourceResolverFactory, SERVICE_NAME,
+                roots.toArray(new String[roots.size()]), maxNodes);
+
+        // Register before building so no change is missed while the index is built
+        Dictionary<String, Object> serviceProps = new Hashtable<String, Object>();
+        serviceProps.put(ResourceChangeListener.PATHS, index.getRoots());
+        serviceProps.put(ResourceChangeListener.CHANGES, new String[]{ ResourceChange.ChangeType.ADDED.name(),
+                ResourceChange.ChangeType.CHANGED.name(), ResourceChange.ChangeType.REMOVED.name() });
+        errorPagesIndexRegistration = componentContext.getBundleContext().registerService(
+                ResourceChangeListener.class.getName(), index, serviceProps);
+
+        this.errorPagesIndex = index;
+        index.buildAsync();
+    }
+
     /**
      * Convert OSGi Property storing Root content paths:Error page paths into a SortMap.
      *
@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.errorpagehandler.impl;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the pages under the configured content roots whose jcr:content (or, lacking one, the page
+ * itself) sets the {@value ErrorPageHandlerImpl#ERROR_PAGE_PROPERTY} property.
+ *
+ * The index is built by a tree walk over the page hierarchy, bounded to a maximum number of nodes and run in the
+ * background, and kept current from resource change events, so the errors path for an error resource is found by
+ * a longest-prefix match over its path without reading the repository. Until the index is built, or after a walk
+ * or update failed, it is not ready and the caller must fall back to looking up the property. Paths are matched as
+ * resolved, so error pages set above a sling:alias'ed page apply to the page's repository path.
+ */
+final class ErrorPagesIndex implements ResourceChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(ErrorPagesIndex.class);
+
+    private static final String JCR_CONTENT_SUFFIX = "/" + JcrConstants.JCR_CONTENT;
+
+    private final ResourceResolverFactory resourceResolverFactory;
+
+    private final String serviceName;
+
+    private final String[] roots;
+
+    private final int maxNodes;
+
+    /* Page path -> errorPages property value */
+    private final Map<String, String> errorPages = new ConcurrentHashMap<>();
+
+    private volatile boolean ready = false;
+
+    private volatile boolean closed = false;
+
+    ErrorPagesIndex(ResourceResolverFactory resourceResolverFactory, String serviceName, String[] roots, int maxNodes) {
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.serviceName = serviceName;
+        this.roots = roots.clone();
+        this.maxNodes = maxNodes;
+    }
+
+    String[] getRoots() {
+        return roots.clone();
+    }
+
+    /**
+     * @param path the path of the error resource
+     * @return true if the path is at or below one of the indexed content roots
+     */
+    boolean covers(final String path) {
+        for (final String root : roots) {
+            if (StringUtils.equals(path, root) || StringUtils.startsWith(path, StringUtils.removeEnd(root, "/") + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return errorPages.size();
+    }
+
+    /**
+     * @return true if the index is built and current, false if the errorPages property must be looked up
+     */
+    boolean isReady() {
+        return ready && !closed;
+    }
+
+    /**
+     * Builds the index in a background thread, so activation does not wait for the tree walk.
+     */
+    void buildAsync() {
+        final Thread thread = new Thread(this::build, "ACS AEM Commons - Error Pages Index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops a running build and marks the index as not ready.
+     */
+    void close() {
+        closed = true;
+        ready = false;
+    }
+
+    /**
+     * Indexes every page under the content roots.
+     *
+     * @return true if the index could be built
+     */
+    boolean build() {
+        try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+            int visited = 0;
+            for (final String root : roots) {
+                visited += index(resourceResolver, root, maxNodes - visited);
+                if (visited >= maxNodes) {
+                    log.warn("Stopped indexing the error pages after [ {} ] nodes under {}, the errorPages property "
+                            + "is looked up on each error instead", visited, Arrays.toString(roots));
+                    return false;
+                }
+            }
+            if (closed) {
+                return false;
+            }
+            ready = true;
+            log.info("Indexed [ {} ] pages setting error pages in [ {} ] nodes under {}", errorPages.size(), visited,
+                    Arrays.toString(roots));
+            return true;
+        } catch (LoginException e) {
+            log.error("Could not get the service resource resolver to index the error pages", e);
+            return false;
+        } catch (RuntimeException e) {
+            log.error("Could not index the error pages, the errorPages property is looked up on each error instead", e);
+            return false;
+        }
+    }
+
+    /**
+     * Finds the errors path set on the nearest page at or above the path.
+     *
+     * @param path the path of the error resource
+     * @return the errors path, or null if no page at or above the path sets one
+     */
+    String find(final String path) {
+        String candidate = StringUtils.substringBefore(path, JCR_CONTENT_SUFFIX);
+
+        while (StringUtils.isNotEmpty(candidate)) {
+            final String errorsPath = errorPages.get(candidate);
+            if (errorsPath != null) {
+                return errorsPath;
+            }
+            candidate = StringUtils.substringBeforeLast(candidate, "/");
+        }
+
+        return null;
+    }
+
+    @Override
+    public void onChange(final List<ResourceChange> changes) {
+        try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+            for (final ResourceChange change : changes) {
+                onChange(resourceResolver, change.getType(), change.getPath());
+            }
+        } catch (LoginException | RuntimeException e) {
+            // A missed change leaves the index stale, so fall back to the property lookup from now on
+            ready = false;
+            log.error("Could not update the error pages index, the errorPages property is looked up on each error "
+                    + "instead", e);
+        }
+    }
+
+    void onChange(final ResourceResolver resourceResolver, final ResourceChange.ChangeType type, final String path) {
+        if (StringUtils.contains(path, JCR_CONTENT_SUFFIX + "/")) {
+            // Components below a page's jcr:content cannot set the page's error pages
+            return;
+        }
+
+        if (StringUtils.endsWith(path, JCR_CONTENT_SUFFIX) || type == ResourceChange.ChangeType.CHANGED) {
+            update(resourceResolver, StringUtils.removeEnd(path, JCR_CONTENT_SUFFIX));
+        } else {
+            // A page (or folder) was added, moved or removed with all its descendants
+            remove(path);
+            if (type == ResourceChange.ChangeType.ADDED && index(resourceResolver, path, maxNodes) >= maxNodes) {
+                ready = false;
+                log.warn("Stopped indexing the error pages after [ {} ] nodes under [ {} ], the errorPages property "
+                        + "is looked up on each error instead", maxNodes, path);
+            }
+        }
+    }
+
+    private void update(final ResourceResolver resourceResolver, final String pagePath) {
+        Resource content = resourceResolver.getResource(pagePath + JCR_CONTENT_SUFFIX);
+        if (content == null) {
+            content = resourceResolver.getResource(pagePath);
+        }
+        final String errorsPath = content == null ? null
+                : content.getValueMap().get(ErrorPageHandlerImpl.ERROR_PAGE_PROPERTY, String.class);
+
+        if (StringUtils.isNotBlank(errorsPath)) {
+            errorPages.put(pagePath, errorsPath);
+        } else {
+            errorPages.remove(pagePath);
+        }
+    }
+
+    private void remove(final String path) {
+        final String prefix = StringUtils.removeEnd(path, "/") + "/";
+        errorPages.keySet().removeIf(pagePath -> pagePath.equals(path) || pagePath.startsWith(prefix));
+    }
+
+    /**
+     * Walks the page hierarchy at and below the path, without descending into jcr:content nodes.
+     *
+     * @return the number of nodes visited, which is at most the limit
+     */
+    private int index(final ResourceResolver resourceResolver, final String path, final int limit) {
+        final Deque<Resource> pending = new ArrayDeque<>();
+        final Resource start = resourceResolver.getResource(path);
+        if (start != null) {
+            pending.add(start);
+        }
+
+        int visited = 0;
+        while (!pending.isEmpty() && visited < limit && !closed) {
+            final Resource resource = pending.poll();
+            visited++;
+            update(resourceResolver, resource.getPath());
+
+            final Iterator<Resource> children = resource.listChildren();
+            while (children.hasNext()) {
+                final Resource child = children.next();
+                if (!JcrConstants.JCR_CONTENT.equals(child.getName())) {
+                    pending.add(child);
+                }
+            }
+        }
+        return pending.isEmpty() ? visited : limit;
+    }
+
+    private ResourceResolver getServiceResourceResolver() throws LoginException {
+        return resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, (Object) serviceName));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.etag.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.servlet.ServletOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adobe.acs.commons.util.BufferedServletOutput.ResponseWriteMethod;
+import com.adobe.acs.commons.util.ServletOutputStreamWrapper;
+
+/** A wrapper around a {@link SlingHttpServletResponse} which digests the output written to {@link #getWriter()} (and optionally
+ * {@link #getOutputStream()}) while buffering it in a {@link DigestingSpillOutputStream}. The writer output is digested in the
+ * response's character encoding, so it is neither kept as a string nor encoded a second time. The response cannot be committed via
+ * {@link #flushBuffer()} but only via {@link #close()}, which spools the buffer to the wrapped response.
+ * <p/>
+ * Hint: This servlet wrapper must extend {@link SlingHttpServletResponseWrapper}, as otherwise RequestData.unwrap() throws exceptions */
+class DigestingSlingHttpServletResponse extends SlingHttpServletResponseWrapper implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DigestingSlingHttpServletResponse.class);
+
+    private final DigestingSpillOutputStream buffer;
+    private final boolean bufferOutputStream;
+    private ServletOutputStream servletOutputStream;
+    private PrintWriter printWriter;
+    private Charset charset;
+    private ResponseWriteMethod writeMethod;
+    private boolean flushWrappedBuffer;
+    private boolean flushBufferOnClose = true;
+
+    /** @param wrappedResponse the wrapped response
+     * @param messageDigestAlgorithm the algorithm of the message digest
+     * @param bufferOutputStream {@code true} to also digest and buffer the output stream, otherwise only the writer is
+     * @param spillThreshold the number of bytes kept in memory before the buffer is spilled to a temporary file
+     * @throws NoSuchAlgorithmException in case the algorithm is not supported */
+    DigestingSlingHttpServletResponse(SlingHttpServletResponse wrappedResponse, String messageDigestAlgorithm,
+            boolean bufferOutputStream, int spillThreshold) throws NoSuchAlgorithmException {
+        super(wrappedResponse);
+        this.buffer = new DigestingSpillOutputStream(MessageDigest.getInstance(messageDigestAlgorithm), spillThreshold);
+        this.bufferOutputStream = bufferOutputStream;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (ResponseWriteMethod.WRITER.equals(writeMethod)) {
+            throw new IllegalStateException("Cannot invoke getOutputStream() once getWriter() has been called.");
+        }
+        writeMethod = ResponseWriteMethod.OUTPUTSTREAM;
+        if (!bufferOutputStream) {
+            return super.getOutputStream();
+        }
+        if (servletOutputStream == null) {
+            servletOutputStream = new ServletOutputStreamWrapper(buffer);
+        }
+        return servletOutputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (ResponseWriteMethod.OUTPUTSTREAM.equals(writeMethod)) {
+            throw new IllegalStateException("Cannot invoke getWriter() once getOutputStream() has been called.");
+        }
+        writeMethod = ResponseWriteMethod.WRITER;
+        if (printWriter == null) {
+            charset = getCharset();
+            printWriter = new PrintWriter(new OutputStreamWriter(buffer, charset));
+        }
+        return printWriter;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (isBuffered()) {
+            log.debug("Prevent committing the response, it will be committed deferred, i.e. once this response is closed");
+            flushWrappedBuffer = true;
+        } else {
+            super.flushBuffer();
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        discardBuffer();
+        super.resetBuffer();
+    }
+
+    /** @return {@link ResponseWriteMethod#OUTPUTSTREAM} in case {@link #getOutputStream()} has been called,
+     *         {@link ResponseWriteMethod#WRITER} in case {@link #getWriter()} has been called, {@code null} in case none of those have been
+     *         called yet. */
+    ResponseWriteMethod getWriteMethod() {
+        return writeMethod;
+    }
+
+    /** @return a message digest over the response body written so far, which can be updated further */
+    MessageDigest getBodyMessageDigest() {
+        if (printWriter != null) {
+            printWriter.flush();
+        }
+        return buffer.getMessageDigest();
+    }
+
+    /** Influences the behavior of the buffered data during calling {@link #close()}. If {@code flushBufferOnClose} is {@code true}
+     * (default setting) the buffer is spooled to the wrapped response, otherwise the buffer is discarded.
+     * @param flushBufferOnClose */
+    void setFlushBufferOnClose(boolean flushBufferOnClose) {
+        this.flushBufferOnClose = flushBufferOnClose;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (printWriter != null) {
+                printWriter.flush();
+            }
+            if (flushBufferOnClose && isBuffered() && buffer.getLength() > 0) {
+                try (InputStream input = buffer.getInputStream()) {
+                    if (ResponseWriteMethod.WRITER.equals(writeMethod)) {
+                        // spool via the wrapped writer, as outer filters may be wrapping it
+                        final Reader reader = new InputStreamReader(input, charset);
+                        IOUtils.copy(reader, super.getWriter());
+                    } else {
+                        IOUtils.copy(input, super.getOutputStream());
+                    }
+                }
+            }
+            if (flushWrappedBuffer) {
+                super.flushBuffer();
+            }
+        } finally {
+            buffer.dispose();
+        }
+    }
+
+    private void discardBuffer() {
+        if (printWriter != null) {
+            printWriter.flush();
+        }
+        try {
+            buffer.reset();
+        } catch (IOException e) {
+            log.warn("Could not discard the buffered response", e);
+        }
+    }
+
+    private Charset getCharset() {
+        final String charsetName = getCharacterEncoding();
+        if (charsetName == null) {
+            return StandardCharsets.ISO_8859_1;
+        }
+        return Charset.forName(charsetName);
+    }
+
+    private boolean isBuffered() {
+        return writeMethod == null || ResponseWriteMethod.WRITER.equals(writeMethod) || bufferOutputStream;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.etag.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+/** Output stream which updates a message digest with all bytes written to it while buffering them, first in memory and beyond a
+ * threshold in a temporary file. The bytes are only read once more when they are finally spooled to the response. */
+final class DigestingSpillOutputStream extends OutputStream {
+
+    private static final String TEMP_FILE_PREFIX = "acs-commons-etag-";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final MessageDigest messageDigest;
+    private final int threshold;
+    private DeferredFileOutputStream buffer;
+    private long length;
+
+    DigestingSpillOutputStream(MessageDigest messageDigest, int threshold) {
+        this.messageDigest = messageDigest;
+        this.threshold = threshold;
+        this.buffer = newBuffer();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        messageDigest.update((byte) b);
+        buffer.write(b);
+        length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        messageDigest.update(b, off, len);
+        buffer.write(b, off, len);
+        length += len;
+    }
+
+    /** @return a copy of the message digest over the bytes written so far, which can be updated further */
+    MessageDigest getMessageDigest() {
+        try {
+            return (MessageDigest) messageDigest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Message digest " + messageDigest.getAlgorithm() + " can not be cloned", e);
+        }
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    boolean isInMemory() {
+        return buffer.isInMemory();
+    }
+
+    /** @return the buffered bytes; must only be called once all bytes were written
+     * @throws IOException */
+    InputStream getInputStream() throws IOException {
+        buffer.close();
+        if (buffer.isInMemory()) {
+            return new ByteArrayInputStream(buffer.getData());
+        } else {
+            return new FileInputStream(buffer.getFile());
+        }
+    }
+
+    /** Discards the buffered bytes and resets the message digest. */
+    void reset() throws IOException {
+        dispose();
+        messageDigest.reset();
+        buffer = newBuffer();
+        length = 0;
+    }
+
+    /** Deletes the temporary file, if the buffer was spilled to one. */
+    void dispose() throws IOException {
+        buffer.close();
+        final File file = buffer.getFile();
+        if (file != null) {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    private DeferredFileOutputStream newBuffer() {
+        return new DeferredFileOutputStream(threshold, TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX, null);
+    }
+}
@@ -19,14 +19,12 @@
  */
 package com.adobe.acs.commons.etag.impl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -44,6 +42,7 @@ import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.sling.engine.EngineConstants;
 import org.osgi.service.component.annotations.Activate;
@@ -57,7 +56,9 @@ import org.slf4j.LoggerFactory;
 
 import com.adobe.acs.commons.etag.impl.EtagMessageDigestServletFilter.Config;
 import com.adobe.acs.commons.util.BufferedServletOutput.ResponseWriteMethod;
-import com.adobe.acs.commons.util.BufferedSlingHttpServletResponse;
+import com.day.cq.commons.jcr.JcrConstants;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.BaseEncoding;
 
 /** Generates the ETag response header from a message digest of the response. This header is supposed to be cached also on the
@@ -69,7 +70,9 @@ public class EtagMessageDigestServletFilter implements Filter {
 
     private static final String WEAK_TAG_PREFIX = "W/";
 
-    @ObjectClassDefinition(name = "ACS AEM Commons - Digest-based ETag Servlet Filter", description = "Sets an ETag response header based on a message digest from the response's content and optionally its' other headers. Enabling it increases the memory consumption as the full response need to be buffered before being sent to the client!")
+    private static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    @ObjectClassDefinition(name = "ACS AEM Commons - Digest-based ETag Servlet Filter", description = "Sets an ETag response header based on a message digest from the response's content and optionally its' other headers. The full response needs to be buffered before being sent to the client, in memory up to the spill threshold and in a temporary file beyond it.")
     public @interface Config {
         @AttributeDefinition(name = "Enabled", description = "If this filter should not be active, rather try to delete this config. Only in cases where this cannot be easily accomplished uncheck this option to disable the filter.")
         boolean enabled() default true;
@@ -95,9 +98,18 @@ public class EtagMessageDigestServletFilter implements Filter {
         @AttributeDefinition(name = "Salt", description = "The (optional) salt is also taken into account for the message digest calculation. It is necessary to change that value whenever the response content or the response headers are now modified differently in a proxy instance between client and AEM (e.g. Dispatcher sets additional headers).")
         String salt();
 
-        @AttributeDefinition(name = "Enabled for output streams", description = "If set to 'true' this will also calculate the ETag for response output streams (binary output) and not only for response writers (text output). Enabling this option might lead to heavy memory demands as the full output stream is then buffered (i.e. kept in memory) before being delivered to the client. Especially if you deliver large assets like videos from AEM you should not enable this option.")
+        @AttributeDefinition(name = "Enabled for output streams", description = "If set to 'true' this will also calculate the ETag for response output streams (binary output) and not only for response writers (text output). Enabling this option buffers the full output stream before it is delivered to the client, beyond the spill threshold in a temporary file. Especially if you deliver large assets like videos from AEM you should not enable this option.")
         boolean enabledForOutputStream() default false;
 
+        @AttributeDefinition(name = "Spill threshold (in KB)", description = "The size up to which a response is buffered in memory while its digest is calculated. Larger responses are buffered in a temporary file.")
+        int spillThresholdKb() default 1024;
+
+        @AttributeDefinition(name = "Cache digests", description = "If set to 'true' the digest of each response is cached by the requested resource's path and jcr:lastModified date (or that of its jcr:content) together with the request URI and query string. A conditional request matching the cached digest is answered with a 304 without rendering. Only enable this if the response solely depends on these, e.g. not on the user, request headers or other resources.")
+        boolean cacheDigests() default false;
+
+        @AttributeDefinition(name = "Cached digests max entries", description = "The maximum number of cached digests.")
+        long cacheDigestsMaxEntries() default 10000;
+
         @AttributeDefinition(name = "Add as HTML comment", description = "If set to 'true' this filter will also emit a HTML comment at the very end of each HTML document exposing the ETag. This may be helpful to debug issues with stale HTML cache entries in case the ETag header is not properly propagated.")
         boolean addAsHtmlComment() default false;
     }
@@ -106,6 +118,8 @@ public class EtagMessageDigestServletFilter implements Filter {
 
     private Config configuration;
     private Collection<String> ignoredHeaderNames;
+    private int spillThreshold;
+    private Cache<String, String> digestCache;
 
     @Activate
     public void activate(Config configuration) {
@@ -117,6 +131,12 @@ public class EtagMessageDigestServletFilter implements Filter {
         } else {
             ignoredHeaderNames = Collections.emptySet();
         }
+        spillThreshold = configuration.spillThresholdKb() > 0 ? configuration.spillThresholdKb() * 1024 : DEFAULT_SPILL_THRESHOLD;
+        if (configuration.cacheDigests()) {
+            digestCache = CacheBuilder.newBuilder().maximumSize(configuration.cacheDigestsMaxEntries()).build();
+        } else {
+            digestCache = null;
+        }
     }
 
     @Override
@@ -152,9 +172,30 @@ public class EtagMessageDigestServletFilter implements Filter {
     }
 
     private void doFilterWithMessageDigest(SlingHttpServletRequest slingHttpServletRequest, SlingHttpServletResponse slingHttpServletResponse,  FilterChain chain) throws IOException, ServletException {
-        ByteArrayOutputStream outputStream = configuration.enabledForOutputStream() ? new ByteArrayOutputStream() : null;
-        try (BufferedSlingHttpServletResponse bufferedResponse = new BufferedSlingHttpServletResponse(slingHttpServletResponse,
-                new StringWriter(), outputStream)) {
+        final String digestCacheKey = getDigestCacheKey(slingHttpServletRequest);
+        if (digestCacheKey != null) {
+            final String cachedDigest = digestCache.getIfPresent(digestCacheKey);
+            if (cachedDigest != null && isUnmodified(slingHttpServletRequest.getHeaders(HttpHeaders.IF_NONE_MATCH), cachedDigest)) {
+                log.debug("Cached digest for {} is equal to one of the given ETags in the If-None-Match request header, "
+                        + "returning empty response with a 304 without rendering", digestCacheKey);
+                slingHttpServletRequest.getRequestProgressTracker().log("ETag from cached digest: {0}", cachedDigest);
+                slingHttpServletResponse.setHeader(HttpConstants.HEADER_ETAG, "\"" + cachedDigest + "\"");
+                slingHttpServletResponse.setStatus(HttpStatus.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+
+        final DigestingSlingHttpServletResponse digestingResponse;
+        try {
+            digestingResponse = new DigestingSlingHttpServletResponse(slingHttpServletResponse,
+                    configuration.messageDigestAlgorithm(), configuration.enabledForOutputStream(), spillThreshold);
+        } catch (NoSuchAlgorithmException e) {
+            log.error("The algorithm configured for this servlet filter is invalid: " + configuration.messageDigestAlgorithm(), e);
+            chain.doFilter(slingHttpServletRequest, slingHttpServletResponse);
+            return;
+        }
+
+        try (DigestingSlingHttpServletResponse bufferedResponse = digestingResponse) {
             chain.doFilter(slingHttpServletRequest, bufferedResponse);
             if (!configuration.overwrite() && slingHttpServletResponse.containsHeader(HttpConstants.HEADER_ETAG)) {
                 log.debug("Do not overwrite existing ETag header with value '{}'",
@@ -163,7 +204,7 @@ public class EtagMessageDigestServletFilter implements Filter {
             }
             // was the response buffered?
             if (!configuration.enabledForOutputStream()
-                    && bufferedResponse.getBufferedServletOutput().getWriteMethod() == ResponseWriteMethod.OUTPUTSTREAM) {
+                    && bufferedResponse.getWriteMethod() == ResponseWriteMethod.OUTPUTSTREAM) {
                 log.debug("Can not calculate message digest as response was written via output stream which was not buffered.");
                 return;
             }
@@ -172,30 +213,56 @@ public class EtagMessageDigestServletFilter implements Filter {
                 return;
             }
 
-            try {
-                String digest = calculateDigestFromResponse(bufferedResponse);
-                slingHttpServletRequest.getRequestProgressTracker().log("ETag from digest calculated with {0}: {1}",
-                        configuration.messageDigestAlgorithm(), digest);
-                slingHttpServletResponse.setHeader(HttpConstants.HEADER_ETAG, "\"" + digest + "\"");
-                if (isUnmodified(slingHttpServletRequest.getHeaders(HttpHeaders.IF_NONE_MATCH), digest)) {
-                    log.debug(
-                            "Digest is equal to one of the given ETags in the If-None-Match request header, returning empty response with a 304");
-                    bufferedResponse.resetBuffer();
-                    slingHttpServletResponse.setStatus(HttpStatus.SC_NOT_MODIFIED);
-                    return;
-                }
-                if (configuration.addAsHtmlComment()
-                        && bufferedResponse.getBufferedServletOutput().getWriteMethod() == ResponseWriteMethod.WRITER
-                        && slingHttpServletResponse.getContentType() != null
-                        && slingHttpServletResponse.getContentType().startsWith("text/html")) {
-                    bufferedResponse.getWriter().println(String.format("%n<!-- ETag: %s -->", digest));
-                }
-            } catch (NoSuchAlgorithmException e) {
-                log.error("The algorithm configured for this servlet filter is invalid: " + configuration.messageDigestAlgorithm(), e);
+            String digest = calculateDigestFromResponse(bufferedResponse);
+            slingHttpServletRequest.getRequestProgressTracker().log("ETag from digest calculated with {0}: {1}",
+                    configuration.messageDigestAlgorithm(), digest);
+            slingHttpServletResponse.setHeader(HttpConstants.HEADER_ETAG, "\"" + digest + "\"");
+            if (digestCacheKey != null) {
+                digestCache.put(digestCacheKey, digest);
+            }
+            if (isUnmodified(slingHttpServletRequest.getHeaders(HttpHeaders.IF_NONE_MATCH), digest)) {
+                log.debug(
+                        "Digest is equal to one of the given ETags in the If-None-Match request header, returning empty response with a 304");
+                bufferedResponse.resetBuffer();
+                slingHttpServletResponse.setStatus(HttpStatus.SC_NOT_MODIFIED);
+                return;
+            }
+            if (configuration.addAsHtmlComment()
+                    && bufferedResponse.getWriteMethod() == ResponseWriteMethod.WRITER
+                    && slingHttpServletResponse.getContentType() != null
+                    && slingHttpServletResponse.getContentType().startsWith("text/html")) {
+                bufferedResponse.getWriter().println(String.format("%n<!-- ETag: %s -->", digest));
             }
         }
     }
 
+    /** The key under which the digest of this request's response is cached, i.e. the resource path and its last modification
+     * date together with the request URI and query string.
+     *
+     * @param slingHttpServletRequest
+     * @return the key or {@code null} in case digests are not cached or the resource's last modification date is unknown */
+    String getDigestCacheKey(SlingHttpServletRequest slingHttpServletRequest) {
+        if (digestCache == null) {
+            return null;
+        }
+        final Resource resource = slingHttpServletRequest.getResource();
+        if (resource == null) {
+            return null;
+        }
+        Calendar lastModified = resource.getValueMap().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        if (lastModified == null) {
+            final Resource content = resource.getChild(JcrConstants.JCR_CONTENT);
+            if (content != null) {
+                lastModified = content.getValueMap().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+            }
+        }
+        if (lastModified == null) {
+            return null;
+        }
+        return resource.getPath() + "@" + lastModified.getTimeInMillis() + ":" + slingHttpServletRequest.getRequestURI()
+                + (slingHttpServletRequest.getQueryString() != null ? "?" + slingHttpServletRequest.getQueryString() : "");
+    }
+
     /** Handles conditional requests like outlined in RFC7232.
      * 
      * @param slingHttpServletRequest
@@ -230,18 +297,8 @@ public class EtagMessageDigestServletFilter implements Filter {
         return false;
     }
 
-    String calculateDigestFromResponse(BufferedSlingHttpServletResponse bufferedResponse)
-            throws NoSuchAlgorithmException, UnsupportedEncodingException {
-        MessageDigest messageDigest = MessageDigest.getInstance(configuration.messageDigestAlgorithm());
-        if (bufferedResponse.getBufferedServletOutput().getWriteMethod() == ResponseWriteMethod.OUTPUTSTREAM) {
-            messageDigest.update(bufferedResponse.getBufferedServletOutput().getBufferedBytes());
-        } else if (bufferedResponse.getBufferedServletOutput().getWriteMethod() == ResponseWriteMethod.WRITER) {
-            String charsetName = bufferedResponse.getCharacterEncoding();
-            if (charsetName == null) {
-                charsetName = StandardCharsets.ISO_8859_1.name();
-            }
-            messageDigest.update(bufferedResponse.getBufferedServletOutput().getBufferedString().getBytes(charsetName));
-        }
+    String calculateDigestFromResponse(DigestingSlingHttpServletResponse bufferedResponse) {
+        MessageDigest messageDigest = bufferedResponse.getBodyMessageDigest();
 
         // consider header values as well?
         if (configuration.considerResponseHeaders()) {
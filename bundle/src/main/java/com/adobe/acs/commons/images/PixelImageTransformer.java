@@ -0,0 +1,45 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images;
+
+import java.util.function.IntUnaryOperator;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * An ImageTransformer whose effect on a pixel depends only on that pixel.
+ *
+ * Consecutive pixel transforms in a named transform chain are fused, so the raster is walked and copied once
+ * for the whole run rather than once per transform.
+ */
+@ConsumerType
+public interface PixelImageTransformer extends ImageTransformer {
+
+    /**
+     * Gets the per-pixel form of this transform. Applying the operator to every pixel of a layer must give the
+     * same result as {@link #transform(com.day.image.Layer, ValueMap)}.
+     *
+     * @param properties transformation parameters
+     * @return an operator mapping a non-premultiplied ARGB pixel to its transformed value; or null if the
+     * transform cannot be applied per pixel with these parameters
+     */
+    IntUnaryOperator getPixelOperator(ValueMap properties);
+}
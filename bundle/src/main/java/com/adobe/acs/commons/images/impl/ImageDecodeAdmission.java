@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.NotCompliantMBeanException;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the pixels the Named Transform Image Servlet decodes at once.
+ *
+ * Each decode is charged the pixel count of its source, estimated from the image header before decoding.
+ * A request which does not fit in the remaining budget waits (up to a limit on time and on the number of
+ * waiting requests) and is otherwise rejected, so a burst of uncached transforms cannot exhaust the heap.
+ */
+public final class ImageDecodeAdmission extends AnnotatedStandardMBean implements ImageDecodeAdmissionMBean {
+    private static final Logger log = LoggerFactory.getLogger(ImageDecodeAdmission.class);
+
+    /* Permits are counted in units of 1024 pixels so large budgets fit in an int */
+    private static final int PIXELS_PER_PERMIT = 1024;
+
+    private static final long PIXELS_PER_MEGAPIXEL = 1000000L;
+
+    private final Semaphore permits;
+
+    private final int totalPermits;
+
+    private final int maxQueued;
+
+    private final long maxWaitMillis;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder admittedCount = new LongAdder();
+
+    private final LongAdder queuedCount = new LongAdder();
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * @param budgetMegapixels the megapixels which may be decoded at once
+     * @param maxQueued the number of requests which may wait for budget
+     * @param maxWaitMillis how long a request may wait for budget
+     * @throws NotCompliantMBeanException if the MBean interface is not compliant
+     */
+    public ImageDecodeAdmission(final long budgetMegapixels, final int maxQueued, final long maxWaitMillis)
+            throws NotCompliantMBeanException {
+        super(ImageDecodeAdmissionMBean.class);
+        this.totalPermits = (int) Math.max(1,
+                Math.min(Integer.MAX_VALUE, budgetMegapixels * PIXELS_PER_MEGAPIXEL / PIXELS_PER_PERMIT));
+        this.permits = new Semaphore(totalPermits, true);
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Waits for budget to decode an image.
+     *
+     * An image larger than the whole budget is charged the whole budget, so it is decoded on its own. So is an
+     * image of unknown size, which may be as large.
+     *
+     * @param pixels the estimated pixels of the decode; 0 if unknown
+     * @return the permit, which must be closed once the decoded layer is no longer needed
+     * @throws RejectedException if the budget did not free up in time, or too many requests are waiting
+     */
+    public Permit acquire(final long pixels) throws RejectedException {
+        final int cost = pixels <= 0 ? totalPermits
+                : (int) Math.min(totalPermits, (pixels + PIXELS_PER_PERMIT - 1) / PIXELS_PER_PERMIT);
+
+        try {
+            // Unlike the untimed tryAcquire, the timed one does not barge ahead of waiting requests
+            if (permits.tryAcquire(cost, 0, TimeUnit.MILLISECONDS)) {
+                admittedCount.increment();
+                return new Permit(cost);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejectedCount.increment();
+            throw new RejectedException("Interrupted waiting to decode an image of " + pixels + " pixels");
+        }
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejectedCount.increment();
+            throw new RejectedException("Too many image transforms are waiting to be decoded");
+        }
+
+        queuedCount.increment();
+        final long start = System.nanoTime();
+        boolean admitted = false;
+        try {
+            admitted = permits.tryAcquire(cost, maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queued.decrementAndGet();
+            waitNanos.add(System.nanoTime() - start);
+        }
+
+        if (!admitted) {
+            rejectedCount.increment();
+            throw new RejectedException("Timed out waiting to decode an image of " + pixels + " pixels");
+        }
+
+        admittedCount.increment();
+        log.debug("Admitted a decode of [ {} ] pixels after waiting", pixels);
+        return new Permit(cost);
+    }
+
+    @Override
+    public long getBudgetMegapixels() {
+        return (long) totalPermits * PIXELS_PER_PERMIT / PIXELS_PER_MEGAPIXEL;
+    }
+
+    @Override
+    public long getInFlightMegapixels() {
+        return (long) (totalPermits - permits.availablePermits()) * PIXELS_PER_PERMIT / PIXELS_PER_MEGAPIXEL;
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return queued.get();
+    }
+
+    @Override
+    public long getAdmittedCount() {
+        return admittedCount.sum();
+    }
+
+    @Override
+    public long getQueuedCount() {
+        return queuedCount.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    /**
+     * Budget held by an admitted decode.
+     */
+    public final class Permit implements AutoCloseable {
+        private final int cost;
+        private boolean released;
+
+        private Permit(final int cost) {
+            this.cost = cost;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                permits.release(cost);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a decode is not admitted. Extends IOException so it passes through the output cache's loader.
+     */
+    public static final class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RejectedException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+@Description("ACS AEM Commons - Named Transform Image Decode Admission")
+public interface ImageDecodeAdmissionMBean {
+
+    @Description("Megapixels which may be decoded at once")
+    long getBudgetMegapixels();
+
+    @Description("Megapixels currently being decoded and transformed")
+    long getInFlightMegapixels();
+
+    @Description("Requests currently waiting for budget")
+    int getQueuedRequests();
+
+    @Description("Requests admitted")
+    long getAdmittedCount();
+
+    @Description("Requests which had to wait before being admitted or rejected")
+    long getQueuedCount();
+
+    @Description("Requests rejected with a 503")
+    long getRejectedCount();
+
+    @Description("Total time requests spent waiting for budget, in milliseconds")
+    long getTotalWaitMillis();
+}
@@ -26,6 +26,7 @@ import com.adobe.acs.commons.util.PathInfoUtil;
 import com.day.cq.commons.DownloadResource;
 import com.day.cq.commons.jcr.JcrConstants;
 import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamConstants;
 import com.day.cq.dam.api.Rendition;
 import com.day.cq.dam.commons.util.DamUtil;
 import com.day.cq.wcm.api.NameConstants;
@@ -36,8 +37,10 @@ import com.day.image.Layer;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
@@ -55,17 +58,28 @@ import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.api.wrappers.ValueMapDecorator;
 import org.apache.sling.commons.mime.MimeTypeService;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
 import javax.jcr.RepositoryException;
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Dictionary;
+import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -163,11 +177,85 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
     @Reference
     private transient MimeTypeService mimeTypeService;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY, policy = ReferencePolicy.DYNAMIC)
+    private transient volatile TransformedImageCache transformedImageCache;
+
     private Pattern lastSuffixPattern = Pattern.compile(DEFAULT_FILENAME_PATTERN);
 
+    private static final boolean DEFAULT_SELECT_SUFFICIENT_RENDITION = true;
+
+    @Property(label = "Select Smallest Sufficient Rendition",
+            description = "When transforming a DAM Asset with a resize or bounded-resize, decode the smallest web or"
+                    + " thumbnail rendition large enough for the target size instead of the picked rendition."
+                    + " [ Default: true ]",
+            boolValue = DEFAULT_SELECT_SUFFICIENT_RENDITION)
+    private static final String PROP_SELECT_SUFFICIENT_RENDITION = "prop.select-sufficient-rendition";
+
+    private boolean selectSufficientRendition = DEFAULT_SELECT_SUFFICIENT_RENDITION;
+
+    private static final boolean DEFAULT_OPTIMIZE_TRANSFORMS = false;
+
+    @Property(label = "Optimize Transforms",
+            description = "Run a downscaling resize ahead of colour transforms and fuse consecutive per-pixel"
+                    + " transforms into a single pass. Pixel values of the output may differ slightly."
+                    + " [ Default: false ]",
+            boolValue = DEFAULT_OPTIMIZE_TRANSFORMS)
+    private static final String PROP_OPTIMIZE_TRANSFORMS = "prop.optimize-transforms";
+
+    private boolean optimizeTransforms = DEFAULT_OPTIMIZE_TRANSFORMS;
+
+    private transient TransformStepTimings stepTimings;
+
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    /* Node holding an image component's own (uploaded) binary */
+    private static final String NN_FILE = "file";
+
+    private static final int DEFAULT_DECODE_BUDGET_MEGAPIXELS = 0;
+
+    @Property(label = "Decode Budget (Megapixels)",
+            description = "Megapixels which may be decoded and transformed at once; requests beyond this wait for"
+                    + " budget and are rejected with a 503 if they cannot get it. Each megapixel holds about 4MB of"
+                    + " heap while in flight. 0 disables the limit. [ Default: 0 ]",
+            intValue = DEFAULT_DECODE_BUDGET_MEGAPIXELS)
+    private static final String PROP_DECODE_BUDGET_MEGAPIXELS = "prop.decode-budget-megapixels";
+
+    private static final int DEFAULT_DECODE_MAX_QUEUED = 20;
+
+    @Property(label = "Decode Queue Size",
+            description = "Requests which may wait for decode budget before further requests are rejected."
+                    + " [ Default: 20 ]",
+            intValue = DEFAULT_DECODE_MAX_QUEUED)
+    private static final String PROP_DECODE_MAX_QUEUED = "prop.decode-max-queued";
+
+    private static final int DEFAULT_DECODE_MAX_WAIT_MS = 5000;
+
+    @Property(label = "Decode Max Wait (ms)",
+            description = "How long a request may wait for decode budget before it is rejected. [ Default: 5000 ]",
+            intValue = DEFAULT_DECODE_MAX_WAIT_MS)
+    private static final String PROP_DECODE_MAX_WAIT_MS = "prop.decode-max-wait-ms";
+
+    private static final int DEFAULT_DECODE_RETRY_AFTER_SECONDS = 10;
+
+    @Property(label = "Retry After (seconds)",
+            description = "Retry-After sent with a 503 when a request is rejected. [ Default: 10 ]",
+            intValue = DEFAULT_DECODE_RETRY_AFTER_SECONDS)
+    private static final String PROP_DECODE_RETRY_AFTER_SECONDS = "prop.decode-retry-after-seconds";
+
+    private int decodeRetryAfterSeconds = DEFAULT_DECODE_RETRY_AFTER_SECONDS;
+
+    private transient ImageDecodeAdmission decodeAdmission;
+
+    private transient ServiceRegistration<?> decodeAdmissionRegistration;
+
+    private transient ServiceRegistration<?> stepTimingsRegistration;
+
     private transient RenditionPatternPicker renditionPatternPicker =
             new RenditionPatternPicker(Pattern.compile(DEFAULT_ASSET_RENDITION_PICKER_REGEX));
 
+    /* The configuration affecting the rendered output, as part of the output cache key */
+    private String cacheConfiguration = "";
+
     /**
      * Only accept requests that.
      * - Are not null
@@ -214,15 +302,6 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
 
         final Image image = resolveImage(request);
         final String mimeType = getMimeType(request, image);
-        Layer layer = getLayer(image);
-        
-        if (layer == null) {
-            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-            return;
-        }
-        
-        // Transform the image
-        layer = this.transform(layer, imageTransformersWithParams);
 
         // Get the quality
         final double quality = this.getQuality(mimeType,
@@ -232,45 +311,222 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
         final boolean progressiveJpeg = isProgressiveJpeg(mimeType,
                 imageTransformersWithParams.get(TYPE_PROGRESSIVE, EMPTY_PARAMS));
 
-        response.setContentType(mimeType);
+        final TransformedImageCache cache = this.transformedImageCache;
+        final TransformedImageCacheKey cacheKey = cache == null ? null
+                : getCacheKey(request, image, imageTransformersWithParams, mimeType, quality, progressiveJpeg);
 
-        if (progressiveJpeg) {
-            ProgressiveJpeg.write(layer, quality, response.getOutputStream());
-        } else {
-            layer.write(mimeType, quality, response.getOutputStream());
+        try {
+            if (cacheKey != null) {
+                final byte[] data = cache.get(cacheKey,
+                        () -> render(request.getResource(), image, imageTransformersWithParams, mimeType, quality,
+                                progressiveJpeg));
+
+                if (data == null) {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
+
+                response.setContentType(mimeType);
+                response.setContentLength(data.length);
+                response.getOutputStream().write(data);
+                response.flushBuffer();
+                return;
+            }
+
+            final SourceImageSelector.Source source = selectSource(request.getResource(), image,
+                    imageTransformersWithParams);
+            try (ImageDecodeAdmission.Permit permit = admit(request.getResource(), image, source)) {
+                Layer layer = getLayer(image, source);
+
+                if (layer == null) {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
+
+                // Transform the image
+                layer = this.transform(layer, imageTransformersWithParams);
+
+                response.setContentType(mimeType);
+
+                write(layer, mimeType, quality, progressiveJpeg, response.getOutputStream());
+            }
+
+            response.flushBuffer();
+        } catch (ImageDecodeAdmission.RejectedException e) {
+            log.debug("Rejected transform of [ {} ]: {}", request.getResource().getPath(), e.getMessage());
+            response.setHeader(HEADER_RETRY_AFTER, String.valueOf(decodeRetryAfterSeconds));
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         }
+    }
 
-        response.flushBuffer();
+    /**
+     * Waits for decode budget for the image, if a decode budget is configured.
+     *
+     * @param source the rendition which will be decoded in place of the image's, or null
+     * @return the permit to close once the image has been written; or null if there is no budget
+     * @throws ImageDecodeAdmission.RejectedException if the image may not be decoded now
+     */
+    private ImageDecodeAdmission.Permit admit(final Resource resource, final Image image,
+                                             final SourceImageSelector.Source source)
+            throws ImageDecodeAdmission.RejectedException {
+        final ImageDecodeAdmission admission = this.decodeAdmission;
+        if (admission == null) {
+            return null;
+        }
+        return admission.acquire(source == null ? estimateDecodePixels(resource, image) : source.getDecodePixels());
     }
 
     /**
-     * Execute the ImageTransformers as specified by the Request's suffix segments against the Image layer.
+     * Estimates the pixels a decode of the image will hold, from the header of the binary it references or,
+     * failing that, from the DAM Asset's metadata.
      *
-     * @param layer the Image layer
-     * @param imageTransformersWithParams the transforms and their params
-     * @return the transformed Image layer
+     * @return the estimated pixels; 0 if unknown
      */
-    protected final Layer transform(Layer layer, final ValueMap imageTransformersWithParams) {
-        for (final String type : imageTransformersWithParams.keySet()) {
-            if (StringUtils.equals(TYPE_QUALITY, type)) {
-                // Do not process the "quality" transform in the usual manner
-                continue;
+    private long estimateDecodePixels(final Resource resource, final Image image) {
+        final ResourceResolver resourceResolver = resource.getResourceResolver();
+        final String reference = image.getFileReference();
+        final Resource binary = StringUtils.isNotBlank(reference) ? resourceResolver.getResource(reference)
+                : resourceResolver.getResource(image.getPath() + "/" + NN_FILE);
+        if (binary == null) {
+            return 0;
+        }
+
+        Asset asset = null;
+        Dimension size;
+        if (DamUtil.isAsset(binary)) {
+            // An image component referencing an asset decodes the asset's original
+            asset = DamUtil.resolveToAsset(binary);
+            size = asset.getOriginal() == null ? null : SourceImageSelector.getSize(asset, asset.getOriginal());
+        } else {
+            size = SourceImageSelector.readSize(binary);
+            if (size == null && DamUtil.isRendition(binary)) {
+                asset = DamUtil.resolveToAsset(binary);
             }
+        }
 
-            final ImageTransformer imageTransformer = this.imageTransformers.get(type);
-            if (imageTransformer == null) {
-                log.warn("Skipping transform. Missing ImageTransformer for type: {}", type);
-                continue;
+        if (size == null && asset != null) {
+            // e.g. TIFF originals, which ImageIO cannot read
+            final long width = NumberUtils.toLong(asset.getMetadataValue(DamConstants.TIFF_IMAGEWIDTH));
+            final long height = NumberUtils.toLong(asset.getMetadataValue(DamConstants.TIFF_IMAGELENGTH));
+            return width * height;
+        }
+
+        return size == null ? 0 : (long) size.width * size.height;
+    }
+
+    /**
+     * Renders the transformed image into a byte array, for the output cache.
+     *
+     * @return the encoded image, or null if the image's layer could not be created
+     */
+    private byte[] render(final Resource resource, final Image image, final ValueMap imageTransformersWithParams,
+                          final String mimeType, final double quality, final boolean progressiveJpeg)
+            throws IOException {
+        final SourceImageSelector.Source source = selectSource(resource, image, imageTransformersWithParams);
+        try (ImageDecodeAdmission.Permit permit = admit(resource, image, source)) {
+            Layer layer = getLayer(image, source);
+            if (layer == null) {
+                return null;
             }
 
-            final ValueMap transformParams = imageTransformersWithParams.get(type, EMPTY_PARAMS);
+            layer = this.transform(layer, imageTransformersWithParams);
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            write(layer, mimeType, quality, progressiveJpeg, out);
+            return out.toByteArray();
+        }
+    }
+
+    private void write(final Layer layer, final String mimeType, final double quality, final boolean progressiveJpeg,
+                       final OutputStream out) throws IOException {
+        if (progressiveJpeg) {
+            ProgressiveJpeg.write(layer, quality, out);
+        } else {
+            layer.write(mimeType, quality, out);
+        }
+    }
+
+    /**
+     * Builds the output cache key for the request.
+     *
+     * @return the cache key, or null if the referenced image binary has no last modified date to key on
+     */
+    protected final TransformedImageCacheKey getCacheKey(final SlingHttpServletRequest request, final Image image,
+                                                         final ValueMap imageTransformersWithParams,
+                                                         final String mimeType, final double quality,
+                                                         final boolean progressiveJpeg) {
+        final ResourceResolver resourceResolver = request.getResourceResolver();
+        final Resource resource = request.getResource();
+
+        final String referencePath = StringUtils.defaultIfBlank(image.getFileReference(), image.getPath());
+        final long referenceLastModified = getLastModified(resourceResolver.getResource(referencePath));
+        if (referenceLastModified <= 0) {
+            log.debug("Not caching [ {} ]; [ {} ] has no last modified date", resource.getPath(), referencePath);
+            return null;
+        }
+
+        return new TransformedImageCacheKey(resource.getPath(), getLastModified(resource),
+                referencePath, referenceLastModified,
+                getTransformsCacheKey(imageTransformersWithParams), mimeType, quality, progressiveJpeg,
+                cacheConfiguration);
+    }
+
+    /**
+     * @return the latest of the resource's (or its jcr:content's) last modified dates, or 0 if it has none
+     */
+    private long getLastModified(final Resource resource) {
+        if (resource == null) {
+            return 0;
+        }
+
+        long lastModified = getLastModified(resource.getValueMap());
+        final Resource content = resource.getChild(JcrConstants.JCR_CONTENT);
+        if (content != null) {
+            lastModified = Math.max(lastModified, getLastModified(content.getValueMap()));
+        }
+        return lastModified;
+    }
 
-            if (transformParams != null) {
-                layer = imageTransformer.transform(layer, transformParams);
+    private long getLastModified(final ValueMap properties) {
+        long lastModified = 0;
+        for (final String property : new String[]{ JcrConstants.JCR_LASTMODIFIED, NameConstants.PN_PAGE_LAST_MOD }) {
+            final Calendar calendar = properties.get(property, Calendar.class);
+            if (calendar != null) {
+                lastModified = Math.max(lastModified, calendar.getTimeInMillis());
             }
         }
+        return lastModified;
+    }
 
-        return layer;
+    /**
+     * Flattens the ordered transforms and their params, so a change to a named transform's configuration
+     * produces a different cache key.
+     */
+    private String getTransformsCacheKey(final ValueMap imageTransformersWithParams) {
+        final StringBuilder sb = new StringBuilder();
+        for (final String type : imageTransformersWithParams.keySet()) {
+            sb.append(type).append('{');
+            final ValueMap params = imageTransformersWithParams.get(type, EMPTY_PARAMS);
+            for (final Map.Entry<String, Object> param : params.entrySet()) {
+                sb.append(param.getKey()).append('=').append(param.getValue()).append(';');
+            }
+            sb.append('}');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Execute the ImageTransformers as specified by the Request's suffix segments against the Image layer.
+     *
+     * @param layer the Image layer
+     * @param imageTransformersWithParams the transforms and their params
+     * @return the transformed Image layer
+     */
+    protected final Layer transform(Layer layer, final ValueMap imageTransformersWithParams) {
+        final TransformPipeline pipeline = TransformPipeline.plan(layer, imageTransformersWithParams,
+                this.imageTransformers, optimizeTransforms);
+
+        return pipeline.execute(layer, stepTimings);
     }
 
     /**
@@ -432,6 +688,84 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
         }
     }
 
+    /**
+     * Picks the smallest rendition which still covers the size the transforms resize to, when the requested
+     * resource is a DAM Asset.
+     *
+     * @param resource the requested resource
+     * @param image the image which would otherwise be decoded
+     * @param imageTransformersWithParams the transforms which will be applied to the layer
+     * @return the rendition to decode, or null if the image should be decoded as usual
+     */
+    private SourceImageSelector.Source selectSource(final Resource resource, final Image image,
+                                                    final ValueMap imageTransformersWithParams) {
+        if (!selectSufficientRendition || !DamUtil.isAsset(resource)) {
+            return null;
+        }
+
+        if (StringUtils.isNotBlank(image.get(Image.PN_IMAGE_CROP))
+                || StringUtils.isNotBlank(image.get(Image.PN_IMAGE_ROTATE))) {
+            // Crop and rotate coordinates are relative to the referenced rendition
+            return null;
+        }
+
+        final Asset asset = DamUtil.resolveToAsset(resource);
+        if (asset == null) {
+            return null;
+        }
+
+        final List<Rendition> renditions = asset.getRenditions();
+        for (final Rendition rendition : renditions) {
+            if (StringUtils.equals(rendition.getPath(), image.getFileReference())) {
+                return SourceImageSelector.choose(asset, renditions, rendition, imageTransformersWithParams);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the Image layer, decoding the selected rendition instead if there is one.
+     *
+     * @param image The Image to get the layer from
+     * @param source the rendition selected by {@link #selectSource}, or null
+     * @return the image's Layer
+     * @throws IOException
+     */
+    private Layer getLayer(final Image image, final SourceImageSelector.Source source) throws IOException {
+        if (source != null) {
+            final Layer layer = getSufficientLayer(source);
+            if (layer != null) {
+                return layer;
+            }
+        }
+
+        return getLayer(image);
+    }
+
+    /**
+     * Decodes the selected rendition, subsampled where the transforms allow it.
+     *
+     * @return the layer, or null if the image should be decoded as usual
+     */
+    private Layer getSufficientLayer(final SourceImageSelector.Source source) {
+        final Rendition selected = source.getRendition();
+        final Rendition current = source.getCurrent();
+
+        final Layer subsampled = SourceImageSelector.decodeSubsampled(selected, source.getSize(),
+                source.getRequired());
+        if (subsampled != null || selected == current) {
+            return subsampled;
+        }
+
+        log.debug("Decoding [ {} ] instead of [ {} ]", selected.getPath(), current.getPath());
+        try (InputStream in = selected.getStream()) {
+            return new Layer(in);
+        } catch (IOException e) {
+            log.warn("Could not decode [ {} ]; falling back to [ {} ]", selected.getPath(), current.getPath(), e);
+            return null;
+        }
+    }
+
     /**
      * Gets the Image layer.
      *
@@ -516,15 +850,53 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
     }
 
     @Activate
-    protected final void activate(final Map<String, String> properties) {
+    protected final void activate(final BundleContext bundleContext, final Map<String, String> properties) {
+        optimizeTransforms = PropertiesUtil.toBoolean(properties.get(PROP_OPTIMIZE_TRANSFORMS),
+                DEFAULT_OPTIMIZE_TRANSFORMS);
+        try {
+            stepTimings = new TransformStepTimings();
+
+            final Dictionary<String, Object> serviceProps = new Hashtable<>();
+            serviceProps.put("jmx.objectname", "com.adobe.acs.commons.images:type=Named Transform Image Step Timings");
+
+            stepTimingsRegistration = bundleContext.registerService(DynamicMBean.class.getName(),
+                    stepTimings, serviceProps);
+        } catch (NotCompliantMBeanException e) {
+            log.error("Unable to register the transform step timings", e);
+        }
+
+        final int decodeBudget = PropertiesUtil.toInteger(properties.get(PROP_DECODE_BUDGET_MEGAPIXELS),
+                DEFAULT_DECODE_BUDGET_MEGAPIXELS);
+        decodeRetryAfterSeconds = PropertiesUtil.toInteger(properties.get(PROP_DECODE_RETRY_AFTER_SECONDS),
+                DEFAULT_DECODE_RETRY_AFTER_SECONDS);
+        if (decodeBudget > 0) {
+            try {
+                decodeAdmission = new ImageDecodeAdmission(decodeBudget,
+                        PropertiesUtil.toInteger(properties.get(PROP_DECODE_MAX_QUEUED), DEFAULT_DECODE_MAX_QUEUED),
+                        PropertiesUtil.toInteger(properties.get(PROP_DECODE_MAX_WAIT_MS), DEFAULT_DECODE_MAX_WAIT_MS));
+
+                final Dictionary<String, Object> serviceProps = new Hashtable<>();
+                serviceProps.put("jmx.objectname", "com.adobe.acs.commons.images:type=Named Transform Image Decode Admission");
+
+                decodeAdmissionRegistration = bundleContext.registerService(DynamicMBean.class.getName(),
+                        decodeAdmission, serviceProps);
+                log.info("Image decode budget: {} megapixels", decodeBudget);
+            } catch (NotCompliantMBeanException e) {
+                log.error("Unable to register the image decode admission", e);
+            }
+        }
+
         final String regex = PropertiesUtil.toString(properties.get(PROP_ASSET_RENDITION_PICKER_REGEX),
                 DEFAULT_ASSET_RENDITION_PICKER_REGEX);
+        selectSufficientRendition = PropertiesUtil.toBoolean(properties.get(PROP_SELECT_SUFFICIENT_RENDITION),
+                DEFAULT_SELECT_SUFFICIENT_RENDITION);
         final String fileNameRegex = PropertiesUtil.toString(properties.get(NAMED_IMAGE_FILENAME_PATTERN),
                 DEFAULT_FILENAME_PATTERN);
         if (StringUtils.isNotEmpty(fileNameRegex)) {
             lastSuffixPattern = Pattern.compile(fileNameRegex);
         }
 
+        String renditionRegex = regex;
         try {
             renditionPatternPicker = new RenditionPatternPicker(regex);
             log.info("Asset Rendition Pattern Picker: {}", regex);
@@ -532,7 +904,25 @@ public class NamedTransformImageServlet extends SlingSafeMethodsServlet implemen
             log.error("Error creating RenditionPatternPicker with regex [ {} ], defaulting to [ {} ]", regex,
                     DEFAULT_ASSET_RENDITION_PICKER_REGEX);
             renditionPatternPicker = new RenditionPatternPicker(DEFAULT_ASSET_RENDITION_PICKER_REGEX);
+            renditionRegex = DEFAULT_ASSET_RENDITION_PICKER_REGEX;
+        }
+
+        cacheConfiguration = renditionRegex + ";sufficient=" + selectSufficientRendition
+                + ";optimize=" + optimizeTransforms;
+    }
+
+    @Deactivate
+    protected final void deactivate() {
+        if (stepTimingsRegistration != null) {
+            stepTimingsRegistration.unregister();
+            stepTimingsRegistration = null;
+        }
+        stepTimings = null;
+        if (decodeAdmissionRegistration != null) {
+            decodeAdmissionRegistration.unregister();
+            decodeAdmissionRegistration = null;
         }
+        decodeAdmission = null;
     }
 
     protected final void bindNamedImageTransformers(final NamedImageTransformer service,
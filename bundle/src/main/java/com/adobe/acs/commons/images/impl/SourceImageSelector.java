@@ -0,0 +1,427 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamConstants;
+import com.day.cq.dam.api.Rendition;
+import com.day.image.Layer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the cheapest source to decode for a named transform chain.
+ *
+ * When the chain starts (ignoring colour-only transforms) with a resize or bounded-resize, only a source as
+ * large as the resize target is needed. The smallest web or thumbnail rendition that still covers the target
+ * is used instead of the configured one, and a JPEG source much larger than the target is decoded with ImageIO
+ * subsampling so its full-resolution raster is never held in memory.
+ *
+ * A rendition larger than the configured one is never chosen, so output never gets more expensive than before.
+ *
+ * The dimensions of web and thumbnail renditions follow from their names and the original's dimensions in the
+ * asset metadata, so candidates are sized without opening their binaries. Dimensions which have to be read from
+ * a binary header are cached per rendition.
+ */
+final class SourceImageSelector {
+    private static final Logger log = LoggerFactory.getLogger(SourceImageSelector.class);
+
+    /* Web and thumbnail renditions, which are the original fitted within the width and height in their names */
+    private static final Pattern CANDIDATE_RENDITIONS = Pattern.compile("^cq5dam\\.(web|thumbnail)\\.(\\d+)\\.(\\d+)(\\..*)?$");
+
+    private static final int MAX_CACHED_SIZES = 10000;
+
+    /* Rendition dimensions read from binary headers, by rendition path and last modified date */
+    private static final Cache<String, Dimension> SIZE_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_SIZES)
+            .build();
+
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+
+    private static final String TYPE_RESIZE = "resize";
+    private static final String TYPE_BOUNDED_RESIZE = "bounded-resize";
+
+    /* Transforms which do not depend on the layer's dimensions, so may precede the resize */
+    private static final Set<String> SIZE_INDEPENDENT_TYPES = new HashSet<>(Arrays.asList(
+            "quality", "progressive", "greyscale", "adjust", "rgb-shift"));
+
+    private static final String KEY_WIDTH = "width";
+    private static final String KEY_WIDTH_ALIAS = "w";
+    private static final String KEY_HEIGHT = "height";
+    private static final String KEY_HEIGHT_ALIAS = "h";
+    private static final String KEY_UPSCALE = "upscale";
+
+    /* Subsampling is only used while the decoded raster stays at least this many times the target */
+    private static final int SUBSAMPLING_HEADROOM = 2;
+
+    private SourceImageSelector() {
+        // static methods only
+    }
+
+    /**
+     * Computes the smallest source dimensions which produce the same output as the given source.
+     *
+     * @param transforms the ordered transforms and their params
+     * @param source the dimensions of the source the chain would otherwise run against
+     * @return the required dimensions (0 where unconstrained), or null if the chain does not start with a resize
+     */
+    static Dimension getRequiredSize(final ValueMap transforms, final Dimension source) {
+        for (final String type : transforms.keySet()) {
+            if (SIZE_INDEPENDENT_TYPES.contains(type)) {
+                continue;
+            }
+
+            final ValueMap params = transforms.get(type, ValueMap.class);
+            if (params == null) {
+                return null;
+            } else if (StringUtils.equals(TYPE_RESIZE, type)) {
+                return getResizeSize(params);
+            } else if (StringUtils.equals(TYPE_BOUNDED_RESIZE, type)) {
+                return getBoundedResizeSize(params, source);
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static Dimension getResizeSize(final ValueMap params) {
+        final int width = Math.max(0, params.get(KEY_WIDTH, params.get(KEY_WIDTH_ALIAS, 0)));
+        final int height = Math.max(0, params.get(KEY_HEIGHT, params.get(KEY_HEIGHT_ALIAS, 0)));
+        if (width == 0 && height == 0) {
+            // Resizes to the source's own size
+            return null;
+        }
+        return new Dimension(width, height);
+    }
+
+    private static Dimension getBoundedResizeSize(final ValueMap params, final Dimension source) {
+        int width = params.get(KEY_WIDTH, params.get(KEY_WIDTH_ALIAS, source.width));
+        int height = params.get(KEY_HEIGHT, params.get(KEY_HEIGHT_ALIAS, source.height));
+        final boolean upscale = params.get(KEY_UPSCALE, false);
+
+        // Mirrors BoundedResizeTransformerImpl
+        if ((float) width / source.width < (float) height / source.height) {
+            height = Math.round(source.height * ((float) width / source.width));
+        } else {
+            width = Math.round(source.width * ((float) height / source.height));
+        }
+
+        if (!upscale && (width > source.width || height > source.height)) {
+            // The source is returned as is; only the source itself will do
+            return null;
+        }
+        return new Dimension(width, height);
+    }
+
+    /**
+     * @return true if the candidate dimensions cover the required dimensions
+     */
+    static boolean isSufficient(final Dimension candidate, final Dimension required) {
+        return candidate.width >= required.width && candidate.height >= required.height;
+    }
+
+    /**
+     * Picks the smallest candidate rendition covering the required dimensions and no larger than the current one.
+     *
+     * @param asset the asset
+     * @param renditions the asset's renditions
+     * @param current the rendition which would otherwise be used
+     * @param currentSize the current rendition's dimensions
+     * @param required the required dimensions
+     * @return the rendition to decode; the current rendition if none is smaller
+     */
+    static Rendition select(final Asset asset, final Collection<Rendition> renditions, final Rendition current,
+                            final Dimension currentSize, final Dimension required) {
+        Rendition selected = current;
+        long selectedArea = (long) currentSize.width * currentSize.height;
+
+        for (final Rendition rendition : renditions) {
+            if (StringUtils.equals(rendition.getPath(), current.getPath())
+                    || !CANDIDATE_RENDITIONS.matcher(rendition.getName()).matches()) {
+                continue;
+            }
+
+            final Dimension size = getSize(asset, rendition);
+            if (size == null || !isSufficient(size, required)) {
+                continue;
+            }
+
+            final long area = (long) size.width * size.height;
+            if (area < selectedArea) {
+                selected = rendition;
+                selectedArea = area;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Picks the source to decode for the transforms in place of the current rendition.
+     *
+     * @param asset the asset
+     * @param renditions the asset's renditions
+     * @param current the rendition which would otherwise be used
+     * @param transforms the ordered transforms and their params
+     * @return the source to decode, or null if the current rendition should be decoded as usual
+     */
+    static Source choose(final Asset asset, final Collection<Rendition> renditions, final Rendition current,
+                         final ValueMap transforms) {
+        final Dimension currentSize = getSize(asset, current);
+        if (currentSize == null) {
+            return null;
+        }
+
+        final Dimension required = getRequiredSize(transforms, currentSize);
+        if (required == null) {
+            return null;
+        }
+
+        final Rendition selected = select(asset, renditions, current, currentSize, required);
+        final Dimension selectedSize = selected == current ? currentSize : getSize(asset, selected);
+        if (selectedSize == null) {
+            return null;
+        }
+        return new Source(current, selected, selectedSize, required);
+    }
+
+    /**
+     * Gets the dimensions of an asset's rendition. The original's come from the asset metadata and those of web
+     * and thumbnail renditions from their names; only other renditions, or assets without dimensions in their
+     * metadata, fall back to reading (and caching) the binary's header.
+     *
+     * @return the dimensions, or null if unknown
+     */
+    static Dimension getSize(final Asset asset, final Rendition rendition) {
+        final Dimension original = getOriginalSize(asset);
+        if (original != null) {
+            if (StringUtils.equals(DamConstants.ORIGINAL_FILE, rendition.getName())) {
+                return original;
+            }
+
+            final Matcher matcher = CANDIDATE_RENDITIONS.matcher(rendition.getName());
+            if (matcher.matches()) {
+                return fit(original, NumberUtils.toInt(matcher.group(2)), NumberUtils.toInt(matcher.group(3)));
+            }
+        }
+
+        final Calendar lastModified = rendition.getProperties() == null ? null
+                : rendition.getProperties().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        if (lastModified == null) {
+            return readSize(rendition);
+        }
+
+        final String cacheKey = rendition.getPath() + "@" + lastModified.getTimeInMillis();
+        Dimension size = SIZE_CACHE.getIfPresent(cacheKey);
+        if (size == null) {
+            size = readSize(rendition);
+            if (size != null) {
+                SIZE_CACHE.put(cacheKey, size);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the dimensions of the asset's original from its metadata, or null if the metadata has none
+     */
+    private static Dimension getOriginalSize(final Asset asset) {
+        final int width = NumberUtils.toInt(asset.getMetadataValue(DamConstants.TIFF_IMAGEWIDTH));
+        final int height = NumberUtils.toInt(asset.getMetadataValue(DamConstants.TIFF_IMAGELENGTH));
+        return width > 0 && height > 0 ? new Dimension(width, height) : null;
+    }
+
+    /**
+     * @return the dimensions of the original scaled down, keeping its aspect ratio, to fit the bounds
+     */
+    private static Dimension fit(final Dimension original, final int maxWidth, final int maxHeight) {
+        if (original.width <= maxWidth && original.height <= maxHeight) {
+            // Renditions are never upscaled
+            return original;
+        } else if ((long) maxWidth * original.height <= (long) maxHeight * original.width) {
+            return new Dimension(maxWidth, (int) ((long) original.height * maxWidth / original.width));
+        } else {
+            return new Dimension((int) ((long) original.width * maxHeight / original.height), maxHeight);
+        }
+    }
+
+    /**
+     * Reads the dimensions of a rendition from its header, without decoding it.
+     *
+     * @return the dimensions, or null if no ImageIO reader can read the rendition
+     */
+    static Dimension readSize(final Rendition rendition) {
+        return readSize(rendition.getStream(), rendition.getPath());
+    }
+
+    /**
+     * Reads the dimensions of a binary resource (nt:file or nt:resource) from its header, without decoding it.
+     *
+     * @return the dimensions, or null if the resource has no binary or no ImageIO reader can read it
+     */
+    static Dimension readSize(final Resource resource) {
+        return resource == null ? null : readSize(resource.adaptTo(InputStream.class), resource.getPath());
+    }
+
+    private static Dimension readSize(final InputStream stream, final String path) {
+        try (InputStream in = stream;
+             ImageInputStream iis = in == null ? null : ImageIO.createImageInputStream(in)) {
+            final ImageReader reader = getReader(iis);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                reader.setInput(iis, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not read the dimensions of [ {} ]", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a JPEG rendition subsampled, if it is large enough relative to the required dimensions to make
+     * subsampling worthwhile.
+     *
+     * @return the subsampled layer, or null if the rendition should be decoded normally
+     */
+    static Layer decodeSubsampled(final Rendition rendition, final Dimension size, final Dimension required) {
+        if (!StringUtils.equals(MIME_TYPE_JPEG, rendition.getMimeType())) {
+            return null;
+        }
+
+        final int subsampling = getSubsampling(size, required);
+        if (subsampling < 2) {
+            return null;
+        }
+
+        try (InputStream in = rendition.getStream();
+             ImageInputStream iis = in == null ? null : ImageIO.createImageInputStream(in)) {
+            final ImageReader reader = getReader(iis);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                reader.setInput(iis, true, true);
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                final BufferedImage image = reader.read(0, param);
+                log.debug("Decoded [ {} ] with subsampling {}", rendition.getPath(), subsampling);
+                return new Layer(image);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            // e.g. CMYK JPEGs, which ImageIO cannot decode; the regular decoder handles these
+            log.debug("Could not decode [ {} ] subsampled", rendition.getPath(), e);
+            return null;
+        }
+    }
+
+    static int getSubsampling(final Dimension size, final Dimension required) {
+        int subsampling = Integer.MAX_VALUE;
+        if (required.width > 0) {
+            subsampling = Math.min(subsampling, size.width / (required.width * SUBSAMPLING_HEADROOM));
+        }
+        if (required.height > 0) {
+            subsampling = Math.min(subsampling, size.height / (required.height * SUBSAMPLING_HEADROOM));
+        }
+        return subsampling == Integer.MAX_VALUE ? 1 : subsampling;
+    }
+
+    /**
+     * A rendition chosen to be decoded in place of the current one.
+     */
+    static final class Source {
+        private final Rendition current;
+        private final Rendition rendition;
+        private final Dimension size;
+        private final Dimension required;
+
+        private Source(final Rendition current, final Rendition rendition, final Dimension size,
+                       final Dimension required) {
+            this.current = current;
+            this.rendition = rendition;
+            this.size = size;
+            this.required = required;
+        }
+
+        Rendition getCurrent() {
+            return current;
+        }
+
+        Rendition getRendition() {
+            return rendition;
+        }
+
+        Dimension getSize() {
+            return size;
+        }
+
+        Dimension getRequired() {
+            return required;
+        }
+
+        /**
+         * The full size of the rendition is charged even when it is subsampled, as a subsampled decode which
+         * fails falls back to decoding the whole rendition.
+         *
+         * @return the pixels a decode of the rendition may hold
+         */
+        long getDecodePixels() {
+            return (long) size.width * size.height;
+        }
+    }
+
+    private static ImageReader getReader(final ImageInputStream iis) {
+        if (iis == null) {
+            return null;
+        }
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        return readers.hasNext() ? readers.next() : null;
+    }
+}
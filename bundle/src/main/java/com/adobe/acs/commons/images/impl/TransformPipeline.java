@@ -0,0 +1,259 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.acs.commons.images.ImageTransformer;
+import com.adobe.acs.commons.images.PixelImageTransformer;
+import com.day.image.Layer;
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The planned execution of a chain of image transforms.
+ *
+ * Planning makes two changes to the chain as written:
+ * <ul>
+ *     <li>A downscaling resize, bounded-resize or scale preceded only by colour transforms is moved to the front,
+ *     so the colour transforms run over fewer pixels.</li>
+ *     <li>Consecutive {@link PixelImageTransformer}s are fused into one step, which walks the raster once and
+ *     allocates one image for the whole run.</li>
+ * </ul>
+ */
+final class TransformPipeline {
+    private static final Logger log = LoggerFactory.getLogger(TransformPipeline.class);
+
+    private static final String TYPE_QUALITY = "quality";
+    private static final String TYPE_RESIZE = "resize";
+    private static final String TYPE_BOUNDED_RESIZE = "bounded-resize";
+    private static final String TYPE_SCALE = "scale";
+    private static final String KEY_SCALE = "scale";
+
+    /* Transforms which change colours pixel by pixel and do not depend on the layer's dimensions */
+    private static final Set<String> COLOUR_TYPES = new HashSet<>(Arrays.asList(
+            "greyscale", "adjust", "rgb-shift", "multiply"));
+
+    private static final ValueMap EMPTY_PARAMS = new ValueMapDecorator(Collections.<String, Object>emptyMap());
+
+    private final List<Step> steps;
+
+    private TransformPipeline(final List<Step> steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * Plans the transforms for the layer.
+     *
+     * @param layer the layer the pipeline will be run against
+     * @param imageTransformersWithParams the ordered transforms and their params
+     * @param imageTransformers the available image transformers by type
+     * @param optimize true to reorder and fuse steps; false to run the transforms exactly as written
+     * @return the pipeline
+     */
+    static TransformPipeline plan(final Layer layer, final ValueMap imageTransformersWithParams,
+                                  final Map<String, ImageTransformer> imageTransformers, final boolean optimize) {
+        final List<Step> steps = new ArrayList<>();
+        for (final String type : imageTransformersWithParams.keySet()) {
+            if (StringUtils.equals(TYPE_QUALITY, type)) {
+                // Do not process the "quality" transform in the usual manner
+                continue;
+            }
+
+            final ImageTransformer imageTransformer = imageTransformers.get(type);
+            if (imageTransformer == null) {
+                log.warn("Skipping transform. Missing ImageTransformer for type: {}", type);
+                continue;
+            }
+
+            final ValueMap transformParams = imageTransformersWithParams.get(type, EMPTY_PARAMS);
+            if (transformParams != null) {
+                steps.add(new Step(type, imageTransformer, transformParams));
+            }
+        }
+
+        if (!optimize) {
+            return new TransformPipeline(steps);
+        }
+
+        hoistDownscale(steps, new Dimension(layer.getWidth(), layer.getHeight()));
+        return new TransformPipeline(fuse(steps));
+    }
+
+    /**
+     * Moves the first geometry step to the front if it shrinks the image and only colour steps precede it.
+     */
+    private static void hoistDownscale(final List<Step> steps, final Dimension size) {
+        for (int i = 0; i < steps.size(); i++) {
+            final Step step = steps.get(i);
+            if (COLOUR_TYPES.contains(step.type)) {
+                continue;
+            }
+            if (i > 0 && isDownscale(step, size)) {
+                log.debug("Moving [ {} ] ahead of {} colour transform(s)", step.type, i);
+                steps.remove(i);
+                steps.add(0, step);
+            }
+            return;
+        }
+    }
+
+    private static boolean isDownscale(final Step step, final Dimension size) {
+        if (StringUtils.equals(TYPE_SCALE, step.type)) {
+            final Double scale = step.params.get(KEY_SCALE, Double.class);
+            return scale != null && scale > 0 && scale < 1;
+        } else if (StringUtils.equals(TYPE_RESIZE, step.type) || StringUtils.equals(TYPE_BOUNDED_RESIZE, step.type)) {
+            final Map<String, Object> single = new LinkedHashMap<>();
+            single.put(step.type, step.params);
+            final Dimension target = SourceImageSelector.getRequiredSize(new ValueMapDecorator(single), size);
+            return target != null
+                    && target.width <= size.width && target.height <= size.height
+                    && (long) target.width * target.height < (long) size.width * size.height;
+        }
+        return false;
+    }
+
+    /**
+     * Merges runs of pixel transforms into single steps.
+     */
+    private static List<Step> fuse(final List<Step> steps) {
+        final List<Step> fused = new ArrayList<>();
+        final List<Step> run = new ArrayList<>();
+        IntUnaryOperator runOperator = null;
+
+        for (final Step step : steps) {
+            final IntUnaryOperator operator = step.transformer instanceof PixelImageTransformer
+                    ? ((PixelImageTransformer) step.transformer).getPixelOperator(step.params) : null;
+
+            if (operator != null) {
+                run.add(step);
+                runOperator = runOperator == null ? operator : runOperator.andThen(operator);
+            } else {
+                addRun(fused, run, runOperator);
+                runOperator = null;
+                fused.add(step);
+            }
+        }
+        addRun(fused, run, runOperator);
+
+        return fused;
+    }
+
+    private static void addRun(final List<Step> fused, final List<Step> run, final IntUnaryOperator runOperator) {
+        if (run.size() == 1) {
+            // A lone pixel step is left to its transformer
+            fused.add(run.get(0));
+        } else if (run.size() > 1) {
+            final List<String> types = new ArrayList<>();
+            for (final Step step : run) {
+                types.add(step.type);
+            }
+            fused.add(new Step(StringUtils.join(types, "+"), runOperator));
+        }
+        run.clear();
+    }
+
+    /**
+     * @return the names of the planned steps, in order
+     */
+    List<String> getStepNames() {
+        final List<String> names = new ArrayList<>();
+        for (final Step step : steps) {
+            names.add(step.type);
+        }
+        return names;
+    }
+
+    /**
+     * Runs the pipeline.
+     *
+     * @param layer the layer to transform
+     * @param timings receives the time taken by each step; may be null
+     * @return the transformed layer
+     */
+    Layer execute(Layer layer, final TransformStepTimings timings) {
+        for (final Step step : steps) {
+            final long start = System.nanoTime();
+            layer = step.apply(layer);
+            if (timings != null) {
+                timings.record(step.type, System.nanoTime() - start);
+            }
+        }
+        return layer;
+    }
+
+    private static final class Step {
+        private final String type;
+        private final ImageTransformer transformer;
+        private final ValueMap params;
+        private final IntUnaryOperator operator;
+
+        private Step(final String type, final ImageTransformer transformer, final ValueMap params) {
+            this.type = type;
+            this.transformer = transformer;
+            this.params = params;
+            this.operator = null;
+        }
+
+        private Step(final String type, final IntUnaryOperator operator) {
+            this.type = type;
+            this.transformer = null;
+            this.params = EMPTY_PARAMS;
+            this.operator = operator;
+        }
+
+        private Layer apply(final Layer layer) {
+            if (operator == null) {
+                log.debug("Transforming with [ {} ]", type);
+                return transformer.transform(layer, params);
+            }
+
+            log.debug("Transforming with fused [ {} ]", type);
+            final BufferedImage original = layer.getImage();
+            final int width = original.getWidth();
+            final int height = original.getHeight();
+            final BufferedImage updated = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            final int[] row = new int[width];
+
+            for (int y = 0; y < height; y++) {
+                original.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    row[x] = operator.applyAsInt(row[x]);
+                }
+                updated.setRGB(0, y, width, 1, row, 0, width);
+            }
+
+            return new Layer(updated);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the time spent in each step of the named transform pipelines.
+ */
+public final class TransformStepTimings extends AnnotatedStandardMBean implements TransformStepTimingsMBean {
+
+    private final Map<String, Timing> timings = new ConcurrentHashMap<>();
+
+    public TransformStepTimings() throws NotCompliantMBeanException {
+        super(TransformStepTimingsMBean.class);
+    }
+
+    /**
+     * @param step the step name
+     * @param nanos the time the step took
+     */
+    public void record(final String step, final long nanos) {
+        timings.computeIfAbsent(step, k -> new Timing()).add(nanos);
+    }
+
+    @Override
+    @SuppressWarnings("squid:S1192")
+    public TabularData getStepTimings() throws OpenDataException {
+        final CompositeType stepType = new CompositeType(
+                "stepTiming",
+                "Step Timing",
+                new String[]{"step", "count", "totalMs", "averageMs" },
+                new String[]{"Step", "Count", "Total (ms)", "Average (ms)" },
+                new OpenType[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE }
+        );
+
+        final TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType("stepTimings",
+                        "Step Timings",
+                        stepType,
+                        new String[]{"step" })
+        );
+
+        for (final Map.Entry<String, Timing> entry : timings.entrySet()) {
+            final long count = entry.getValue().count.sum();
+            final long nanos = entry.getValue().nanos.sum();
+
+            final Map<String, Object> data = new HashMap<>();
+            data.put("step", entry.getKey());
+            data.put("count", count);
+            data.put("totalMs", TimeUnit.NANOSECONDS.toMillis(nanos));
+            data.put("averageMs", count == 0 ? 0D : (double) nanos / count / TimeUnit.MILLISECONDS.toNanos(1));
+
+            tabularData.put(new CompositeDataSupport(stepType, data));
+        }
+
+        return tabularData;
+    }
+
+    @Override
+    public void resetStepTimings() {
+        timings.clear();
+    }
+
+    private static final class Timing {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private void add(final long elapsed) {
+            count.increment();
+            nanos.add(elapsed);
+        }
+    }
+}
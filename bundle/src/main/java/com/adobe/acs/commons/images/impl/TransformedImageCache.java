@@ -0,0 +1,428 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.acs.commons.util.impl.AbstractGuavaCacheMBean;
+import com.adobe.acs.commons.util.impl.exception.CacheMBeanException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Byte-bounded cache of the encoded output of the Named Transform Image Servlet.
+ *
+ * Entries live in memory up to the configured size; entries evicted for size are spilled to disk (up to a
+ * separate budget) and promoted back into memory on their next hit. Concurrent misses for the same key are
+ * collapsed so the image is decoded, transformed and encoded once. Entries are dropped when the image
+ * resource or the binary it references changes, or when a newer version of them is rendered.
+ *
+ * The cache is only active when this component is explicitly configured.
+ */
+@Component(metatype = true, label = "ACS AEM Commons - Named Transform Image Cache",
+        description = "Caches the rendered output of the Named Transform Image Servlet.",
+        policy = ConfigurationPolicy.REQUIRE)
+@Properties({
+        @Property(name = EventConstants.EVENT_TOPIC,
+                value = { SlingConstants.TOPIC_RESOURCE_CHANGED, SlingConstants.TOPIC_RESOURCE_REMOVED },
+                propertyPrivate = true),
+        @Property(name = "jmx.objectname",
+                value = "com.adobe.acs.commons.images:type=Named Transform Image Cache", propertyPrivate = true)
+})
+@Service(value = {DynamicMBean.class, EventHandler.class, TransformedImageCache.class})
+public class TransformedImageCache extends AbstractGuavaCacheMBean<TransformedImageCacheKey, byte[]>
+        implements EventHandler, TransformedImageCacheMBean {
+
+    private static final Logger log = LoggerFactory.getLogger(TransformedImageCache.class);
+
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+
+    private static final int DEFAULT_MAX_SIZE_MB = 64;
+
+    private static final int DEFAULT_SPILL_MAX_SIZE_MB = 256;
+
+    private static final String DEFAULT_SPILL_DIRECTORY_NAME = "named-transform-image-cache";
+
+    @Property(label = "Max Size (MB)",
+            description = "Maximum size of the encoded images held in memory.",
+            intValue = DEFAULT_MAX_SIZE_MB)
+    private static final String PROP_MAX_SIZE = "max.size.mb";
+
+    @Property(label = "Disk Spill Max Size (MB)",
+            description = "Maximum size of the encoded images spilled to disk when evicted from memory. 0 disables the spill.",
+            intValue = DEFAULT_SPILL_MAX_SIZE_MB)
+    private static final String PROP_SPILL_MAX_SIZE = "spill.max.size.mb";
+
+    @Property(label = "Disk Spill Directory",
+            description = "Directory for spilled entries. Defaults to a folder in the bundle's data area.")
+    private static final String PROP_SPILL_DIRECTORY = "spill.directory";
+
+    private Cache<TransformedImageCacheKey, byte[]> cache;
+
+    private final Map<TransformedImageCacheKey, SpilledEntry> spilled = new ConcurrentHashMap<>();
+
+    // [ RESOURCE OR REFERENCE PATH ] ~> [ KEYS IN MEMORY OR ON DISK ]
+    private final ConcurrentNavigableMap<String, Set<TransformedImageCacheKey>> keysByPath =
+            new ConcurrentSkipListMap<>();
+
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    private final LongAdder spillHits = new LongAdder();
+
+    private volatile File spillDirectory;
+
+    private long spillMaxBytes;
+
+    public TransformedImageCache() throws NotCompliantMBeanException {
+        super(TransformedImageCacheMBean.class);
+    }
+
+    @Activate
+    protected void activate(ComponentContext componentContext) {
+        final Dictionary<?, ?> props = componentContext.getProperties();
+        final long maxBytes = PropertiesUtil.toInteger(props.get(PROP_MAX_SIZE), DEFAULT_MAX_SIZE_MB) * BYTES_PER_MB;
+        this.spillMaxBytes = PropertiesUtil.toInteger(props.get(PROP_SPILL_MAX_SIZE), DEFAULT_SPILL_MAX_SIZE_MB) * BYTES_PER_MB;
+
+        this.cache = CacheBuilder.newBuilder()
+                .recordStats()
+                .maximumWeight(maxBytes)
+                .<TransformedImageCacheKey, byte[]>weigher((key, value) -> value.length)
+                .<TransformedImageCacheKey, byte[]>removalListener(this::onRemoval)
+                .build();
+
+        if (spillMaxBytes > 0) {
+            final String directory = PropertiesUtil.toString(props.get(PROP_SPILL_DIRECTORY), null);
+            final File dir = StringUtils.isNotBlank(directory) ? new File(directory)
+                    : componentContext.getBundleContext().getDataFile(DEFAULT_SPILL_DIRECTORY_NAME);
+            if (dir != null && (dir.isDirectory() || dir.mkdirs())) {
+                deleteSpillFiles(dir);
+                this.spillDirectory = dir;
+            } else {
+                log.warn("Could not use [ {} ] as the spill directory; spilling to disk is disabled", dir);
+            }
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        final File dir = this.spillDirectory;
+        this.spillDirectory = null;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        spilled.clear();
+        keysByPath.clear();
+        spilledBytes.set(0);
+        if (dir != null) {
+            deleteSpillFiles(dir);
+        }
+    }
+
+    /**
+     * Returns the encoded image for the key, rendering it on a miss. Concurrent callers missing on the same key
+     * wait for the single render in progress.
+     *
+     * @param key the cache key
+     * @param renderer renders the encoded image; may return null when the image cannot be rendered
+     * @return the encoded image, or null if the renderer returned null
+     * @throws IOException if rendering failed
+     */
+    public byte[] get(final TransformedImageCacheKey key, final Callable<byte[]> renderer) throws IOException {
+        final AtomicBoolean rendered = new AtomicBoolean();
+        final byte[] value;
+        try {
+            value = cache.get(key, () -> {
+                final byte[] fromDisk = readSpilled(key);
+                if (fromDisk != null) {
+                    spillHits.increment();
+                    index(key);
+                    return fromDisk;
+                }
+                final byte[] output = renderer.call();
+                if (output == null) {
+                    throw new NotRenderableException();
+                }
+                rendered.set(true);
+                index(key);
+                return output;
+            });
+        } catch (ExecutionError e) {
+            throw (Error) e.getCause();
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof NotRenderableException) {
+                return null;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not render " + key, cause);
+        }
+
+        if (rendered.get()) {
+            // Entries rendered from older versions of the image will not be requested again
+            removeAll(getIndexedKeys(key.getResourcePath()), key::isSupersededBy);
+        }
+        return value;
+    }
+
+    /**
+     * Drops every entry rendered from the path, a descendant of it, or an ancestor of it.
+     *
+     * @param path the changed path
+     */
+    public void invalidate(final String path) {
+        if (StringUtils.isBlank(path)) {
+            return;
+        }
+        // The path itself and its descendants ('0' sorts right after '/')
+        final List<TransformedImageCacheKey> affected = new ArrayList<>(getIndexedKeys(path));
+        for (final Set<TransformedImageCacheKey> keys : keysByPath.subMap(path + "/", path + "0").values()) {
+            affected.addAll(keys);
+        }
+        // and its ancestors
+        for (String parent = StringUtils.substringBeforeLast(path, "/"); StringUtils.isNotEmpty(parent);
+             parent = StringUtils.substringBeforeLast(parent, "/")) {
+            affected.addAll(getIndexedKeys(parent));
+        }
+        removeAll(affected, key -> true);
+    }
+
+    @Override
+    public void handleEvent(final Event event) {
+        if (cache == null || keysByPath.isEmpty()) {
+            return;
+        }
+        invalidate((String) event.getProperty(SlingConstants.PROPERTY_PATH));
+    }
+
+    private void removeAll(final Collection<TransformedImageCacheKey> keys,
+                           final Predicate<TransformedImageCacheKey> filter) {
+        for (final TransformedImageCacheKey key : keys) {
+            if (filter.test(key)) {
+                cache.invalidate(key);
+                removeSpilled(key);
+                unindex(key);
+            }
+        }
+    }
+
+    private void onRemoval(final RemovalNotification<TransformedImageCacheKey, byte[]> notification) {
+        if (notification.getCause() == RemovalCause.SIZE) {
+            spill(notification.getKey(), notification.getValue());
+        }
+        if (notification.getCause() != RemovalCause.REPLACED) {
+            unindex(notification.getKey());
+        }
+    }
+
+    private Collection<TransformedImageCacheKey> getIndexedKeys(final String path) {
+        final Set<TransformedImageCacheKey> keys = keysByPath.get(path);
+        return keys == null ? Collections.emptyList() : new ArrayList<>(keys);
+    }
+
+    private void index(final TransformedImageCacheKey key) {
+        for (final String path : new String[]{ key.getResourcePath(), key.getReferencePath() }) {
+            if (path != null) {
+                keysByPath.computeIfAbsent(path, p -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+        }
+    }
+
+    /**
+     * Drops the key from the path index once it is neither held in memory nor on disk.
+     */
+    private void unindex(final TransformedImageCacheKey key) {
+        if (key == null || cache.asMap().containsKey(key) || spilled.containsKey(key)) {
+            return;
+        }
+        for (final String path : new String[]{ key.getResourcePath(), key.getReferencePath() }) {
+            if (path != null) {
+                keysByPath.computeIfPresent(path, (p, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                });
+            }
+        }
+    }
+
+    private void spill(final TransformedImageCacheKey key, final byte[] value) {
+        final File dir = this.spillDirectory;
+        if (dir == null || key == null || value == null) {
+            return;
+        }
+        if (spilledBytes.addAndGet(value.length) > spillMaxBytes) {
+            spilledBytes.addAndGet(-value.length);
+            log.debug("Disk spill is full; dropping [ {} ]", key);
+            return;
+        }
+
+        final File file = new File(dir, DigestUtils.sha1Hex(key.toString()));
+        try {
+            FileUtils.writeByteArrayToFile(file, value);
+            // The file was overwritten, so the previous entry's recorded size is what leaves the budget
+            final SpilledEntry previous = spilled.put(key, new SpilledEntry(file, value.length));
+            if (previous != null) {
+                spilledBytes.addAndGet(-previous.length);
+            }
+        } catch (IOException e) {
+            spilledBytes.addAndGet(-value.length);
+            FileUtils.deleteQuietly(file);
+            log.warn("Could not spill [ {} ] to disk", key, e);
+        }
+    }
+
+    private byte[] readSpilled(final TransformedImageCacheKey key) {
+        final SpilledEntry entry = spilled.get(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return FileUtils.readFileToByteArray(entry.file);
+        } catch (IOException e) {
+            log.warn("Could not read spilled entry [ {} ]", key, e);
+            return null;
+        } finally {
+            // The entry goes back into memory (or is re-rendered); either way the disk copy is done with
+            removeSpilled(key);
+        }
+    }
+
+    private void removeSpilled(final TransformedImageCacheKey key) {
+        final SpilledEntry entry = spilled.remove(key);
+        if (entry != null) {
+            spilledBytes.addAndGet(-entry.length);
+            FileUtils.deleteQuietly(entry.file);
+        }
+    }
+
+    private static void deleteSpillFiles(final File dir) {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    @Override
+    public long getSpilledEntriesCount() {
+        return spilled.size();
+    }
+
+    @Override
+    public String getSpilledSize() {
+        return FileUtils.byteCountToDisplaySize(spilledBytes.get());
+    }
+
+    @Override
+    public long getSpillHitCount() {
+        return spillHits.sum();
+    }
+
+    @Override
+    protected Cache<TransformedImageCacheKey, byte[]> getCache() {
+        return cache;
+    }
+
+    @Override
+    protected long getBytesLength(byte[] cacheObj) {
+        return cacheObj.length;
+    }
+
+    @Override
+    protected void addCacheData(Map<String, Object> data, byte[] cacheObj) {
+        data.put(JMX_PN_SIZE, FileUtils.byteCountToDisplaySize(cacheObj.length));
+    }
+
+    @Override
+    protected String toString(byte[] cacheObj) throws CacheMBeanException {
+        return FileUtils.byteCountToDisplaySize(cacheObj.length);
+    }
+
+    @Override
+    protected CompositeType getCacheEntryType() throws OpenDataException {
+        return new CompositeType(JMX_PN_CACHEENTRY, JMX_PN_CACHEENTRY,
+                new String[] { JMX_PN_CACHEKEY, JMX_PN_SIZE },
+                new String[] { JMX_PN_CACHEKEY, JMX_PN_SIZE },
+                new OpenType[] { SimpleType.STRING, SimpleType.STRING });
+    }
+
+    private static final class SpilledEntry {
+        private final File file;
+        private final long length;
+
+        private SpilledEntry(final File file, final long length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Signals that the renderer had nothing to render, so nothing is cached.
+     */
+    private static final class NotRenderableException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.google.common.base.Objects;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Identifies one encoded output of the Named Transform Image Servlet.
+ * Both the requested resource and the binary it references take part in the key, along with their last modified
+ * dates, so an edit to either yields a new key rather than a stale hit. The servlet configuration that affects the
+ * output (such as the rendition picker) is part of the key as well.
+ */
+final class TransformedImageCacheKey {
+    private final String resourcePath;
+    private final long resourceLastModified;
+    private final String referencePath;
+    private final long referenceLastModified;
+    private final String transforms;
+    private final String mimeType;
+    private final double quality;
+    private final boolean progressive;
+    private final String configuration;
+
+    @SuppressWarnings("squid:S00107")
+    TransformedImageCacheKey(String resourcePath, long resourceLastModified,
+                             String referencePath, long referenceLastModified,
+                             String transforms, String mimeType, double quality, boolean progressive,
+                             String configuration) {
+        this.resourcePath = resourcePath;
+        this.resourceLastModified = resourceLastModified;
+        this.referencePath = referencePath;
+        this.referenceLastModified = referenceLastModified;
+        this.transforms = transforms;
+        this.mimeType = mimeType;
+        this.quality = quality;
+        this.progressive = progressive;
+        this.configuration = configuration;
+    }
+
+    String getResourcePath() {
+        return resourcePath;
+    }
+
+    String getReferencePath() {
+        return referencePath;
+    }
+
+    /**
+     * @param other a key that was just rendered
+     * @return true if this key was rendered from an older version of the same resource and binary than the other
+     */
+    boolean isSupersededBy(TransformedImageCacheKey other) {
+        return StringUtils.equals(resourcePath, other.resourcePath)
+                && StringUtils.equals(referencePath, other.referencePath)
+                && resourceLastModified <= other.resourceLastModified
+                && referenceLastModified <= other.referenceLastModified
+                && (resourceLastModified < other.resourceLastModified
+                        || referenceLastModified < other.referenceLastModified);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final TransformedImageCacheKey other = (TransformedImageCacheKey) obj;
+
+        return Objects.equal(this.resourcePath, other.resourcePath)
+                && this.resourceLastModified == other.resourceLastModified
+                && Objects.equal(this.referencePath, other.referencePath)
+                && this.referenceLastModified == other.referenceLastModified
+                && Objects.equal(this.transforms, other.transforms)
+                && Objects.equal(this.mimeType, other.mimeType)
+                && Double.compare(this.quality, other.quality) == 0
+                && this.progressive == other.progressive
+                && Objects.equal(this.configuration, other.configuration);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(this.resourcePath, this.resourceLastModified, this.referencePath,
+                this.referenceLastModified, this.transforms, this.mimeType, this.quality, this.progressive,
+                this.configuration);
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(resourcePath).append('@').append(resourceLastModified)
+                .append(" [").append(referencePath).append('@').append(referenceLastModified).append("] ")
+                .append(transforms)
+                .append(' ').append(mimeType)
+                .append(" q=").append(quality)
+                .append(progressive ? " progressive" : "")
+                .append(" {").append(configuration).append('}')
+                .toString();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import com.adobe.acs.commons.util.impl.CacheMBean;
+import com.adobe.granite.jmx.annotation.Description;
+
+/**
+ * JMX MBean for the Named Transform Image Servlet output cache.
+ */
+@Description("ACS AEM Commons - Named Transform Image Cache")
+public interface TransformedImageCacheMBean extends CacheMBean {
+
+    @Description("Number of entries spilled to disk")
+    long getSpilledEntriesCount();
+
+    @Description("Size of the entries spilled to disk")
+    String getSpilledSize();
+
+    @Description("Number of requests served from the disk spill")
+    long getSpillHitCount();
+}
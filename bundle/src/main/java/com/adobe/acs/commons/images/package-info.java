@@ -20,5 +20,5 @@
 /**
  * Image utilities.
  */
-@org.osgi.annotation.versioning.Version("1.3.1")
+@org.osgi.annotation.versioning.Version("1.4.0")
 package com.adobe.acs.commons.images;
\ No newline at end of file
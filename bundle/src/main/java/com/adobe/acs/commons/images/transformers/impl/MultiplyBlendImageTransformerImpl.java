@@ -24,6 +24,7 @@ import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.util.function.IntUnaryOperator;
 
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Properties;
@@ -34,6 +35,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adobe.acs.commons.images.ImageTransformer;
+import com.adobe.acs.commons.images.PixelImageTransformer;
 import com.adobe.acs.commons.images.transformers.impl.composites.MultiplyBlendComposite;
 import com.day.image.Layer;
 
@@ -48,9 +50,9 @@ import com.day.image.Layer;
                 value = MultiplyBlendImageTransformerImpl.TYPE
         )
 })
-@Service
+@Service(ImageTransformer.class)
 //@formatter:on
-public class MultiplyBlendImageTransformerImpl implements ImageTransformer {
+public class MultiplyBlendImageTransformerImpl implements PixelImageTransformer {
     private static final Logger log = LoggerFactory.getLogger(MultiplyBlendImageTransformerImpl.class);
 
     static final String TYPE = "multiply";
@@ -72,6 +74,10 @@ public class MultiplyBlendImageTransformerImpl implements ImageTransformer {
 
     private static final int DEFAULT_COLOR_VALUE = 255;
 
+    private static final int BITS_PER_CHANNEL = 8;
+    private static final int RED_OFFSET = 16;
+    private static final int ALPHA_OFFSET = 24;
+
     @Override
     public final Layer transform(final Layer layer, final ValueMap properties) {
 
@@ -92,6 +98,36 @@ public class MultiplyBlendImageTransformerImpl implements ImageTransformer {
         return result;
     }
 
+    /**
+     * The per-pixel form of the merge with the (opaque) color filter, following MultiplyCompositeContext.
+     */
+    @Override
+    public final IntUnaryOperator getPixelOperator(final ValueMap properties) {
+        if (properties == null || properties.isEmpty()) {
+            return null;
+        }
+
+        final float alpha = normalizeAlpha(properties.get(KEY_ALPHA, properties.get(KEY_ALPHA_ALIAS, 0.0)).floatValue());
+        final int color = getColor(properties).getRGB();
+
+        return pixel -> {
+            int result = 0;
+            for (int offset = 0; offset <= RED_OFFSET; offset += BITS_PER_CHANNEL) {
+                final int srcColor = (color >> offset) & DEFAULT_COLOR_VALUE;
+                final int destColor = (pixel >> offset) & DEFAULT_COLOR_VALUE;
+                final int blended = (srcColor * destColor) >> BITS_PER_CHANNEL;
+                result |= ((destColor + (int) ((blended - destColor) * alpha)) & DEFAULT_COLOR_VALUE) << offset;
+            }
+
+            // With the opaque filter, MultiplyCompositeContext blends the alpha to 255 and then applies the opacity
+            // as destAlpha - (255 - destAlpha) * alpha, masked to 8 bits: opaque pixels stay opaque, while
+            // translucent pixels lose alpha (and wrap around once it goes below 0)
+            final int destAlpha = (pixel >>> ALPHA_OFFSET) & DEFAULT_COLOR_VALUE;
+            final int resultAlpha = (destAlpha - (int) ((DEFAULT_COLOR_VALUE - destAlpha) * alpha)) & DEFAULT_COLOR_VALUE;
+            return result | (resultAlpha << ALPHA_OFFSET);
+        };
+    }
+
     private BufferedImage merge(final BufferedImage original, final BufferedImage colorBlend, float alpha) {
         BufferedImage image = new BufferedImage(original.getWidth(), original.getHeight(), BufferedImage.TYPE_INT_ARGB);
 
@@ -20,8 +20,8 @@
 
 package com.adobe.acs.commons.images.transformers.impl;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.util.function.IntUnaryOperator;
 
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Properties;
@@ -32,6 +32,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adobe.acs.commons.images.ImageTransformer;
+import com.adobe.acs.commons.images.PixelImageTransformer;
 import com.day.image.Layer;
 
 /**
@@ -45,9 +46,9 @@ import com.day.image.Layer;
                 value = RGBShiftImageTransformerImpl.TYPE
         )
 })
-@Service
+@Service(ImageTransformer.class)
 //@formatter:on
-public class RGBShiftImageTransformerImpl implements ImageTransformer {
+public class RGBShiftImageTransformerImpl implements PixelImageTransformer {
     private static final Logger log = LoggerFactory.getLogger(RGBShiftImageTransformerImpl.class);
 
     static final String TYPE = "rgb-shift";
@@ -68,6 +69,11 @@ public class RGBShiftImageTransformerImpl implements ImageTransformer {
     private static final int MIN_COLOR_VALUE = 0;
     private static final int MAX_COLOR_VALUE = 255;
 
+    private static final int OPAQUE = 0xFF000000;
+    private static final int RED_OFFSET = 16;
+    private static final int GREEN_OFFSET = 8;
+    private static final int BLUE_OFFSET = 0;
+
     @Override
     public final Layer transform(final Layer layer, final ValueMap properties) {
 
@@ -78,6 +84,18 @@ public class RGBShiftImageTransformerImpl implements ImageTransformer {
 
         log.debug("Transforming with [ {} ]", TYPE);
 
+        BufferedImage image = shift(layer.getImage(), getPixelOperator(properties));
+        Layer result = new Layer(image);
+
+        return result;
+    }
+
+    @Override
+    public final IntUnaryOperator getPixelOperator(final ValueMap properties) {
+        if (properties == null || properties.isEmpty()) {
+            return null;
+        }
+
         float red = normalizeRGB(properties.get(KEY_RED, properties.get(KEY_RED_ALIAS, DEFAULT_SHIFT_VALUE))
                 .floatValue());
         float green = normalizeRGB(properties.get(KEY_GREEN, properties.get(KEY_GREEN_ALIAS, DEFAULT_SHIFT_VALUE))
@@ -85,50 +103,39 @@ public class RGBShiftImageTransformerImpl implements ImageTransformer {
         float blue = normalizeRGB(properties.get(KEY_BLUE, properties.get(KEY_BLUE_ALIAS, DEFAULT_SHIFT_VALUE))
                 .floatValue());
 
-        int redShift = Math.round(red * MAX_COLOR_VALUE);
-        int greenShift = Math.round(green * MAX_COLOR_VALUE);
-        int blueShift = Math.round(blue * MAX_COLOR_VALUE);
+        final int redShift = Math.round(red * MAX_COLOR_VALUE);
+        final int greenShift = Math.round(green * MAX_COLOR_VALUE);
+        final int blueShift = Math.round(blue * MAX_COLOR_VALUE);
 
-        BufferedImage image = shift(layer.getImage(), redShift, greenShift, blueShift);
+        // The shifted image is opaque
+        return pixel -> OPAQUE
+                | shiftChannel(pixel, RED_OFFSET, redShift)
+                | shiftChannel(pixel, GREEN_OFFSET, greenShift)
+                | shiftChannel(pixel, BLUE_OFFSET, blueShift);
+    }
 
-        Layer result = new Layer(image);
-        return result;
+    private static int shiftChannel(final int pixel, final int offset, final int shift) {
+        int color = ((pixel >> offset) & MAX_COLOR_VALUE) + shift;
+        if (color > MAX_COLOR_VALUE) {
+            color = MAX_COLOR_VALUE;
+        } else if (color < MIN_COLOR_VALUE) {
+            color = MIN_COLOR_VALUE;
+        }
+        return color << offset;
     }
 
-    private BufferedImage shift(final BufferedImage original, final int redShift, final int greenShift,
-            final int blueShift) {
-        BufferedImage updated = new BufferedImage(original.getWidth(), original.getHeight(),
-                BufferedImage.TYPE_INT_ARGB);
-
-        for (int x = 0; x < original.getWidth(); x++) {
-            for (int y = 0; y < original.getHeight(); y++) {
-                Color pixel = new Color(original.getRGB(x, y));
-
-                int red = pixel.getRed() + redShift;
-                if (red > MAX_COLOR_VALUE) {
-                    red = MAX_COLOR_VALUE;
-                } else if (red < MIN_COLOR_VALUE) {
-                    red = MIN_COLOR_VALUE;
-                }
-
-                int green = pixel.getGreen() + greenShift;
-                if (green > MAX_COLOR_VALUE) {
-                    green = MAX_COLOR_VALUE;
-                } else if (green < MIN_COLOR_VALUE) {
-                    green = MIN_COLOR_VALUE;
-                }
-
-                int blue = pixel.getBlue() + blueShift;
-                if (blue > MAX_COLOR_VALUE) {
-                    blue = MAX_COLOR_VALUE;
-                } else if (blue < MIN_COLOR_VALUE) {
-                    blue = MIN_COLOR_VALUE;
-                }
-
-                Color shifted = new Color(red, green, blue);
-                updated.setRGB(x, y, shifted.getRGB());
+    private BufferedImage shift(final BufferedImage original, final IntUnaryOperator operator) {
+        final int width = original.getWidth();
+        final int height = original.getHeight();
+        final BufferedImage updated = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final int[] row = new int[width];
 
+        for (int y = 0; y < height; y++) {
+            original.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                row[x] = operator.applyAsInt(row[x]);
             }
+            updated.setRGB(0, y, width, 1, row, 0, width);
         }
 
         return updated;
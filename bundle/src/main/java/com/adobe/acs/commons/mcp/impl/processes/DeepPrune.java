@@ -28,14 +28,18 @@ import com.adobe.acs.commons.mcp.ProcessInstance;
 import com.adobe.acs.commons.mcp.form.CheckboxComponent;
 import com.adobe.acs.commons.mcp.form.PathfieldComponent;
 import com.adobe.acs.commons.mcp.form.RadioComponent.EnumerationSelector;
+import com.adobe.acs.commons.mcp.model.GenericReport;
 import com.adobe.acs.commons.mcp.util.StringUtil;
 import com.adobe.acs.commons.util.visitors.TreeFilteringResourceVisitor;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import javax.jcr.RepositoryException;
 import org.apache.commons.lang.StringUtils;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.PersistenceException;
@@ -112,6 +116,26 @@ public class DeepPrune extends ProcessDefinition implements Serializable {
     )
     private boolean stopJobs = true;
 
+    @FormField(
+            name = "Streaming delete",
+            description = "If checked, delete bottom-up in a single pass, in parallel across subfolders of the starting folder, instead of making several passes",
+            component = CheckboxComponent.class
+    )
+    private boolean streaming = false;
+
+    @FormField(name="Target commit time",
+        description="Streaming delete only: batch size grows while commits are faster than this and shrinks when slower (in milliseconds)",
+        hint="500",
+        options={"default=500"})
+    public int targetCommitTime = 500;
+
+    public static enum ReportColumns {
+        STARTING_FOLDER, DELETED, COMMITS, FAILED, SECONDS, NODES_PER_SECOND
+    }
+
+    private transient StreamingPruner pruner;
+    private transient long pruneStart;
+
     public static final String JOB_TYPE = "slingevent:Job";
     private final transient List<String> suspendedQueues = new ArrayList<>();
 
@@ -129,14 +153,18 @@ public class DeepPrune extends ProcessDefinition implements Serializable {
         if (stopJobs) {
             instance.defineCriticalAction("Stop job queues", rr, this::stopJobQueues);
         }
-        if (numPasses > 0) {
-            instance.defineAction("1st pass", rr, this::purgeJobs);
-        }
-        if (numPasses > 1) {
-            instance.defineAction("2nd pass", rr, this::purgeJobs);
-        }
-        if (numPasses > 2) {
-            instance.defineAction("3rd pass", rr, this::purgeJobs);
+        if (streaming) {
+            instance.defineAction("Streaming delete", rr, this::streamingPurge);
+        } else {
+            if (numPasses > 0) {
+                instance.defineAction("1st pass", rr, this::purgeJobs);
+            }
+            if (numPasses > 1) {
+                instance.defineAction("2nd pass", rr, this::purgeJobs);
+            }
+            if (numPasses > 2) {
+                instance.defineAction("3rd pass", rr, this::purgeJobs);
+            }
         }
         if (stopJobs) {
             instance.defineCriticalAction("Resume job queues", rr, this::resumeJobQueues);
@@ -192,6 +220,23 @@ public class DeepPrune extends ProcessDefinition implements Serializable {
         });
     }
 
+    private void streamingPurge(ActionManager manager) {
+        TreeFilteringResourceVisitor folders = new TreeFilteringResourceVisitor();
+        pruner = new StreamingPruner(
+                res -> folders.isFolder(res) && !shouldIgnore(res),
+                (res, level) -> folders.isFolder(res)
+                        ? level >= minPurgeDepth && !shouldIgnore(res) && folderRule.matcher.apply(res.getName())
+                        : !shouldIgnore(res),
+                batchSize, targetCommitTime, retryCount, retryWait);
+        pruneStart = System.currentTimeMillis();
+        // Each subfolder of the starting folder is a disjoint shard pruned by its own worker
+        manager.deferredWithResolver(rr -> pruner.prune(rr, startingFolder, 0,
+                shard -> manager.deferredWithResolver(shardRr -> {
+                    Actions.setCurrentItem(shard);
+                    pruner.prune(shardRr, shard, 1, null);
+                })));
+    }
+
     private void deleteResource(ResourceResolver rr, String path) throws PersistenceException {
         Actions.setCurrentItem(path);
         Resource r = rr.getResource(path);
@@ -209,7 +254,21 @@ public class DeepPrune extends ProcessDefinition implements Serializable {
     }
 
     @Override
-    public void storeReport(ProcessInstance instance, ResourceResolver rr) {
-        // no-op
+    public void storeReport(ProcessInstance instance, ResourceResolver rr) throws RepositoryException, PersistenceException {
+        if (pruner == null) {
+            return;
+        }
+        long millis = Math.max(1, System.currentTimeMillis() - pruneStart);
+        EnumMap<ReportColumns, Object> row = new EnumMap<>(ReportColumns.class);
+        row.put(ReportColumns.STARTING_FOLDER, startingFolder);
+        row.put(ReportColumns.DELETED, pruner.getDeletedCount());
+        row.put(ReportColumns.COMMITS, pruner.getCommitCount());
+        row.put(ReportColumns.FAILED, pruner.getFailedCount());
+        row.put(ReportColumns.SECONDS, millis / 1000.0);
+        row.put(ReportColumns.NODES_PER_SECOND, Math.round(pruner.getDeletedCount() * 1000.0 / millis));
+        GenericReport report = new GenericReport();
+        report.setName("Deep prune " + startingFolder);
+        report.setRows(Collections.singletonList(row), ReportColumns.class);
+        report.persist(rr, instance.getPath() + "/jcr:content/report");
     }
 }
\ No newline at end of file
@@ -42,12 +42,15 @@ import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.jcr.RepositoryException;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.output.NullOutputStream;
 import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
@@ -85,6 +88,11 @@ public class RefreshFolderTumbnails extends ProcessDefinition {
 
     public static final String FOLDER_THUMBNAIL = "/jcr:content/folderThumbnail";
 
+    public static final String PN_THUMBNAIL_FINGERPRINT = "folderThumbnailFingerprint";
+
+    // Folder thumbnails are composed from the first few assets of the folder
+    private static final int FINGERPRINT_ASSETS = 3;
+
     private static Map<String, Object> THUMBNAIL_PARAMS = new HashMap<>();
 
     static {
@@ -113,8 +121,16 @@ public class RefreshFolderTumbnails extends ProcessDefinition {
     )
     private boolean dryRun = true;
 
+    @FormField(name = "Skip unchanged",
+            description = "Skip folders whose first assets are unchanged since this process last rebuilt their thumbnail",
+            component = CheckboxComponent.class
+    )
+    private boolean skipUnchanged = false;
+
     private transient List<String> foldersToReplace = Collections.synchronizedList(new ArrayList<>());
 
+    private transient Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
     public RefreshFolderTumbnails(RequestResponseFactory reqRspFactory, SlingRequestProcessor slingProcessor) {
         this.requestFactory = reqRspFactory;
         this.slingProcessor = slingProcessor;
@@ -131,6 +147,7 @@ public class RefreshFolderTumbnails extends ProcessDefinition {
         if (!dryRun) {
             instance.defineAction("Remove old thumbnails", rr, this::removeOldThumbnails);
             instance.defineAction("Rebuild thumbnails", rr, this::rebuildThumbnails);
+            instance.defineAction("Record fingerprints", rr, this::recordFingerprints);
         }
     }
 
@@ -164,11 +181,16 @@ public class RefreshFolderTumbnails extends ProcessDefinition {
         visitor.setResourceVisitor((folder, level) -> {
             String path = folder.getPath();
             manager.deferredWithResolver(rr -> {
-                if (scanMode.shouldReplace(rr.getResource(path))) {
+                Resource damFolder = rr.getResource(path);
+                if (scanMode.shouldReplace(damFolder)) {
                     String result = scanResult.get();
                     scanResult.remove();
-                    record(path, "Flagged", result);
-                    foldersToReplace.add(path);
+                    if (skipUnchanged && isFingerprintUnchanged(damFolder)) {
+                        record(path, "Skipped", "First assets unchanged since thumbnail was last rebuilt");
+                    } else {
+                        record(path, "Flagged", result);
+                        foldersToReplace.add(path);
+                    }
                 }
             });
         });
@@ -192,10 +214,34 @@ public class RefreshFolderTumbnails extends ProcessDefinition {
         batch.commitBatch();
     }
 
+    /**
+     * Each rebuild is a task of its own, so the throttled task runner bounds the image composition and the process
+     * can be halted between folders; the fingerprints are written afterwards in batches.
+     */
     private void rebuildThumbnails(ActionManager manager) {
         foldersToReplace.forEach(path -> {
-            manager.deferredWithResolver(rr -> rebuildThumbnail(rr, path));
+            manager.deferredWithResolver(rr -> {
+                rebuildThumbnail(rr, path);
+                Resource folder = rr.getResource(path);
+                if (folder != null) {
+                    fingerprints.put(path, getFingerprint(folder));
+                }
+            });
+        });
+    }
+
+    private void recordFingerprints(ActionManager manager) {
+        ActionBatch batch = new ActionBatch(manager, 20);
+        fingerprints.forEach((path, fingerprint) -> {
+            batch.add(rr -> {
+                Resource content = rr.getResource(path + "/" + JcrConstants.JCR_CONTENT);
+                ModifiableValueMap properties = content != null ? content.adaptTo(ModifiableValueMap.class) : null;
+                if (properties != null) {
+                    properties.put(PN_THUMBNAIL_FINGERPRINT, fingerprint);
+                }
+            });
         });
+        batch.commitBatch();
     }
 
     private void rebuildThumbnail(ResourceResolver rr, String folderPath) throws ServletException, IOException {
@@ -299,6 +345,36 @@ public class RefreshFolderTumbnails extends ProcessDefinition {
         return false;
     }
 
+    /**
+     * @param damFolder the folder
+     * @return a fingerprint of the paths and modification dates of the first assets in the folder
+     */
+    protected static String getFingerprint(Resource damFolder) {
+        StringBuilder data = new StringBuilder();
+        int count = 0;
+        for (Resource child : damFolder.getChildren()) {
+            if (count >= FINGERPRINT_ASSETS) {
+                break;
+            }
+            if (DamConstants.NT_DAM_ASSET.equals(child.getResourceType())) {
+                Resource content = child.getChild(JcrConstants.JCR_CONTENT);
+                Date assetModified = content != null ? content.getValueMap().get(JcrConstants.JCR_LASTMODIFIED, Date.class) : null;
+                data.append(child.getPath()).append('@').append(assetModified != null ? assetModified.getTime() : 0).append('\n');
+                count++;
+            }
+        }
+        return DigestUtils.sha1Hex(data.toString());
+    }
+
+    protected static boolean isFingerprintUnchanged(Resource damFolder) {
+        Resource content = damFolder.getChild(JcrConstants.JCR_CONTENT);
+        if (content == null || damFolder.getChild("jcr:content/folderThumbnail") == null) {
+            return false;
+        }
+        String fingerprint = content.getValueMap().get(PN_THUMBNAIL_FINGERPRINT, String.class);
+        return fingerprint != null && fingerprint.equals(getFingerprint(damFolder));
+    }
+
     protected static boolean isThumbnailManual(Resource damFolder) {
         return damFolder.getChild("jcr:content/manualThumbnail.jpg") != null
                 || damFolder.getChild("jcr:content/manualThumbnail.png") != null;
@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.mcp.impl.processes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes a tree bottom-up in bounded commits, without holding more than a child iterator per folder along the
+ * current path in memory. The commit size grows while commits are faster than the target commit time and shrinks
+ * when they are slower or conflict. One instance may prune several disjoint subtrees concurrently, each on its own
+ * resource resolver; the counters are shared.
+ */
+class StreamingPruner {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingPruner.class);
+
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private final Predicate<Resource> traversable;
+    private final BiPredicate<Resource, Integer> deletable;
+    private final int initialBatchSize;
+    private final long targetCommitNanos;
+    private final int retryCount;
+    private final long retryWait;
+
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param traversable true for folders whose children should be pruned
+     * @param deletable true for resources that should be deleted, given their depth relative to the starting folder
+     * @param initialBatchSize number of deletes in the first commit
+     * @param targetCommitMillis commit time the batch size is adjusted towards
+     * @param retryCount attempts per delete when a batch commit fails
+     * @param retryWait delay between attempts in milliseconds
+     */
+    StreamingPruner(Predicate<Resource> traversable, BiPredicate<Resource, Integer> deletable,
+            int initialBatchSize, long targetCommitMillis, int retryCount, long retryWait) {
+        this.traversable = traversable;
+        this.deletable = deletable;
+        this.initialBatchSize = Math.max(1, Math.min(initialBatchSize, MAX_BATCH_SIZE));
+        this.targetCommitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, targetCommitMillis));
+        this.retryCount = Math.max(1, retryCount);
+        this.retryWait = retryWait;
+    }
+
+    /**
+     * Prunes the tree under the given path. If a shard handler is provided, the traversable children of the root are
+     * handed to it instead of being descended into, and the root itself is not deleted.
+     *
+     * @param rr resource resolver to delete with
+     * @param path root of the tree to prune
+     * @param level depth of the root relative to the starting folder
+     * @param shardHandler receives the paths of the root's traversable children, or null to prune them here
+     * @throws PersistenceException if deletes could not be saved even after retrying them individually
+     * @throws InterruptedException if interrupted while waiting to retry
+     */
+    void prune(ResourceResolver rr, String path, int level, Consumer<String> shardHandler)
+            throws PersistenceException, InterruptedException {
+        Batch batch = new Batch(rr);
+        Deque<Frame> stack = new ArrayDeque<>();
+        Resource root = rr.getResource(path);
+        if (root == null) {
+            return;
+        }
+        stack.push(new Frame(root, level));
+
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.children.hasNext()) {
+                // Looked up again, as the iterator's resource may predate a commit or revert
+                Resource child = rr.getResource(frame.children.next().getPath());
+                if (child == null) {
+                    continue;
+                }
+                int childLevel = frame.level + 1;
+                if (traversable.test(child)) {
+                    if (shardHandler != null && frame.level == level) {
+                        shardHandler.accept(child.getPath());
+                    } else {
+                        stack.push(new Frame(child, childLevel));
+                    }
+                } else if (deletable.test(child, childLevel)) {
+                    batch.delete(child);
+                }
+            } else {
+                stack.pop();
+                if (!(shardHandler != null && frame.level == level)) {
+                    // All children have been visited, so the folder can go
+                    Resource folder = rr.getResource(frame.path);
+                    if (folder != null && deletable.test(folder, frame.level)) {
+                        batch.delete(folder);
+                    }
+                }
+            }
+        }
+        batch.commit();
+    }
+
+    long getDeletedCount() {
+        return deleted.sum();
+    }
+
+    long getCommitCount() {
+        return commits.sum();
+    }
+
+    long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Deletes pending on one resource resolver, committed once the adaptive batch size is reached.
+     */
+    private class Batch {
+        private final ResourceResolver rr;
+        private final List<String> pending = new ArrayList<>();
+        private int size = initialBatchSize;
+
+        Batch(ResourceResolver rr) {
+            this.rr = rr;
+        }
+
+        void delete(Resource res) throws PersistenceException, InterruptedException {
+            pending.add(res.getPath());
+            rr.delete(res);
+            if (pending.size() >= size) {
+                commit();
+            }
+        }
+
+        void commit() throws PersistenceException, InterruptedException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                rr.commit();
+                deleted.add(pending.size());
+                commits.increment();
+                adjust(System.nanoTime() - start);
+            } catch (PersistenceException ex) {
+                LOG.debug("Commit of {} deletes failed, retrying individually", pending.size(), ex);
+                rr.revert();
+                rr.refresh();
+                size = Math.max(1, size / 2);
+                retryIndividually();
+            }
+            pending.clear();
+        }
+
+        private void adjust(long commitNanos) {
+            if (commitNanos < targetCommitNanos / 2) {
+                size = Math.min(MAX_BATCH_SIZE, size * 2);
+            } else if (commitNanos > targetCommitNanos) {
+                size = Math.max(1, size / 2);
+            }
+        }
+
+        private void retryIndividually() throws PersistenceException, InterruptedException {
+            for (String path : pending) {
+                PersistenceException lastFailure = null;
+                for (int attempt = 0; attempt < retryCount; attempt++) {
+                    Resource res = rr.getResource(path);
+                    if (res == null) {
+                        // Already removed, for instance along with a parent in this batch
+                        lastFailure = null;
+                        break;
+                    }
+                    try {
+                        rr.delete(res);
+                        rr.commit();
+                        deleted.increment();
+                        commits.increment();
+                        lastFailure = null;
+                        break;
+                    } catch (PersistenceException ex) {
+                        lastFailure = ex;
+                        rr.revert();
+                        rr.refresh();
+                        Thread.sleep(retryWait);
+                    }
+                }
+                if (lastFailure != null) {
+                    failed.increment();
+                    throw lastFailure;
+                }
+            }
+        }
+    }
+
+    /**
+     * A folder on the current path, with a live iterator over its children. Only children the iterator has already
+     * returned are ever deleted, so the deletes do not disturb the iteration.
+     */
+    private static class Frame {
+        final String path;
+        final int level;
+        final Iterator<Resource> children;
+
+        Frame(Resource res, int level) {
+            this.path = res.getPath();
+            this.level = level;
+            this.children = res.listChildren();
+        }
+    }
+}
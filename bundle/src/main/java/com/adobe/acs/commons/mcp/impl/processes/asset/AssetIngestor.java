@@ -33,6 +33,8 @@ import com.adobe.acs.commons.mcp.model.ValueFormat;
 import com.day.cq.commons.jcr.JcrConstants;
 import com.day.cq.dam.api.Asset;
 import com.day.cq.dam.api.AssetManager;
+import com.day.cq.dam.api.DamConstants;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.PersistenceException;
@@ -66,6 +68,7 @@ public abstract class AssetIngestor extends ProcessDefinition {
             "dam-administrators"
     };
     public static final String PN_MIGRATED_FROM = "migratedFrom";
+    public static final String PN_MIGRATED_FINGERPRINT = "migratedFingerprint";
 
     protected final transient MimeTypeService mimetypeService;
 
@@ -177,6 +180,14 @@ public abstract class AssetIngestor extends ProcessDefinition {
             options = {"default=skip", "vertical"}
     )
     protected transient AssetAction existingAssetAction = AssetAction.skip;
+    @FormField(
+            name = "Skip unchanged",
+            description = "If checked, existing assets are only replaced or versioned when the source has changed since the last import. "
+                          + "Sources are compared by fingerprint (ETag or size and modification date) without transferring data where possible, "
+                          + "otherwise by SHA-1 against dam:sha1.",
+            component = CheckboxComponent.class
+    )
+    protected transient boolean skipUnchanged = false;
     @FormField(
             name = "Minimum size",
             description = "Min size to import (in bytes), 0=none",
@@ -201,6 +212,8 @@ public abstract class AssetIngestor extends ProcessDefinition {
             = trackActivity(ALL_ASSETS, "Import", "Count of all assets imports", 0L);
     EnumMap<ReportColumns, Object> skippedFiles
             = trackActivity(ALL_ASSETS, "Skipped", "Count of skipped files", 0L);
+    EnumMap<ReportColumns, Object> unchangedAssets
+            = trackActivity(ALL_ASSETS, "Unchanged", "Count of existing assets skipped because the source is unchanged", 0L);
     EnumMap<ReportColumns, Object> importedData
             = trackActivity(ALL_ASSETS, "Data imported", "Count of bytes imported", 0L);
 
@@ -325,7 +338,7 @@ public abstract class AssetIngestor extends ProcessDefinition {
         }
     }
 
-    void saveMigrationInfo(final Source source, final Asset asset) {
+    void saveMigrationInfo(final Source source, final Asset asset) throws IOException {
         Resource assetResource = asset.adaptTo(Resource.class);
 
         if (assetResource != null) {
@@ -341,11 +354,55 @@ public abstract class AssetIngestor extends ProcessDefinition {
                 }
 
                 assetProperties.put(PN_MIGRATED_FROM, source.getElement().getItemName());
+
+                String fingerprint = source.getFingerprint();
+                if (fingerprint != null) {
+                    assetProperties.put(PN_MIGRATED_FINGERPRINT, fingerprint);
+                }
             }
         }
     }
 
+    /**
+     * Determines if the existing asset was imported from the same content the source currently holds.  The
+     * fingerprint recorded by a previous import is compared first since it requires no data transfer; if the source
+     * cannot provide one, its content is streamed and compared by SHA-1 against dam:sha1.
+     *
+     * @param source Source of the asset
+     * @param assetResource Existing asset resource, may be null
+     * @return true if the source is known to be unchanged
+     * @throws IOException if the source could not be read
+     */
+    boolean isUnchanged(Source source, Resource assetResource) throws IOException {
+        Resource contentResource = assetResource == null ? null : assetResource.getChild(JcrConstants.JCR_CONTENT);
+        if (contentResource == null) {
+            return false;
+        }
+        String fingerprint = source.getFingerprint();
+        if (fingerprint != null) {
+            return fingerprint.equals(contentResource.getValueMap().get(PN_MIGRATED_FINGERPRINT, String.class));
+        }
+        Resource metadataResource = contentResource.getChild(DamConstants.METADATA_FOLDER);
+        String storedSha1 = metadataResource == null ? null : metadataResource.getValueMap().get(DamConstants.PN_SHA1, String.class);
+        if (StringUtils.isEmpty(storedSha1)) {
+            return false;
+        }
+        try {
+            return storedSha1.equalsIgnoreCase(DigestUtils.sha1Hex(source.getStream()));
+        } finally {
+            source.close();
+        }
+    }
+
     protected void handleExistingAsset(Source source, String assetPath, ResourceResolver r) throws Exception {
+        if (skipUnchanged && existingAssetAction != AssetAction.skip && isUnchanged(source, r.getResource(assetPath))) {
+            incrementCount(skippedFiles, 1L);
+            incrementCount(unchangedAssets, 1L);
+
+            trackDetailedActivity(source.getElement().getSourcePath() + " -> " + assetPath,
+                                  "Skip", "Skipped unchanged asset", 0L);
+            return;
+        }
         switch (existingAssetAction) {
             case skip:
                 //if skip then we only create asset if it doesn't exist
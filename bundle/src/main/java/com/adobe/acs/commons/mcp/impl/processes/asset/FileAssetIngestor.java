@@ -219,6 +219,11 @@ public class FileAssetIngestor extends AssetIngestor {
             return file.length();
         }
 
+        @Override
+        public String getFingerprint() {
+            return "file:" + file.length() + ":" + file.lastModified();
+        }
+
         @Override
         public HierarchicalElement getElement() {
             return element;
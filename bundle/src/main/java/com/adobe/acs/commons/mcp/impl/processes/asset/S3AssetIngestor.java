@@ -193,6 +193,11 @@ public class S3AssetIngestor extends AssetIngestor {
             return s3ObjectSummary.getSize();
         }
 
+        @Override
+        public String getFingerprint() {
+            return "s3:" + s3ObjectSummary.getETag() + ":" + s3ObjectSummary.getSize();
+        }
+
         @Override
         public InputStream getStream() throws IOException {
             close();
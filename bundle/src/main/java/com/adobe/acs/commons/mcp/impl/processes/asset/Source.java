@@ -35,6 +35,15 @@ public interface Source {
 
     HierarchicalElement getElement();
 
+    /**
+     * @return An identifier of the current source content which can be determined without transferring it, such as
+     * an ETag or a size and modification date pair, or null if the source cannot provide one
+     * @throws IOException if the source could not be inspected
+     */
+    default String getFingerprint() throws IOException {
+        return null;
+    }
+
     void close() throws IOException;
     
 }
@@ -31,6 +31,7 @@ import com.day.cq.replication.ReplicationResult;
 import org.apache.sling.api.resource.ResourceResolver;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service used to issue Dispatcher Flush requests.
@@ -79,6 +80,27 @@ public interface DispatcherFlusher {
                                         boolean synchronous, AgentFilter agentFilter, String... paths) throws
             ReplicationException;
 
+    /**
+     * Issue flush replication requests to each of the targeted agents in parallel.
+     *
+     * Each agent is flushed on its own, so a slow or unreachable agent does not delay the others. The future of an
+     * agent completes exceptionally if its flush fails, takes longer than the configured timeout or is skipped as
+     * the agent failed repeatedly before.
+     *
+     * @param resourceResolver access into repository; Must have access to the resources to flush
+     * @param actionType specifies the Replication Type that will be associated with the flush requests
+     *                   (ex. Activate, Deactivate, Delete)
+     * @param synchronous specifies if the Replication Requests should be synchronous or asynchronous
+     * @param agentFilter filter used to specify agents to flush
+     * @param paths list of resources to flush
+     * @return a map of the targeted flush agents and the future result of their replication requests; the result
+     * is null if the agent did not report one
+     */
+    Map<Agent, CompletableFuture<ReplicationResult>> flushAsync(ResourceResolver resourceResolver,
+                                                                ReplicationActionType actionType,
+                                                                boolean synchronous, AgentFilter agentFilter,
+                                                                String... paths);
+
     /**
      * Get Replication Agents targeted by this service.
      *
@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.replication.dispatcher.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the parallel flushes of each Dispatcher flush agent: a latency histogram, the outcomes and a circuit
+ * breaker which skips an agent for a while once it failed a number of times in a row.
+ */
+public final class DispatcherFlushAgentStats extends AnnotatedStandardMBean implements DispatcherFlushAgentStatsMBean {
+
+    /* Upper bounds of the latency histogram buckets in milliseconds; the last bucket is unbounded */
+    private static final long[] BUCKETS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    enum Outcome {
+        SUCCESS, FAILURE, TIMEOUT
+    }
+
+    private final Map<String, AgentStats> agents = new ConcurrentHashMap<>();
+
+    private final int failureThreshold;
+    private final long openDurationInMillis;
+
+    /**
+     * @param failureThreshold consecutive failures after which the circuit breaker of an agent opens, 0 disables
+     *                         the circuit breakers
+     * @param openDurationInMillis time an open circuit breaker skips the agent
+     */
+    public DispatcherFlushAgentStats(final int failureThreshold, final long openDurationInMillis)
+            throws NotCompliantMBeanException {
+        super(DispatcherFlushAgentStatsMBean.class);
+        this.failureThreshold = failureThreshold;
+        this.openDurationInMillis = openDurationInMillis;
+    }
+
+    /**
+     * @param agentId the agent to flush
+     * @return false if the circuit breaker of the agent is open and the flush should be skipped
+     */
+    boolean allowFlush(final String agentId) {
+        final AgentStats stats = getAgentStats(agentId);
+        if (stats.openUntil > System.currentTimeMillis()) {
+            stats.skipped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param agentId the flushed agent
+     * @param nanos the time the flush took
+     * @param outcome the outcome of the flush
+     */
+    void record(final String agentId, final long nanos, final Outcome outcome) {
+        final AgentStats stats = getAgentStats(agentId);
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+        int bucket = Arrays.binarySearch(BUCKETS_MS, millis);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        stats.histogram[bucket].increment();
+        stats.maxMs.accumulate(millis);
+        stats.totalMs.add(millis);
+
+        if (outcome == Outcome.SUCCESS) {
+            stats.successes.increment();
+            synchronized (stats) {
+                stats.consecutiveFailures = 0;
+                stats.openUntil = 0;
+            }
+            return;
+        }
+
+        if (outcome == Outcome.TIMEOUT) {
+            stats.timeouts.increment();
+        } else {
+            stats.failures.increment();
+        }
+        synchronized (stats) {
+            if (failureThreshold > 0 && ++stats.consecutiveFailures >= failureThreshold) {
+                stats.openUntil = System.currentTimeMillis() + openDurationInMillis;
+            }
+        }
+    }
+
+    private AgentStats getAgentStats(final String agentId) {
+        return agents.computeIfAbsent(agentId, id -> new AgentStats());
+    }
+
+    @Override
+    @SuppressWarnings("squid:S1192")
+    public TabularData getAgentFlushes() throws OpenDataException {
+        final List<String> names = new ArrayList<>(Arrays.asList(
+                "agent", "successes", "failures", "timeouts", "skipped", "circuitOpen", "averageMs", "maxMs"));
+        final List<OpenType<?>> types = new ArrayList<>(Arrays.asList(
+                SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                SimpleType.BOOLEAN, SimpleType.DOUBLE, SimpleType.LONG));
+        for (final long bound : BUCKETS_MS) {
+            names.add("le" + bound + "ms");
+            types.add(SimpleType.LONG);
+        }
+        names.add("gt" + BUCKETS_MS[BUCKETS_MS.length - 1] + "ms");
+        types.add(SimpleType.LONG);
+
+        final String[] itemNames = names.toArray(new String[0]);
+        final CompositeType agentType = new CompositeType(
+                "agentFlushes",
+                "Agent Flushes",
+                itemNames,
+                itemNames,
+                types.toArray(new OpenType<?>[0])
+        );
+
+        final TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType("agentFlushes",
+                        "Agent Flushes",
+                        agentType,
+                        new String[]{"agent" })
+        );
+
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, AgentStats> entry : agents.entrySet()) {
+            final AgentStats stats = entry.getValue();
+            final long count = stats.successes.sum() + stats.failures.sum() + stats.timeouts.sum();
+
+            final Map<String, Object> data = new HashMap<>();
+            data.put("agent", entry.getKey());
+            data.put("successes", stats.successes.sum());
+            data.put("failures", stats.failures.sum());
+            data.put("timeouts", stats.timeouts.sum());
+            data.put("skipped", stats.skipped.sum());
+            data.put("circuitOpen", stats.openUntil > now);
+            data.put("averageMs", count == 0 ? 0D : (double) stats.totalMs.sum() / count);
+            data.put("maxMs", stats.maxMs.get());
+            for (int i = 0; i < stats.histogram.length; i++) {
+                data.put(itemNames[itemNames.length - stats.histogram.length + i], stats.histogram[i].sum());
+            }
+
+            tabularData.put(new CompositeDataSupport(agentType, data));
+        }
+
+        return tabularData;
+    }
+
+    @Override
+    public void resetAgentFlushes() {
+        agents.clear();
+    }
+
+    private static final class AgentStats {
+        private final LongAdder[] histogram = new LongAdder[BUCKETS_MS.length + 1];
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder totalMs = new LongAdder();
+        private final LongAccumulator maxMs = new LongAccumulator(Math::max, 0);
+
+        /* guarded by this */
+        private int consecutiveFailures = 0;
+        private volatile long openUntil = 0;
+
+        private AgentStats() {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.replication.dispatcher.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+@Description("ACS AEM Commons - Dispatcher Flusher Agents")
+public interface DispatcherFlushAgentStatsMBean {
+    @Description("Parallel flushes per agent: outcome counts, circuit breaker state and a histogram of the flush "
+            + "latencies, each column counting the flushes which took up to the given milliseconds")
+    TabularData getAgentFlushes() throws OpenDataException;
+
+    /* Operations */
+    @Description("Reset the statistics and close all circuit breakers")
+    void resetAgentFlushes();
+}
@@ -0,0 +1,231 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.replication.dispatcher.impl;
+
+import com.adobe.acs.commons.replication.dispatcher.DispatcherFlushFilter;
+import com.adobe.acs.commons.replication.dispatcher.DispatcherFlushFilter.FlushType;
+import com.adobe.acs.commons.replication.dispatcher.DispatcherFlusher;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.day.cq.replication.ReplicationActionType;
+import com.day.cq.replication.ReplicationException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.NotCompliantMBeanException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the flush paths derived by a {@link DispatcherFlushRulesImpl} for a short time window and sends each
+ * unique path once per replication action type and flush type.
+ *
+ * Paths covered by a pending hierarchical flush of themselves or of an ancestor are dropped, as the hierarchical
+ * flush invalidates them as well. All paths of a flush type are sent with a single call to the
+ * {@link DispatcherFlusher}, using one service resource resolver per batch.
+ */
+final class DispatcherFlushAggregator extends AnnotatedStandardMBean implements DispatcherFlushAggregatorMBean {
+    private static final Logger log = LoggerFactory.getLogger(DispatcherFlushAggregator.class);
+
+    private final ResourceResolverFactory resourceResolverFactory;
+    private final DispatcherFlusher dispatcherFlusher;
+    private final long windowInMillis;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("ACS AEM Commons - Dispatcher Flush Aggregator-%d")
+                    .setDaemon(true)
+                    .build());
+
+    /* Pending flush paths by action type and filter, guarded by this */
+    private Map<ReplicationActionType, Map<DispatcherFlushFilter, Set<String>>> pending =
+            new EnumMap<>(ReplicationActionType.class);
+    private int pendingCount = 0;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    DispatcherFlushAggregator(final ResourceResolverFactory resourceResolverFactory,
+                              final DispatcherFlusher dispatcherFlusher,
+                              final long windowInMillis) throws NotCompliantMBeanException {
+        super(DispatcherFlushAggregatorMBean.class);
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.dispatcherFlusher = dispatcherFlusher;
+        this.windowInMillis = windowInMillis;
+    }
+
+    /**
+     * Queues a flush path, to be sent at the end of the current window.
+     *
+     * @param actionType the replication action type to flush with
+     * @param filter the filter selecting the flush agents
+     * @param path the path to flush
+     */
+    void add(final ReplicationActionType actionType, final DispatcherFlushFilter filter, final String path) {
+        requested.incrementAndGet();
+        synchronized (this) {
+            if (pending.computeIfAbsent(actionType, type -> new LinkedHashMap<>())
+                    .computeIfAbsent(filter, f -> new LinkedHashSet<>())
+                    .add(path) && pendingCount++ == 0) {
+                scheduler.schedule(this::sendPendingFlushes, windowInMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void sendPendingFlushes() {
+        final Map<ReplicationActionType, Map<DispatcherFlushFilter, Set<String>>> flushes;
+        synchronized (this) {
+            if (pendingCount == 0) {
+                return;
+            }
+            flushes = pending;
+            pending = new EnumMap<>(ReplicationActionType.class);
+            pendingCount = 0;
+        }
+
+        try (ResourceResolver resourceResolver =
+                     resourceResolverFactory.getServiceResourceResolver(DispatcherFlushRulesImpl.AUTH_INFO)) {
+            for (final Map.Entry<ReplicationActionType, Map<DispatcherFlushFilter, Set<String>>> entry
+                    : flushes.entrySet()) {
+                send(resourceResolver, entry.getKey(), entry.getValue());
+            }
+        } catch (LoginException e) {
+            log.error("Error issuing dispatcher flush rules due to a repository login exception: {}", e.getMessage(), e);
+        }
+    }
+
+    private void send(final ResourceResolver resourceResolver, final ReplicationActionType actionType,
+                      final Map<DispatcherFlushFilter, Set<String>> flushes) {
+        final Set<String> hierarchical = new HashSet<>();
+        for (final Map.Entry<DispatcherFlushFilter, Set<String>> entry : flushes.entrySet()) {
+            if (FlushType.Hierarchical.equals(entry.getKey().getFlushType())) {
+                hierarchical.addAll(entry.getValue());
+            }
+        }
+
+        for (final Map.Entry<DispatcherFlushFilter, Set<String>> entry : flushes.entrySet()) {
+            final boolean isHierarchical = FlushType.Hierarchical.equals(entry.getKey().getFlushType());
+            final List<String> paths = new ArrayList<>();
+            for (final String path : entry.getValue()) {
+                if (!isCovered(path, hierarchical, !isHierarchical)) {
+                    paths.add(path);
+                }
+            }
+
+            if (paths.isEmpty()) {
+                continue;
+            }
+
+            log.debug("Requesting {} flush of associated paths: {}", entry.getKey().getFlushType(), paths);
+            try {
+                dispatcherFlusher.flush(resourceResolver, actionType, false, entry.getKey(),
+                        paths.toArray(new String[0]));
+                sent.addAndGet(paths.size());
+                batches.incrementAndGet();
+            } catch (ReplicationException e) {
+                failed.addAndGet(paths.size());
+                log.error("Error issuing dispatcher flush rules, some downstream replication exception occurred: {}",
+                        e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @param path the path to flush
+     * @param hierarchical the pending hierarchical flush paths
+     * @param includeSelf true if a hierarchical flush of the path itself covers it
+     * @return true if a pending hierarchical flush covers the path
+     */
+    private static boolean isCovered(final String path, final Set<String> hierarchical, final boolean includeSelf) {
+        if (includeSelf && hierarchical.contains(path)) {
+            return true;
+        }
+        String ancestor = path;
+        while (StringUtils.contains(ancestor, '/') && !"/".equals(ancestor)) {
+            ancestor = StringUtils.defaultIfEmpty(StringUtils.substringBeforeLast(ancestor, "/"), "/");
+            if (hierarchical.contains(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends the pending flush paths and stops the aggregator.
+     */
+    void close() {
+        scheduler.shutdownNow();
+        sendPendingFlushes();
+    }
+
+    @Override
+    public long getCoalesceWindowInMillis() {
+        return windowInMillis;
+    }
+
+    @Override
+    public long getRequestedFlushes() {
+        return requested.get();
+    }
+
+    @Override
+    public long getSentFlushes() {
+        return sent.get();
+    }
+
+    @Override
+    public long getFailedFlushes() {
+        return failed.get();
+    }
+
+    @Override
+    public long getSavedFlushes() {
+        final long pendingFlushes = getPendingFlushes();
+        return Math.max(0, requested.get() - sent.get() - failed.get() - pendingFlushes);
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.get();
+    }
+
+    @Override
+    public synchronized int getPendingFlushes() {
+        return pendingCount;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.replication.dispatcher.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+@Description("ACS AEM Commons - Dispatcher Flush Rules Aggregator")
+public interface DispatcherFlushAggregatorMBean {
+    @Description("Time in milliseconds flush requests are collected before they are sent")
+    long getCoalesceWindowInMillis();
+
+    @Description("Total flush paths derived from the flush rules")
+    long getRequestedFlushes();
+
+    @Description("Total flush paths sent to the flush agents")
+    long getSentFlushes();
+
+    @Description("Total flush paths which could not be sent")
+    long getFailedFlushes();
+
+    @Description("Total flush paths not sent as they were duplicates or covered by a hierarchical flush of an ancestor")
+    long getSavedFlushes();
+
+    @Description("Total batches of flush paths sent")
+    long getBatches();
+
+    @Description("Flush paths waiting to be sent")
+    int getPendingFlushes();
+
+    /* Operations */
+    @Description("Send the pending flush paths now")
+    void sendPendingFlushes();
+}
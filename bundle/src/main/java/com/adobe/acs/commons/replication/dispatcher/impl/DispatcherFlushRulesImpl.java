@@ -24,6 +24,7 @@ import com.adobe.acs.commons.replication.dispatcher.DispatcherFlushFilter;
 import com.adobe.acs.commons.replication.dispatcher.DispatcherFlusher;
 import com.adobe.acs.commons.replication.dispatcher.DispatcherFlushFilter.FlushType;
 import com.adobe.acs.commons.util.ParameterUtil;
+import com.day.cq.replication.AgentFilter;
 import com.day.cq.replication.AgentManager;
 import com.day.cq.replication.Preprocessor;
 import com.day.cq.replication.ReplicationAction;
@@ -46,11 +47,18 @@ import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.DynamicMBean;
+import javax.management.ObjectName;
 import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -122,6 +130,16 @@ public class DispatcherFlushRulesImpl implements Preprocessor {
             value = { })
     private static final String PROP_RESOURCE_ONLY_FLUSH_RULES = "prop.rules.resource-only";
 
+    /* Coalesce Window */
+    private static final long DEFAULT_COALESCE_WINDOW = 0;
+
+    @Property(label = "Coalesce Window",
+            description = "Time in milliseconds the derived flush paths are collected before they are sent. "
+                    + "Duplicate paths and paths covered by a hierarchical flush of an ancestor are sent once per "
+                    + "window. 0 sends each flush synchronously with the replication. [ Default: 0 ]",
+            longValue = DEFAULT_COALESCE_WINDOW)
+    private static final String PROP_COALESCE_WINDOW = "prop.coalesce-window";
+
     private static final String SERVICE_NAME = "dispatcher-flush";
     protected static final Map<String, Object> AUTH_INFO;
 
@@ -142,6 +160,9 @@ public class DispatcherFlushRulesImpl implements Preprocessor {
     private Map<Pattern, String[]> resourceOnlyFlushRules = new LinkedHashMap<Pattern, String[]>();
     private ReplicationActionType replicationActionType = null;
 
+    private DispatcherFlushAggregator flushAggregator;
+    private ServiceRegistration flushAggregatorRegistration;
+
     /**
      * {@inheritDoc}
      */
@@ -160,42 +181,37 @@ public class DispatcherFlushRulesImpl implements Preprocessor {
         final ReplicationActionType flushActionType =
                 replicationActionType == null ? replicationAction.getType() : replicationActionType;
 
+        final DispatcherFlushAggregator aggregator = this.flushAggregator;
+        if (aggregator != null) {
+            // Flush paths are collected and sent in batches
+            addFlushes(path, this.hierarchicalFlushRules, (flushPath) -> {
+                log.debug("Queueing hierarchical flush of associated path: {} ~> {}", path, flushPath);
+                aggregator.add(flushActionType, HIERARCHICAL_FILTER, flushPath);
+            });
+            addFlushes(path, this.resourceOnlyFlushRules, (flushPath) -> {
+                log.debug("Queueing ResourceOnly flush of associated path: {} ~> {}", path, flushPath);
+                aggregator.add(flushActionType, RESOURCE_ONLY_FILTER, flushPath);
+            });
+            return;
+        }
+
         try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)){
 
             // Flush full content hierarchies
-            for (final Map.Entry<Pattern, String[]> entry : this.hierarchicalFlushRules.entrySet()) {
-                final Pattern pattern = entry.getKey();
-                final Matcher m = pattern.matcher(path);
-
-                if (m.matches()) {
-                    for (final String value : entry.getValue()) {
-                        final String flushPath = m.replaceAll(value);
-    
-                        log.debug("Requesting hierarchical flush of associated path: {} ~> {}", path,
-                                flushPath);
-                        dispatcherFlusher.flush(resourceResolver, flushActionType, false,
-                                HIERARCHICAL_FILTER,
-                                flushPath);
-                    }
-                }
-            }
+            addFlushes(path, this.hierarchicalFlushRules, (flushPath) -> {
+                log.debug("Requesting hierarchical flush of associated path: {} ~> {}", path, flushPath);
+                dispatcherFlusher.flush(resourceResolver, flushActionType, false,
+                        HIERARCHICAL_FILTER,
+                        flushPath);
+            });
 
             // Flush explicit resources using the CQ-Action-Scope ResourceOnly header
-            for (final Map.Entry<Pattern, String[]> entry : this.resourceOnlyFlushRules.entrySet()) {
-                final Pattern pattern = entry.getKey();
-                final Matcher m = pattern.matcher(path);
-
-                if (m.matches()) {
-                    for (final String value : entry.getValue()) {
-                        final String flushPath = m.replaceAll(value);
-    
-                        log.debug("Requesting ResourceOnly flush of associated path: {} ~> {}", path, entry.getValue());
-                        dispatcherFlusher.flush(resourceResolver, flushActionType, false,
-                                RESOURCE_ONLY_FILTER,
-                                flushPath);
-                    }
-                }
-            }
+            addFlushes(path, this.resourceOnlyFlushRules, (flushPath) -> {
+                log.debug("Requesting ResourceOnly flush of associated path: {} ~> {}", path, flushPath);
+                dispatcherFlusher.flush(resourceResolver, flushActionType, false,
+                        RESOURCE_ONLY_FILTER,
+                        flushPath);
+            });
 
         } catch (ReplicationException e) {
             // ReplicationException must be caught here, as otherwise this will prevent the replication at all
@@ -205,6 +221,26 @@ public class DispatcherFlushRulesImpl implements Preprocessor {
         }
     }
 
+    /**
+     * Derives the flush paths of the replicated path from the flush rules.
+     *
+     * @param path the path being replicated
+     * @param flushRules the flush rules to apply
+     * @param flush receives each of the derived flush paths
+     */
+    private void addFlushes(final String path, final Map<Pattern, String[]> flushRules, final FlushPathConsumer flush)
+            throws ReplicationException {
+        for (final Map.Entry<Pattern, String[]> entry : flushRules.entrySet()) {
+            final Matcher m = entry.getKey().matcher(path);
+
+            if (m.matches()) {
+                for (final String value : entry.getValue()) {
+                    flush.accept(m.replaceAll(value));
+                }
+            }
+        }
+    }
+
     /**
      * Checks if this service should react to or ignore this replication action.
      *
@@ -220,7 +256,10 @@ public class DispatcherFlushRulesImpl implements Preprocessor {
 
         final String path = replicationAction.getPath();
 
-        if (replicationOptions.getFilter() instanceof DispatcherFlushRulesFilter) {
+        final AgentFilter filter = replicationOptions.getFilter() instanceof SingleAgentFilter
+                ? ((SingleAgentFilter) replicationOptions.getFilter()).getDelegate() : replicationOptions.getFilter();
+
+        if (filter instanceof DispatcherFlushRulesFilter) {
             log.debug("Ignore applying dispatcher flush rules for [ {} ], as it originated from this "
                     + "Service.", path);
             return false;
@@ -243,7 +282,8 @@ public class DispatcherFlushRulesImpl implements Preprocessor {
     }
 
     @Activate
-    protected final void activate(final Map<String, String> properties) throws Exception {
+    protected final void activate(final BundleContext bundleContext, final Map<String, String> properties)
+            throws Exception {
         /* Replication Action Type */
         this.replicationActionType = this.configureReplicationActionType(
                 PropertiesUtil.toString(properties.get(PROP_REPLICATION_ACTION_TYPE_NAME),
@@ -262,6 +302,21 @@ public class DispatcherFlushRulesImpl implements Preprocessor {
                         DEFAULT_RESOURCE_ONLY_FLUSH_RULES), "="));
 
         log.debug("ResourceOnly flush rules: {}", this.resourceOnlyFlushRules);
+
+        /* Coalesce Window */
+        final long coalesceWindow = PropertiesUtil.toLong(properties.get(PROP_COALESCE_WINDOW), DEFAULT_COALESCE_WINDOW);
+        if (coalesceWindow > 0) {
+            this.flushAggregator = new DispatcherFlushAggregator(resourceResolverFactory, dispatcherFlusher,
+                    coalesceWindow);
+
+            final Dictionary<String, Object> serviceProps = new Hashtable<String, Object>();
+            serviceProps.put("jmx.objectname", "com.adobe.acs.commons:type=Dispatcher Flush Rules,id="
+                    + ObjectName.quote(PropertiesUtil.toString(properties.get(Constants.SERVICE_PID), "")));
+            this.flushAggregatorRegistration = bundleContext.registerService(DynamicMBean.class.getName(),
+                    this.flushAggregator, serviceProps);
+
+            log.debug("Coalescing flushes for {} ms", coalesceWindow);
+        }
     }
 
     /**
@@ -303,11 +358,25 @@ public class DispatcherFlushRulesImpl implements Preprocessor {
 
     @Deactivate
     protected final void deactivate(final Map<String, String> properties) {
+        if (this.flushAggregatorRegistration != null) {
+            this.flushAggregatorRegistration.unregister();
+            this.flushAggregatorRegistration = null;
+        }
+        if (this.flushAggregator != null) {
+            // Send whatever is still pending rather than dropping it
+            this.flushAggregator.close();
+            this.flushAggregator = null;
+        }
         this.hierarchicalFlushRules = new HashMap<Pattern, String[]>();
         this.resourceOnlyFlushRules = new HashMap<Pattern, String[]>();
         this.replicationActionType = null;
     }
 
+    @FunctionalInterface
+    private interface FlushPathConsumer {
+        void accept(String flushPath) throws ReplicationException;
+    }
+
     /* Implementation Class used to track and prevent cyclic replications */
     protected static final class DispatcherFlushRulesFilter extends DispatcherFlushFilter {
         public DispatcherFlushRulesFilter(final FlushType flushType) {
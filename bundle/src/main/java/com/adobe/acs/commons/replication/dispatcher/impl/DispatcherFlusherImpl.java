@@ -30,33 +30,135 @@ import com.day.cq.replication.ReplicationException;
 import com.day.cq.replication.ReplicationOptions;
 import com.day.cq.replication.ReplicationResult;
 import com.day.cq.replication.Replicator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.Session;
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
 import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * ACS AEM Commons - Dispatcher Flusher
  * Service used to issue flush requests to enabled Dispatcher Flush Agents.
  */
-@Component
+@Component(
+        label = "ACS AEM Commons - Dispatcher Flusher",
+        description = "Service used to issue flush requests to enabled Dispatcher Flush Agents.",
+        metatype = true)
 @Service
 public class DispatcherFlusherImpl implements DispatcherFlusher {
     private static final Logger log = LoggerFactory.getLogger(DispatcherFlusherImpl.class);
 
+    private static final int DEFAULT_PARALLEL_THREADS = 4;
+
+    @Property(label = "Parallel Flush Threads",
+            description = "Number of threads flushing agents in parallel. [ Default: 4 ]",
+            intValue = DEFAULT_PARALLEL_THREADS)
+    public static final String PROP_PARALLEL_THREADS = "parallel.threads";
+
+    private static final long DEFAULT_AGENT_TIMEOUT = 10000;
+
+    @Property(label = "Agent Timeout",
+            description = "Time in milliseconds after which a parallel flush of an agent is abandoned. "
+                    + "[ Default: 10000 ]",
+            longValue = DEFAULT_AGENT_TIMEOUT)
+    public static final String PROP_AGENT_TIMEOUT = "parallel.agent-timeout";
+
+    private static final int DEFAULT_CIRCUIT_BREAKER_FAILURES = 3;
+
+    @Property(label = "Circuit Breaker Failures",
+            description = "Consecutive failed or timed out parallel flushes after which an agent is skipped for the "
+                    + "circuit breaker duration. 0 never skips an agent. [ Default: 3 ]",
+            intValue = DEFAULT_CIRCUIT_BREAKER_FAILURES)
+    public static final String PROP_CIRCUIT_BREAKER_FAILURES = "parallel.circuit-breaker.failures";
+
+    private static final long DEFAULT_CIRCUIT_BREAKER_DURATION = 30000;
+
+    @Property(label = "Circuit Breaker Duration",
+            description = "Time in milliseconds an agent is skipped once its circuit breaker opened. "
+                    + "[ Default: 30000 ]",
+            longValue = DEFAULT_CIRCUIT_BREAKER_DURATION)
+    public static final String PROP_CIRCUIT_BREAKER_DURATION = "parallel.circuit-breaker.duration";
+
     @Reference
     private Replicator replicator;
 
     @Reference
     private AgentManager agentManager;
 
+    private ExecutorService executor;
+    private ScheduledExecutorService timeoutScheduler;
+    private long agentTimeout = DEFAULT_AGENT_TIMEOUT;
+    private DispatcherFlushAgentStats agentStats;
+    private ServiceRegistration agentStatsRegistration;
+
+    @Activate
+    protected final void activate(final BundleContext bundleContext, final Map<String, Object> config)
+            throws NotCompliantMBeanException {
+        this.agentTimeout = PropertiesUtil.toLong(config.get(PROP_AGENT_TIMEOUT), DEFAULT_AGENT_TIMEOUT);
+        this.agentStats = new DispatcherFlushAgentStats(
+                PropertiesUtil.toInteger(config.get(PROP_CIRCUIT_BREAKER_FAILURES), DEFAULT_CIRCUIT_BREAKER_FAILURES),
+                PropertiesUtil.toLong(config.get(PROP_CIRCUIT_BREAKER_DURATION), DEFAULT_CIRCUIT_BREAKER_DURATION));
+        this.executor = Executors.newFixedThreadPool(Math.max(1,
+                PropertiesUtil.toInteger(config.get(PROP_PARALLEL_THREADS), DEFAULT_PARALLEL_THREADS)),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ACS AEM Commons - Dispatcher Flusher-%d")
+                        .setDaemon(true)
+                        .build());
+        this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ACS AEM Commons - Dispatcher Flusher Timeout-%d")
+                .setDaemon(true)
+                .build());
+
+        final Dictionary<String, Object> serviceProps = new Hashtable<String, Object>();
+        serviceProps.put("jmx.objectname", "com.adobe.acs.commons:type=Dispatcher Flusher Agents");
+        this.agentStatsRegistration = bundleContext.registerService(DynamicMBean.class.getName(), this.agentStats,
+                serviceProps);
+    }
+
+    @Deactivate
+    protected final void deactivate() {
+        if (this.agentStatsRegistration != null) {
+            this.agentStatsRegistration.unregister();
+            this.agentStatsRegistration = null;
+        }
+        if (this.executor != null) {
+            // let running flushes finish rather than interrupting them
+            this.executor.shutdown();
+            this.executor = null;
+        }
+        if (this.timeoutScheduler != null) {
+            this.timeoutScheduler.shutdownNow();
+            this.timeoutScheduler = null;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -86,6 +188,96 @@ public class DispatcherFlusherImpl implements DispatcherFlusher {
                                                      final boolean synchronous,
                                                      final AgentFilter agentFilter,
                                                      final String... paths) throws ReplicationException {
+        return this.replicate(resourceResolver, actionType, synchronous, agentFilter, paths);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Map<Agent, CompletableFuture<ReplicationResult>> flushAsync(final ResourceResolver resourceResolver,
+                                                                           final ReplicationActionType actionType,
+                                                                           final boolean synchronous,
+                                                                           final AgentFilter agentFilter,
+                                                                           final String... paths) {
+        final Map<Agent, CompletableFuture<ReplicationResult>> futures = new LinkedHashMap<>();
+
+        for (final Agent agent : this.getAgents(agentFilter)) {
+            futures.put(agent, this.flushAgent(resourceResolver, actionType, synchronous, agentFilter, agent, paths));
+        }
+
+        return futures;
+    }
+
+    private CompletableFuture<ReplicationResult> flushAgent(final ResourceResolver resourceResolver,
+                                                            final ReplicationActionType actionType,
+                                                            final boolean synchronous,
+                                                            final AgentFilter agentFilter,
+                                                            final Agent agent,
+                                                            final String... paths) {
+        final CompletableFuture<ReplicationResult> future = new CompletableFuture<>();
+        final String agentId = agent.getId();
+
+        if (!agentStats.allowFlush(agentId)) {
+            log.debug("Skipping flush of agent [ {} ] as it failed repeatedly", agentId);
+            future.completeExceptionally(new ReplicationException("Skipped flush of agent " + agentId
+                    + " as it failed repeatedly"));
+            return future;
+        }
+
+        // Resource resolvers are not thread safe, so each agent is flushed with its own clone, which is created
+        // on the calling thread and closed by the task
+        final ResourceResolver agentResourceResolver;
+        try {
+            agentResourceResolver = resourceResolver.clone(null);
+        } catch (LoginException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            executor.submit(() -> {
+                try (ResourceResolver taskResourceResolver = agentResourceResolver) {
+                    final Map<Agent, ReplicationResult> results = this.replicate(taskResourceResolver, actionType,
+                            synchronous, new SingleAgentFilter(agentId, agentFilter), paths);
+                    future.complete(results.isEmpty() ? null : results.values().iterator().next());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            agentResourceResolver.close();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        // A timed out task is not interrupted, as interrupting the replication or repository I/O can break the
+        // session; it runs to its end and its result is ignored
+        final ScheduledFuture<?> timeout = timeoutScheduler.schedule(() ->
+                future.completeExceptionally(new TimeoutException("Flush of agent " + agentId + " timed out after "
+                        + agentTimeout + " ms")), agentTimeout, TimeUnit.MILLISECONDS);
+
+        return future.whenComplete((result, error) -> {
+            timeout.cancel(false);
+
+            final DispatcherFlushAgentStats.Outcome outcome;
+            if (error instanceof TimeoutException) {
+                outcome = DispatcherFlushAgentStats.Outcome.TIMEOUT;
+            } else if (error != null || (result != null && !result.isSuccess())) {
+                outcome = DispatcherFlushAgentStats.Outcome.FAILURE;
+            } else {
+                outcome = DispatcherFlushAgentStats.Outcome.SUCCESS;
+            }
+            agentStats.record(agentId, System.nanoTime() - start, outcome);
+        });
+    }
+
+    private Map<Agent, ReplicationResult> replicate(final ResourceResolver resourceResolver,
+                                                    final ReplicationActionType actionType,
+                                                    final boolean synchronous,
+                                                    final AgentFilter agentFilter,
+                                                    final String... paths) throws ReplicationException {
         final ReplicationOptions options = new ReplicationOptions();
         final ReplicationResultListener listener = new ReplicationResultListener();
 
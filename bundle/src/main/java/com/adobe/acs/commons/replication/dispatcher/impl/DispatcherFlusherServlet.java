@@ -19,10 +19,10 @@
  */
 package com.adobe.acs.commons.replication.dispatcher.impl;
 
+import com.adobe.acs.commons.replication.dispatcher.DispatcherFlushFilter;
 import com.adobe.acs.commons.replication.dispatcher.DispatcherFlusher;
 import com.day.cq.replication.Agent;
 import com.day.cq.replication.ReplicationActionType;
-import com.day.cq.replication.ReplicationException;
 import com.day.cq.replication.ReplicationResult;
 import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.PageManager;
@@ -50,6 +50,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import static com.adobe.acs.commons.replication.dispatcher.impl.DispatcherFlushRulesImpl.AUTH_INFO;
 import com.google.gson.Gson;
@@ -112,18 +114,25 @@ public class DispatcherFlusherServlet extends SlingAllMethodsServlet {
                     flushingResourceResolver = resourceResolver;
                 }
 
-                final Map<Agent, ReplicationResult> results = dispatcherFlusher.flush(flushingResourceResolver,
-                        replicationActionType, true, paths);
+                // Agents are flushed in parallel, so a slow agent only delays its own result
+                final Map<Agent, CompletableFuture<ReplicationResult>> results = dispatcherFlusher.flushAsync(
+                        flushingResourceResolver, replicationActionType, true, DispatcherFlushFilter.HIERARCHICAL,
+                        paths);
 
-                for (final Map.Entry<Agent, ReplicationResult> entry : results.entrySet()) {
+                for (final Map.Entry<Agent, CompletableFuture<ReplicationResult>> entry : results.entrySet()) {
                     final Agent agent = entry.getKey();
-                    final ReplicationResult result = entry.getValue();
 
-                    overallResults.add(new FlushResult(agent, result));
+                    try {
+                        overallResults.add(new FlushResult(agent, entry.getValue().get()));
+                    } catch (ExecutionException e) {
+                        log.error("Dispatcher Flush of agent [ {} ] failed.", agent.getId(), e.getCause());
+                        overallResults.add(new FlushResult(agent, null));
+                    }
                 }
             }
-        } catch (ReplicationException e) {
-            log.error("Replication exception occurred during Dispatcher Flush request.", e);
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for the Dispatcher Flush request.", e);
+            Thread.currentThread().interrupt();
             caughtException = true;
         } catch (LoginException e) {
             log.error("Could not obtain an Admin Resource Resolver during Dispatcher Flush request.", e);
@@ -159,7 +168,7 @@ public class DispatcherFlusherServlet extends SlingAllMethodsServlet {
 
         private FlushResult(Agent agent, ReplicationResult result) {
             this.agentId = agent.getId();
-            this.success = result.isSuccess() && result.getCode() == HttpServletResponse.SC_OK;
+            this.success = result != null && result.isSuccess() && result.getCode() == HttpServletResponse.SC_OK;
         }
 
         private final String agentId;
@@ -0,0 +1,50 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.replication.dispatcher.impl;
+
+import com.day.cq.replication.Agent;
+import com.day.cq.replication.AgentFilter;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Agent filter narrowing another filter down to a single agent.
+ */
+final class SingleAgentFilter implements AgentFilter {
+    private final String agentId;
+    private final AgentFilter delegate;
+
+    SingleAgentFilter(final String agentId, final AgentFilter delegate) {
+        this.agentId = agentId;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean isIncluded(final Agent agent) {
+        return StringUtils.equals(agentId, agent.getId()) && delegate.isIncluded(agent);
+    }
+
+    /**
+     * @return the filter this filter narrows down
+     */
+    AgentFilter getDelegate() {
+        return delegate;
+    }
+}
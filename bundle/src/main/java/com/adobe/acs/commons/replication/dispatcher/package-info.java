@@ -20,5 +20,5 @@
 /**
  * Dispatcher utilities.
  */
-@org.osgi.annotation.versioning.Version("1.0.2")
+@org.osgi.annotation.versioning.Version("1.1.0")
 package com.adobe.acs.commons.replication.dispatcher;
\ No newline at end of file
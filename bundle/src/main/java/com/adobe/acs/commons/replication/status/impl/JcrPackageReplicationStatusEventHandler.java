@@ -27,6 +27,8 @@ import com.adobe.acs.commons.util.ParameterUtil;
 import com.day.cq.replication.ReplicationAction;
 import com.day.cq.replication.ReplicationEvent;
 import com.day.cq.replication.ReplicationStatus;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
@@ -37,6 +39,8 @@ import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.PropertyOption;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.jackrabbit.vault.fs.api.ProgressTrackerListener;
+import org.apache.jackrabbit.vault.fs.io.ImportOptions;
 import org.apache.jackrabbit.vault.packaging.JcrPackage;
 import org.apache.jackrabbit.vault.packaging.JcrPackageDefinition;
 import org.apache.jackrabbit.vault.packaging.PackageException;
@@ -66,6 +70,9 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -93,7 +100,7 @@ import java.util.stream.Collectors;
         ),
         @Property(
                 name = JobConsumer.PROPERTY_TOPICS,
-                value = JcrPackageReplicationStatusEventHandler.JOB_TOPIC,
+                value = {JcrPackageReplicationStatusEventHandler.JOB_TOPIC, JcrPackageReplicationStatusEventHandler.JOB_TOPIC_CHUNK},
                 propertyPrivate = true
         )
 })
@@ -105,6 +112,10 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
     private static final String PROPERTY_PATHS = "paths"; // this is not used for the actual Sling Job
     private static final String PROPERTY_PATH = "path";
     private static final String PROPERTY_REPLICATED_BY = "replicatedBy";
+    private static final String PROPERTY_REPLICATED_AT = "replicatedAt";
+    private static final String PROPERTY_PACKAGE_ID = "packageId";
+    private static final String PROPERTY_CHUNK = "chunk";
+    private static final String PROPERTY_CONTENT_PATHS = "contentPaths";
 
     private enum ReplicatedAt {
         CURRENT_TIME,
@@ -144,6 +155,8 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
 
     protected static final String JOB_TOPIC = "acs-commons/replication/package";
 
+    protected static final String JOB_TOPIC_CHUNK = JOB_TOPIC + "/chunk";
+
     @Reference
     private Packaging packaging;
 
@@ -188,6 +201,23 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
             })
     public static final String PROP_REPLICATED_AT = "replicated-at";
 
+    private static final int DEFAULT_CHUNK_SIZE = 0;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    @Property(label = "Chunk Size",
+            description = "If greater than 0 the package contents are streamed into sub-jobs of at most this many paths, "
+                    + "each of which saves and is retried on its own. Configure a Sling Job Queue for the topic '"
+                    + JOB_TOPIC_CHUNK + "' to process chunks in parallel. If 0 the whole package is updated in a single job. [ Default: 0 ]",
+            intValue = DEFAULT_CHUNK_SIZE)
+    public static final String PROP_CHUNK_SIZE = "chunk.size";
+
+    private static final int MAX_TRACKED_PACKAGES = 1000;
+
+    // Chunks which failed for good, by package id, so the count per package can be reported
+    private final Cache<String, AtomicInteger> failedChunks = CacheBuilder.newBuilder()
+            .maximumSize(MAX_TRACKED_PACKAGES)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build();
+
     private static final String SERVICE_NAME = "package-replication-status-event-listener";
     private static final Map<String, Object> AUTH_INFO;
 
@@ -224,6 +254,10 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
 
     @Override
     public final JobResult process(final Job job) {
+        if (JOB_TOPIC_CHUNK.equals(job.getTopic())) {
+            return processChunk(job);
+        }
+
         final String path = (String) job.getProperty(PROPERTY_PATH);
         final String replicatedBy =
                 StringUtils.defaultIfEmpty(this.replicatedByOverride, (String) job.getProperty(PROPERTY_REPLICATED_BY));
@@ -239,7 +273,11 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
             }
             
             try {
-                setReplicationStatus(jcrPackage, replicatedBy, resourceResolver);
+                if (chunkSize > 0) {
+                    enqueueChunks(jcrPackage, path, replicatedBy);
+                } else {
+                    setReplicationStatus(jcrPackage, replicatedBy, resourceResolver);
+                }
             } finally {
                 // Close  package when we are done.
                 jcrPackage.close();
@@ -256,6 +294,162 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
         return JobResult.OK;
     }
 
+    /**
+     * Updates the replication status of a single chunk of package contents enqueued by
+     * {@link #enqueueChunks(JcrPackage, String, String)}.
+     *
+     * @param job the chunk job
+     * @return the job result, a failed chunk is retried without affecting the other chunks of the package
+     */
+    private JobResult processChunk(final Job job) {
+        final String packageId = (String) job.getProperty(PROPERTY_PACKAGE_ID);
+        final Integer chunk = job.getProperty(PROPERTY_CHUNK, Integer.class);
+        final String[] paths = job.getProperty(PROPERTY_CONTENT_PATHS, String[].class);
+        final Calendar replicatedAt = job.getProperty(PROPERTY_REPLICATED_AT, Calendar.class);
+        final String replicatedBy =
+                StringUtils.defaultIfEmpty(this.replicatedByOverride, (String) job.getProperty(PROPERTY_REPLICATED_BY));
+
+        log.debug("Processing Replication Status Update for chunk {} of JCR Package: {}", chunk, packageId);
+
+        if (paths == null) {
+            return JobResult.OK;
+        }
+
+        final List<Resource> resources = new ArrayList<>();
+        try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            for (final String contentPath : paths) {
+                final Resource resource = resourceResolver.getResource(contentPath);
+                if (this.accept(resource)) {
+                    resources.add(resource);
+                }
+            }
+
+            if (!resources.isEmpty()) {
+                replicationStatusManager.setReplicationStatus(resourceResolver,
+                        replicatedBy,
+                        replicatedAt,
+                        ReplicationStatusManager.Status.ACTIVATED,
+                        resources.toArray(new Resource[resources.size()]));
+            }
+            log.info("Updated Replication Status for {} of {} paths in chunk {} of JCR Package: {}",
+                    resources.size(), paths.length, chunk, packageId);
+        } catch (LoginException e) {
+            log.error("Could not obtain a resource resolver for applying replication status updates", e);
+            return JobResult.CANCEL;
+        } catch (RepositoryException | IOException e) {
+            logJobError(job, "Could not update replication metadata for chunk " + chunk + " of package '" + packageId + "'", e);
+            if (job.getRetryCount() >= job.getNumberOfRetries()) {
+                countFailedChunk(packageId);
+            }
+            return JobResult.FAILED;
+        }
+
+        return JobResult.OK;
+    }
+
+    private void countFailedChunk(final String packageId) {
+        try {
+            final int failed = failedChunks.get(String.valueOf(packageId), AtomicInteger::new).incrementAndGet();
+            log.error("{} chunks of JCR Package {} have permanently failed their Replication Status Update",
+                    failed, packageId);
+        } catch (ExecutionException e) {
+            log.error("Could not count the failed chunks of JCR Package: {}", packageId, e);
+        }
+    }
+
+    /**
+     * Streams the contents of the package into chunk jobs of at most {@link #chunkSize} paths.
+     * Only one chunk of paths is held in memory at any time. The chunks only set properties, so enqueuing them again
+     * when this job is retried is harmless. If any chunk could not be enqueued this job fails, so it is retried.
+     *
+     * @param jcrPackage the replicated package
+     * @param path the path of the replicated package
+     * @param replicatedBy the user to set as 'replicated by'
+     * @throws RepositoryException
+     */
+    private void enqueueChunks(final JcrPackage jcrPackage, final String path, final String replicatedBy) throws RepositoryException {
+        final String packageId = getPackageId(jcrPackage);
+
+        final Map<String, Object> jobConfig = new HashMap<>();
+        jobConfig.put(PROPERTY_PATH, path);
+        jobConfig.put(PROPERTY_PACKAGE_ID, packageId);
+        jobConfig.put(PROPERTY_REPLICATED_BY, replicatedBy);
+
+        final ChunkingProgressListener listener = new ChunkingProgressListener(jobConfig);
+        try {
+            // resolve once so all chunks get the same value, even for CURRENT_TIME
+            jobConfig.put(PROPERTY_REPLICATED_AT, getJcrPackageLastModified(jcrPackage));
+
+            final ImportOptions importOptions = new ImportOptions();
+            importOptions.setDryRun(true);
+            importOptions.setListener(listener);
+
+            jcrPackage.extract(importOptions);
+            listener.flush();
+        } catch (RepositoryException | PackageException | IOException e) {
+            throw new RepositoryException("Could not retrieve the Packages contents for package '" + packageId + "'", e);
+        }
+
+        if (listener.notEnqueued > 0) {
+            throw new RepositoryException("Could not enqueue " + listener.notEnqueued + " of " + listener.chunks
+                    + " chunks for the Replication Status Update of package '" + packageId + "'");
+        }
+
+        log.info("Enqueued {} chunks covering {} paths for the Replication Status Update of JCR Package: {}",
+                listener.chunks, listener.paths, packageId);
+    }
+
+    /**
+     * Collects the paths reported by a dry run extraction and enqueues a chunk job each time {@link #chunkSize}
+     * paths have been collected.
+     */
+    private final class ChunkingProgressListener implements ProgressTrackerListener {
+        private final Map<String, Object> jobConfig;
+        private final List<String> chunk = new ArrayList<>();
+        private int chunks = 0;
+        private int notEnqueued = 0;
+        private int paths = 0;
+
+        ChunkingProgressListener(final Map<String, Object> jobConfig) {
+            this.jobConfig = jobConfig;
+        }
+
+        @Override
+        public void onMessage(final Mode mode, final String action, final String path) {
+            chunk.add(path);
+            paths++;
+            if (chunk.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public void onError(final Mode mode, final String path, final Exception e) {
+            // no need to track errors
+        }
+
+        void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+
+            final Map<String, Object> chunkConfig = new HashMap<>(jobConfig);
+            chunkConfig.put(PROPERTY_CHUNK, chunks);
+            chunkConfig.put(PROPERTY_CONTENT_PATHS, chunk.toArray(new String[chunk.size()]));
+            if (jobManager.addJob(JOB_TOPIC_CHUNK, chunkConfig) == null) {
+                // Keep enqueuing the other chunks; this job fails once the package has been streamed
+                notEnqueued++;
+                log.warn("Could not enqueue chunk {} with {} paths of JCR Package: {}", chunks, chunk.size(),
+                        jobConfig.get(PROPERTY_PACKAGE_ID));
+            } else {
+                log.debug("Enqueued chunk {} with {} paths of JCR Package: {}", chunks, chunk.size(),
+                        jobConfig.get(PROPERTY_PACKAGE_ID));
+            }
+            chunks++;
+            chunk.clear();
+        }
+    }
+
     /**
      * Emits the given error and exception either with level WARN or ERROR depending on whether the job is retried.
      * This method can be removed once <a href="https://issues.apache.org/jira/browse/SLING-7756">SLING-7756</a> is resolved.
@@ -275,18 +469,8 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
     
     private void setReplicationStatus(JcrPackage jcrPackage, String replicatedBy, ResourceResolver resourceResolver) throws RepositoryException {
         final List<Resource> resources = new ArrayList<>();
-        final String packageId;
-        try {
-            JcrPackageDefinition packageDefinition = jcrPackage.getDefinition();
-            if (packageDefinition == null) {
-                throw new RepositoryException("Could not determine the ID for just replicated package (package invalid?)");
-            } else {
-                packageId = packageDefinition.getId().toString();
-            }
-        } catch (RepositoryException e) {
-            throw new RepositoryException("Could not determine the ID for just replicated package (package invalid?).", e);
-        } 
-        
+        final String packageId = getPackageId(jcrPackage);
+
         try {
             for (final String packagePath : packageHelper.getContents(jcrPackage)) {
                 final Resource resource = resourceResolver.getResource(packagePath);
@@ -317,6 +501,19 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
         }
     }
 
+    private String getPackageId(JcrPackage jcrPackage) throws RepositoryException {
+        try {
+            JcrPackageDefinition packageDefinition = jcrPackage.getDefinition();
+            if (packageDefinition == null) {
+                throw new RepositoryException("Could not determine the ID for just replicated package (package invalid?)");
+            } else {
+                return packageDefinition.getId().toString();
+            }
+        } catch (RepositoryException e) {
+            throw new RepositoryException("Could not determine the ID for just replicated package (package invalid?).", e);
+        }
+    }
+
     /**
      * Extracts relevant event information from a Granite Replication Event OR a Day CQ Replication event.
      * @param event the Osgi Event
@@ -474,6 +671,8 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
             this.replicatedAt = ReplicatedAt.PACKAGE_LAST_MODIFIED;
         }
 
+        this.chunkSize = PropertiesUtil.toInteger(config.get(PROP_CHUNK_SIZE), DEFAULT_CHUNK_SIZE);
+
         final String[] nodeTypeAndPathRestrictions = PropertiesUtil.toStringArray(config.get(PROP_REPLICATION_STATUS_NODE_TYPES),
                 DEFAULT_REPLICATION_STATUS_NODE_TYPES);
 
@@ -492,6 +691,7 @@ public class JcrPackageReplicationStatusEventHandler implements JobConsumer, Eve
         }
         log.info("Package Replication Status - Replicated By Override User: [ {} ]", this.replicatedByOverride);
         log.info("Package Replication Status - Replicated At: [ {} ]", this.replicatedAt);
+        log.info("Package Replication Status - Chunk Size: [ {} ]", this.chunkSize);
         log.info("Package Replication Status - Node Types and Path Restrictions: [ {} ]", pathRestrictionByNodeType);
     }
 }
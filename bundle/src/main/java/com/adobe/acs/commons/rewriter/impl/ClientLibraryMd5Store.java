@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.rewriter.impl;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * File backed store of client library MD5s, so versioned paths do not need to be recalculated after a restart.
+ * An MD5 is only returned for the last modification date and minification it was calculated for. The stored MD5s
+ * are discarded when the HTML Library Manager configuration they were calculated with changed, as it affects the
+ * processed output (e.g. the minifier options).
+ */
+final class ClientLibraryMd5Store {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientLibraryMd5Store.class);
+
+    private static final String SEPARATOR = ":";
+
+    private static final String MINIFIED = "min";
+
+    /* Library keys are absolute paths, so this cannot collide with them */
+    private static final String CONFIGURATION = "htmlLibraryManager.configuration";
+
+    private final File file;
+
+    private final String configuration;
+
+    /* path.type -> lastModified:min:md5 */
+    private final ConcurrentMap<String, String> entries = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    ClientLibraryMd5Store(File file, String configuration) {
+        this.file = file;
+        this.configuration = StringUtils.defaultString(configuration);
+        load();
+    }
+
+    String get(VersionedClientLibraryMd5CacheKey key, long lastModified, boolean minified) {
+        final String entry = entries.get(key.toString());
+        if (entry == null) {
+            return null;
+        }
+        final String prefix = toValue(lastModified, minified, "");
+        return entry.startsWith(prefix) ? entry.substring(prefix.length()) : null;
+    }
+
+    void put(VersionedClientLibraryMd5CacheKey key, long lastModified, boolean minified, String md5) {
+        final String value = toValue(lastModified, minified, md5);
+        if (!value.equals(entries.put(key.toString(), value))) {
+            dirty.set(true);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the store to its file if it changed since it was last written.
+     */
+    synchronized void save() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        properties.putAll(entries);
+        properties.setProperty(CONFIGURATION, configuration);
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                properties.store(out, "ACS AEM Commons Versioned Clientlibs MD5s");
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            dirty.set(true);
+            log.warn("Could not write the client library MD5s to [ {} ]", file, e);
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            log.warn("Could not read the client library MD5s from [ {} ]", file, e);
+            return;
+        }
+        if (properties.isEmpty()) {
+            return;
+        }
+        if (!configuration.equals(properties.remove(CONFIGURATION))) {
+            log.info("The HTML Library Manager configuration changed, discarding the client library MD5s in [ {} ]", file);
+            dirty.set(true);
+            return;
+        }
+        for (final Map.Entry<Object, Object> entry : properties.entrySet()) {
+            entries.put((String) entry.getKey(), (String) entry.getValue());
+        }
+        log.debug("Read [ {} ] client library MD5s from [ {} ]", entries.size(), file);
+    }
+
+    private static String toValue(long lastModified, boolean minified, String md5) {
+        return lastModified + SEPARATOR + (minified ? MINIFIED : StringUtils.EMPTY) + SEPARATOR + md5;
+    }
+}
@@ -33,7 +33,6 @@ import org.xml.sax.helpers.AttributesImpl;
 
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -70,16 +69,10 @@ public class ContentVariableTransformer extends ContentHandlerBasedTransformer {
                 if (StringUtils.isBlank(currentAttribute)) {
                     continue;
                 }
-                final List<String> keys = ContentVariableReplacementUtil.getKeys(currentAttribute);
-                for (String key : keys) {
-                    // If the placeholder key is in the map then replace it
-                    if (ContentVariableReplacementUtil.hasKey(contentVariableReplacements, key)) {
-                        String replaceValue =
-                                (String) ContentVariableReplacementUtil.getValue(contentVariableReplacements, key);
-                        String newAttrValue = ContentVariableReplacementUtil.doReplacement(currentAttribute, key,
-                                replaceValue, propertyConfigService.getAction(key));
-                        newAttrs.setValue(i, newAttrValue);
-                    }
+                String newAttrValue = ContentVariableReplacementUtil.replacePlaceholders(currentAttribute,
+                        contentVariableReplacements, propertyConfigService);
+                if (!newAttrValue.equals(currentAttribute)) {
+                    newAttrs.setValue(i, newAttrValue);
                 }
             }
             getContentHandler().startElement(uri, localName, quaName, newAttrs);
@@ -89,24 +82,17 @@ public class ContentVariableTransformer extends ContentHandlerBasedTransformer {
     }
 
     public void characters(char[] ch, int start, int length) throws SAXException {
-        String currentString = new String(ch, start, length);
-
         if (shouldRun()) {
-
-            // Get the current placeholders in the string
-            final List<String> keys = ContentVariableReplacementUtil.getKeys(currentString);
-            for (String key : keys) {
-                // If the placeholder key is in the map then replace it
-                if (ContentVariableReplacementUtil.hasKey(contentVariableReplacements, key)) {
-                    final String placeholderReplacement =
-                            String.valueOf(ContentVariableReplacementUtil.getValue(contentVariableReplacements, key));
-                    currentString = ContentVariableReplacementUtil.doReplacement(currentString, key,
-                            placeholderReplacement, propertyConfigService.getAction(key));
-                }
+            String currentString = new String(ch, start, length);
+            String replaced = ContentVariableReplacementUtil.replacePlaceholders(currentString,
+                    contentVariableReplacements, propertyConfigService);
+            if (!replaced.equals(currentString)) {
+                getContentHandler().characters(replaced.toCharArray(), 0, replaced.length());
+                return;
             }
         }
 
-        getContentHandler().characters(currentString.toCharArray(), 0, currentString.length());
+        getContentHandler().characters(ch, start, length);
     }
 
     private boolean shouldRun() {
@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.rewriter.impl;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Lookup structures for rewriter transformers, built once on activation of their factory, so that a transformer
+ * does a single map lookup per element and a set lookup per attribute instead of scanning its configuration.
+ */
+final class ElementAttributeIndex {
+
+    private ElementAttributeIndex() {
+    }
+
+    /**
+     * @param attributes the rewritten attribute names by element name, as parsed from an element:attributes configuration
+     * @return an unmodifiable map of the rewritten attribute names by element name
+     */
+    static Map<String, Set<String>> build(final Map<String, String[]> attributes) {
+        final Map<String, Set<String>> index = new HashMap<>();
+        for (final Map.Entry<String, String[]> entry : attributes.entrySet()) {
+            index.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<>(Arrays.asList(entry.getValue()))));
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * @param prefixes the prefixes
+     * @return one pattern matching the start of a value starting with any of the prefixes, or null if there are none
+     */
+    static Pattern toPrefixPattern(final String[] prefixes) {
+        if (prefixes == null || prefixes.length == 0) {
+            return null;
+        }
+        return Pattern.compile(Arrays.stream(prefixes).map(Pattern::quote).collect(Collectors.joining("|", "(?:", ")")));
+    }
+
+    /**
+     * Sets an attribute value, copying the attributes on their first modification only.
+     *
+     * @param attrs the original attributes
+     * @param copy the copy of the attributes made by a previous call, or null if none was made yet
+     * @param index the index of the attribute
+     * @param value the new value
+     * @return the copy of the attributes carrying the new value
+     */
+    static AttributesImpl setValue(final Attributes attrs, final AttributesImpl copy, final int index, final String value) {
+        final AttributesImpl newAttrs = copy != null ? copy : new AttributesImpl(attrs);
+        newAttrs.setValue(index, value);
+        return newAttrs;
+    }
+}
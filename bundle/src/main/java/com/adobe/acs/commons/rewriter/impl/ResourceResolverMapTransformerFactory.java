@@ -23,7 +23,6 @@ import com.adobe.acs.commons.rewriter.ContentHandlerBasedTransformer;
 import com.adobe.acs.commons.util.ParameterUtil;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.net.URLCodec;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -45,6 +44,7 @@ import org.xml.sax.helpers.AttributesImpl;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Rewriter pipeline component which maps attribute values.
@@ -72,7 +72,10 @@ public final class ResourceResolverMapTransformerFactory implements TransformerF
     private static final Logger log = LoggerFactory.getLogger(ResourceResolverMapTransformerFactory.class);
 
     private static final String[] DEFAULT_ATTRIBUTES = new String[]{"img:src"};
-    private Map<String, String[]> attributes;
+
+    private static final URLCodec URL_CODEC = new URLCodec();
+
+    private Map<String, Set<String>> attributes;
     @Property(label = "Rewrite Attributes",
             description = "List of element/attribute pairs to rewrite",
             cardinality = Integer.MAX_VALUE,
@@ -85,33 +88,35 @@ public final class ResourceResolverMapTransformerFactory implements TransformerF
 
     protected Attributes rebuildAttributes(final SlingHttpServletRequest slingRequest,
                                          final String elementName, final Attributes attrs) {
-        if (slingRequest == null || !attributes.containsKey(elementName)) {
+        final Set<String> modifiableAttributes = slingRequest == null ? null : attributes.get(elementName);
+        if (modifiableAttributes == null) {
             // element is not defined as a candidate to rewrite
             return attrs;
         }
-        final String[] modifiableAttributes = attributes.get(elementName);
 
-        // clone the attributes
-        final AttributesImpl newAttrs = new AttributesImpl(attrs);
-        final int len = newAttrs.getLength();
+        // the attributes are only cloned once a value is rewritten
+        AttributesImpl newAttrs = null;
+        final int len = attrs.getLength();
 
         for (int i = 0; i < len; i++) {
-            final String attrName = newAttrs.getLocalName(i);
-            if (ArrayUtils.contains(modifiableAttributes, attrName)) {
-                final String attrValue = newAttrs.getValue(i);
+            final String attrName = attrs.getLocalName(i);
+            if (modifiableAttributes.contains(attrName)) {
+                final String attrValue = attrs.getValue(i);
                 if (StringUtils.startsWith(attrValue, "/") && !StringUtils.startsWith(attrValue, "//")) {
                     // Only map absolute paths (starting w /), avoid relative-scheme URLs starting w //
+                    String mappedValue;
                     try {
-                        final String attrValueDecoded = new URLCodec().decode(attrValue);
-                        newAttrs.setValue(i, slingRequest.getResourceResolver().map(slingRequest, attrValueDecoded));
+                        final String attrValueDecoded = URL_CODEC.decode(attrValue);
+                        mappedValue = slingRequest.getResourceResolver().map(slingRequest, attrValueDecoded);
                     } catch (DecoderException e) {
                         log.error("Could not decode the attribute value", e);
-                        newAttrs.setValue(i, slingRequest.getResourceResolver().map(slingRequest, attrValue));
+                        mappedValue = slingRequest.getResourceResolver().map(slingRequest, attrValue);
                     }
+                    newAttrs = ElementAttributeIndex.setValue(attrs, newAttrs, i, mappedValue);
                 }
             }
         }
-        return newAttrs;
+        return newAttrs != null ? newAttrs : attrs;
     }
 
     @Activate
@@ -124,7 +129,7 @@ public final class ResourceResolverMapTransformerFactory implements TransformerF
             normalizedValue = StringUtils.split(test[0], ",");
         }
 
-        this.attributes = ParameterUtil.toMap(normalizedValue, ":", ",");
+        this.attributes = ElementAttributeIndex.build(ParameterUtil.toMap(normalizedValue, ":", ","));
     }
 
     public final class ResourceResolverMapTransformer extends ContentHandlerBasedTransformer {
@@ -21,7 +21,6 @@ package com.adobe.acs.commons.rewriter.impl;
 
 import com.adobe.acs.commons.rewriter.ContentHandlerBasedTransformer;
 import com.adobe.acs.commons.util.ParameterUtil;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
@@ -44,6 +43,7 @@ import org.xml.sax.helpers.AttributesImpl;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -116,11 +116,13 @@ public final class StaticReferenceRewriteTransformerFactory implements Transform
     @Property(label = "Override existing host", description = "This property allows you to override the existing host in the attribute that has to be rewritten", boolValue = false)
     private static final String PROP_REPLACE_HOST = "replaceHost";
 
-    private Map<String, String[]> attributes;
+    private Map<String, Set<String>> attributes;
 
-    private Map<String, Pattern> matchingPatterns;
+    /* Matching patterns by element, then attribute name */
+    private Map<String, Map<String, Pattern>> matchingPatterns;
 
-    private String[] prefixes;
+    /* Matches values starting with any of the configured prefixes */
+    private Pattern prefixPattern;
 
     private int staticHostCount;
 
@@ -174,59 +176,52 @@ public final class StaticReferenceRewriteTransformerFactory implements Transform
     }
 
     private Attributes rebuildAttributes(final String elementName, final Attributes attrs) {
-        if (attributes.containsKey(elementName)) {
-            final String[] modifyableAttributes = attributes.get(elementName);
-
-            // first - check for the nostatic class
-            boolean rewriteStatic = true;
-            for (int i = 0; i < attrs.getLength(); i++) {
-                final String attrName = attrs.getLocalName(i);
-                if (ATTR_CLASS.equals(attrName)) {
-                    String attrValue = attrs.getValue(i);
-                    if (attrValue.contains(CLASS_NOSTATIC)) {
-                        rewriteStatic = false;
-                    }
-                }
-            }
+        final Set<String> modifyableAttributes = attributes.get(elementName);
+        if (modifyableAttributes == null) {
+            return attrs;
+        }
 
-            if (rewriteStatic) {
-                return rebuildAttributes(elementName, attrs, modifyableAttributes);
+        // first - check for the nostatic class
+        for (int i = 0; i < attrs.getLength(); i++) {
+            if (ATTR_CLASS.equals(attrs.getLocalName(i)) && attrs.getValue(i).contains(CLASS_NOSTATIC)) {
+                return attrs;
             }
         }
 
-        return attrs;
+        return rebuildAttributes(elementName, attrs, modifyableAttributes);
     }
 
-    @SuppressWarnings("squid:S3776")
-    private Attributes rebuildAttributes(String elementName, Attributes attrs, String[] modifyableAttributes) {
-        // clone the attributes
-        final AttributesImpl newAttrs = new AttributesImpl(attrs);
+    private Attributes rebuildAttributes(String elementName, Attributes attrs, Set<String> modifyableAttributes) {
+        final Map<String, Pattern> elementMatchingPatterns = matchingPatterns.get(elementName);
+
+        // the attributes are only cloned once a value is rewritten
+        AttributesImpl newAttrs = null;
 
-        for (int i = 0; i < newAttrs.getLength(); i++) {
-            final String attrName = newAttrs.getLocalName(i);
-            if (ArrayUtils.contains(modifyableAttributes, attrName)) {
-                final String attrValue = newAttrs.getValue(i);
+        for (int i = 0; i < attrs.getLength(); i++) {
+            final String attrName = attrs.getLocalName(i);
+            if (modifyableAttributes.contains(attrName)) {
+                final String attrValue = attrs.getValue(i);
 
-                String key = elementName + ":" + attrName;
-                if (matchingPatterns.containsKey(key)) {
+                final Pattern matchingPattern = elementMatchingPatterns != null ? elementMatchingPatterns.get(attrName) : null;
+                if (matchingPattern != null) {
                     // Find value based on matching pattern
-                    Pattern matchingPattern = matchingPatterns.get(key);
                     try {
-                        newAttrs.setValue(i, handleMatchingPatternAttribute(matchingPattern, attrValue));
+                        newAttrs = ElementAttributeIndex.setValue(attrs, newAttrs, i,
+                                handleMatchingPatternAttribute(matchingPattern, attrValue));
                     } catch (Exception e) {
                         log.error("Could not perform replacement based on matching pattern", e);
                     }
-                } else {
-                    for (String prefix : prefixes) {
-                        if (attrValue.startsWith(prefix)) {
-                            newAttrs.setValue(i, prependHostName(attrValue));
-                        }
-                    }
+                } else if (hasPrefix(attrValue)) {
+                    newAttrs = ElementAttributeIndex.setValue(attrs, newAttrs, i, prependHostName(attrValue));
                 }
             }
         }
 
-        return newAttrs;
+        return newAttrs != null ? newAttrs : attrs;
+    }
+
+    private boolean hasPrefix(final String value) {
+        return prefixPattern != null && prefixPattern.matcher(value).lookingAt();
     }
 
     private String handleMatchingPatternAttribute(Pattern pattern, String attrValue) {
@@ -236,21 +231,17 @@ public final class StaticReferenceRewriteTransformerFactory implements Transform
 
         while (m.find()) {
             String url = m.group(1);
-            for (String prefix : prefixes) {
-                if (url.startsWith(prefix)) {
-                    // prepend host
-                    url = prependHostName(url);
-                    // Added check to determine whether the existing host has to be replaced
-                    if (this.replaceHost) {
-                        int index = attrValue.indexOf("://");
-                        sb.setLength(0);
-                        sb.append(attrValue, 0, index + 1);
-                        sb.append(url);
-                    } else {
-                        m.appendReplacement(sb, Matcher.quoteReplacement(url));
-                        // First prefix match wins
-                    }
-                    break;
+            if (hasPrefix(url)) {
+                // prepend host
+                url = prependHostName(url);
+                // Added check to determine whether the existing host has to be replaced
+                if (this.replaceHost) {
+                    int index = attrValue.indexOf("://");
+                    sb.setLength(0);
+                    sb.append(attrValue, 0, index + 1);
+                    sb.append(url);
+                } else {
+                    m.appendReplacement(sb, Matcher.quoteReplacement(url));
                 }
             }
         }
@@ -271,24 +262,26 @@ public final class StaticReferenceRewriteTransformerFactory implements Transform
 
         final String[] attrProp = PropertiesUtil
                 .toStringArray(properties.get(PROP_ATTRIBUTES), DEFAULT_ATTRIBUTES);
-        this.attributes = ParameterUtil.toMap(attrProp, tagAttributeSeparator, listSeparator);
+        this.attributes = ElementAttributeIndex.build(ParameterUtil.toMap(attrProp, tagAttributeSeparator, listSeparator));
 
         final String[] matchingPatternsProp = PropertiesUtil.toStringArray(properties.get(PROP_MATCHING_PATTERNS));
         this.matchingPatterns = initializeMatchingPatterns(matchingPatternsProp);
 
-        this.prefixes = PropertiesUtil.toStringArray(properties.get(PROP_PREFIXES), new String[0]);
+        this.prefixPattern = ElementAttributeIndex.toPrefixPattern(
+                PropertiesUtil.toStringArray(properties.get(PROP_PREFIXES), new String[0]));
         this.staticHostPattern = PropertiesUtil.toStringArray(properties.get(PROP_HOST_NAME_PATTERN), null);
         this.staticHostScheme = PropertiesUtil.toString(properties.get(PROP_HOST_SCHEME), "");
         this.staticHostCount = PropertiesUtil.toInteger(properties.get(PROP_HOST_COUNT), DEFAULT_HOST_COUNT);
         this.replaceHost = PropertiesUtil.toBoolean(properties.get(PROP_REPLACE_HOST), false);
 
-        if (!this.replaceHost && matchingPatterns.values().stream().noneMatch(str -> str.toString().startsWith("^"))) {
+        if (!this.replaceHost && matchingPatterns.values().stream().flatMap(patterns -> patterns.values().stream())
+                .noneMatch(str -> str.toString().startsWith("^"))) {
             log.warn("BEWARE! Replace host is false and your regex is not anchored to the start of the string, this may result in a double host.");
         }
     }
 
-    private static Map<String, Pattern> initializeMatchingPatterns(String[] matchingPatternsProp) {
-        Map<String, Pattern> result = new HashMap<>();
+    private static Map<String, Map<String, Pattern>> initializeMatchingPatterns(String[] matchingPatternsProp) {
+        Map<String, Map<String, Pattern>> result = new HashMap<>();
 
         Map<String, String> map = ParameterUtil.toMap(matchingPatternsProp, ";");
 
@@ -296,7 +289,10 @@ public final class StaticReferenceRewriteTransformerFactory implements Transform
             String matchingPatternString = entry.getValue();
             try {
                 Pattern compiled = Pattern.compile(matchingPatternString);
-                result.put(entry.getKey(), compiled);
+                // indexed by element, then attribute name
+                String elementName = StringUtils.substringBefore(entry.getKey(), ":");
+                String attributeName = StringUtils.substringAfter(entry.getKey(), ":");
+                result.computeIfAbsent(elementName, key -> new HashMap<>()).put(attributeName, compiled);
             } catch (Exception e) {
                 log.warn("Could not compile pattern {} for {}. Ignoring it", matchingPatternString, entry.getKey());
             }
@@ -21,22 +21,32 @@ package com.adobe.acs.commons.rewriter.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.SlingConstants;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.rewriter.ProcessingComponentConfiguration;
 import org.apache.sling.rewriter.ProcessingContext;
 import org.apache.sling.rewriter.Transformer;
 import org.apache.sling.rewriter.TransformerFactory;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.Attributes;
@@ -49,6 +59,8 @@ import com.adobe.acs.commons.rewriter.DelegatingTransformer;
 import com.adobe.granite.ui.clientlibs.HtmlLibrary;
 import com.adobe.granite.ui.clientlibs.HtmlLibraryManager;
 import com.adobe.granite.ui.clientlibs.LibraryType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * ACS AEM Commons - Stylesheet inliner removes stylesheet links the output adds
@@ -57,17 +69,83 @@ import com.adobe.granite.ui.clientlibs.LibraryType;
  */
 @Component(metatype = false)
 @Properties({
-    @Property(name = "pipeline.type", value = "inline-css")})
-@Service(value = {TransformerFactory.class})
-public final class StylesheetInlinerTransformerFactory implements TransformerFactory {
+    @Property(name = "pipeline.type", value = "inline-css"),
+    @Property(name = EventConstants.EVENT_TOPIC,
+        value = "com/adobe/granite/ui/librarymanager/INVALIDATED", propertyPrivate = true)})
+@Service(value = {TransformerFactory.class, EventHandler.class})
+public final class StylesheetInlinerTransformerFactory implements TransformerFactory, EventHandler {
 
     private static final Logger log = LoggerFactory.getLogger(StylesheetInlinerTransformerFactory.class);
 
     private static final char[] NEWLINE = new char[]{'\n'};
 
+    private static final int DEFAULT_CACHE_MAX_SIZE_KB = 10 * 1024;
+
+    @Property(intValue = DEFAULT_CACHE_MAX_SIZE_KB)
+    private static final String PROP_CACHE_MAX_SIZE_KB = "cache.max-size-kb";
+
+    private static final String VERSION_SEPARATOR = "@";
+
     @Reference
     private HtmlLibraryManager htmlLibraryManager;
 
+    /* Stylesheet contents by path and version (last modification) */
+    private volatile Cache<String, char[]> sheetCache = buildSheetCache(DEFAULT_CACHE_MAX_SIZE_KB);
+
+    @Activate
+    protected void activate(final Map<String, Object> config) {
+        sheetCache = buildSheetCache(PropertiesUtil.toInteger(config.get(PROP_CACHE_MAX_SIZE_KB), DEFAULT_CACHE_MAX_SIZE_KB));
+    }
+
+    private static Cache<String, char[]> buildSheetCache(final int maxSizeKb) {
+        return CacheBuilder.newBuilder()
+                .maximumWeight(maxSizeKb * 1024L)
+                .<String, char[]>weigher((key, content) -> key.length() * 2 + content.length * 2)
+                .build();
+    }
+
+    @Override
+    public void handleEvent(final Event event) {
+        final String path = (String) event.getProperty(SlingConstants.PROPERTY_PATH);
+        if (path == null) {
+            return;
+        }
+        // the sheets of the invalidated library or of the libraries containing the invalidated path
+        sheetCache.asMap().keySet().removeIf(key -> {
+            final String sheet = StringUtils.removeEnd(StringUtils.substringBeforeLast(key, VERSION_SEPARATOR),
+                    LibraryType.CSS.extension);
+            return sheet.equals(path) || path.startsWith(sheet + "/") || sheet.startsWith(path + "/");
+        });
+    }
+
+    /**
+     * Gets the content of a sheet from the cache, reading it on a miss.
+     *
+     * @param key the path and version of the sheet
+     * @param inputStream opens the sheet's content, may return null
+     * @return the content, which is shared and must not be modified
+     */
+    private Optional<char[]> getSheetContent(final String key, final Supplier<InputStream> inputStream) throws IOException {
+        char[] content = sheetCache.getIfPresent(key);
+        if (content == null) {
+            final Optional<char[]> read = readFully(inputStream.get());
+            if (read.isPresent()) {
+                content = read.get();
+                sheetCache.put(key, content);
+            }
+        }
+        return Optional.ofNullable(content);
+    }
+
+    private static Optional<char[]> readFully(final InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            return Optional.empty();
+        }
+        try (InputStream input = inputStream) {
+            return Optional.of(IOUtils.toCharArray(input, StandardCharsets.UTF_8));
+        }
+    }
+
     public Transformer createTransformer() {
         return new SelectorAwareCssInlinerTransformer();
     }
@@ -140,21 +218,22 @@ public final class StylesheetInlinerTransformerFactory implements TransformerFac
         }
 
         private Optional<char[]> readSheetContent(final String sheet) throws IOException, SAXException {
-            InputStream inputStream = null;
-
             final String withoutExtension = sheet.substring(0, sheet.indexOf(LibraryType.CSS.extension));
             final HtmlLibrary library = htmlLibraryManager.getLibrary(LibraryType.CSS, withoutExtension);
             if (library != null) {
-                inputStream = library.getInputStream();
-            } else {
-                final Resource resource = slingRequest.getResourceResolver().getResource(sheet);
-                if (resource != null) {
-                    inputStream = resource.adaptTo(InputStream.class);
-                }
+                return getSheetContent(sheet + VERSION_SEPARATOR + library.getLastModified(), library::getInputStream);
             }
 
-            if (inputStream != null) {
-                return Optional.of(IOUtils.toCharArray(inputStream, "UTF-8"));
+            final Resource resource = slingRequest.getResourceResolver().getResource(sheet);
+            if (resource != null) {
+                final ResourceMetadata metadata = resource.getResourceMetadata();
+                final long lastModified = metadata != null ? metadata.getModificationTime() : -1;
+                if (lastModified > 0) {
+                    return getSheetContent(sheet + VERSION_SEPARATOR + lastModified,
+                            () -> resource.adaptTo(InputStream.class));
+                }
+                // without a version the sheet can not be cached
+                return readFully(resource.adaptTo(InputStream.class));
             }
 
             return Optional.empty();
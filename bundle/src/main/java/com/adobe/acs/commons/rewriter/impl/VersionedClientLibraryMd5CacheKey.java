@@ -37,6 +37,14 @@ class VersionedClientLibraryMd5CacheKey {
         this.type = type;
     }
 
+    String getPath() {
+        return path;
+    }
+
+    LibraryType getType() {
+        return type;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
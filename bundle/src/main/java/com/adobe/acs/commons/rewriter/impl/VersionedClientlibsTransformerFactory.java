@@ -31,6 +31,8 @@ import com.adobe.granite.ui.clientlibs.LibraryType;
 import com.day.cq.wcm.contentsync.PathRewriterOptions;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
@@ -52,6 +54,7 @@ import org.apache.sling.rewriter.ProcessingContext;
 import org.apache.sling.rewriter.Transformer;
 import org.apache.sling.rewriter.TransformerFactory;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.event.Event;
@@ -78,15 +81,26 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Dictionary;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -113,6 +127,12 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
 
     private static final int DEFAULT_MD5_CACHE_SIZE = 300;
 
+    private static final boolean DEFAULT_MD5_PERSISTENT = true;
+
+    private static final int DEFAULT_MD5_PRECOMPUTE_THREADS = 2;
+
+    private static final String MD5_STORE_FILE = "versioned-clientlibs-md5.properties";
+
     private static final boolean DEFAULT_DISABLE_VERSIONING = false;
 
     private static final boolean DEFAULT_ENFORCE_MD5 = false;
@@ -120,6 +140,15 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
     @Property(label="MD5 Cache Size", description="Maximum size of the md5 cache.", intValue = DEFAULT_MD5_CACHE_SIZE)
     private static final String PROP_MD5_CACHE_SIZE = "md5cache.size";
 
+    @Property(label="Persist MD5s", description="Keep calculated md5s in the bundle's data area, keyed by library path "
+            + "and last modification, so they are not recalculated after a restart.", boolValue = DEFAULT_MD5_PERSISTENT)
+    private static final String PROP_MD5_PERSISTENT = "md5cache.persistent";
+
+    @Property(label="MD5 Precompute Threads", description="Number of threads recalculating the md5s of invalidated "
+            + "client libraries in the background. 0 recalculates them on the next request instead.",
+            intValue = DEFAULT_MD5_PRECOMPUTE_THREADS)
+    private static final String PROP_MD5_PRECOMPUTE_THREADS = "md5cache.precompute.threads";
+
     @Property(label="Disable Versioning", description="Should versioning of clientlibs be disabled", boolValue = DEFAULT_DISABLE_VERSIONING)
     private static final String PROP_DISABLE_VERSIONING = "disable.versioning";
 
@@ -127,6 +156,9 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
         boolValue = DEFAULT_ENFORCE_MD5)
     private static final String PROP_ENFORCE_MD5 = "enforce.md5";
 
+    private static final Set<String> VERSIONED_ELEMENTS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("link", "script")));
+
     private static final String ATTR_JS_PATH = "src";
     private static final String ATTR_CSS_PATH = "href";
 
@@ -145,12 +177,32 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
 
     private volatile Map<String, ClientLibrary> clientLibrariesCache;
 
+    private BundleContext bundleContext;
+
+    private boolean md5Persistent;
+
+    private volatile ClientLibraryMd5Store md5Store;
+
+    private volatile boolean md5StoreLoaded;
+
+    private int md5PrecomputeThreads;
+
+    /* Created on first use, as most instances never see an invalidation */
+    private ExecutorService md5Precomputer;
+
+    /* Invalidated libraries waiting for their md5 to be recalculated */
+    private final Set<VersionedClientLibraryMd5CacheKey> pendingMd5s = ConcurrentHashMap.newKeySet();
+
     private boolean disableVersioning;
 
     private boolean enforceMd5;
 
-    @Reference
+    @Reference(bind = "bindHtmlLibraryManager", unbind = "unbindHtmlLibraryManager",
+            updated = "updatedHtmlLibraryManager")
     private HtmlLibraryManager htmlLibraryManager;
+
+    /* Fingerprint of the HtmlLibraryManager configuration the persisted md5s are valid for */
+    private volatile String htmlLibraryManagerConfiguration = StringUtils.EMPTY;
     
     // Disable this feature on AEM as a Cloud Service
     @Reference(target="(distribution=classic)")
@@ -171,6 +223,14 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
         this.md5Cache = CacheBuilder.newBuilder().recordStats().maximumSize(size).build();
         this.disableVersioning = PropertiesUtil.toBoolean(props.get(PROP_DISABLE_VERSIONING), DEFAULT_DISABLE_VERSIONING);
         this.enforceMd5 = PropertiesUtil.toBoolean(props.get(PROP_ENFORCE_MD5), DEFAULT_ENFORCE_MD5);
+        this.bundleContext = bundleContext;
+        this.md5Persistent = PropertiesUtil.toBoolean(props.get(PROP_MD5_PERSISTENT), DEFAULT_MD5_PERSISTENT);
+        this.md5Store = null;
+        this.md5StoreLoaded = false;
+        synchronized (this) {
+            this.md5PrecomputeThreads = PropertiesUtil.toInteger(props.get(PROP_MD5_PRECOMPUTE_THREADS),
+                    DEFAULT_MD5_PRECOMPUTE_THREADS);
+        }
         if (enforceMd5) {
             Dictionary<String, Object> filterProps = new Hashtable<String, Object>();
             filterProps.put("sling.filter.scope", "REQUEST");
@@ -187,6 +247,19 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
             filterReg.unregister();
             filterReg = null;
         }
+        synchronized (this) {
+            md5PrecomputeThreads = 0;
+            if (md5Precomputer != null) {
+                md5Precomputer.shutdownNow();
+                md5Precomputer = null;
+            }
+        }
+        pendingMd5s.clear();
+        final ClientLibraryMd5Store store = this.md5Store;
+        if (store != null) {
+            store.save();
+        }
+        this.md5Store = null;
         this.md5Cache = null;
         this.clientLibrariesCache = null;
     }
@@ -196,7 +269,10 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
     }
 
     private Attributes versionClientLibs(final String elementName, final Attributes attrs, final SlingHttpServletRequest request) {
-        if (SaxElementUtils.isCss(elementName, attrs)) {
+        if (!VERSIONED_ELEMENTS.contains(elementName)) {
+            // neither a stylesheet link nor a script
+            return attrs;
+        } else if (SaxElementUtils.isCss(elementName, attrs)) {
             return this.rebuildAttributes(new AttributesImpl(attrs), attrs.getIndex("", ATTR_CSS_PATH),
                     attrs.getValue("", ATTR_CSS_PATH), LibraryType.CSS, request);
 
@@ -330,11 +406,102 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
 
             @Override
             public String call() throws Exception {
-                return calculateMd5(htmlLibrary, htmlLibraryManager.isMinifyEnabled());
+                return loadMd5(htmlLibrary);
             }
         });
     }
 
+    /**
+     * Gets the md5 from the persistent store if it was calculated for the library's current last modification,
+     * otherwise calculates and stores it.
+     */
+    @Nonnull private String loadMd5(@Nonnull final HtmlLibrary htmlLibrary) throws IOException {
+        final boolean isMinified = htmlLibraryManager.isMinifyEnabled();
+        final ClientLibraryMd5Store store = getMd5Store();
+        if (store == null) {
+            return calculateMd5(htmlLibrary, isMinified);
+        }
+
+        final VersionedClientLibraryMd5CacheKey key = new VersionedClientLibraryMd5CacheKey(htmlLibrary);
+        final long lastModified = htmlLibrary.getLastModified();
+        String md5 = store.get(key, lastModified, isMinified);
+        if (md5 == null) {
+            md5 = calculateMd5(htmlLibrary, isMinified);
+            store.put(key, lastModified, isMinified, md5);
+            saveMd5Store(store);
+        }
+        return md5;
+    }
+
+    /** The store is read on first use, rather than on activation, to keep activation cheap. */
+    @Nullable private ClientLibraryMd5Store getMd5Store() {
+        if (!md5StoreLoaded) {
+            synchronized (this) {
+                if (!md5StoreLoaded) {
+                    final File file = md5Persistent && bundleContext != null ? bundleContext.getDataFile(MD5_STORE_FILE) : null;
+                    md5Store = file != null ? new ClientLibraryMd5Store(file, htmlLibraryManagerConfiguration) : null;
+                    md5StoreLoaded = true;
+                }
+            }
+        }
+        return md5Store;
+    }
+
+    /**
+     * @return the executor recalculating md5s in the background, or null if there is none
+     */
+    @Nullable private synchronized ExecutorService getMd5Precomputer() {
+        if (md5Precomputer == null && md5PrecomputeThreads > 0) {
+            md5Precomputer = Executors.newFixedThreadPool(md5PrecomputeThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("ACS AEM Commons - Versioned Clientlibs MD5 Precompute-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return md5Precomputer;
+    }
+
+    private void saveMd5Store(final ClientLibraryMd5Store store) {
+        final ExecutorService executor = getMd5Precomputer();
+        if (executor == null) {
+            store.save();
+            return;
+        }
+        try {
+            executor.execute(store::save);
+        } catch (RejectedExecutionException e) {
+            log.debug("Not saving the client library md5s, as the component is being deactivated");
+        }
+    }
+
+    /**
+     * Recalculates the md5 of an invalidated library in the background, so the next request rendering it does not.
+     */
+    private void precomputeMd5(final VersionedClientLibraryMd5CacheKey key) {
+        final ExecutorService executor = getMd5Precomputer();
+        if (executor == null || !pendingMd5s.add(key)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                pendingMd5s.remove(key);
+                final Cache<VersionedClientLibraryMd5CacheKey, String> cache = md5Cache;
+                final HtmlLibrary htmlLibrary = htmlLibraryManager.getLibrary(key.getType(), key.getPath());
+                if (cache == null || htmlLibrary == null) {
+                    return;
+                }
+                try {
+                    cache.get(key, () -> loadMd5(htmlLibrary));
+                    log.debug("Precomputed md5 for {}", key);
+                } catch (ExecutionException | UncheckedExecutionException e) {
+                    log.warn("Could not precompute md5 for {}", key, e.getCause());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingMd5s.remove(key);
+            log.debug("Not precomputing md5 for {}, as the component is being deactivated", key);
+        }
+    }
+
 
     @SuppressWarnings("squid:S2070") // MD5 not used cryptographically
     @Nonnull private String calculateMd5(@Nonnull final HtmlLibrary htmlLibrary, boolean isMinified) throws IOException {
@@ -376,11 +543,78 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
     @Override
     public void handleEvent(Event event) {
         String path = (String) event.getProperty(SlingConstants.PROPERTY_PATH);
-        md5Cache.invalidate(new VersionedClientLibraryMd5CacheKey(path, LibraryType.JS));
-        md5Cache.invalidate(new VersionedClientLibraryMd5CacheKey(path, LibraryType.CSS));
+        final List<VersionedClientLibraryMd5CacheKey> invalidated = new ArrayList<>();
+        invalidated.add(new VersionedClientLibraryMd5CacheKey(path, LibraryType.JS));
+        invalidated.add(new VersionedClientLibraryMd5CacheKey(path, LibraryType.CSS));
+        // also the libraries containing the invalidated path or contained in it
+        for (final VersionedClientLibraryMd5CacheKey key : md5Cache.asMap().keySet()) {
+            if (isAffected(key.getPath(), path) && !invalidated.contains(key)) {
+                invalidated.add(key);
+            }
+        }
+        for (final VersionedClientLibraryMd5CacheKey key : invalidated) {
+            if (md5Cache.asMap().remove(key) != null) {
+                precomputeMd5(key);
+            }
+        }
         clientLibrariesCache = null;
     }
 
+    protected void bindHtmlLibraryManager(final HtmlLibraryManager htmlLibraryManager, final Map<String, Object> properties) {
+        this.htmlLibraryManager = htmlLibraryManager;
+        this.htmlLibraryManagerConfiguration = getConfigurationFingerprint(properties);
+    }
+
+    protected void unbindHtmlLibraryManager(final HtmlLibraryManager htmlLibraryManager) {
+        if (this.htmlLibraryManager == htmlLibraryManager) {
+            this.htmlLibraryManager = null;
+        }
+    }
+
+    /**
+     * The md5s calculated with a different configuration (e.g. other minifier options) are dropped, both from
+     * memory and from the persistent store.
+     */
+    protected void updatedHtmlLibraryManager(final HtmlLibraryManager htmlLibraryManager, final Map<String, Object> properties) {
+        final String configuration = getConfigurationFingerprint(properties);
+        if (configuration.equals(htmlLibraryManagerConfiguration)) {
+            return;
+        }
+        log.info("The HTML Library Manager configuration changed, dropping the cached client library md5s");
+        synchronized (this) {
+            this.htmlLibraryManagerConfiguration = configuration;
+            this.md5Store = null;
+            this.md5StoreLoaded = false;
+        }
+        final Cache<VersionedClientLibraryMd5CacheKey, String> cache = md5Cache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        clientLibrariesCache = null;
+    }
+
+    /**
+     * @return a digest of the service's configuration, leaving out the properties the framework assigns
+     */
+    static String getConfigurationFingerprint(final Map<String, Object> properties) {
+        final Map<String, String> configuration = new TreeMap<>();
+        if (properties != null) {
+            for (final Map.Entry<String, Object> property : properties.entrySet()) {
+                final String name = property.getKey();
+                if (!name.startsWith("service.") && !name.startsWith("component.") && !Constants.OBJECTCLASS.equals(name)) {
+                    final Object value = property.getValue();
+                    configuration.put(name, value instanceof Object[] ? Arrays.toString((Object[]) value) : String.valueOf(value));
+                }
+            }
+        }
+        return DigestUtils.md5Hex(configuration.toString());
+    }
+
+    private static boolean isAffected(final String libraryPath, final String invalidatedPath) {
+        return StringUtils.startsWith(invalidatedPath, libraryPath + "/")
+                || StringUtils.startsWith(libraryPath, invalidatedPath + "/");
+    }
+
     @Override
     protected Cache<VersionedClientLibraryMd5CacheKey, String> getCache() {
         return md5Cache;
@@ -469,7 +703,7 @@ public final class VersionedClientlibsTransformerFactory extends AbstractGuavaCa
                     // this static value "Invalid cache key parameter." happens when the cache key can't be
                     // found in the cache
                     if ("Invalid cache key parameter.".equals(md5FromCache)) {
-                        md5FromCache = calculateMd5(uriInfo.htmlLibrary, htmlLibraryManager.isMinifyEnabled());
+                        md5FromCache = loadMd5(uriInfo.htmlLibrary);
                     }
 
                     if (md5FromCache == null) {
@@ -0,0 +1,46 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+/**
+ * Base class of the load estimators which measure the load of some resource in percent.
+ * The number of permitted requests starts to decrease linearly once the load reaches the
+ * configured start throttling percentage, and reaches 0 at a load of 100 percent.
+ */
+public abstract class AbstractLoadEstimator implements LoadEstimator {
+
+    ThrottlingConfiguration tc;
+
+    protected AbstractLoadEstimator(ThrottlingConfiguration tc) {
+        this.tc = tc;
+    }
+
+    /**
+     * @return the current load in percent, between 0 and 100
+     */
+    public abstract int getLoadPercentage();
+
+    @Override
+    public int getMaxRequestPerMinute() {
+        int load = Math.max(0, Math.min(100, getLoadPercentage()));
+        return CpuLoadEstimator.calculateRequests(load, tc.startThrottlingPercentage, tc.maxRequests);
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Combines several load estimators: each load is multiplied by the weight of its
+ * estimator and the highest weighted load is used. This way the throttling starts as
+ * soon as any resource becomes the bottleneck, while a weight below 1 lets a resource
+ * only contribute once it is more heavily loaded.
+ */
+public class CompositeLoadEstimator extends AbstractLoadEstimator {
+
+    private final Map<AbstractLoadEstimator, Double> estimators;
+
+    /**
+     * @param tc         the throttling configuration
+     * @param estimators the estimators to combine with their weights
+     */
+    public CompositeLoadEstimator(ThrottlingConfiguration tc, Map<AbstractLoadEstimator, Double> estimators) {
+        super(tc);
+        this.estimators = new LinkedHashMap<>(estimators);
+    }
+
+    @Override
+    public int getLoadPercentage() {
+        double load = 0;
+        for (Map.Entry<AbstractLoadEstimator, Double> entry : estimators.entrySet()) {
+            load = Math.max(load, entry.getKey().getLoadPercentage() * entry.getValue());
+        }
+        return (int) Math.round(Math.min(100, load));
+    }
+
+}
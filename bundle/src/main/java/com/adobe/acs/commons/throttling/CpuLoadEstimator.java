@@ -29,7 +29,7 @@ import javax.management.ObjectName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class CpuLoadEstimator implements LoadEstimator {
+public class CpuLoadEstimator extends AbstractLoadEstimator {
 
     private static final Logger LOG = LoggerFactory.getLogger(CpuLoadEstimator.class);
 
@@ -39,10 +39,8 @@ public class CpuLoadEstimator implements LoadEstimator {
     MBeanServer mbs;
     ObjectName name;
 
-    ThrottlingConfiguration tc;
-
     public CpuLoadEstimator(ThrottlingConfiguration tc) {
-        this.tc = tc;
+        super(tc);
         preseed();
     }
 
@@ -64,16 +62,15 @@ public class CpuLoadEstimator implements LoadEstimator {
         }
     }
 
-    public int getMaxRequestPerMinute() {
+    @Override
+    public int getLoadPercentage() {
 
-        int cpuLoad;
         try {
-            cpuLoad = getCpuLoad();
-            return calculateRequests(cpuLoad, tc.startThrottlingPercentage, tc.maxRequests);
+            return getCpuLoad();
 
         } catch (JMException e) {
-            LOG.warn("Cannot query mbean %s, do not throttle at all!", name.toString(), e);
-            return tc.maxRequests;
+            LOG.warn("Cannot query mbean {}, do not throttle at all!", name, e);
+            return 0;
         }
 
     }
@@ -94,12 +91,12 @@ public class CpuLoadEstimator implements LoadEstimator {
 
     }
 
-    // read CPU load from MBean
+    // read CPU load from MBean; the attribute is a fraction between 0 and 1
     private int getCpuLoad() throws JMException {
 
         Object v = mbs.getAttribute(name, CPU_LOAD);
         Double d = Double.parseDouble(v.toString());
-        return (int) Math.round(d);
+        return (int) Math.round(d * 100);
 
     }
 
@@ -0,0 +1,47 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+/**
+ * Estimates the load by the number of requests in flight, relative to the number of
+ * requests which can be handled at the same time (e.g. the number of request threads).
+ */
+public class InFlightLoadEstimator extends AbstractLoadEstimator {
+
+    private final RequestLoadTracker tracker;
+    private final int maxInFlight;
+
+    /**
+     * @param tc          the throttling configuration
+     * @param tracker     the tracker counting the requests in flight
+     * @param maxInFlight the number of requests in flight at which the load is 100 percent
+     */
+    public InFlightLoadEstimator(ThrottlingConfiguration tc, RequestLoadTracker tracker, int maxInFlight) {
+        super(tc);
+        this.tracker = tracker;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    @Override
+    public int getLoadPercentage() {
+        return (int) Math.min(100, tracker.getInFlight() * 100L / maxInFlight);
+    }
+
+}
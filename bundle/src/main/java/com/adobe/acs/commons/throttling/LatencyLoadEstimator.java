@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import java.time.Clock;
+
+/**
+ * Estimates the load by the 95th percentile of the request latencies during the last
+ * minute, relative to a latency threshold. This detects requests piling up on a slow
+ * backend or repository while the CPU usage stays moderate.
+ */
+public class LatencyLoadEstimator extends AbstractLoadEstimator {
+
+    private static final int PERCENTILE = 95;
+
+    private final RequestLoadTracker tracker;
+    private final long latencyThresholdMs;
+    private final Clock clock;
+
+    /**
+     * @param tc                 the throttling configuration
+     * @param tracker            the tracker holding the request latencies
+     * @param latencyThresholdMs the 95th percentile latency at which the load is 100 percent
+     * @param clock              the clock to get the current time from
+     */
+    public LatencyLoadEstimator(ThrottlingConfiguration tc, RequestLoadTracker tracker, long latencyThresholdMs,
+            Clock clock) {
+        super(tc);
+        this.tracker = tracker;
+        this.latencyThresholdMs = Math.max(1, latencyThresholdMs);
+        this.clock = clock;
+    }
+
+    @Override
+    public int getLoadPercentage() {
+        long latency = tracker.getLatencyPercentile(clock.millis(), PERCENTILE);
+        if (latency >= latencyThresholdMs) {
+            return 100;
+        }
+        return (int) (latency * 100 / latencyThresholdMs);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the requests passing the RequestThrottler: the number of requests currently in
+ * flight and a rolling histogram of the request latencies over the last minute.
+ *
+ * The histogram is split into windows of 10 seconds which are reused in turn, so that
+ * recording a request only increments a counter.
+ */
+public class RequestLoadTracker {
+
+    /*
+     * Upper bounds of the latency histogram buckets in milliseconds; the last bucket is unbounded.
+     * Above 1 second the buckets are at most 25% wide, so that a percentile compared against a
+     * latency threshold is not off by a factor of two.
+     */
+    private static final long[] BOUNDS_MS = {5, 10, 25, 50, 75, 100, 150, 200, 250, 300, 400, 500, 600, 700, 800,
+            900, 1000, 1250, 1500, 1750, 2000, 2250, 2500, 2750, 3000, 3500, 4000, 4500, 5000, 6000, 7000, 8000,
+            9000, 10000, 12500, 15000, 20000, 25000, 30000, 45000, 60000};
+
+    private static final long WINDOW_MS = 10_000;
+    private static final int WINDOWS = 6;
+
+    /* Fewer requests than this do not give a meaningful percentile */
+    static final int MIN_SAMPLES = 20;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Window[] windows = new Window[WINDOWS];
+
+    public RequestLoadTracker() {
+        for (int i = 0; i < WINDOWS; i++) {
+            windows[i] = new Window();
+        }
+    }
+
+    /**
+     * Records the start of a request.
+     */
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a request.
+     *
+     * @param now       the current time in epoch milliseconds
+     * @param latencyMs the time the request took
+     */
+    public void requestFinished(long now, long latencyMs) {
+        inFlight.decrementAndGet();
+
+        int bucket = Arrays.binarySearch(BOUNDS_MS, latencyMs);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        getWindow(now).counts[bucket].increment();
+    }
+
+    /**
+     * @return the number of requests currently in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @param now        the current time in epoch milliseconds
+     * @param percentile the percentile, e.g. 95
+     * @return the latency (in milliseconds) of the given percentile of the requests during the
+     *         last minute, interpolated within its histogram bucket, or 0 if there were too few
+     *         requests
+     */
+    public long getLatencyPercentile(long now, int percentile) {
+        long[] counts = new long[BOUNDS_MS.length + 1];
+        long total = 0;
+        long oldest = windowStart(now) - (WINDOWS - 1) * WINDOW_MS;
+        for (Window window : windows) {
+            if (window.start >= oldest) {
+                for (int i = 0; i < counts.length; i++) {
+                    long count = window.counts[i].sum();
+                    counts[i] += count;
+                    total += count;
+                }
+            }
+        }
+        if (total < MIN_SAMPLES) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long cumulated = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            if (cumulated + counts[i] >= threshold) {
+                // assume the latencies are spread evenly over the bucket
+                long lower = i == 0 ? 0 : BOUNDS_MS[i - 1];
+                return lower + (BOUNDS_MS[i] - lower) * (threshold - cumulated) / counts[i];
+            }
+            cumulated += counts[i];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private Window getWindow(long now) {
+        long start = windowStart(now);
+        Window window = windows[(int) ((start / WINDOW_MS) % WINDOWS)];
+        if (window.start != start) {
+            synchronized (window) {
+                if (window.start != start) {
+                    // the window is reused from a minute ago
+                    for (LongAdder count : window.counts) {
+                        count.reset();
+                    }
+                    window.start = start;
+                }
+            }
+        }
+        return window;
+    }
+
+    private static long windowStart(long now) {
+        return now - now % WINDOW_MS;
+    }
+
+    private static final class Window {
+        private final LongAdder[] counts = new LongAdder[BOUNDS_MS.length + 1];
+        private volatile long start = -1;
+
+        private Window() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+    }
+}
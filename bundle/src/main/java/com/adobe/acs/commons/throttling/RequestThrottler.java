@@ -22,10 +22,18 @@ package com.adobe.acs.commons.throttling;
 import java.io.IOException;
 import java.time.Clock;
 import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -33,15 +41,21 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
-import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -118,6 +132,23 @@ import org.slf4j.LoggerFactory;
  * for the complete time, which might lead to a shortage of threads.</li>
  * </ul>
  * 
+ * By default all requests share a single bucket of permitted requests. They can
+ * also be split into separate buckets per client IP, per path prefix or per value
+ * of a request header, so that e.g. a single crawler exceeding its share is
+ * throttled while other clients are not. Each bucket may use a configurable share
+ * of the permitted requests, and all buckets together never exceed them. The
+ * requests admitted, throttled and rejected per bucket are available over JMX.
+ * 
+ * Forwarding headers such as X-Forwarded-For are sent by the client as well, and
+ * proxies append to them. Only the values appended by trusted proxies can be relied
+ * on, so the value used is counted from the right by the number of trusted proxies;
+ * a client can otherwise pick its bucket, and escape throttling, by sending the
+ * header itself.
+ * 
+ * When blocking throttled requests, the number of blocked requests can be limited
+ * by a wait list. When the wait list is full, the request which would have to wait
+ * the longest is rejected instead.
+ * 
  * 
  *
  */
@@ -144,35 +175,191 @@ public class RequestThrottler implements Filter {
         @AttributeDefinition(name = "Filtered paths", description = "The paths (regular expressions) which are considered for this service")
         String[] filtered_paths();
 
+        @AttributeDefinition(name = "Load estimators", description = "The estimators of the load the throttling is based on, each as name or name=weight: "
+                + "cpu (CPU usage), in-flight (requests in flight), latency (95th percentile request latency during the last minute), "
+                + "thread-pool (busy threads and queued tasks of a thread pool). Each load is multiplied by its weight and the highest one is used")
+        String[] load_estimators() default { LOAD_CPU };
+
+        @AttributeDefinition(name = "Maximum requests in flight", description = "The number of requests in flight at which the in-flight load is 100 percent")
+        int max_in_flight_requests() default 200;
+
+        @AttributeDefinition(name = "Latency threshold", description = "The 95th percentile request latency in milliseconds at which the latency load is 100 percent")
+        int latency_threshold() default 5000;
+
+        @AttributeDefinition(name = "Thread pool MBean", description = "The name (or pattern) of the thread pool MBean used by the thread-pool load estimator")
+        String thread_pool_mbean() default "org.eclipse.jetty.util.thread:type=queuedthreadpool,*";
+
+        @AttributeDefinition(name = "Thread pool busy threads attribute", description = "The MBean attribute holding the number of busy threads")
+        String thread_pool_busy_attribute() default "busyThreads";
+
+        @AttributeDefinition(name = "Thread pool queue size attribute", description = "The MBean attribute holding the number of queued tasks, may be empty")
+        String thread_pool_queue_attribute() default "queueSize";
+
+        @AttributeDefinition(name = "Thread pool maximum threads attribute", description = "The MBean attribute holding the maximum number of threads")
+        String thread_pool_max_attribute() default "maxThreads";
+
+        @AttributeDefinition(name = "Bucket by", description = "How requests are split into buckets which are throttled separately", options = {
+                @Option(label = "All requests share one bucket", value = BUCKET_GLOBAL),
+                @Option(label = "Client IP", value = BUCKET_CLIENT_IP),
+                @Option(label = "Path prefix", value = BUCKET_PATH_PREFIX),
+                @Option(label = "Request header", value = BUCKET_HEADER) })
+        String bucket_key() default BUCKET_GLOBAL;
+
+        @AttributeDefinition(name = "Bucket header", description = "The request header used to bucket requests (e.g. X-Forwarded-For). Of comma separated values, the one added by the outermost trusted proxy is used, as a client can send any values itself")
+        String bucket_header() default "X-Forwarded-For";
+
+        @AttributeDefinition(name = "Bucket header trusted proxies", description = "The number of trusted proxies appending to the bucket header; the value at this position counted from the right is used. 1 uses the right-most value, added by the proxy in front of AEM")
+        int bucket_header_trusted_proxies() default 1;
+
+        @AttributeDefinition(name = "Bucket share", description = "The percentage of the permitted requests a single bucket may use; all buckets together never exceed the permitted requests")
+        int bucket_share_percentage() default 25;
+
+        @AttributeDefinition(name = "Bucket path depth", description = "The number of path segments of the path prefix used to bucket requests")
+        int bucket_path_depth() default 2;
+
+        @AttributeDefinition(name = "Maximum number of buckets", description = "The maximum number of buckets kept; buckets unused for two minutes are dropped")
+        int bucket_max_count() default 10000;
+
+        @AttributeDefinition(name = "Wait list size", description = "The maximum number of throttled requests blocked at the same time if they are not rejected; further requests are rejected. 0 blocks all throttled requests")
+        int wait_list_size() default 0;
+
         String webconsole_configurationFactory_nameHint() default "{filtered.paths}";
 
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(RequestThrottler.class);
 
-    ThrottlingState state;
+    static final String BUCKET_GLOBAL = "global";
+    static final String BUCKET_CLIENT_IP = "client-ip";
+    static final String BUCKET_PATH_PREFIX = "path-prefix";
+    static final String BUCKET_HEADER = "header";
+
+    private static final String UNKNOWN_BUCKET = "unknown";
+
+    static final String LOAD_CPU = "cpu";
+    static final String LOAD_IN_FLIGHT = "in-flight";
+    static final String LOAD_LATENCY = "latency";
+    static final String LOAD_THREAD_POOL = "thread-pool";
+
     private Config config;
 
-    CpuLoadEstimator loadEstimator;
+    ThrottlingBuckets buckets;
+
+    private BundleContext bundleContext;
+    private String pid;
+    private ServiceRegistration<?> mbeanRegistration;
+
+    AbstractLoadEstimator loadEstimator;
+
+    RequestLoadTracker tracker;
 
     List<Pattern> filteredPaths;
 
     Clock clock;
 
     @Activate
+    protected void start(BundleContext bundleContext, Config c, Map<String, Object> properties) {
+        this.bundleContext = bundleContext;
+        this.pid = String.valueOf(properties.get(Constants.SERVICE_PID));
+        activate(c);
+    }
+
     @Modified
+    protected void modified(Config c) {
+        activate(c);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        unregisterMBean();
+    }
+
     protected void activate(Config c) {
         this.config = c;
         ThrottlingConfiguration tc = new ThrottlingConfiguration(c.max_requests_per_minute(),
                 c.start_throttling_percentage());
-        loadEstimator = new CpuLoadEstimator(tc);
         clock = Clock.systemUTC();
-        this.state = new ThrottlingState(clock, loadEstimator);
+        tracker = null;
+        loadEstimator = createLoadEstimator(c, tc);
+        try {
+            this.buckets = new ThrottlingBuckets(clock, loadEstimator, c.max_requests_per_minute(),
+                    c.bucket_max_count(), c.bucket_share_percentage(), c.wait_list_size());
+        } catch (NotCompliantMBeanException e) {
+            throw new IllegalStateException("Cannot create the throttling buckets", e);
+        }
 
         // precompile all patterns
         filteredPaths = Arrays.asList(config.filtered_paths()).stream().map(s -> Pattern.compile(s))
                 .collect(Collectors.toList());
 
+        registerMBean();
+    }
+
+    private AbstractLoadEstimator createLoadEstimator(Config c, ThrottlingConfiguration tc) {
+        String[] names = c.load_estimators();
+        if (names == null || names.length == 0) {
+            names = new String[] { LOAD_CPU };
+        }
+        Map<AbstractLoadEstimator, Double> estimators = new LinkedHashMap<>();
+        for (String entry : names) {
+            String name = StringUtils.trim(StringUtils.substringBefore(entry, "="));
+            double weight = entry.contains("=")
+                    ? NumberUtils.toDouble(StringUtils.trim(StringUtils.substringAfter(entry, "=")), 1.0)
+                    : 1.0;
+            switch (StringUtils.defaultString(name)) {
+                case LOAD_CPU:
+                    estimators.put(new CpuLoadEstimator(tc), weight);
+                    break;
+                case LOAD_IN_FLIGHT:
+                    estimators.put(new InFlightLoadEstimator(tc, getTracker(), c.max_in_flight_requests()), weight);
+                    break;
+                case LOAD_LATENCY:
+                    estimators.put(new LatencyLoadEstimator(tc, getTracker(), c.latency_threshold(), clock), weight);
+                    break;
+                case LOAD_THREAD_POOL:
+                    estimators.put(new ThreadPoolLoadEstimator(tc, c.thread_pool_mbean(), c.thread_pool_busy_attribute(),
+                            c.thread_pool_queue_attribute(), c.thread_pool_max_attribute()), weight);
+                    break;
+                default:
+                    LOG.warn("Ignoring unknown load estimator {}", entry);
+            }
+        }
+        if (estimators.isEmpty()) {
+            return new CpuLoadEstimator(tc);
+        }
+        if (estimators.size() == 1 && estimators.values().iterator().next() == 1.0) {
+            return estimators.keySet().iterator().next();
+        }
+        return new CompositeLoadEstimator(tc, estimators);
+    }
+
+    private RequestLoadTracker getTracker() {
+        if (tracker == null) {
+            tracker = new RequestLoadTracker();
+        }
+        return tracker;
+    }
+
+    private void registerMBean() {
+        unregisterMBean();
+        if (bundleContext == null) {
+            return;
+        }
+        try {
+            Dictionary<String, Object> mbeanProps = new Hashtable<>();
+            mbeanProps.put("jmx.objectname",
+                    "com.adobe.acs.commons:type=Request Throttler,id=" + ObjectName.quote(pid));
+            mbeanRegistration = bundleContext.registerService(DynamicMBean.class.getName(), buckets, mbeanProps);
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to register the Request Throttler MBean", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (mbeanRegistration != null) {
+            mbeanRegistration.unregister();
+            mbeanRegistration = null;
+        }
     }
 
     @Override
@@ -186,20 +373,39 @@ public class RequestThrottler implements Filter {
             doFilterInternal(req, res);
         }
 
-        chain.doFilter(request, response);
+        RequestLoadTracker currentTracker = tracker;
+        if (currentTracker == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        // only the request processing is tracked, not the time spent throttled
+        currentTracker.requestStarted();
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            currentTracker.requestFinished(clock.millis(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
 
     }
 
     protected void doFilterInternal(SlingHttpServletRequest req, SlingHttpServletResponse res) throws IOException {
 
-        ThrottlingDecision decision = state.evaluateThrottling();
+        String bucket = getBucket(req);
+        ThrottlingDecision decision = buckets.evaluateThrottling(bucket);
         if (decision.getState().equals(ThrottlingDecision.State.THROTTLE)) {
 
             if (this.config.reject_on_throttle()) {
-                String msg = "Request rejected because of throttling: " + decision.message;
+                reject(req, res, bucket, "Request rejected because of throttling: " + decision.message,
+                        decision.message);
+            } else if (buckets.hasWaitList()) {
+                String msg = "Throttling request (" + decision.message + ")";
                 req.getRequestProgressTracker().log(msg);
                 LOG.info(msg);
-                res.sendError(config.http_status_on_reject(), decision.message);
+                if (!buckets.await(decision.delay)) {
+                    reject(req, res, bucket, "Request rejected because the throttling wait list is full",
+                            "throttling wait list is full");
+                }
             } else {
                 String msg = "Throttling request (" + decision.message + ")";
                 req.getRequestProgressTracker().log(msg);
@@ -214,6 +420,59 @@ public class RequestThrottler implements Filter {
         }
     }
 
+    private void reject(SlingHttpServletRequest req, SlingHttpServletResponse res, String bucket, String msg,
+            String reason) throws IOException {
+        buckets.recordRejected(bucket);
+        req.getRequestProgressTracker().log(msg);
+        LOG.info(msg);
+        res.sendError(config.http_status_on_reject(), reason);
+    }
+
+    /**
+     * @param req the current request
+     * @return the key of the bucket the request is throttled in
+     */
+    protected String getBucket(SlingHttpServletRequest req) {
+        String key;
+        String bucketKey = StringUtils.defaultString(config.bucket_key(), BUCKET_GLOBAL);
+        switch (bucketKey) {
+            case BUCKET_CLIENT_IP:
+                key = req.getRemoteAddr();
+                break;
+            case BUCKET_HEADER:
+                key = getForwardedValue(req.getHeader(config.bucket_header()), config.bucket_header_trusted_proxies());
+                break;
+            case BUCKET_PATH_PREFIX:
+                key = getPathPrefix(req.getResource().getPath(), config.bucket_path_depth());
+                break;
+            default:
+                return BUCKET_GLOBAL;
+        }
+        return key == null ? UNKNOWN_BUCKET : key;
+    }
+
+    /**
+     * @param header         the comma separated values of a forwarding header, may be null
+     * @param trustedProxies the number of trusted proxies appending to the header
+     * @return the value appended by the outermost trusted proxy, i.e. counted from the
+     *         right; the left-most value if there are fewer values
+     */
+    static String getForwardedValue(String header, int trustedProxies) {
+        String[] values = StringUtils.split(StringUtils.defaultString(header), ',');
+        if (values.length == 0) {
+            return null;
+        }
+        return StringUtils.trimToNull(values[Math.max(0, values.length - Math.max(1, trustedProxies))]);
+    }
+
+    static String getPathPrefix(String path, int depth) {
+        int end = 0;
+        for (int i = 0; i < Math.max(1, depth) && end >= 0; i++) {
+            end = path.indexOf('/', end + 1);
+        }
+        return end < 0 ? path : path.substring(0, end);
+    }
+
     protected boolean needsFiltering(String path) {
 
         return filteredPaths.stream().anyMatch(p -> p.matcher(path).matches());
@@ -0,0 +1,43 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+@Description("ACS AEM Commons - Request Throttler")
+public interface RequestThrottlerMBean {
+
+    @Description("Throttling buckets: the requests admitted, throttled and rejected per bucket and the requests "
+            + "admitted during the last minute")
+    TabularData getBuckets() throws OpenDataException;
+
+    @Description("Number of requests per minute currently permitted for all buckets together")
+    int getCurrentLimit();
+
+    @Description("Number of throttled requests currently waiting in the wait list")
+    int getWaitingRequests();
+
+    /* Operations */
+    @Description("Remove all buckets and their statistics")
+    void resetBuckets();
+}
@@ -0,0 +1,126 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import java.lang.management.ManagementFactory;
+import java.time.Clock;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Estimates the load by the saturation of a thread pool exposed as MBean, e.g. the Jetty
+ * request thread pool: the busy threads plus the queued tasks, relative to the maximum
+ * number of threads.
+ */
+public class ThreadPoolLoadEstimator extends AbstractLoadEstimator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThreadPoolLoadEstimator.class);
+
+    /* How long a lookup finding no MBean is reused, e.g. while Jetty JMX is disabled */
+    static final long LOOKUP_RETRY_MS = 60_000;
+
+    MBeanServer mbs;
+    ObjectName pattern;
+    volatile ObjectName name;
+    Clock clock = Clock.systemUTC();
+
+    private volatile long nextLookup = Long.MIN_VALUE;
+
+    private final String busyAttribute;
+    private final String queueAttribute;
+    private final String maxAttribute;
+
+    /**
+     * @param tc             the throttling configuration
+     * @param objectName     the name of the thread pool MBean, may be a pattern; the first
+     *                       matching MBean is used
+     * @param busyAttribute  the attribute holding the number of busy threads
+     * @param queueAttribute the attribute holding the number of queued tasks, may be empty
+     * @param maxAttribute   the attribute holding the maximum number of threads
+     */
+    public ThreadPoolLoadEstimator(ThrottlingConfiguration tc, String objectName, String busyAttribute,
+            String queueAttribute, String maxAttribute) {
+        super(tc);
+        this.busyAttribute = busyAttribute;
+        this.queueAttribute = queueAttribute;
+        this.maxAttribute = maxAttribute;
+        mbs = ManagementFactory.getPlatformMBeanServer();
+        try {
+            pattern = new ObjectName(objectName);
+        } catch (MalformedObjectNameException e) {
+            String message = String.format("invalid mbean name %s", objectName);
+            LOG.error(message);
+            throw new IllegalStateException(message, e);
+        }
+    }
+
+    @Override
+    public int getLoadPercentage() {
+        ObjectName current = resolveName();
+        if (current == null) {
+            return 0;
+        }
+        try {
+            long busy = getLong(current, busyAttribute);
+            long queued = StringUtils.isBlank(queueAttribute) ? 0 : getLong(current, queueAttribute);
+            long max = getLong(current, maxAttribute);
+            if (max <= 0) {
+                return 0;
+            }
+            return (int) Math.min(100, (busy + queued) * 100 / max);
+        } catch (JMException e) {
+            LOG.warn("Cannot query mbean {}, do not throttle at all!", current, e);
+            // the MBean might have been re-registered under another name
+            name = null;
+            return 0;
+        }
+    }
+
+    private ObjectName resolveName() {
+        if (name == null) {
+            long now = clock.millis();
+            if (now < nextLookup) {
+                return null;
+            }
+            Set<ObjectName> names = mbs.queryNames(pattern, null);
+            if (names.isEmpty()) {
+                LOG.debug("No mbean found for {}, do not throttle at all!", pattern);
+                nextLookup = now + LOOKUP_RETRY_MS;
+                return null;
+            }
+            name = names.iterator().next();
+        }
+        return name;
+    }
+
+    private long getLong(ObjectName current, String attribute) throws JMException {
+        Object value = mbs.getAttribute(current, attribute);
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(String.valueOf(value));
+    }
+
+}
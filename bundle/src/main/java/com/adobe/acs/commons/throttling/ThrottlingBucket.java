@@ -0,0 +1,120 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A lock-free sliding window of the requests admitted during the last minute.
+ *
+ * The slots form a ring holding the time (in epoch milliseconds) at which each admitted
+ * request reached the system, and the cursor counts all admitted requests. With a limit
+ * of n requests per minute a request is admitted if the n-th most recent admitted
+ * request is older than one minute. The limit may change from request to request, but
+ * never exceeds the number of slots.
+ *
+ * Requests racing for the same slot are ordered by a compare-and-set on the cursor, so
+ * no locks and no per-request allocations are needed. A request which reads a slot while
+ * it is being written sees its previous value and may be admitted slightly early; this
+ * is accepted in favour of not locking.
+ */
+final class ThrottlingBucket {
+
+    static final long ONE_MINUTE = 1000L * 60;
+
+    private final AtomicLongArray slots;
+    private final AtomicLong cursor = new AtomicLong();
+
+    final LongAdder admitted = new LongAdder();
+    final LongAdder throttled = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    volatile long lastRequest;
+
+    ThrottlingBucket(int capacity) {
+        this.slots = new AtomicLongArray(Math.max(1, capacity));
+    }
+
+    /**
+     * @param now   the current time in epoch milliseconds
+     * @param limit the number of requests permitted per minute
+     * @return 0 if the request is admitted, otherwise the time in milliseconds until it
+     *         would be admitted
+     */
+    long tryAcquire(long now, int limit) {
+        lastRequest = now;
+        if (limit <= 0) {
+            // nothing is permitted, wait for a full minute
+            throttled.increment();
+            return ONE_MINUTE;
+        }
+        while (true) {
+            long count = cursor.get();
+            long wait = getDelay(count, now, limit);
+            if (wait > 0) {
+                throttled.increment();
+                return wait;
+            }
+            if (cursor.compareAndSet(count, count + 1)) {
+                slots.set(index(count), now);
+                admitted.increment();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a request would be admitted, without admitting it.
+     *
+     * @param now   the current time in epoch milliseconds
+     * @param limit the number of requests permitted per minute
+     * @return 0 if a request would be admitted, otherwise the time in milliseconds until
+     *         it would be admitted
+     */
+    long getDelay(long now, int limit) {
+        return limit <= 0 ? ONE_MINUTE : getDelay(cursor.get(), now, limit);
+    }
+
+    private long getDelay(long count, long now, int limit) {
+        int n = Math.min(limit, slots.length());
+        long oldest = count < n ? 0 : slots.get(index(count - n));
+        return Math.max(0, oldest + ONE_MINUTE - now);
+    }
+
+    private int index(long count) {
+        return (int) (count % slots.length());
+    }
+
+    /**
+     * @param now the current time in epoch milliseconds
+     * @return the number of requests admitted during the last minute
+     */
+    int getRecentRequests(long now) {
+        int result = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            long timestamp = slots.get(i);
+            if (timestamp > 0 && now - timestamp <= ONE_MINUTE) {
+                result++;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/*
+ * Holds the throttling buckets of a RequestThrottler, each with its own sliding window,
+ * and decides whether a request of a bucket needs to be throttled.
+ *
+ * The limit calculated by the LoadEstimator applies to all requests together, which are
+ * counted in a global bucket. Each of the other buckets may only use a share of that
+ * limit, so that with one bucket per client a single client exceeding its share is
+ * throttled while the others are not. Buckets which have not been used for a while are
+ * dropped, and the number of buckets is bounded.
+ */
+final class ThrottlingBuckets extends AnnotatedStandardMBean implements RequestThrottlerMBean {
+
+    private final Clock clock;
+    private final LoadEstimator loadEstimator;
+    private final int capacity;
+    private final int bucketShare;
+    private final Cache<String, ThrottlingBucket> buckets;
+    private volatile ThrottlingBucket global;
+    private final ThrottlingWaitList waitList;
+
+    /**
+     * @param clock         the clock to get the current time from
+     * @param loadEstimator the estimator of the number of requests permitted per minute
+     * @param capacity      the maximum number of requests permitted per minute
+     * @param maxBuckets    the maximum number of buckets
+     * @param bucketShare   the percentage of the limit a single bucket may use, 100 if
+     *                      not positive
+     * @param waitListSize  the maximum number of waiting requests, 0 if waiting is not
+     *                      limited
+     */
+    ThrottlingBuckets(Clock clock, LoadEstimator loadEstimator, int capacity, int maxBuckets, int bucketShare,
+            int waitListSize) throws NotCompliantMBeanException {
+        super(RequestThrottlerMBean.class);
+        this.clock = clock;
+        this.loadEstimator = loadEstimator;
+        this.capacity = capacity;
+        this.bucketShare = bucketShare > 0 ? Math.min(100, bucketShare) : 100;
+        this.global = new ThrottlingBucket(capacity);
+        this.buckets = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(1, maxBuckets))
+                .expireAfterAccess(2 * ThrottlingBucket.ONE_MINUTE, TimeUnit.MILLISECONDS)
+                .build();
+        this.waitList = waitListSize > 0 ? new ThrottlingWaitList(waitListSize) : null;
+    }
+
+    /**
+     * @param key the bucket of the request
+     * @return the decision whether the request needs to be throttled
+     */
+    ThrottlingDecision evaluateThrottling(String key) {
+        long now = clock.millis();
+        int limit = loadEstimator.getMaxRequestPerMinute();
+        long delay = RequestThrottler.BUCKET_GLOBAL.equals(key)
+                ? global.tryAcquire(now, limit)
+                : tryAcquire(getBucket(key), now, limit);
+        if (delay > 0) {
+            return new ThrottlingDecision(ThrottlingDecision.State.THROTTLE).withDelay(delay)
+                    .withMessage("throttling required (at least " + delay + " ms)");
+        }
+        return new ThrottlingDecision(ThrottlingDecision.State.NOTHROTTLE);
+    }
+
+    /**
+     * A request is only admitted if both its bucket and the global bucket permit it. Its
+     * own bucket is checked first, so the requests of a throttled client do not use up
+     * the global limit.
+     */
+    private long tryAcquire(ThrottlingBucket bucket, long now, int limit) {
+        int bucketLimit = limit <= 0 ? 0 : Math.max(1, (int) ((long) limit * bucketShare / 100));
+        long delay = bucket.getDelay(now, bucketLimit);
+        if (delay == 0) {
+            delay = global.tryAcquire(now, limit);
+        }
+        if (delay > 0) {
+            bucket.lastRequest = now;
+            bucket.throttled.increment();
+            return delay;
+        }
+        // a concurrent request of the same bucket may have taken its last slot meanwhile,
+        // which leaves a global slot unused for a minute; this is accepted over locking
+        return bucket.tryAcquire(now, bucketLimit);
+    }
+
+    /**
+     * @return whether throttled requests are queued in a bounded wait list
+     */
+    boolean hasWaitList() {
+        return waitList != null;
+    }
+
+    /**
+     * Waits in the wait list until the throttling delay has passed.
+     *
+     * @param delay the throttling delay in milliseconds
+     * @return false if the request needs to be rejected instead
+     */
+    boolean await(long delay) {
+        return waitList.await(clock.millis(), delay);
+    }
+
+    /**
+     * @param key the bucket of a request which was rejected
+     */
+    void recordRejected(String key) {
+        (RequestThrottler.BUCKET_GLOBAL.equals(key) ? global : getBucket(key)).rejected.increment();
+    }
+
+    private ThrottlingBucket getBucket(String key) {
+        return buckets.asMap().computeIfAbsent(key, k -> new ThrottlingBucket(capacity));
+    }
+
+    @Override
+    @SuppressWarnings("squid:S1192")
+    public TabularData getBuckets() throws OpenDataException {
+        final String[] itemNames = {"bucket", "admitted", "throttled", "rejected", "recentRequests", "lastRequest"};
+        final CompositeType bucketType = new CompositeType(
+                "throttlingBucket",
+                "Throttling Bucket",
+                itemNames,
+                itemNames,
+                new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.INTEGER, SimpleType.STRING}
+        );
+
+        final TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType("throttlingBuckets",
+                        "Throttling Buckets",
+                        bucketType,
+                        new String[]{"bucket"})
+        );
+
+        final long now = clock.millis();
+        final Map<String, ThrottlingBucket> all = new LinkedHashMap<>();
+        if (global.lastRequest > 0) {
+            all.put(RequestThrottler.BUCKET_GLOBAL, global);
+        }
+        all.putAll(buckets.asMap());
+        for (final Map.Entry<String, ThrottlingBucket> entry : all.entrySet()) {
+            final ThrottlingBucket bucket = entry.getValue();
+            final Map<String, Object> data = new HashMap<>();
+            data.put("bucket", entry.getKey());
+            data.put("admitted", bucket.admitted.sum());
+            data.put("throttled", bucket.throttled.sum());
+            data.put("rejected", bucket.rejected.sum());
+            data.put("recentRequests", bucket.getRecentRequests(now));
+            data.put("lastRequest", Instant.ofEpochMilli(bucket.lastRequest).toString());
+            tabularData.put(new CompositeDataSupport(bucketType, data));
+        }
+
+        return tabularData;
+    }
+
+    @Override
+    public int getCurrentLimit() {
+        return Math.min(capacity, loadEstimator.getMaxRequestPerMinute());
+    }
+
+    @Override
+    public int getWaitingRequests() {
+        return waitList == null ? 0 : waitList.size();
+    }
+
+    @Override
+    public void resetBuckets() {
+        buckets.invalidateAll();
+        global = new ThrottlingBucket(capacity);
+    }
+}
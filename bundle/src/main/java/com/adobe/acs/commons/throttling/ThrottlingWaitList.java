@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A bounded list of throttled requests waiting to be processed.
+ *
+ * Requests which would have to wait the longest are the first ones to be given up when
+ * the list is full: a request with an earlier deadline replaces the waiting request with
+ * the latest deadline, which is then rejected. This way a client which is throttled hard
+ * cannot occupy all the waiting requests and starve clients which only need to wait a
+ * little.
+ */
+final class ThrottlingWaitList {
+
+    private final int capacity;
+
+    /* latest deadline first, guarded by this */
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+            Comparator.comparingLong((Waiter w) -> w.deadline).reversed());
+
+    /**
+     * @param capacity the maximum number of waiting requests
+     */
+    ThrottlingWaitList(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Waits until the given time has passed.
+     *
+     * @param now   the current time in epoch milliseconds
+     * @param delay the time to wait in milliseconds
+     * @return true if the request waited, false if it has to be rejected because the list
+     *         is full of requests which will be done earlier or because it was interrupted
+     */
+    boolean await(long now, long delay) {
+        Waiter waiter = new Waiter(now + delay);
+        synchronized (this) {
+            if (waiters.size() >= capacity) {
+                Waiter latest = waiters.peek();
+                if (latest == null || latest.deadline <= waiter.deadline) {
+                    return false;
+                }
+                waiters.poll();
+                latest.givenUp = true;
+                latest.latch.countDown();
+            }
+            waiters.add(waiter);
+        }
+        try {
+            waiter.latch.await(delay, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            waiter.givenUp = true;
+        } finally {
+            synchronized (this) {
+                waiters.remove(waiter);
+            }
+        }
+        return !waiter.givenUp;
+    }
+
+    /**
+     * @return the number of waiting requests
+     */
+    synchronized int size() {
+        return waiters.size();
+    }
+
+    private static final class Waiter {
+        private final long deadline;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile boolean givenUp;
+
+        private Waiter(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+}
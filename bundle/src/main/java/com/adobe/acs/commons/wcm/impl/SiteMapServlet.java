@@ -21,26 +21,48 @@ package com.adobe.acs.commons.wcm.impl;
 
 import com.adobe.acs.commons.util.ParameterUtil;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.Servlet;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.time.FastDateFormat;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.PropertyUnbounded;
@@ -51,8 +73,12 @@ import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,9 +91,13 @@ import com.day.cq.dam.api.DamConstants;
 import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.PageFilter;
 import com.day.cq.wcm.api.PageManager;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 @Component(metatype = true, label = "ACS AEM Commons - Site Map Servlet", description = "Page and Asset Site Map Servlet", configurationFactory = true, policy = ConfigurationPolicy.REQUIRE)
-@Service
+@Service(Servlet.class)
 @SuppressWarnings("serial")
 @Properties({
         @Property(name = "sling.servlet.resourceTypes", unbounded = PropertyUnbounded.ARRAY, label = "Sling Resource Type", description = "Sling Resource Type for the Home Page component or components."),
@@ -75,7 +105,7 @@ import com.day.cq.wcm.api.PageManager;
         @Property(name = "sling.servlet.extensions", value = "xml", propertyPrivate = true),
         @Property(name = "sling.servlet.methods", value = "GET", propertyPrivate = true),
         @Property(name = "webconsole.configurationFactory.nameHint", value = "Site Map for: {externalizer.domain}, on resource types: [{sling.servlet.resourceTypes}]") })
-public final class SiteMapServlet extends SlingSafeMethodsServlet {
+public final class SiteMapServlet extends SlingSafeMethodsServlet implements ResourceChangeListener {
 
     private static final Logger log = LoggerFactory.getLogger(SiteMapServlet.class);
 
@@ -93,6 +123,18 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
 
     private static final boolean DEFAULT_USE_VANITY_URL = true;
 
+    /* Sitemaps protocol limit of URLs per sitemap */
+    private static final int MAX_SHARD_SIZE = 50000;
+
+    private static final int DEFAULT_SHARD_SIZE = 0;
+
+    private static final boolean DEFAULT_CACHE_ENABLED = false;
+
+    private static final int DEFAULT_CACHE_MAX_SIZE_KB = 10 * 1024;
+
+    private static final int DEFAULT_CACHE_REFRESH_DELAY = 30;
+
+
     @Property(value = DEFAULT_EXTERNALIZER_DOMAIN, label = "Externalizer Domain", description = "Must correspond to a configuration of the Externalizer component. If blank the externalization will prepend the current request's scheme combined with the current request's host header.")
     private static final String PROP_EXTERNALIZER_DOMAIN = "externalizer.domain";
 
@@ -135,6 +177,18 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
     @Property(boolValue = DEFAULT_USE_VANITY_URL, label = "Use Vanity URLs", description = "Use the Vanity URL for generating the Page URL")
     private static final String USE_VANITY_URL = "use.vanity";
 
+    @Property(intValue = DEFAULT_SHARD_SIZE, label = "Shard Size", description = "Maximum number of URLs per sitemap. If set, the sitemap is a sitemap index referring to the sitemaps <page>.sitemap.<n>.xml and the sitemaps are cached, so the index and its sitemaps are generated once. 0 serves a single sitemap. At most 50000.")
+    private static final String PROP_SHARD_SIZE = "shard.size";
+
+    @Property(boolValue = DEFAULT_CACHE_ENABLED, label = "Cache Sitemaps", description = "If true, the sitemaps of anonymous requests are generated once, kept gzip compressed in memory and dropped when pages below the home page or the DAM folders change, so the next anonymous request regenerates them with its own access. Always enabled when a Shard Size is set.")
+    private static final String PROP_CACHE_ENABLED = "cache.enabled";
+
+    @Property(intValue = DEFAULT_CACHE_MAX_SIZE_KB, label = "Cache Size", description = "Maximum size in KB of the compressed sitemaps kept in memory.")
+    private static final String PROP_CACHE_MAX_SIZE_KB = "cache.max-size-kb";
+
+    @Property(intValue = DEFAULT_CACHE_REFRESH_DELAY, label = "Cache Refresh Delay", description = "Time in seconds the changes of a sitemap are collected, while the cached sitemap is still served, before it is dropped and regenerated by the next request.")
+    private static final String PROP_CACHE_REFRESH_DELAY = "cache.refresh-delay";
+
     private static final String NS = "http://www.sitemaps.org/schemas/sitemap/0.9";
 
     @Reference
@@ -168,7 +222,33 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
 
     private boolean useVanityUrl;
 
+    private int shardSize;
+
+    private int refreshDelay;
+
+    private transient volatile Cache<String, SiteMap> siteMapCache;
+
+    private transient volatile ScheduledExecutorService refreshScheduler;
+
+    private final transient Set<String> pendingRefreshes = ConcurrentHashMap.newKeySet();
+
+    private transient ServiceRegistration listenerRegistration;
+
     @Activate
+    protected void start(BundleContext bundleContext, Map<String, Object> properties) {
+        activate(properties);
+
+        if (siteMapCache != null) {
+            // only cached sitemaps need to know about content changes
+            final Dictionary<String, Object> listenerProps = new Hashtable<>();
+            listenerProps.put(ResourceChangeListener.PATHS, new String[]{ "/content" });
+            listenerProps.put(ResourceChangeListener.CHANGES, new String[]{ ResourceChange.ChangeType.ADDED.name(),
+                    ResourceChange.ChangeType.CHANGED.name(), ResourceChange.ChangeType.REMOVED.name() });
+            this.listenerRegistration = bundleContext.registerService(ResourceChangeListener.class.getName(), this,
+                    listenerProps);
+        }
+    }
+
     protected void activate(Map<String, Object> properties) {
         this.externalizerDomain = PropertiesUtil.toString(properties.get(PROP_EXTERNALIZER_DOMAIN),
                 DEFAULT_EXTERNALIZER_DOMAIN);
@@ -192,6 +272,34 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
                 DEFAULT_REMOVE_TRAILING_SLASH);
         this.excludedPageTemplates = Arrays.asList(PropertiesUtil.toStringArray(properties.get(TEMPLATE_EXCLUDE_FROM_SITEMAP_PROPERTY),new String[0]));
         this.useVanityUrl =  PropertiesUtil.toBoolean(properties.get(USE_VANITY_URL), DEFAULT_USE_VANITY_URL);
+        this.shardSize = Math.min(MAX_SHARD_SIZE, Math.max(0,
+                PropertiesUtil.toInteger(properties.get(PROP_SHARD_SIZE), DEFAULT_SHARD_SIZE)));
+        this.refreshDelay = PropertiesUtil.toInteger(properties.get(PROP_CACHE_REFRESH_DELAY), DEFAULT_CACHE_REFRESH_DELAY);
+        // sharded sitemaps are always cached, otherwise the index and every shard would walk the whole tree
+        if (shardSize > 0 || PropertiesUtil.toBoolean(properties.get(PROP_CACHE_ENABLED), DEFAULT_CACHE_ENABLED)) {
+            this.siteMapCache = CacheBuilder.newBuilder()
+                    .maximumWeight(PropertiesUtil.toInteger(properties.get(PROP_CACHE_MAX_SIZE_KB),
+                            DEFAULT_CACHE_MAX_SIZE_KB) * 1024L)
+                    .<String, SiteMap>weigher((key, siteMap) -> key.length() + siteMap.getWeight())
+                    .build();
+            this.refreshScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("ACS AEM Commons - Site Map Refresh-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (listenerRegistration != null) {
+            listenerRegistration.unregister();
+            listenerRegistration = null;
+        }
+        if (refreshScheduler != null) {
+            refreshScheduler.shutdownNow();
+            refreshScheduler = null;
+        }
+        siteMapCache = null;
     }
 
     @Override
@@ -205,47 +313,186 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
         PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
         Page page = pageManager.getContainingPage(request.getResource());
 
+        if (siteMapCache != null) {
+            writeSiteMap(page, request, response);
+            return;
+        }
+
         XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
         XMLStreamWriter stream = null;
         try {
             stream = outputFactory.createXMLStreamWriter(response.getWriter());
-            stream.writeStartDocument("1.0");
+            final XMLStreamWriter responseStream = stream;
+            final UrlSetWriter urls = new UrlSetWriter(0, index -> {
+                responseStream.writeStartDocument("1.0");
+                return responseStream;
+            }, (index, shard) -> { });
+            write(page, urls, getExternalizer(request, resourceResolver), new ArrayList<>());
+            urls.finish();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            if (stream != null) {
+                try
+                {
+                    stream.close();
+                }
+                catch ( XMLStreamException e )
+                {
+                    log.warn("Can not close xml stream writer", e);
+                }
+            }
+        }
+    }
 
-            stream.writeStartElement("", "urlset", NS);
-            stream.writeNamespace("", NS);
+    /**
+     * Writes the site map, or the requested shard of it, from its compressed shards. The shards are always sent
+     * uncompressed, as the sitemap URLs are cached by the dispatcher regardless of the Accept-Encoding header.
+     */
+    private void writeSiteMap(Page page, SlingHttpServletRequest request, SlingHttpServletResponse response)
+            throws IOException {
+        final SiteMap siteMap;
+        try {
+            siteMap = getSiteMap(page, request);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
 
-            // first do the current page
-            write(page, stream, request);
+        final String[] selectors = request.getRequestPathInfo().getSelectors();
+        if (shardSize > 0 && selectors.length < 2) {
+            writeSiteMapIndex(page, siteMap, request, response);
+            return;
+        }
 
-            for (Iterator<Page> children = page.listChildren(new PageFilter(false, true), true); children.hasNext();) {
-                write(children.next(), stream, request);
-            }
+        final int shard = shardSize > 0 ? NumberUtils.toInt(selectors[1]) - 1 : 0;
+        if (shard < 0 || shard >= siteMap.shards.size()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
 
-            if (damAssetTypes.size() > 0 && damAssetProperty.length() > 0) {
-                for (Resource assetFolder : getAssetFolders(page, resourceResolver)) {
-                    writeAssets(stream, assetFolder, request);
+        response.setCharacterEncoding(siteMap.encoding);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(siteMap.shards.get(shard)))) {
+            IOUtils.copy(in, response.getOutputStream());
+        }
+    }
+
+    private void writeSiteMapIndex(Page page, SiteMap siteMap, SlingHttpServletRequest request,
+                                   SlingHttpServletResponse response) throws IOException {
+        final UnaryOperator<String> externalize = getExternalizer(request, request.getResourceResolver());
+        XMLStreamWriter stream = null;
+        try {
+            stream = XMLOutputFactory.newFactory().createXMLStreamWriter(response.getWriter());
+            stream.writeStartDocument("1.0");
+
+            stream.writeStartElement("", "sitemapindex", NS);
+            stream.writeNamespace("", NS);
+
+            for (int i = 1; i <= siteMap.shards.size(); i++) {
+                stream.writeStartElement(NS, "sitemap");
+                writeElement(stream, "loc", applyUrlRewrites(
+                        externalize.apply(String.format("%s.sitemap.%d.xml", page.getPath(), i))));
+                if (includeLastModified) {
+                    writeElement(stream, "lastmod", DATE_FORMAT.format(siteMap.generated));
                 }
+                stream.writeEndElement();
             }
 
             stream.writeEndElement();
-
             stream.writeEndDocument();
         } catch (XMLStreamException e) {
             throw new IOException(e);
         } finally {
             if (stream != null) {
-                try
-                {
+                try {
                     stream.close();
-                }
-                catch ( XMLStreamException e )
-                {
+                } catch (XMLStreamException e) {
                     log.warn("Can not close xml stream writer", e);
                 }
             }
         }
     }
 
+    private SiteMap getSiteMap(Page page, SlingHttpServletRequest request) throws XMLStreamException {
+        // only anonymous requests share the cached site maps, as all of them see the same pages
+        final Cache<String, SiteMap> cache = this.siteMapCache;
+        if (cache == null || request.getAuthType() != null) {
+            return generate(page, getExternalizer(request, request.getResourceResolver()));
+        }
+
+        final String key = StringUtils.isNotBlank(externalizerDomain) ? page.getPath()
+                : page.getPath() + "|" + request.getScheme() + "://" + request.getServerName() + ":"
+                + request.getServerPort();
+        try {
+            return cache.get(key, () -> generate(page, getExternalizer(request, request.getResourceResolver())));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof XMLStreamException) {
+                throw (XMLStreamException) e.getCause();
+            }
+            throw new IllegalStateException("Could not generate the site map of " + page.getPath(), e.getCause());
+        }
+    }
+
+    /**
+     * Generates the site map of a page as gzip compressed shards of at most shard size URLs each.
+     */
+    private SiteMap generate(Page page, UnaryOperator<String> externalize) throws XMLStreamException {
+        final String encoding = StringUtils.defaultIfEmpty(characterEncoding, StandardCharsets.UTF_8.name());
+        final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+        final List<byte[]> shards = new ArrayList<>();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final AtomicReference<GZIPOutputStream> gzip = new AtomicReference<>();
+
+        final UrlSetWriter urls = new UrlSetWriter(shardSize, index -> {
+            try {
+                buffer.reset();
+                gzip.set(new GZIPOutputStream(buffer));
+                final XMLStreamWriter stream = outputFactory.createXMLStreamWriter(gzip.get(), encoding);
+                stream.writeStartDocument(encoding, "1.0");
+                return stream;
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+        }, (index, stream) -> {
+            try {
+                stream.close();
+                gzip.get().close();
+                shards.add(buffer.toByteArray());
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+        });
+
+        final List<String> assetFolders = new ArrayList<>();
+        write(page, urls, externalize, assetFolders);
+        urls.finish();
+
+        return new SiteMap(page.getPath(), shards, assetFolders, encoding);
+    }
+
+    /**
+     * Writes the page, its descendants and the configured DAM assets.
+     */
+    private void write(Page page, UrlSetWriter urls, UnaryOperator<String> externalize, List<String> assetFolders)
+            throws XMLStreamException {
+        // first do the current page
+        write(page, urls, externalize);
+
+        for (Iterator<Page> children = page.listChildren(new PageFilter(false, true), true); children.hasNext();) {
+            write(children.next(), urls, externalize);
+        }
+
+        if (damAssetTypes.size() > 0 && damAssetProperty.length() > 0) {
+            for (Resource assetFolder : getAssetFolders(page, page.adaptTo(Resource.class).getResourceResolver())) {
+                assetFolders.add(assetFolder.getPath());
+                writeAssets(urls, assetFolder, externalize);
+            }
+        }
+    }
+
+    private UnaryOperator<String> getExternalizer(SlingHttpServletRequest request, ResourceResolver resolver) {
+        return path -> externalizeUri(request, resolver, path);
+    }
+
     private Collection<Resource> getAssetFolders(Page page, ResourceResolver resolver) {
         List<Resource> allAssetFolders = new ArrayList<Resource>();
         ValueMap properties = page.getProperties();
@@ -286,20 +533,20 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
     }
 
     @SuppressWarnings("squid:S1192")
-    private void write(Page page, XMLStreamWriter stream, SlingHttpServletRequest request) throws XMLStreamException {
+    private void write(Page page, UrlSetWriter urls, UnaryOperator<String> externalize) throws XMLStreamException {
         if (isHiddenByPageProperty(page) || isHiddenByPageTemplate(page)) {
             return;
         }
-        stream.writeStartElement(NS, "url");
+        XMLStreamWriter stream = urls.startUrl();
         String loc = "";
 
         if (useVanityUrl && !StringUtils.isEmpty(page.getVanityUrl())) {
-            loc = externalizeUri(request, page.getVanityUrl());
+            loc = externalize.apply(page.getVanityUrl());
         } else if (!extensionlessUrls) {
-            loc = externalizeUri(request, String.format("%s.html", page.getPath()));
+            loc = externalize.apply(String.format("%s.html", page.getPath()));
         } else {
             String urlFormat = removeTrailingSlash ? "%s" : "%s/";
-            loc = externalizeUri(request, String.format(urlFormat, page.getPath()));
+            loc = externalize.apply(String.format(urlFormat, page.getPath()));
         }
 
         loc = applyUrlRewrites(loc);
@@ -347,19 +594,19 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
         return flag;
     }
 
-    private String externalizeUri(SlingHttpServletRequest request, String path) {
+    private String externalizeUri(SlingHttpServletRequest request, ResourceResolver resolver, String path) {
         if (StringUtils.isNotBlank(externalizerDomain)) {
-            return externalizer.externalLink(request.getResourceResolver(), externalizerDomain, path);
+            return externalizer.externalLink(resolver, externalizerDomain, path);
         } else {
             log.debug("No externalizer domain configured, take into account current host header {} and current scheme {}", request.getServerName(), request.getScheme());
             return externalizer.absoluteLink(request, request.getScheme(), path);
         }
     }
 
-    private void writeAsset(Asset asset, XMLStreamWriter stream, SlingHttpServletRequest request) throws XMLStreamException {
-        stream.writeStartElement(NS, "url");
+    private void writeAsset(Asset asset, UrlSetWriter urls, UnaryOperator<String> externalize) throws XMLStreamException {
+        XMLStreamWriter stream = urls.startUrl();
 
-        String loc = externalizeUri(request, asset.getPath());
+        String loc = externalize.apply(asset.getPath());
         writeElement(stream, "loc", loc);
 
         if (includeLastModified) {
@@ -386,7 +633,7 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
         stream.writeEndElement();
     }
 
-    private void writeAssets(final XMLStreamWriter stream, final Resource assetFolder, final SlingHttpServletRequest request)
+    private void writeAssets(final UrlSetWriter urls, final Resource assetFolder, final UnaryOperator<String> externalize)
             throws XMLStreamException {
         for (Iterator<Resource> children = assetFolder.listChildren(); children.hasNext();) {
             Resource assetFolderChild = children.next();
@@ -394,10 +641,10 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
                 Asset asset = assetFolderChild.adaptTo(Asset.class);
 
                 if (damAssetTypes.contains(asset.getMimeType())) {
-                    writeAsset(asset, stream, request);
+                    writeAsset(asset, urls, externalize);
                 }
             } else {
-                writeAssets(stream, assetFolderChild, request);
+                writeAssets(urls, assetFolderChild, externalize);
             }
         }
     }
@@ -435,4 +682,161 @@ public final class SiteMapServlet extends SlingSafeMethodsServlet {
         stream.writeEndElement();
     }
 
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        final Cache<String, SiteMap> cache = this.siteMapCache;
+        if (cache == null) {
+            return;
+        }
+
+        for (final ResourceChange change : changes) {
+            for (final Map.Entry<String, SiteMap> entry : cache.asMap().entrySet()) {
+                if (entry.getValue().covers(change.getPath())) {
+                    refresh(cache, entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops a cached site map after the refresh delay, collecting the changes which arrive meanwhile. The site map
+     * is regenerated by the next anonymous request with that request's resolver, so it never holds pages which
+     * anonymous requests can not read.
+     */
+    private void refresh(final Cache<String, SiteMap> cache, final String key) {
+        final ScheduledExecutorService scheduler = this.refreshScheduler;
+        if (scheduler == null || refreshDelay <= 0) {
+            cache.invalidate(key);
+            return;
+        }
+
+        if (pendingRefreshes.add(key)) {
+            try {
+                scheduler.schedule(() -> {
+                    pendingRefreshes.remove(key);
+                    cache.invalidate(key);
+                    log.debug("Dropped changed site map {}", key);
+                }, refreshDelay, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                pendingRefreshes.remove(key);
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Site map as gzip compressed urlset documents of at most shard size URLs each.
+     */
+    private static final class SiteMap {
+        private final String path;
+        private final List<byte[]> shards;
+        private final List<String> assetFolders;
+        private final String encoding;
+        private final Calendar generated = Calendar.getInstance();
+
+        private SiteMap(String path, List<byte[]> shards, List<String> assetFolders, String encoding) {
+            this.path = path;
+            this.shards = shards;
+            this.assetFolders = assetFolders;
+            this.encoding = encoding;
+        }
+
+        private boolean covers(String changedPath) {
+            if (isSameOrDescendant(changedPath, path)) {
+                return true;
+            }
+            for (String assetFolder : assetFolders) {
+                if (isSameOrDescendant(changedPath, assetFolder)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isSameOrDescendant(String path, String ancestor) {
+            return path.equals(ancestor) || path.startsWith(ancestor + "/");
+        }
+
+        private int getWeight() {
+            int weight = path.length();
+            for (byte[] shard : shards) {
+                weight += shard.length;
+            }
+            return weight;
+        }
+    }
+
+    /**
+     * Writes url entries into urlset documents, starting a new document whenever the current one holds the
+     * maximum number of URLs.
+     */
+    private static final class UrlSetWriter {
+        private final int maxUrls;
+        private final ShardOpener opener;
+        private final ShardCloser closer;
+
+        private XMLStreamWriter stream;
+        private int shard = -1;
+        private int urls;
+
+        /**
+         * @param maxUrls maximum number of URLs per document, 0 for a single document
+         */
+        private UrlSetWriter(int maxUrls, ShardOpener opener, ShardCloser closer) {
+            this.maxUrls = maxUrls;
+            this.opener = opener;
+            this.closer = closer;
+        }
+
+        /**
+         * Starts a url element, in a new document if required.
+         *
+         * @return the stream to write the url element's children to
+         */
+        private XMLStreamWriter startUrl() throws XMLStreamException {
+            if (stream == null || (maxUrls > 0 && urls == maxUrls)) {
+                nextShard();
+            }
+            urls++;
+            stream.writeStartElement(NS, "url");
+            return stream;
+        }
+
+        private void nextShard() throws XMLStreamException {
+            closeShard();
+            stream = opener.open(++shard);
+            urls = 0;
+            stream.writeStartElement("", "urlset", NS);
+            stream.writeNamespace("", NS);
+        }
+
+        private void closeShard() throws XMLStreamException {
+            if (stream != null) {
+                stream.writeEndElement();
+                stream.writeEndDocument();
+                closer.close(shard, stream);
+                stream = null;
+            }
+        }
+
+        /**
+         * Ends the last document; a site map without any URL still consists of an empty document.
+         */
+        private void finish() throws XMLStreamException {
+            if (shard < 0) {
+                nextShard();
+            }
+            closeShard();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardOpener {
+        XMLStreamWriter open(int shard) throws XMLStreamException;
+    }
+
+    @FunctionalInterface
+    private interface ShardCloser {
+        void close(int shard, XMLStreamWriter stream) throws XMLStreamException;
+    }
 }
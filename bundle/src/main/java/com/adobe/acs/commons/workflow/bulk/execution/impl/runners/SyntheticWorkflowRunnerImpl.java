@@ -27,6 +27,7 @@ import com.adobe.acs.commons.workflow.bulk.execution.model.Payload;
 import com.adobe.acs.commons.workflow.bulk.execution.model.PayloadGroup;
 import com.adobe.acs.commons.workflow.bulk.execution.model.Status;
 import com.adobe.acs.commons.workflow.bulk.execution.model.Workspace;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowBatchListener;
 import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowModel;
 import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowRunner;
 import com.day.cq.workflow.WorkflowException;
@@ -34,6 +35,7 @@ import org.apache.commons.collections.ListUtils;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
@@ -43,13 +45,27 @@ import org.apache.sling.commons.scheduler.Scheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Component
 @Service
 public class SyntheticWorkflowRunnerImpl extends AbstractWorkflowRunner implements BulkWorkflowRunner {
     private static final Logger log = LoggerFactory.getLogger(SyntheticWorkflowRunnerImpl.class);
+    private static final long MS_IN_SECOND = 1000L;
+    /* How often the owner of the workspace checks for a stop request while workers run */
+    long stopCheckInterval = MS_IN_SECOND;
+    /* How long running workers get to finish their current payload after a stop request */
+    long stopGracePeriod = 60 * MS_IN_SECOND;
 
     @Reference
     private ResourceResolverFactory resourceResolverFactory;
@@ -138,10 +154,7 @@ public class SyntheticWorkflowRunnerImpl extends AbstractWorkflowRunner implemen
                 try {
                     SyntheticWorkflowModel model = syntheticWorkflowRunner.getSyntheticWorkflowModel(serviceResourceResolver, config.getWorkflowModelId(), true);
 
-                    if (config.isUserEventData()) {
-                        serviceResourceResolver.adaptTo(Session.class).getWorkspace().getObservationManager().setUserData(config.getUserEventData());
-                        log.debug("Set JCR Sessions user-event-data to [ {} ]", config.getUserEventData());
-                    }
+                    long lastCheckpoint = System.currentTimeMillis();
 
                     PayloadGroup payloadGroup = null;
                     if (workspace.getActivePayloadGroups().size() > 0) {
@@ -165,36 +178,18 @@ public class SyntheticWorkflowRunnerImpl extends AbstractWorkflowRunner implemen
                             break;
                         }
 
-                        for (Payload payload : payloads) {
-                            if (workspace.isStopping() || workspace.isStopped()) {
-                                stop(workspace);
-                                stopped = true;
-                                break;
-                            }
-
-                            try {
-                                if (config.isAutoThrottle()) {
-                                    // Wait before starting more work
-                                    throttledTaskRunner.waitForLowCpuAndLowMemory();
-                                }
-
-                                long processStart = System.currentTimeMillis();
-                                swr.execute(serviceResourceResolver, payload.getPayloadPath(), model, false, false);
-                                complete(workspace, payload);
-                                log.info("Processed [ {} ] in {} ms", payload.getPayloadPath(), System.currentTimeMillis() - processStart);
-                            } catch (WorkflowException e) {
-                                fail(workspace, payload);
-                                log.warn("Synthetic Workflow could not process [ {} ]", payload.getPath(), e);
-                            } catch (Exception e) {
-                                // Complete call failed; consider it failed
-                                log.warn("Complete call on [ {} ] failed", payload.getPath(), e);
-                                fail(workspace, payload);
-                            }
-
-                            total++;
-                        } // end for
-
-                        workspace.commit();
+                        final AtomicBoolean stopRequested = new AtomicBoolean(false);
+                        total += process(config, workspace, model, payloads, stopRequested);
+
+                        if (stopRequested.get()) {
+                            stop(workspace);
+                            stopped = true;
+                        } else if (System.currentTimeMillis() - lastCheckpoint >= config.getCheckpointInterval() * MS_IN_SECOND) {
+                            // Progress is tracked in the workspace's pending changes and only saved periodically;
+                            // on failure, processing resumes from the last checkpoint
+                            workspace.commit();
+                            lastCheckpoint = System.currentTimeMillis();
+                        }
 
                         if (stopped) {
                             log.info("Bulk Synthetic Workflow run has been stopped.");
@@ -216,6 +211,152 @@ public class SyntheticWorkflowRunnerImpl extends AbstractWorkflowRunner implemen
             }
         }
 
+        /**
+         * Executes the synthetic workflow against a group of payloads and records the outcomes on the workspace.
+         * Payloads are processed on resource resolvers separate from the workspace's, so reverting a failed payload
+         * never discards workspace progress; with more than one thread the payloads are split across the
+         * ThrottledTaskRunner, each worker committing its share in batches.
+         *
+         * @return the number of payloads that completed or failed
+         */
+        @SuppressWarnings("squid:S3776")
+        private int process(final Config config, final Workspace workspace, final SyntheticWorkflowModel model,
+                            final List<Payload> payloads, final AtomicBoolean stopRequested) throws Exception {
+            final Map<String, Payload> payloadsByPath = new LinkedHashMap<>();
+            for (final Payload payload : payloads) {
+                payloadsByPath.put(payload.getPayloadPath(), payload);
+            }
+
+            final Map<String, Boolean> outcomes = new ConcurrentHashMap<>();
+            final SyntheticWorkflowBatchListener listener = new SyntheticWorkflowBatchListener() {
+                @Override
+                public void completed(String payloadPath) {
+                    outcomes.put(payloadPath, true);
+                }
+
+                @Override
+                public void failed(String payloadPath, Exception cause) {
+                    log.warn("Synthetic Workflow could not process [ {} ]", payloadPath, cause);
+                    outcomes.put(payloadPath, false);
+                }
+            };
+
+            final int threads = Math.min(config.getThreads(), payloadsByPath.size());
+
+            if (threads <= 1) {
+                execute(config, model, stoppableIterator(config, workspace, payloadsByPath.keySet().iterator(), stopRequested), listener);
+            } else {
+                // Workers only see stopRequested, which this thread sets as it is the only one allowed to read the
+                // workspace
+                final List<List<String>> slices = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    slices.add(new ArrayList<>());
+                }
+                int i = 0;
+                for (final String payloadPath : payloadsByPath.keySet()) {
+                    slices.get(i++ % threads).add(payloadPath);
+                }
+
+                final CountDownLatch pending = new CountDownLatch(slices.size());
+                for (final List<String> slice : slices) {
+                    throttledTaskRunner.scheduleWork(() -> {
+                        try {
+                            execute(config, model, stoppableIterator(config, null, slice.iterator(), stopRequested), listener);
+                        } catch (Exception e) {
+                            log.error("Synthetic Workflow worker failed", e);
+                        } finally {
+                            pending.countDown();
+                        }
+                    });
+                }
+                awaitWorkers(workspace, pending, stopRequested);
+            }
+
+            for (final Map.Entry<String, Payload> entry : payloadsByPath.entrySet()) {
+                final Boolean outcome = outcomes.get(entry.getKey());
+
+                if (Boolean.TRUE.equals(outcome)) {
+                    complete(workspace, entry.getValue());
+                } else if (outcome != null || !stopRequested.get()) {
+                    // Payloads left unprocessed by a worker failure are failed rather than retried forever
+                    fail(workspace, entry.getValue());
+                }
+            }
+
+            return outcomes.size();
+        }
+
+        private void execute(final Config config, final SyntheticWorkflowModel model, final Iterator<String> payloadPaths,
+                             final SyntheticWorkflowBatchListener listener) throws LoginException, RepositoryException, WorkflowException {
+            try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+                if (config.isUserEventData()) {
+                    resourceResolver.adaptTo(Session.class).getWorkspace().getObservationManager().setUserData(config.getUserEventData());
+                    log.debug("Set JCR Sessions user-event-data to [ {} ]", config.getUserEventData());
+                }
+
+                syntheticWorkflowRunner.execute(resourceResolver, payloadPaths, model, listener);
+            }
+        }
+
+        /**
+         * Waits for the workers, checking the workspace for a stop request meanwhile. Once stopped, workers get a
+         * grace period to finish their current payload; payloads of workers still running after it are left active.
+         */
+        private void awaitWorkers(final Workspace workspace, final CountDownLatch pending,
+                                  final AtomicBoolean stopRequested) throws InterruptedException {
+            long stopDeadline = Long.MAX_VALUE;
+            while (!pending.await(stopCheckInterval, TimeUnit.MILLISECONDS)) {
+                if (!stopRequested.get() && (workspace.isStopping() || workspace.isStopped())) {
+                    stopRequested.set(true);
+                }
+                if (stopRequested.get() && stopDeadline == Long.MAX_VALUE) {
+                    stopDeadline = System.currentTimeMillis() + stopGracePeriod;
+                } else if (System.currentTimeMillis() > stopDeadline) {
+                    log.warn("Stopped waiting for [ {} ] Synthetic Workflow workers still running after the stop request",
+                            pending.getCount());
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Stops handing out payloads once the workspace is asked to stop, and applies CPU/memory throttling between
+         * payloads. The workspace is only checked on the thread owning its resource resolver; worker threads pass
+         * no workspace and only see the stop request set by that thread.
+         */
+        private Iterator<String> stoppableIterator(final Config config, final Workspace workspace,
+                                                   final Iterator<String> payloadPaths, final AtomicBoolean stopRequested) {
+            return new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    if (stopRequested.get() || !payloadPaths.hasNext()) {
+                        return false;
+                    } else if (workspace != null && (workspace.isStopping() || workspace.isStopped())) {
+                        stopRequested.set(true);
+                        return false;
+                    }
+
+                    if (config.isAutoThrottle()) {
+                        try {
+                            // Wait before starting more work
+                            throttledTaskRunner.waitForLowCpuAndLowMemory();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            stopRequested.set(true);
+                            return false;
+                        }
+                    }
+
+                    return true;
+                }
+
+                @Override
+                public String next() {
+                    return payloadPaths.next();
+                }
+            };
+        }
+
         private PayloadGroup onboardNextPayloadGroup(Workspace workspace, PayloadGroup currentPayloadGroup) throws PersistenceException {
             PayloadGroup nextPayloadGroup = currentPayloadGroup.getNextPayloadGroup();
             workspace.removeActivePayloadGroup(currentPayloadGroup);
@@ -87,6 +87,8 @@ public class StartServlet extends SlingAllMethodsServlet {
             properties.put("throttle", getInteger(params, "throttle", 10));
             properties.put("retryCount", getInteger(params,"retryCount", 0));
             properties.put("batchSize", getInteger(params,"batchSize", 10));
+            properties.put("threads", getInteger(params,"threads", 1));
+            properties.put("checkpointInterval", getInteger(params,"checkpointInterval", Config.DEFAULT_CHECKPOINT_INTERVAL));
             String userEventData = getString(params, "userEventData");
             if (userEventData != null && !userEventData.isEmpty()) {
                 properties.put("userEventData", userEventData);
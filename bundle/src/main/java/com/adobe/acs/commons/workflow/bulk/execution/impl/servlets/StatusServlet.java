@@ -65,6 +65,8 @@ public class StatusServlet extends SlingAllMethodsServlet {
 
     private static final int DECIMAL_TO_PERCENT = 100;
 
+    private static final double MILLIS_PER_SECOND = 1000D;
+
     @Reference
     private transient ThrottledTaskRunnerStats ttrs;
 
@@ -99,6 +101,8 @@ public class StatusServlet extends SlingAllMethodsServlet {
         json.addProperty("workflowModel", StringUtils.removeEnd(config.getWorkflowModelId(), "/jcr:content/model"));
         json.addProperty("batchSize", config.getBatchSize());
         json.addProperty("autoThrottle", config.isAutoThrottle());
+        json.addProperty("threads", config.getThreads());
+        json.addProperty("checkpointInterval", config.getCheckpointInterval());
 
         json.addProperty("purgeWorkflow", config.isPurgeWorkflow());
         json.addProperty("interval", config.getInterval());
@@ -149,6 +153,15 @@ public class StatusServlet extends SlingAllMethodsServlet {
             json.addProperty("timeTakenInMillis", (workspace.getCompletedAt().getTime().getTime() - workspace.getStartedAt().getTime().getTime()));
         }
 
+        if (json.has("timeTakenInMillis")) {
+            // Throughput
+            long timeTakenInMillis = json.get("timeTakenInMillis").getAsLong();
+            int processedCount = workspace.getCompleteCount() + workspace.getFailCount();
+            if (timeTakenInMillis > 0) {
+                json.addProperty("payloadsPerSecond", Math.round(processedCount * MILLIS_PER_SECOND * DECIMAL_TO_PERCENT / (double) timeTakenInMillis) / (double) DECIMAL_TO_PERCENT);
+            }
+        }
+
         if (AEMWorkflowRunnerImpl.class.getName().equals(config.getRunnerType())) {
             JsonArray activePayloads = new JsonArray();
             json.add("activePayloads", activePayloads);
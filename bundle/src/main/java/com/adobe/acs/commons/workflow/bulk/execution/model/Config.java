@@ -34,6 +34,11 @@ import javax.inject.Inject;
 @Model(adaptables = Resource.class)
 public class Config {
 
+    /**
+     * The default minimum number of seconds between saves of the workspace's progress.
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 10;
+
     private final Resource resource;
     private final ModifiableValueMap properties;
 
@@ -91,6 +96,14 @@ public class Config {
     @Optional
     private String userEventData;
 
+    @Inject
+    @Default(intValues = 1)
+    private int threads;
+
+    @Inject
+    @Default(intValues = DEFAULT_CHECKPOINT_INTERVAL)
+    private int checkpointInterval;
+
     public Config(Resource resource) {
         this.resource = resource;
         this.properties = resource.adaptTo(ModifiableValueMap.class);
@@ -153,6 +166,17 @@ public class Config {
         return autoThrottle;
     }
 
+    public int getThreads() {
+        return Math.max(1, threads);
+    }
+
+    /**
+     * @return the minimum number of seconds between saves of the workspace's progress; 0 saves after every batch.
+     */
+    public int getCheckpointInterval() {
+        return Math.max(0, checkpointInterval);
+    }
+
     public String getUserEventData() {
         return userEventData;
     }
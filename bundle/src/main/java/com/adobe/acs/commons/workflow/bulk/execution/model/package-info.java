@@ -21,5 +21,5 @@
 /**
  * Bulk Execution Model API
  */
-@org.osgi.annotation.versioning.Version("4.0.0")
+@org.osgi.annotation.versioning.Version("4.1.0")
 package com.adobe.acs.commons.workflow.bulk.execution.model;
\ No newline at end of file
@@ -22,6 +22,7 @@ package com.adobe.acs.commons.workflow.bulk.removal;
 
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.regex.Pattern;
 
 public final class WorkflowRemovalConfig {
@@ -33,6 +34,9 @@ public final class WorkflowRemovalConfig {
     private final long olderThanMillis;
     private int batchSize = 1000;
     private int maxDurationInMins = 0;
+    private boolean parallel = false;
+    private boolean removeWholeFolders = false;
+    private Collection<String> skipFolders = Collections.emptySet();
 
     /**
      * Config for workflow removal instances that match the parameter criteria.
@@ -86,4 +90,40 @@ public final class WorkflowRemovalConfig {
     public final void setMaxDurationInMins(int maxDurationInMins) {
         this.maxDurationInMins = maxDurationInMins;
     }
+
+    public final boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel if true, dated workflow instance folders are swept concurrently by the ThrottledTaskRunner,
+     *                 each with its own resource resolver
+     */
+    public final void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public final boolean isRemoveWholeFolders() {
+        return removeWholeFolders;
+    }
+
+    /**
+     * @param removeWholeFolders if true, a dated folder in which every workflow instance matches is removed as a
+     *                           single subtree instead of instance by instance
+     */
+    public final void setRemoveWholeFolders(boolean removeWholeFolders) {
+        this.removeWholeFolders = removeWholeFolders;
+    }
+
+    public final Collection<String> getSkipFolders() {
+        return skipFolders;
+    }
+
+    /**
+     * @param skipFolders paths of workflow instance folders to leave unchecked, typically the completed folders of a
+     *                    previous run that exceeded its max duration (see {@link WorkflowRemovalStatus#getCompletedFolders()})
+     */
+    public final void setSkipFolders(Collection<String> skipFolders) {
+        this.skipFolders = skipFolders == null ? Collections.emptySet() : skipFolders;
+    }
 }
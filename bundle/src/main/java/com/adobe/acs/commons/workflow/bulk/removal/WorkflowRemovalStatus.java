@@ -24,16 +24,23 @@ import com.google.gson.JsonObject;
 import org.apache.sling.api.resource.ResourceResolver;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public final class WorkflowRemovalStatus {
 
     private static final String KEY_CHECKED_COUNT = "checkedCount";
     private static final String KEY_COMPLETED_AT = "completedAt";
+    private static final String KEY_COMPLETED_FOLDERS_COUNT = "completedFoldersCount";
     private static final String KEY_DURATION = "duration";
     private static final String KEY_FORCE_QUIT_AT = "forceQuitAt";
     private static final String KEY_ERRED_AT = "erredAt";
     private static final String KEY_INITIATED_BY = "initiatedBy";
+    private static final String KEY_MAX_DURATION_EXCEEDED_AT = "maxDurationExceededAt";
     private static final String KEY_REMOVED_COUNT = "removedCount";
     private static final String KEY_RUNNING = "running";
     private static final String KEY_STARTED_AT = "startedAt";
@@ -47,8 +54,10 @@ public final class WorkflowRemovalStatus {
     private Calendar completedAt;
     private Calendar erredAt;
     private Calendar forceQuitAt;
+    private Calendar maxDurationExceededAt;
     private int checked = 0;
     private int removed = 0;
+    private final Set<String> completedFolders = Collections.synchronizedSet(new LinkedHashSet<>());
 
 
     public WorkflowRemovalStatus(ResourceResolver resourceResolver) {
@@ -141,6 +150,37 @@ public final class WorkflowRemovalStatus {
         return sdf.format(forceQuitAt.getTime());
     }
 
+    public void setMaxDurationExceededAt(final Calendar maxDurationExceededAt) {
+        this.maxDurationExceededAt = maxDurationExceededAt;
+    }
+
+    public String getMaxDurationExceededAt() {
+        if (this.maxDurationExceededAt == null) {
+            return null;
+        }
+
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+        return sdf.format(maxDurationExceededAt.getTime());
+    }
+
+    /**
+     * Records a workflow instance folder as completed; all of its instances matched and the folder was removed.
+     *
+     * @param path the folder path
+     */
+    public void addCompletedFolder(final String path) {
+        this.completedFolders.add(path);
+    }
+
+    /**
+     * @return the paths of the workflow instance folders emptied and removed by this run, in order of completion
+     */
+    public List<String> getCompletedFolders() {
+        synchronized (this.completedFolders) {
+            return new ArrayList<>(this.completedFolders);
+        }
+    }
+
     private long getDuration(Calendar start, Calendar end) {
         if (start == null || end == null || end.before(start)) {
             return 0;
@@ -156,6 +196,11 @@ public final class WorkflowRemovalStatus {
         json.addProperty(KEY_INITIATED_BY, this.getInitiatedBy());
         json.addProperty(KEY_CHECKED_COUNT, this.getChecked());
         json.addProperty(KEY_REMOVED_COUNT, this.getRemoved());
+        json.addProperty(KEY_COMPLETED_FOLDERS_COUNT, this.completedFolders.size());
+
+        if (this.getMaxDurationExceededAt() != null) {
+            json.addProperty(KEY_MAX_DURATION_EXCEEDED_AT, this.getMaxDurationExceededAt());
+        }
 
         if (this.getStartedAt() != null) {
             json.addProperty(KEY_STARTED_AT, this.getStartedAt());
@@ -20,6 +20,7 @@
 
 package com.adobe.acs.commons.workflow.bulk.removal.impl;
 
+import com.adobe.acs.commons.fam.ThrottledTaskRunner;
 import com.adobe.acs.commons.workflow.bulk.removal.WorkflowInstanceRemover;
 import com.adobe.acs.commons.workflow.bulk.removal.WorkflowRemovalConfig;
 import com.adobe.acs.commons.workflow.bulk.removal.WorkflowRemovalException;
@@ -38,8 +39,11 @@ import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
@@ -59,7 +63,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
@@ -111,6 +117,20 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
     @Reference
     private WorkflowService workflowService;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+               policy = ReferencePolicy.DYNAMIC)
+    private volatile ThrottledTaskRunner throttledTaskRunner;
+
+    /**
+     * Tracks the totals of a removal run; shared by all workers when folders are swept in parallel.
+     */
+    private static final class RemovalProgress {
+        private final AtomicInteger checked = new AtomicInteger();
+        private final AtomicInteger removed = new AtomicInteger();
+        // Removed instances and folders; folders are included to match the historical return value
+        private final AtomicInteger count = new AtomicInteger();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -227,9 +247,7 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
         final long start = System.currentTimeMillis();
         long end = -1;
 
-        int count = 0;
-        int checkedCount = 0;
-        int workflowRemovedCount = 0;
+        final RemovalProgress progress = new RemovalProgress();
         int maxDurationInMins = workflowRemovalConfig.getMaxDurationInMins();
 
         if (maxDurationInMins > 0) {
@@ -246,135 +264,27 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
             this.start(resourceResolver);
 
             final List<Resource> containerFolders = this.getWorkflowInstanceFolders(resourceResolver);
+            final ThrottledTaskRunner taskRunner = this.throttledTaskRunner;
 
             for (Resource containerFolder : containerFolders) {
                 log.debug("Checking [ {} ] for workflow instances to remove", containerFolder.getPath());
 
                 final Collection<Resource> sortedFolders = this.getSortedAndFilteredFolders(containerFolder);
+                sortedFolders.removeIf(folder -> workflowRemovalConfig.getSkipFolders().contains(folder.getPath()));
 
-                for (final Resource folder : sortedFolders) {
-
-                    int remaining = 0;
-
-                    for (final Resource instance : folder.getChildren()) {
-
-                        if (this.forceQuit.get()) {
-                            throw new WorkflowRemovalForceQuitException();
-                        } else if (end > 0 && System.currentTimeMillis() >= end) {
-                            throw new WorkflowRemovalMaxDurationExceededException();
-                        }
-
-                        final ValueMap properties = instance.getValueMap();
-
-                        if (!StringUtils.equals(NT_CQ_WORKFLOW,
-                                properties.get(JcrConstants.JCR_PRIMARYTYPE, String.class))) {
-
-                            // Only process cq:Workflow's
-                            remaining++;
-                            continue;
-                        }
-
-                        checkedCount++;
-
-                        final String instanceStatus = getStatus(instance);
-                        final String model = properties.get(PN_MODEL_ID, String.class);
-                        final Calendar startTime = properties.get(PN_START_TIME, properties.get(PN_STARTED_AT, Calendar.class));
-                        final String payload = properties.get(PAYLOAD_PATH, String.class);
-                        final long startTimeDelta = start - workflowRemovalConfig.getOlderThanMillis();
-                        final Collection<String> statuses = workflowRemovalConfig.getStatuses();
-                        final Collection<String> modelIds = workflowRemovalConfig.getModelIds();
-                        final Calendar olderThan = workflowRemovalConfig.getOlderThan();
-                        final long olderThanMillis = workflowRemovalConfig.getOlderThanMillis();
-                        final Collection<Pattern> payloads = workflowRemovalConfig.getPayloads();
-                        final int batchSize = workflowRemovalConfig.getBatchSize();
-
-                        if (StringUtils.isBlank(payload)) {
-                            log.warn("Unable to find payload for Workflow instance [ {} ]", instance.getPath());
-                            remaining++;
-                            continue;
-                        } else if (CollectionUtils.isNotEmpty(statuses) && !statuses.contains(instanceStatus)) {
-                            log.trace("Workflow instance [ {} ] has non-matching status of [ {} ]", instance.getPath(), instanceStatus);
-                            remaining++;
-                            continue;
-                        } else if (CollectionUtils.isNotEmpty(modelIds) && !modelIds.contains(model)) {
-                            log.trace("Workflow instance [ {} ] has non-matching model of [ {} ]", instance.getPath(), model);
-                            remaining++;
-                            continue;
-                        } else if (olderThan != null && startTime != null && startTime.after(olderThan)) {
-                            log.trace("Workflow instance [ {} ] has non-matching start time of [ {} ]", instance.getPath(),
-                                    startTime);
-                            remaining++;
-                            continue;
-                        } else if (olderThanMillis > -1 && startTime != null && startTimeDelta < startTime.getTimeInMillis()) {
-                            log.trace("Workflow instance [ {} ] has non-matching start time delta of [ {} ]ms", instance.getPath(),
-                                olderThanMillis);
-                            remaining++;
-                            continue;
-                        } else {
-
-                            if (CollectionUtils.isNotEmpty(payloads)) {
-                                // Only evaluate payload patterns if they are provided
-
-                                boolean match = false;
-
-                                if (StringUtils.isNotEmpty(payload)) {
-                                    for (final Pattern pattern : payloads) {
-                                        if (payload.matches(pattern.pattern())) {
-                                            // payload matches a pattern
-                                            match = true;
-                                            break;
-                                        }
-                                    }
-
-                                    if (!match) {
-                                        // Not a match; skip to next workflow instance
-                                        log.trace("Workflow instance [ {} ] has non-matching payload path [ {} ]",
-                                                instance.getPath(), payload);
-                                        remaining++;
-                                        continue;
-                                    }
-                                }
-                            }
-
-                            // Only remove matching
-
-                            try {
-                                instance.adaptTo(Node.class).remove();
-                                log.debug("Removed workflow instance at [ {} ]", instance.getPath());
-
-                                workflowRemovedCount++;
-                                count++;
-                            } catch (RepositoryException e) {
-                                log.error("Could not remove workflow instance at [ {} ]. Continuing...",
-                                        instance.getPath(), e);
-                            }
-
-                            if (count % batchSize == 0) {
-                                this.batchComplete(resourceResolver, checkedCount, workflowRemovedCount);
-
-                                log.info("Removed a running total of [ {} ] workflow instances", count);
-                            }
-                        }
+                if (workflowRemovalConfig.isParallel() && taskRunner != null) {
+                    this.sweepFoldersInParallel(taskRunner, resourceResolver, sortedFolders, workflowRemovalConfig, start, end, progress);
+                } else {
+                    if (workflowRemovalConfig.isParallel()) {
+                        log.warn("Parallel workflow removal requested but no ThrottledTaskRunner is available; removing serially");
                     }
-
-                    if (remaining == 0
-                            && isWorkflowDatedFolder(folder)
-                            && !StringUtils.startsWith(folder.getName(), new SimpleDateFormat(WORKFLOW_FOLDER_FORMAT).format(new Date()))) {
-                        // Dont remove folders w items and dont remove any of "today's" folders
-                        // MUST match the YYYY-MM-DD(.*) pattern; do not try to remove root folders
-                        try {
-                            folder.adaptTo(Node.class).remove();
-                            log.debug("Removed empty workflow folder node [ {} ]", folder.getPath());
-                            // Incrementing only count to trigger batch save and not total since is not a WF
-                            count++;
-                        } catch (RepositoryException e) {
-                            log.error("Could not remove workflow folder at [ {} ]", folder.getPath(), e);
-                        }
+                    for (final Resource folder : sortedFolders) {
+                        this.sweepFolder(resourceResolver, folder, workflowRemovalConfig, start, end, progress);
                     }
                 }
 
                 // Save final batch if needed, and update tracking nodes
-                this.complete(resourceResolver, checkedCount, workflowRemovedCount);
+                this.complete(resourceResolver, progress.checked.get(), progress.removed.get());
             }
 
         } catch (PersistenceException e) {
@@ -401,17 +311,229 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
         }  catch (WorkflowRemovalMaxDurationExceededException e) {
             // Uncommon instance of using Exception to control flow; Exceeding max duration extreme condition.
             log.warn("Workflow removal exceeded max duration of [ {} ] minutes. Final removal commit initiating...", maxDurationInMins);
-            this.complete(resourceResolver, checkedCount, count);
+            this.complete(resourceResolver, progress.checked.get(), progress.count.get());
+            this.status.get().setMaxDurationExceededAt(Calendar.getInstance());
         }
 
         if (log.isInfoEnabled()) {
             log.info("Workflow Removal Process Finished! "
                     + "Removed a total of [ {} ] workflow instances in [ {} ] ms",
-                    count,
+                    progress.count.get(),
                     System.currentTimeMillis() - start);
         }
 
-        return count;
+        return progress.count.get();
+    }
+
+    /**
+     * Removes the matching workflow instances of a single dated folder, and the folder itself once it is empty.
+     * Changes are committed every batch size removals and when the folder is done, after which a removed folder is
+     * reported as completed on the removal status. Folders which keep instances are not, as their instances may match
+     * by the time of the next run.
+     */
+    @SuppressWarnings("squid:S3776")
+    private void sweepFolder(final ResourceResolver resourceResolver, final Resource folder,
+                             final WorkflowRemovalConfig workflowRemovalConfig, final long start, final long end,
+                             final RemovalProgress progress)
+            throws PersistenceException, InterruptedException, WorkflowRemovalForceQuitException,
+            WorkflowRemovalMaxDurationExceededException {
+
+        final boolean removableFolder = isWorkflowDatedFolder(folder)
+                && !StringUtils.startsWith(folder.getName(), new SimpleDateFormat(WORKFLOW_FOLDER_FORMAT).format(new Date()));
+        final boolean deferRemoval = removableFolder && workflowRemovalConfig.isRemoveWholeFolders();
+        final List<Resource> matches = new ArrayList<>();
+        final int batchSize = workflowRemovalConfig.getBatchSize();
+
+        int remaining = 0;
+        int uncommitted = 0;
+
+        for (final Resource instance : folder.getChildren()) {
+
+            if (this.forceQuit.get()) {
+                throw new WorkflowRemovalForceQuitException();
+            } else if (end > 0 && System.currentTimeMillis() >= end) {
+                throw new WorkflowRemovalMaxDurationExceededException();
+            }
+
+            final ValueMap properties = instance.getValueMap();
+
+            if (!StringUtils.equals(NT_CQ_WORKFLOW,
+                    properties.get(JcrConstants.JCR_PRIMARYTYPE, String.class))) {
+
+                // Only process cq:Workflow's
+                remaining++;
+                continue;
+            }
+
+            progress.checked.incrementAndGet();
+
+            if (!isMatch(instance, properties, workflowRemovalConfig, start)) {
+                remaining++;
+            } else if (deferRemoval) {
+                // Hold on to matches until it is known whether the whole folder can go
+                matches.add(instance);
+            } else if (removeInstance(instance, progress) && ++uncommitted >= batchSize) {
+                this.batchComplete(resourceResolver, progress.checked.get(), progress.removed.get());
+                uncommitted = 0;
+
+                log.info("Removed a running total of [ {} ] workflow instances", progress.count.get());
+            }
+        }
+
+        if (deferRemoval && remaining > 0) {
+            // Some instances must stay, so fall back to removing the matches one by one
+            for (final Resource instance : matches) {
+                if (removeInstance(instance, progress) && ++uncommitted >= batchSize) {
+                    this.batchComplete(resourceResolver, progress.checked.get(), progress.removed.get());
+                    uncommitted = 0;
+                }
+            }
+        }
+
+        boolean emptied = false;
+        if (remaining == 0 && removableFolder) {
+            // Dont remove folders w items and dont remove any of "today's" folders
+            // MUST match the YYYY-MM-DD(.*) pattern; do not try to remove root folders
+            try {
+                folder.adaptTo(Node.class).remove();
+                emptied = true;
+                log.debug("Removed workflow folder node [ {} ] with [ {} ] matching instances", folder.getPath(), matches.size());
+                // Count folder itself only towards count and not removed since is not a WF
+                progress.removed.addAndGet(matches.size());
+                progress.count.addAndGet(matches.size() + 1);
+            } catch (RepositoryException e) {
+                log.error("Could not remove workflow folder at [ {} ]", folder.getPath(), e);
+            }
+        }
+
+        this.batchComplete(resourceResolver, progress.checked.get(), progress.removed.get());
+        if (emptied) {
+            this.status.get().addCompletedFolder(folder.getPath());
+        }
+    }
+
+    private void sweepFoldersInParallel(final ThrottledTaskRunner taskRunner, final ResourceResolver resourceResolver,
+                                        final Collection<Resource> folders, final WorkflowRemovalConfig workflowRemovalConfig,
+                                        final long start, final long end, final RemovalProgress progress)
+            throws PersistenceException, InterruptedException, WorkflowRemovalException, WorkflowRemovalForceQuitException,
+            WorkflowRemovalMaxDurationExceededException {
+
+        final CountDownLatch pending = new CountDownLatch(folders.size());
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        for (final Resource folder : folders) {
+            final String folderPath = folder.getPath();
+            if (failure.get() != null) {
+                pending.countDown();
+                continue;
+            }
+
+            // Each worker uses its own resolver so commits of different folders do not contend. Resource resolvers
+            // are not thread safe, so the clones are created on this thread and closed by the workers
+            final ResourceResolver folderResolver;
+            try {
+                folderResolver = resourceResolver.clone(null);
+            } catch (LoginException e) {
+                failure.compareAndSet(null, e);
+                pending.countDown();
+                continue;
+            }
+
+            taskRunner.scheduleWork(() -> {
+                try (ResourceResolver workerResolver = folderResolver) {
+                    final Resource workerFolder = workerResolver.getResource(folderPath);
+                    if (failure.get() == null && workerFolder != null) {
+                        this.sweepFolder(workerResolver, workerFolder, workflowRemovalConfig, start, end, progress);
+                    }
+                } catch (Exception e) {
+                    if (!failure.compareAndSet(null, e)) {
+                        log.debug("Discarding subsequent failure while sweeping [ {} ]", folderPath, e);
+                    }
+                } finally {
+                    pending.countDown();
+                }
+            });
+        }
+
+        pending.await();
+
+        final Exception e = failure.get();
+        if (e instanceof PersistenceException) {
+            throw (PersistenceException) e;
+        } else if (e instanceof InterruptedException) {
+            throw (InterruptedException) e;
+        } else if (e instanceof WorkflowRemovalForceQuitException) {
+            throw (WorkflowRemovalForceQuitException) e;
+        } else if (e instanceof WorkflowRemovalMaxDurationExceededException) {
+            throw (WorkflowRemovalMaxDurationExceededException) e;
+        } else if (e != null) {
+            log.error("Unable to sweep workflow instance folders in parallel", e);
+            throw new WorkflowRemovalException("Unable to sweep workflow instance folders in parallel: " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("squid:S3776")
+    private boolean isMatch(final Resource instance, final ValueMap properties,
+                            final WorkflowRemovalConfig workflowRemovalConfig, final long start) {
+        final String instanceStatus = getStatus(instance);
+        final String model = properties.get(PN_MODEL_ID, String.class);
+        final Calendar startTime = properties.get(PN_START_TIME, properties.get(PN_STARTED_AT, Calendar.class));
+        final String payload = properties.get(PAYLOAD_PATH, String.class);
+        final long startTimeDelta = start - workflowRemovalConfig.getOlderThanMillis();
+        final Collection<String> statuses = workflowRemovalConfig.getStatuses();
+        final Collection<String> modelIds = workflowRemovalConfig.getModelIds();
+        final Calendar olderThan = workflowRemovalConfig.getOlderThan();
+        final long olderThanMillis = workflowRemovalConfig.getOlderThanMillis();
+        final Collection<Pattern> payloads = workflowRemovalConfig.getPayloads();
+
+        if (StringUtils.isBlank(payload)) {
+            log.warn("Unable to find payload for Workflow instance [ {} ]", instance.getPath());
+            return false;
+        } else if (CollectionUtils.isNotEmpty(statuses) && !statuses.contains(instanceStatus)) {
+            log.trace("Workflow instance [ {} ] has non-matching status of [ {} ]", instance.getPath(), instanceStatus);
+            return false;
+        } else if (CollectionUtils.isNotEmpty(modelIds) && !modelIds.contains(model)) {
+            log.trace("Workflow instance [ {} ] has non-matching model of [ {} ]", instance.getPath(), model);
+            return false;
+        } else if (olderThan != null && startTime != null && startTime.after(olderThan)) {
+            log.trace("Workflow instance [ {} ] has non-matching start time of [ {} ]", instance.getPath(),
+                    startTime);
+            return false;
+        } else if (olderThanMillis > -1 && startTime != null && startTimeDelta < startTime.getTimeInMillis()) {
+            log.trace("Workflow instance [ {} ] has non-matching start time delta of [ {} ]ms", instance.getPath(),
+                olderThanMillis);
+            return false;
+        } else if (CollectionUtils.isNotEmpty(payloads)) {
+            // Only evaluate payload patterns if they are provided
+            for (final Pattern pattern : payloads) {
+                if (payload.matches(pattern.pattern())) {
+                    // payload matches a pattern
+                    return true;
+                }
+            }
+
+            // Not a match; skip to next workflow instance
+            log.trace("Workflow instance [ {} ] has non-matching payload path [ {} ]",
+                    instance.getPath(), payload);
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean removeInstance(final Resource instance, final RemovalProgress progress) {
+        try {
+            instance.adaptTo(Node.class).remove();
+            log.debug("Removed workflow instance at [ {} ]", instance.getPath());
+
+            progress.removed.incrementAndGet();
+            progress.count.incrementAndGet();
+            return true;
+        } catch (RepositoryException e) {
+            log.error("Could not remove workflow instance at [ {} ]. Continuing...",
+                    instance.getPath(), e);
+            return false;
+        }
     }
 
     private Collection<Resource> getSortedAndFilteredFolders(Resource folderResource) {
@@ -480,13 +602,15 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
             PersistenceException, InterruptedException {
 
         this.save(resourceResolver);
-        
-        WorkflowRemovalStatus removalStatus = this.status.get();
-        
-        removalStatus.setChecked(checked);
-        removalStatus.setRemoved(count);
-        
-        this.status.set(removalStatus);
+
+        synchronized (this.status) {
+            WorkflowRemovalStatus removalStatus = this.status.get();
+
+            removalStatus.setChecked(Math.max(checked, removalStatus.getChecked()));
+            removalStatus.setRemoved(Math.max(count, removalStatus.getRemoved()));
+
+            this.status.set(removalStatus);
+        }
     }
 
     private void complete(final ResourceResolver resourceResolver, final int checked, final int count) throws
@@ -25,6 +25,7 @@ import com.adobe.acs.commons.workflow.bulk.removal.WorkflowInstanceRemover;
 import com.adobe.acs.commons.workflow.bulk.removal.WorkflowRemovalConfig;
 import com.adobe.acs.commons.workflow.bulk.removal.WorkflowRemovalException;
 import com.adobe.acs.commons.workflow.bulk.removal.WorkflowRemovalForceQuitException;
+import com.adobe.acs.commons.workflow.bulk.removal.WorkflowRemovalStatus;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
@@ -158,6 +159,27 @@ public class WorkflowInstanceRemoverScheduler implements Runnable {
             intValue = DEFAULT_MAX_DURATION)
     public static final String PROP_MAX_DURATION = "max-duration";
 
+
+    private static final boolean DEFAULT_PARALLEL = false;
+    private boolean parallel = DEFAULT_PARALLEL;
+    @Property(label = "Parallel",
+            description = "Sweep dated workflow instance folders concurrently using the ACS AEM Commons ThrottledTaskRunner. "
+                    + "[ Default: false ]",
+            boolValue = DEFAULT_PARALLEL)
+    public static final String PROP_PARALLEL = "parallel";
+
+
+    private static final boolean DEFAULT_REMOVE_WHOLE_FOLDERS = false;
+    private boolean removeWholeFolders = DEFAULT_REMOVE_WHOLE_FOLDERS;
+    @Property(label = "Remove whole folders",
+            description = "Remove a dated folder as a single subtree when all of its workflow instances match, "
+                    + "instead of removing the instances one by one. [ Default: false ]",
+            boolValue = DEFAULT_REMOVE_WHOLE_FOLDERS)
+    public static final String PROP_REMOVE_WHOLE_FOLDERS = "remove-whole-folders";
+
+    // Folders emptied by a previous run which exceeded its max duration; skipped by the next run
+    private List<String> resumeSkipFolders = Collections.emptyList();
+
     @Override
     @SuppressWarnings("squid:S2142")
     public final void run() {
@@ -168,9 +190,25 @@ public class WorkflowInstanceRemoverScheduler implements Runnable {
             WorkflowRemovalConfig workflowRemovalConfig = new WorkflowRemovalConfig(models,statuses,payloads,olderThan,olderThanMillis);
             workflowRemovalConfig.setBatchSize(batchSize);
             workflowRemovalConfig.setMaxDurationInMins(maxDuration);
+            workflowRemovalConfig.setParallel(parallel);
+            workflowRemovalConfig.setRemoveWholeFolders(removeWholeFolders);
+            workflowRemovalConfig.setSkipFolders(resumeSkipFolders);
+
+            if (!resumeSkipFolders.isEmpty()) {
+                log.info("Resuming Workflow removal; skipping [ {} ] folders completed by the previous run", resumeSkipFolders.size());
+            }
 
             int count = workflowInstanceRemover.removeWorkflowInstances(adminResourceResolver, workflowRemovalConfig);
 
+            final WorkflowRemovalStatus status = workflowInstanceRemover.getStatus();
+            if (status != null && status.getMaxDurationExceededAt() != null) {
+                final List<String> skipFolders = new ArrayList<>(resumeSkipFolders);
+                skipFolders.addAll(status.getCompletedFolders());
+                resumeSkipFolders = skipFolders;
+            } else {
+                resumeSkipFolders = Collections.emptyList();
+            }
+
             if (log.isInfoEnabled()) {
                 log.info("Removed [ {} ] Workflow instances in {} ms", count, System.currentTimeMillis() - start);
             }
@@ -235,6 +273,10 @@ public class WorkflowInstanceRemoverScheduler implements Runnable {
 
         maxDuration = PropertiesUtil.toInteger(config.get(PROP_MAX_DURATION), DEFAULT_MAX_DURATION);
 
+        parallel = PropertiesUtil.toBoolean(config.get(PROP_PARALLEL), DEFAULT_PARALLEL);
+
+        removeWholeFolders = PropertiesUtil.toBoolean(config.get(PROP_REMOVE_WHOLE_FOLDERS), DEFAULT_REMOVE_WHOLE_FOLDERS);
+
         final InfoWriter iw = new InfoWriter();
         iw.title("Workflow Instance Removal Configuration");
         iw.message("Workflow status: {}", statuses);
@@ -243,6 +285,8 @@ public class WorkflowInstanceRemoverScheduler implements Runnable {
         iw.message("Older than: {}", olderThan);
         iw.message("Batch size: {}", batchSize);
         iw.message("Max Duration (minutes): {}", maxDuration);
+        iw.message("Parallel: {}", parallel);
+        iw.message("Remove whole folders: {}", removeWholeFolders);
         iw.end();
 
         log.info(iw.toString());
@@ -256,5 +300,8 @@ public class WorkflowInstanceRemoverScheduler implements Runnable {
         payloads = new ArrayList<Pattern>();
         batchSize = DEFAULT_BATCH_SIZE;
         maxDuration = DEFAULT_MAX_DURATION;
+        parallel = DEFAULT_PARALLEL;
+        removeWholeFolders = DEFAULT_REMOVE_WHOLE_FOLDERS;
+        resumeSkipFolders = Collections.emptyList();
     }
 }
@@ -20,5 +20,5 @@
 /**
  * Bulk Workflow Removal.
  */
-@org.osgi.annotation.versioning.Version("4.0.0")
+@org.osgi.annotation.versioning.Version("4.1.0")
 package com.adobe.acs.commons.workflow.bulk.removal;
\ No newline at end of file
@@ -0,0 +1,46 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.workflow.synthetic;
+
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Receives the outcome of each payload processed by
+ * {@link SyntheticWorkflowRunner#execute(org.apache.sling.api.resource.ResourceResolver, java.util.Iterator, SyntheticWorkflowModel, int, SyntheticWorkflowBatchListener)}.
+ */
+@ConsumerType
+public interface SyntheticWorkflowBatchListener {
+
+    /**
+     * Called once the changes made for the payload have been persisted.
+     *
+     * @param payloadPath the payload path
+     */
+    void completed(String payloadPath);
+
+    /**
+     * Called when the payload could not be processed; its changes have been discarded.
+     *
+     * @param payloadPath the payload path
+     * @param cause the reason the payload failed
+     */
+    void failed(String payloadPath, Exception cause);
+}
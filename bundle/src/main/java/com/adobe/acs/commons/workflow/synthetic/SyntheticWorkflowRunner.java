@@ -25,6 +25,7 @@ import com.day.cq.workflow.WorkflowException;
 import com.day.cq.workflow.WorkflowService;
 import org.apache.sling.api.resource.ResourceResolver;
 
+import java.util.Iterator;
 import java.util.Map;
 
 @ProviderType
@@ -68,6 +69,23 @@ public interface SyntheticWorkflowRunner extends WorkflowService {
                  boolean autoSaveAfterEachWorkflowProcess,
                  boolean autoSaveAtEnd) throws WorkflowException;
 
+    /**
+     * Execute the provided Synthetic Workflow Model against many payloads on one resolver, resolving the model's
+     * workflow steps once. The changes of each payload are persisted once its steps complete, so a failing payload
+     * only discards its own changes and the steps of the other payloads are never executed twice.
+     *
+     * @param resourceResolver       the resourceResolver object that provides access to the JCR for WF operations
+     * @param payloadPaths           the paths to execute the workflow against, in order
+     * @param syntheticWorkflowModel the Synthetic Workflow Model to execute
+     * @param listener               notified of the outcome of each payload; may be null
+     * @return the number of payloads processed successfully
+     * @throws WorkflowException
+     */
+    int execute(ResourceResolver resourceResolver,
+                Iterator<String> payloadPaths,
+                SyntheticWorkflowModel syntheticWorkflowModel,
+                SyntheticWorkflowBatchListener listener) throws WorkflowException;
+
     /**
      * Generates the SyntheticWorkflowModel that represents the AEM Workflow Model to execute in the context of Synthetic Workflow.
      *
@@ -20,6 +20,7 @@
 
 package com.adobe.acs.commons.workflow.synthetic.impl;
 
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowBatchListener;
 import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowModel;
 import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowRunner;
 import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowStep;
@@ -42,6 +43,7 @@ import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.References;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.commons.osgi.PropertiesUtil;
@@ -59,6 +61,7 @@ import java.util.Date;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -202,6 +205,68 @@ public class SyntheticWorkflowRunnerImpl implements SyntheticWorkflowRunner {
                 autoSaveAtEnd);
     }
 
+    @Override
+    public final int execute(final ResourceResolver resourceResolver,
+                             final Iterator<String> payloadPaths,
+                             final SyntheticWorkflowModel syntheticWorkflowModel,
+                             final SyntheticWorkflowBatchListener listener) throws WorkflowException {
+
+        Map<String, Map<String, Object>> processConfigs = syntheticWorkflowModel.getSyntheticWorkflowModelData();
+        if (processConfigs == null) {
+            processConfigs = new HashMap<String, Map<String, Object>>();
+        }
+
+        final List<SyntheticWorkflowStep> workflowSteps = convertToSyntheticWorkflowSteps(
+                syntheticWorkflowModel.getWorkflowProcessNames(), WorkflowProcessIdType.PROCESS_NAME, processConfigs);
+
+        return execute(resourceResolver, payloadPaths, workflowSteps, listener);
+    }
+
+    public int execute(final ResourceResolver resourceResolver,
+                       final Iterator<String> payloadPaths,
+                       final List<SyntheticWorkflowStep> workflowSteps,
+                       final SyntheticWorkflowBatchListener listener) {
+        final long start = System.currentTimeMillis();
+        int completed = 0;
+
+        while (payloadPaths.hasNext()) {
+            final String payloadPath = payloadPaths.next();
+
+            // Each payload is saved on its own: steps may replicate or call out, so they must never be run twice
+            try {
+                execute(resourceResolver, payloadPath, workflowSteps, false, false);
+                if (resourceResolver.hasChanges()) {
+                    resourceResolver.commit();
+                }
+            } catch (WorkflowException | PersistenceException | RuntimeException e) {
+                log.warn("Synthetic workflow execution of payload [ {} ] failed; discarding its changes", payloadPath, e);
+                resourceResolver.revert();
+                notifyFailed(listener, payloadPath, e);
+                continue;
+            }
+
+            notifyCompleted(listener, payloadPath);
+            completed++;
+        }
+
+        log.info("Synthetic workflow execution of [ {} ] payloads completed in [ {} ] ms",
+                completed, System.currentTimeMillis() - start);
+
+        return completed;
+    }
+
+    private void notifyCompleted(final SyntheticWorkflowBatchListener listener, final String payloadPath) {
+        if (listener != null) {
+            listener.completed(payloadPath);
+        }
+    }
+
+    private void notifyFailed(final SyntheticWorkflowBatchListener listener, final String payloadPath, final Exception e) {
+        if (listener != null) {
+            listener.failed(payloadPath, e);
+        }
+    }
+
     @SuppressWarnings({"squid:S3776", "squid:S1163", "squid:S1143"})
     private void run(final ResourceResolver resourceResolver,
                      final String payloadPath,
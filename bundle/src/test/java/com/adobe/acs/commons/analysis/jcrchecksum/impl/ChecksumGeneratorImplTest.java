@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -606,4 +607,70 @@ public class ChecksumGeneratorImplTest {
         assertFalse(checksumGenerator.isExcludedSubTree(session.getNode("/content/parent1/child"), opts));
         assertTrue(checksumGenerator.isExcludedSubTree(session.getNode("/content/parent2/child"), opts));
     }
+
+    @Test
+    public void testMerkleChecksums_DescendIntoChangedSubtree() throws RepositoryException, IOException {
+        Node content = session.getRootNode().addNode("content");
+        content.addNode("one", "nt:unstructured").setProperty("title", "one");
+        content.addNode("two", "nt:unstructured").setProperty("title", "two");
+        session.save();
+
+        CustomChecksumGeneratorOptions opts = new CustomChecksumGeneratorOptions();
+
+        Map<String, String> before = checksumGenerator.generateMerkleChecksums(session, "/content", opts, 1, false);
+
+        assertEquals(3, before.size());
+        assertEquals("/content", before.keySet().iterator().next());
+
+        session.getNode("/content/two").setProperty("title", "changed");
+        session.save();
+
+        Map<String, String> after = checksumGenerator.generateMerkleChecksums(session, "/content", opts, 1, false);
+
+        assertFalse(before.get("/content").equals(after.get("/content")));
+        assertEquals(before.get("/content/one"), after.get("/content/one"));
+        assertFalse(before.get("/content/two").equals(after.get("/content/two")));
+
+        // Depth 0 only reports the root
+        assertEquals(Collections.singletonMap("/content", after.get("/content")),
+                checksumGenerator.generateMerkleChecksums(session, "/content", opts, 0, false));
+    }
+
+    @Test
+    public void testMerkleChecksums_ReuseCachedWhenLastModifiedUnchanged() throws RepositoryException, IOException {
+        setupAsset1();
+        Node original = session.getNode("/content/dam/foo.jpg/jcr:content/renditions/original/jcr:content");
+        original.setProperty("jcr:lastModified", Calendar.getInstance());
+        session.save();
+
+        CustomChecksumGeneratorOptions opts = new CustomChecksumGeneratorOptions();
+
+        String checksum = checksumGenerator.generateMerkleChecksums(session, "/content/dam", opts, 0, true).get("/content/dam");
+
+        // Modify the rendition without updating its jcr:lastModified; the cached leaf checksum is reused
+        original.setProperty("data", ValueFactoryImpl.getInstance().createBinary(new ByteArrayInputStream("changed".getBytes())));
+        session.save();
+
+        assertEquals(checksum,
+                checksumGenerator.generateMerkleChecksums(session, "/content/dam", opts, 0, true).get("/content/dam"));
+        assertFalse(checksum.equals(
+                checksumGenerator.generateMerkleChecksums(session, "/content/dam", opts, 0, false).get("/content/dam")));
+    }
+
+    @Test
+    public void testMerkleChecksums_InnerJcrContentNotCached() throws RepositoryException, IOException {
+        Node asset = setupAsset1();
+        session.save();
+
+        CustomChecksumGeneratorOptions opts = new CustomChecksumGeneratorOptions();
+
+        String checksum = checksumGenerator.generateMerkleChecksums(session, "/content/dam", opts, 0, true).get("/content/dam");
+
+        // The asset's jcr:lastModified does not cover its descendants, so a change beneath it is always picked up
+        asset.getNode("metadata").setProperty("dc:title", "Bar");
+        session.save();
+
+        assertFalse(checksum.equals(
+                checksumGenerator.generateMerkleChecksums(session, "/content/dam", opts, 0, true).get("/content/dam")));
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.ccvar.filter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContentVariableJsonWriterTest {
+
+    private static final UnaryOperator<String> REPLACER = value -> value.replace("((page.title))", "Say \"hi\"\n");
+
+    @Test
+    public void testRewritesStringValues() throws IOException {
+        String input = "{\"title\":\"((page.title))!\",\"list\":[\"((page.title))\", 1, true],\"other\":\"none\"}";
+        String expected = "{\"title\":\"Say \\\"hi\\\"\\n!\",\"list\":[\"Say \\\"hi\\\"\\n\", 1, true],\"other\":\"none\"}";
+        assertEquals(expected, rewrite(input, input.length()));
+    }
+
+    @Test
+    public void testFieldNamesUntouched() throws IOException {
+        String input = "{\"((page.title))\" : \"((page.title))\"}";
+        String expected = "{\"((page.title))\" : \"Say \\\"hi\\\"\\n\"}";
+        assertEquals(expected, rewrite(input, input.length()));
+    }
+
+    @Test
+    public void testEscapedCharacters() throws IOException {
+        String input = "{\"a\\\"b\":\"x \\\"((page.title))\\\" \\u0041\",\"c\":\"\\\\\"}";
+        String expected = "{\"a\\\"b\":\"x \\\"Say \\\"hi\\\"\\n\\\" A\",\"c\":\"\\\\\"}";
+        assertEquals(expected, rewrite(input, input.length()));
+    }
+
+    @Test
+    public void testSplitWrites() throws IOException {
+        String input = "{\"title\" :\t\"((page.title))\" , \"escaped\":\"\\\"((page.title))\",\"name\":\"((page.title))\"}";
+        String expected = rewrite(input, input.length());
+        for (int chunk = 1; chunk < input.length(); chunk++) {
+            assertEquals("Chunk size " + chunk, expected, rewrite(input, chunk));
+        }
+    }
+
+    @Test
+    public void testTopLevelString() throws IOException {
+        assertEquals("\"Say \\\"hi\\\"\\n\"", rewrite("\"((page.title))\"", 4));
+    }
+
+    private String rewrite(String input, int chunkSize) throws IOException {
+        StringWriter output = new StringWriter();
+        ContentVariableJsonWriter writer = new ContentVariableJsonWriter(output, REPLACER);
+        for (int i = 0; i < input.length(); i += chunkSize) {
+            writer.write(input, i, Math.min(chunkSize, input.length() - i));
+        }
+        writer.close();
+        return output.toString();
+    }
+}
@@ -21,7 +21,11 @@ package com.adobe.acs.commons.ccvar.impl;
 
 import com.adobe.acs.commons.ccvar.PropertyAggregatorService;
 import io.wcm.testing.mock.aem.junit.AemContext;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
 import org.apache.sling.testing.mock.sling.ResourceResolverType;
 import org.junit.Before;
 import org.junit.Rule;
@@ -29,6 +33,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -101,6 +106,55 @@ public class PropertyAggregatorServiceImplTest {
         assertEquals(expected, properties);
     }
 
+    @Test
+    public void testCachedPropertiesInvalidatedByAncestorChange() throws PersistenceException {
+        context.registerInjectActivateService(new PropertyConfigServiceImpl(), defaultConfigMap());
+        AllPagePropertiesContentVariableProvider provider =
+                context.registerInjectActivateService(new AllPagePropertiesContentVariableProvider());
+        service = context.registerInjectActivateService(new PropertyAggregatorServiceImpl());
+
+        Resource lofoten = context.resourceResolver().getResource("/content/we-retail/language-masters/en/experience/arctic-surfing-in-lofoten");
+        context.request().setResource(lofoten);
+        assertEquals(defaultPropertyMap(), service.getProperties(context.request()));
+        assertEquals(defaultPropertyMap(), service.getProperties(context.request()));
+
+        Resource experience = context.resourceResolver().getResource("/content/we-retail/language-masters/en/experience/jcr:content");
+        experience.adaptTo(ModifiableValueMap.class).put("inheritedProperty", "updatedValue");
+        context.resourceResolver().commit();
+        provider.onChange(Collections.singletonList(new ResourceChange(ChangeType.CHANGED, experience.getPath(), false, null, null, null)));
+
+        Map<String, Object> expected = defaultPropertyMap();
+        expected.put("inherited_page_properties.inheritedProperty", "updatedValue");
+        assertEquals(expected, service.getProperties(context.request()));
+    }
+
+    @Test
+    public void testProvidedPropertiesTakePrecedence() {
+        context.registerInjectActivateService(new PropertyConfigServiceImpl(), defaultConfigMap());
+        AllPagePropertiesContentVariableProvider uncached = context.registerInjectActivateService(
+                new AllPagePropertiesContentVariableProvider(), Collections.<String, Object>singletonMap("cache.size", 0));
+        AllPagePropertiesContentVariableProvider cached =
+                context.registerInjectActivateService(new AllPagePropertiesContentVariableProvider());
+
+        Resource lofoten = context.resourceResolver().getResource("/content/we-retail/language-masters/en/experience/arctic-surfing-in-lofoten");
+        context.request().setResource(lofoten);
+        Map<String, Object> expected = defaultPropertyMap();
+        expected.put("page_properties.jcr:title", "Provided Title");
+
+        Map<String, Object> direct = new HashMap<>();
+        direct.put("page_properties.jcr:title", "Provided Title");
+        uncached.addProperties(direct, context.request());
+        assertEquals(expected, direct);
+
+        // Both when the cache is populated and when it is served from
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> fromCache = new HashMap<>();
+            fromCache.put("page_properties.jcr:title", "Provided Title");
+            cached.addProperties(fromCache, context.request());
+            assertEquals(expected, fromCache);
+        }
+    }
+
     private Map<String, Object> defaultPropertyMap() {
         Map<String, Object> map = new HashMap<>();
         map.put("inherited_page_properties.jcr:primaryType", "cq:PageContent");
@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.ccvar.util;
+
+import com.adobe.acs.commons.ccvar.PropertyConfigService;
+import com.adobe.acs.commons.ccvar.impl.UrlEncodeAction;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ContentVariableReplacementUtilTest {
+
+    @Mock
+    private PropertyConfigService propertyConfigService;
+
+    private final Map<String, Object> replacements = new HashMap<>();
+
+    @Before
+    public void setup() {
+        replacements.put("page_properties.jcr:title", "Title <b>");
+        replacements.put("page_properties.count", 5L);
+        replacements.put("page_properties.nested", "((page_properties.count))");
+    }
+
+    @Test
+    public void testReplacePlaceholders() {
+        assertEquals("Title &lt;b&gt; has 5 items, Title &lt;b&gt;",
+                ContentVariableReplacementUtil.replacePlaceholders(
+                        "((page_properties.jcr:title)) has ((page_properties.count)) items, ((page_properties.jcr:title))",
+                        replacements, propertyConfigService));
+    }
+
+    @Test
+    public void testReplacePlaceholdersWithAction() {
+        when(propertyConfigService.getAction("page_properties.jcr:title!url")).thenReturn(new UrlEncodeAction());
+
+        assertEquals("/search?q=Title+%3Cb%3E",
+                ContentVariableReplacementUtil.replacePlaceholders("/search?q=((page_properties.jcr:title!url))",
+                        replacements, propertyConfigService));
+    }
+
+    @Test
+    public void testUnknownPlaceholdersUntouched() {
+        String input = "((page_properties.missing)) and ((not a placeholder))";
+        assertSame(input, ContentVariableReplacementUtil.replacePlaceholders(input, replacements, propertyConfigService));
+        assertEquals("5 and ((page_properties.missing))",
+                ContentVariableReplacementUtil.replacePlaceholders("((page_properties.count)) and ((page_properties.missing))",
+                        replacements, propertyConfigService));
+    }
+
+    @Test
+    public void testReplacedValuesNotScannedAgain() {
+        assertEquals("((page_properties.count))",
+                ContentVariableReplacementUtil.replacePlaceholders("((page_properties.nested))",
+                        replacements, propertyConfigService));
+    }
+}
@@ -20,32 +20,50 @@
 
 package com.adobe.acs.commons.errorpagehandler.cache.impl;
 
+import com.google.common.cache.Cache;
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.MockitoAnnotations;
-import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 import junitx.util.PrivateAccessor;
 
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletResponse;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ErrorPageCacheImplTest {
     private static final int FAR_FUTURE_EXPIRY = Integer.MAX_VALUE;
 
-    @Spy
-    private ConcurrentHashMap<String, CacheEntry> cache;
+    private Cache<String, CacheEntry> cache;
 
     private ErrorPageCacheImpl errorPageCache;
 
     @Before
     public void setUp() throws Exception {
         errorPageCache = new ErrorPageCacheImpl(5, false);
-        PrivateAccessor.setField(errorPageCache, "cache", cache);
+        cache = getCache(errorPageCache);
 
         // 1 Miss
         // 2 Hits
@@ -70,8 +88,25 @@ public class ErrorPageCacheImplTest {
         mars.setExpiresIn(FAR_FUTURE_EXPIRY);
 
         cache.put("/content/mars", mars);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cache<String, CacheEntry> getCache(ErrorPageCacheImpl errorPageCache) throws Exception {
+        return (Cache<String, CacheEntry>) PrivateAccessor.getField(errorPageCache, "cache");
+    }
 
-        MockitoAnnotations.initMocks(this);
+    /**
+     * @return an anonymous request which renders the error page at the path with the given page supplier
+     */
+    private static SlingHttpServletRequest requestRendering(String path, Supplier<String> page) throws Exception {
+        final SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        final RequestDispatcher requestDispatcher = mock(RequestDispatcher.class);
+        when(request.getRequestDispatcher(path)).thenReturn(requestDispatcher);
+        doAnswer(invocation -> {
+            invocation.<ServletResponse>getArgument(1).getWriter().write(page.get());
+            return null;
+        }).when(requestDispatcher).include(any(), any());
+        return request;
     }
 
     public void testGet() throws Exception {
@@ -82,6 +117,80 @@ public class ErrorPageCacheImplTest {
          */
     }
 
+    @Test
+    public void testGet_ConcurrentMissesRenderOnce() throws Exception {
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger renders = new AtomicInteger();
+        final SlingHttpServletRequest request = requestRendering("/content/venus", () -> {
+            renders.incrementAndGet();
+            rendering.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "hello venus";
+        });
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> first = executor.submit(() -> errorPageCache.get("/content/venus", request, response));
+            assertTrue(rendering.await(5, TimeUnit.SECONDS));
+
+            // MISS while the first render is in progress
+            final Future<String> second = executor.submit(() -> errorPageCache.get("/content/venus", request, response));
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals("hello venus", first.get(5, TimeUnit.SECONDS));
+            assertEquals("hello venus", second.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The waiting request is served the single render, and counted as a hit
+        assertEquals(1, renders.get());
+        assertEquals(6, errorPageCache.getTotalHits());
+        assertEquals(4, errorPageCache.getTotalMisses());
+        assertEquals(3, errorPageCache.getCacheEntriesCount());
+    }
+
+    @Test
+    public void testGet_RefreshAhead() throws Exception {
+        cache.getIfPresent("/content/earth").setRefreshIn(-1);
+        final SlingHttpServletRequest request = requestRendering("/content/earth", () -> "hello new earth");
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+
+        // REFRESH
+        assertEquals("hello new earth", errorPageCache.get("/content/earth", request, response));
+
+        assertEquals(1, errorPageCache.getTotalRefreshes());
+        assertEquals("hello new earth", errorPageCache.getCacheData("/content/earth"));
+        // The replaced entry's counts are kept, and the refresh is counted as a miss
+        assertEquals(5, errorPageCache.getTotalHits());
+        assertEquals(4, errorPageCache.getTotalMisses());
+        assertEquals(2, errorPageCache.getCacheEntriesCount());
+    }
+
+    @Test
+    public void testGet_RefreshInProgressServesCachedPage() throws Exception {
+        final CacheEntry earth = cache.getIfPresent("/content/earth");
+        earth.setRefreshIn(-1);
+        // Another request is refreshing the entry
+        assertTrue(earth.startRefresh());
+        final SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+
+        // HIT
+        assertEquals("hello earth", errorPageCache.get("/content/earth", request, response));
+
+        verify(request, never()).getRequestDispatcher(anyString());
+        assertEquals(0, errorPageCache.getTotalRefreshes());
+        assertEquals(3, earth.getHits());
+    }
+
     @Test
     public void testGetTotalHits() throws Exception {
         final int expResult = 5;
@@ -139,11 +248,37 @@ public class ErrorPageCacheImplTest {
 
         errorPageCache.clearCache();
 
-        final int result = cache.size();
+        final int result = errorPageCache.getCacheEntriesCount();
 
         assertEquals(expResult, result);
     }
 
+    @Test
+    public void testMaxCacheSize() throws Exception {
+        final ErrorPageCacheImpl boundedCache = new ErrorPageCacheImpl(5, false, 1);
+        final Cache<String, CacheEntry> boundedEntries = getCache(boundedCache);
+
+        CacheEntry venus = new CacheEntry();
+        venus.setData(StringUtils.repeat("v", 600));
+        venus.incrementMisses();
+        venus.incrementHits();
+        venus.setExpiresIn(FAR_FUTURE_EXPIRY);
+        boundedEntries.put("/content/venus", venus);
+
+        CacheEntry jupiter = new CacheEntry();
+        jupiter.setData(StringUtils.repeat("j", 600));
+        jupiter.incrementMisses();
+        jupiter.setExpiresIn(FAR_FUTURE_EXPIRY);
+        boundedEntries.put("/content/jupiter", jupiter);
+
+        assertEquals(1, boundedCache.getCacheEntriesCount());
+        assertEquals(1, boundedCache.getTotalEvictions());
+        assertEquals(1, boundedCache.getMaxCacheSizeInKB());
+        // Counts of the evicted entry are kept in the totals
+        assertEquals(1, boundedCache.getTotalHits());
+        assertEquals(2, boundedCache.getTotalMisses());
+    }
+
     @Test
     public void testGetCacheData_earth() throws Exception {
         final String expResult = "hello earth";
@@ -21,6 +21,8 @@
 package com.adobe.acs.commons.errorpagehandler.cache.impl;
 
 import com.adobe.acs.commons.util.ResourceDataUtil;
+import com.google.common.cache.Cache;
+import junitx.util.PrivateAccessor;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.junit.Before;
@@ -108,6 +110,39 @@ public class PowerMockErrorPageCacheImplTest {
     }
 
 
+    @Test
+    public void testGet_ExpiredEntryCountsKept() throws Exception {
+        mockStatic(ResourceDataUtil.class);
+
+        SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+
+        when(ResourceDataUtil.getIncludeAsString("/content/world", request,
+                response)).thenReturn("hello new world");
+
+        final ErrorPageCacheImpl longLivedCache = new ErrorPageCacheImpl(60, false);
+        @SuppressWarnings("unchecked")
+        final Cache<String, CacheEntry> cache =
+                (Cache<String, CacheEntry>) PrivateAccessor.getField(longLivedCache, "cache");
+
+        // 1 Miss, 2 Hits; expired by its own TTL but not yet by the cache
+        CacheEntry expired = new CacheEntry();
+        expired.setData("hello world");
+        expired.incrementMisses();
+        expired.incrementHits();
+        expired.incrementHits();
+        expired.setExpiresIn(-1);
+        cache.put("/content/world", expired);
+
+        // MISS
+        String data = longLivedCache.get("/content/world", request, response);
+
+        assertEquals("hello new world", data);
+        assertEquals(1, longLivedCache.getCacheEntriesCount());
+        assertEquals(2, longLivedCache.getTotalHits());
+        assertEquals(2, longLivedCache.getTotalMisses());
+    }
+
     @Test
     public void testGet_Null() throws Exception {
         mockStatic(ResourceDataUtil.class);
@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.errorpagehandler.impl;
+
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ErrorPagesIndexTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext();
+
+    private ResourceResolver resourceResolver;
+
+    private ErrorPagesIndex index;
+
+    @Before
+    public void setup() {
+        context.load().json(getClass().getResourceAsStream("ErrorPageHandlerImplTest.json"), "/content/project");
+        resourceResolver = context.resourceResolver();
+
+        index = new ErrorPagesIndex(mock(ResourceResolverFactory.class), "error-page-handler",
+                new String[]{ "/content" }, 1000);
+        index.onChange(resourceResolver, ChangeType.CHANGED, "/content/project/jcr:content");
+        index.onChange(resourceResolver, ChangeType.CHANGED, "/content/project/test/jcr:content");
+        index.onChange(resourceResolver, ChangeType.CHANGED, "/content/project/test/page-with-config");
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        final ErrorPagesIndex built = new ErrorPagesIndex(resolverFactory(), "error-page-handler",
+                new String[]{ "/content" }, 1000);
+        assertFalse(built.isReady());
+
+        assertTrue(built.build());
+        assertTrue(built.isReady());
+        assertEquals(2, built.size());
+        assertEquals("/content/project/test/error-pages2", built.find("/content/project/test/page-with-config/child"));
+    }
+
+    @Test
+    public void testBuild_nodeLimit() throws Exception {
+        final ErrorPagesIndex built = new ErrorPagesIndex(resolverFactory(), "error-page-handler",
+                new String[]{ "/content" }, 2);
+
+        assertFalse(built.build());
+        assertFalse(built.isReady());
+    }
+
+    @Test
+    public void testBuild_failure() throws Exception {
+        final ResourceResolverFactory resolverFactory = mock(ResourceResolverFactory.class);
+        when(resolverFactory.getServiceResourceResolver(anyMap())).thenThrow(new IllegalStateException("traversal"));
+        final ErrorPagesIndex built = new ErrorPagesIndex(resolverFactory, "error-page-handler",
+                new String[]{ "/content" }, 1000);
+
+        assertFalse(built.build());
+        assertFalse(built.isReady());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final ErrorPagesIndex built = new ErrorPagesIndex(resolverFactory(), "error-page-handler",
+                new String[]{ "/content" }, 1000);
+        built.close();
+
+        assertFalse(built.build());
+        assertFalse(built.isReady());
+    }
+
+    private ResourceResolverFactory resolverFactory() throws Exception {
+        final ResourceResolverFactory resolverFactory = mock(ResourceResolverFactory.class);
+        when(resolverFactory.getServiceResourceResolver(anyMap())).thenReturn(resourceResolver);
+        return resolverFactory;
+    }
+
+    @Test
+    public void testCovers() {
+        assertTrue(index.covers("/content"));
+        assertTrue(index.covers("/content/project/test"));
+        assertFalse(index.covers("/contentious"));
+        assertFalse(index.covers("/apps/project"));
+    }
+
+    @Test
+    public void testFind() {
+        assertEquals(2, index.size());
+        assertEquals("/content/project/test/error-pages", index.find("/content/project/test/non-existing-page"));
+        assertEquals("/content/project/test/error-pages",
+                index.find("/content/project/test/non-existing-page/jcr:content/test1/test2"));
+        assertEquals("/content/project/test/error-pages", index.find("/content/project/jcr:content/non-existing"));
+        assertEquals("/content/project/test/error-pages2", index.find("/content/project/test/page-with-config/child"));
+        assertNull(index.find("/content/other/page"));
+    }
+
+    @Test
+    public void testFind_nearestPageWins() throws Exception {
+        resourceResolver.getResource("/content/project/test/jcr:content").adaptTo(ModifiableValueMap.class)
+                .put("errorPages", "/content/project/test/nearest");
+        index.onChange(resourceResolver, ChangeType.CHANGED, "/content/project/test/jcr:content");
+
+        assertEquals("/content/project/test/nearest", index.find("/content/project/test/non-existing-page"));
+        assertEquals("/content/project/test/error-pages2", index.find("/content/project/test/page-with-config/child"));
+        assertEquals("/content/project/test/error-pages", index.find("/content/project/non-existing-page"));
+    }
+
+    @Test
+    public void testOnChange_removed() throws Exception {
+        resourceResolver.delete(resourceResolver.getResource("/content/project/test"));
+        index.onChange(resourceResolver, ChangeType.REMOVED, "/content/project/test");
+
+        assertEquals(1, index.size());
+        assertEquals("/content/project/test/error-pages", index.find("/content/project/test/page-with-config/child"));
+    }
+
+    @Test
+    public void testOnChange_propertyRemoved() throws Exception {
+        resourceResolver.getResource("/content/project/jcr:content").adaptTo(ModifiableValueMap.class)
+                .remove("errorPages");
+        index.onChange(resourceResolver, ChangeType.CHANGED, "/content/project/jcr:content");
+
+        assertEquals(1, index.size());
+        assertNull(index.find("/content/project/non-existing-page"));
+    }
+
+    @Test
+    public void testOnChange_componentChangeIgnored() {
+        index.onChange(resourceResolver, ChangeType.REMOVED, "/content/project/jcr:content/root");
+
+        assertEquals(2, index.size());
+    }
+}
@@ -19,24 +19,34 @@
  */
 package com.adobe.acs.commons.etag.impl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpHeaders;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.request.RequestProgressTracker;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
 import org.apache.sling.api.servlets.HttpConstants;
 import org.junit.Assert;
 import org.junit.Before;
@@ -46,7 +56,9 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
-import com.adobe.acs.commons.util.BufferedSlingHttpServletResponse;
+import com.adobe.acs.commons.util.ServletOutputStreamWrapper;
+import com.day.cq.commons.jcr.JcrConstants;
+import com.google.common.io.BaseEncoding;
 
 @RunWith(MockitoJUnitRunner.class)
 public class EtagMessageDigestServletFilterTest {
@@ -56,7 +68,7 @@ public class EtagMessageDigestServletFilterTest {
 
     @Mock
     SlingHttpServletResponse mockResponse;
-    BufferedSlingHttpServletResponse bufferedResponse;
+    DigestingSlingHttpServletResponse bufferedResponse;
 
     @Mock
     SlingHttpServletRequest mockRequest;
@@ -68,44 +80,44 @@ public class EtagMessageDigestServletFilterTest {
     private static final String EXAMPLE_TEXT = "The quick brown fox jumps over the lazy dog";
 
     @Before
-    public void setUp() {
+    public void setUp() throws NoSuchAlgorithmException {
         Mockito.when(configuration.messageDigestAlgorithm()).thenReturn("MD5");
         Mockito.when(configuration.ignoredResponseHeaders()).thenReturn(new String[] { "ignoredHeader" });
         filter = new EtagMessageDigestServletFilter();
         filter.activate(configuration);
-        bufferedResponse = new BufferedSlingHttpServletResponse(mockResponse);
+        bufferedResponse = new DigestingSlingHttpServletResponse(mockResponse, "MD5", true, 1024);
         Mockito.when(mockRequest.getRequestProgressTracker()).thenReturn(tracker);
     }
 
     @Test
-    public void testCalculateFromResponseWithEmptyString() throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    public void testCalculateFromResponseWithEmptyString() {
         // the MD5 is taken from https://en.wikipedia.org/wiki/MD5
         Assert.assertEquals("d41d8cd98f00b204e9800998ecf8427e", filter.calculateDigestFromResponse(bufferedResponse));
     }
 
     @Test
-    public void testCalculateFromResponseWithEmptyStringAndSalt() throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    public void testCalculateFromResponseWithEmptyStringAndSalt() {
         Mockito.when(configuration.salt()).thenReturn("some-salt");
         // the MD5 is taken from https://en.wikipedia.org/wiki/MD5
         Assert.assertNotEquals("d41d8cd98f00b204e9800998ecf8427e", filter.calculateDigestFromResponse(bufferedResponse));
     }
 
     @Test
-    public void testCalculateFromResponseWithSimpleContentAndNoHeaders() throws NoSuchAlgorithmException, IOException {
+    public void testCalculateFromResponseWithSimpleContentAndNoHeaders() throws IOException {
         bufferedResponse.getWriter().write(EXAMPLE_TEXT);
         // the MD5 is taken from https://en.wikipedia.org/wiki/MD5
         Assert.assertEquals("9e107d9d372bb6826bd81d3542a419d6", filter.calculateDigestFromResponse(bufferedResponse));
     }
 
     @Test
-    public void testCalculateFromResponseWithOutputStreamAndNoHeaders() throws NoSuchAlgorithmException, IOException {
+    public void testCalculateFromResponseWithOutputStreamAndNoHeaders() throws IOException {
         bufferedResponse.getOutputStream().print(EXAMPLE_TEXT);
         // the MD5 is taken from https://en.wikipedia.org/wiki/MD5
         Assert.assertEquals("9e107d9d372bb6826bd81d3542a419d6", filter.calculateDigestFromResponse(bufferedResponse));
     }
 
     @Test
-    public void testCalculateFromResponseConsidersHeaders() throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    public void testCalculateFromResponseConsidersHeaders() {
         Mockito.when(configuration.considerResponseHeaders()).thenReturn(true);
         Mockito.when(bufferedResponse.getHeaderNames()).thenReturn(Collections.singletonList("header1"));
         Mockito.when(bufferedResponse.getHeaders(Mockito.eq("header1"))).thenReturn(Arrays.asList("value1", "value2"));
@@ -204,4 +216,71 @@ public class EtagMessageDigestServletFilterTest {
         Mockito.verify(mockResponse).setStatus(304);
         
     }
+
+    @Test
+    public void testDigestingSpillOutputStream() throws Exception {
+        final byte[] content = StringUtils.repeat(EXAMPLE_TEXT, 10).getBytes(StandardCharsets.ISO_8859_1);
+        final DigestingSpillOutputStream outputStream = new DigestingSpillOutputStream(MessageDigest.getInstance("MD5"), 100);
+        outputStream.write(content);
+
+        Assert.assertFalse(outputStream.isInMemory());
+        Assert.assertEquals(content.length, outputStream.getLength());
+        Assert.assertEquals(DigestUtils.md5Hex(content),
+                BaseEncoding.base16().lowerCase().encode(outputStream.getMessageDigest().digest()));
+        try (InputStream input = outputStream.getInputStream()) {
+            Assert.assertArrayEquals(content, IOUtils.toByteArray(input));
+        }
+        outputStream.dispose();
+    }
+
+    @Test
+    public void testDoFilterSpillsLargeOutputStream() throws IOException, ServletException {
+        Mockito.when(configuration.enabled()).thenReturn(true);
+        Mockito.when(configuration.enabledForOutputStream()).thenReturn(true);
+        Mockito.when(configuration.spillThresholdKb()).thenReturn(1);
+        filter.activate(configuration);
+        Mockito.when(mockRequest.getMethod()).thenReturn(HttpConstants.METHOD_GET);
+        final ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+        Mockito.when(mockResponse.getOutputStream()).thenReturn(new ServletOutputStreamWrapper(responseBytes));
+
+        final byte[] content = StringUtils.repeat(EXAMPLE_TEXT, 100).getBytes(StandardCharsets.ISO_8859_1);
+        filter.doFilter(mockRequest, mockResponse, (request, response) -> response.getOutputStream().write(content));
+
+        Mockito.verify(mockResponse).setHeader(HttpConstants.HEADER_ETAG, "\"" + DigestUtils.md5Hex(content) + "\"");
+        Assert.assertArrayEquals(content, responseBytes.toByteArray());
+    }
+
+    @Test
+    public void testDoFilterWithCachedDigest() throws IOException, ServletException {
+        Mockito.when(configuration.enabled()).thenReturn(true);
+        Mockito.when(configuration.cacheDigests()).thenReturn(true);
+        Mockito.when(configuration.cacheDigestsMaxEntries()).thenReturn(100L);
+        filter.activate(configuration);
+
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getPath()).thenReturn("/content/page");
+        Mockito.when(resource.getValueMap()).thenReturn(new ValueMapDecorator(
+                Collections.singletonMap(JcrConstants.JCR_LASTMODIFIED, (Object) Calendar.getInstance())));
+        Mockito.when(mockRequest.getResource()).thenReturn(resource);
+        Mockito.when(mockRequest.getRequestURI()).thenReturn("/content/page.html");
+        Mockito.when(mockRequest.getMethod()).thenReturn(HttpConstants.METHOD_GET);
+        Mockito.when(mockResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+        final AtomicInteger renderings = new AtomicInteger();
+        final FilterChain chain = (request, response) -> {
+            renderings.incrementAndGet();
+            response.getWriter().write(EXAMPLE_TEXT);
+        };
+        filter.doFilter(mockRequest, mockResponse, chain);
+        Mockito.verify(mockResponse).setHeader(HttpConstants.HEADER_ETAG, "\"9e107d9d372bb6826bd81d3542a419d6\"");
+
+        // a conditional request is answered from the cached digest
+        Vector<String> ifNoneMatchETags = new Vector<>();
+        ifNoneMatchETags.add("\"9e107d9d372bb6826bd81d3542a419d6\"");
+        Mockito.when(mockRequest.getHeaders(HttpHeaders.IF_NONE_MATCH)).thenReturn(ifNoneMatchETags.elements());
+        filter.doFilter(mockRequest, mockResponse, chain);
+
+        Assert.assertEquals(1, renderings.get());
+        Mockito.verify(mockResponse).setStatus(304);
+    }
 }
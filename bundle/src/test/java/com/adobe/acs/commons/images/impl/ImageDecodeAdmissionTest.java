@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ImageDecodeAdmissionTest {
+
+    private static final long MEGAPIXEL = 1000000L;
+
+    @Test
+    public void testAdmitsWithinBudget() throws Exception {
+        final ImageDecodeAdmission admission = new ImageDecodeAdmission(10, 0, 0);
+
+        try (ImageDecodeAdmission.Permit first = admission.acquire(4 * MEGAPIXEL);
+             ImageDecodeAdmission.Permit second = admission.acquire(4 * MEGAPIXEL)) {
+            assertEquals(8, admission.getInFlightMegapixels());
+        }
+
+        assertEquals(0, admission.getInFlightMegapixels());
+        assertEquals(2, admission.getAdmittedCount());
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        final ImageDecodeAdmission admission = new ImageDecodeAdmission(10, 0, 1000);
+
+        try (ImageDecodeAdmission.Permit first = admission.acquire(8 * MEGAPIXEL)) {
+            admission.acquire(4 * MEGAPIXEL);
+            fail("Expected the decode to be rejected");
+        } catch (ImageDecodeAdmission.RejectedException e) {
+            assertEquals(1, admission.getRejectedCount());
+            assertEquals(0, admission.getQueuedCount());
+        }
+    }
+
+    @Test
+    public void testRejectsAfterWaiting() throws Exception {
+        final ImageDecodeAdmission admission = new ImageDecodeAdmission(10, 5, 50);
+
+        try (ImageDecodeAdmission.Permit first = admission.acquire(8 * MEGAPIXEL)) {
+            admission.acquire(4 * MEGAPIXEL);
+            fail("Expected the decode to be rejected");
+        } catch (ImageDecodeAdmission.RejectedException e) {
+            assertEquals(1, admission.getRejectedCount());
+            assertEquals(1, admission.getQueuedCount());
+            assertEquals(0, admission.getQueuedRequests());
+        }
+    }
+
+    @Test
+    public void testQueuedDecodeIsAdmittedOnRelease() throws Exception {
+        final ImageDecodeAdmission admission = new ImageDecodeAdmission(10, 5, 10000);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final ImageDecodeAdmission.Permit first = admission.acquire(8 * MEGAPIXEL);
+            final Future<ImageDecodeAdmission.Permit> second = executor.submit(() -> admission.acquire(4 * MEGAPIXEL));
+
+            while (admission.getQueuedRequests() == 0) {
+                Thread.sleep(5);
+            }
+            first.close();
+
+            assertNotNull(second.get());
+            assertEquals(2, admission.getAdmittedCount());
+            assertEquals(0, admission.getRejectedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testImageLargerThanBudgetIsAdmittedAlone() throws Exception {
+        final ImageDecodeAdmission admission = new ImageDecodeAdmission(10, 0, 0);
+
+        try (ImageDecodeAdmission.Permit permit = admission.acquire(40 * MEGAPIXEL)) {
+            assertEquals(admission.getBudgetMegapixels(), admission.getInFlightMegapixels());
+        }
+    }
+
+    @Test
+    public void testImageOfUnknownSizeIsAdmittedAlone() throws Exception {
+        final ImageDecodeAdmission admission = new ImageDecodeAdmission(10, 0, 0);
+
+        try (ImageDecodeAdmission.Permit permit = admission.acquire(0)) {
+            assertEquals(admission.getBudgetMegapixels(), admission.getInFlightMegapixels());
+            admission.acquire(1);
+            fail("Expected the decode to be rejected");
+        } catch (ImageDecodeAdmission.RejectedException e) {
+            assertEquals(1, admission.getRejectedCount());
+        }
+    }
+}
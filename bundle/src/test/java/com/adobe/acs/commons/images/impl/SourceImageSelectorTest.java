@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.Test;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamConstants;
+import com.day.cq.dam.api.Rendition;
+import com.day.image.Layer;
+
+public class SourceImageSelectorTest {
+
+    private static ValueMap params(Object... keyValues) {
+        final ValueMap params = new ValueMapDecorator(new LinkedHashMap<>());
+        for (int i = 0; i < keyValues.length; i += 2) {
+            params.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return params;
+    }
+
+    private static Rendition rendition(String name, String format, int width, int height) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out);
+        final byte[] data = out.toByteArray();
+
+        final Rendition rendition = mock(Rendition.class);
+        when(rendition.getName()).thenReturn(name);
+        when(rendition.getPath()).thenReturn("/content/dam/image.jpg/jcr:content/renditions/" + name);
+        when(rendition.getMimeType()).thenReturn("image/" + format);
+        when(rendition.getStream()).thenAnswer(invocation -> new ByteArrayInputStream(data));
+        return rendition;
+    }
+
+    private static Asset asset(String width, String height) {
+        final Asset asset = mock(Asset.class);
+        when(asset.getMetadataValue(DamConstants.TIFF_IMAGEWIDTH)).thenReturn(width);
+        when(asset.getMetadataValue(DamConstants.TIFF_IMAGELENGTH)).thenReturn(height);
+        return asset;
+    }
+
+    @Test
+    public void testGetRequiredSize_resize() {
+        final ValueMap transforms = params("greyscale", params("greyscale", "true"), "resize", params("width", 300));
+
+        assertEquals(new Dimension(300, 0), SourceImageSelector.getRequiredSize(transforms, new Dimension(1280, 960)));
+    }
+
+    @Test
+    public void testGetRequiredSize_boundedResize() {
+        final ValueMap transforms = params("bounded-resize", params("width", 400, "height", 400));
+
+        assertEquals(new Dimension(400, 300), SourceImageSelector.getRequiredSize(transforms, new Dimension(1280, 960)));
+        // Not upscaled, so the source is returned as is
+        assertNull(SourceImageSelector.getRequiredSize(transforms, new Dimension(320, 240)));
+    }
+
+    @Test
+    public void testGetRequiredSize_sizeDependentTransformFirst() {
+        final ValueMap transforms = params("crop", params("bounds", "0,0,100,100"), "resize", params("width", 50));
+
+        assertNull(SourceImageSelector.getRequiredSize(transforms, new Dimension(1280, 960)));
+    }
+
+    @Test
+    public void testSelect() throws Exception {
+        final Rendition original = rendition("original", "png", 1600, 1200);
+        final Rendition web = rendition("cq5dam.web.1280.1280.png", "png", 1280, 960);
+        final Rendition thumbnail = rendition("cq5dam.thumbnail.319.319.png", "png", 319, 239);
+        final Rendition small = rendition("cq5dam.thumbnail.140.100.png", "png", 133, 100);
+        final Rendition other = rendition("custom.png", "png", 400, 300);
+
+        final Rendition selected = SourceImageSelector.select(asset("1600", "1200"),
+                Arrays.asList(original, web, thumbnail, small, other), web, new Dimension(1280, 960),
+                new Dimension(300, 0));
+
+        assertSame(thumbnail, selected);
+        // Candidates are sized from their names, and the original is never a candidate
+        verify(original, never()).getStream();
+        verify(thumbnail, never()).getStream();
+        verify(small, never()).getStream();
+    }
+
+    @Test
+    public void testSelect_neverLargerThanCurrent() throws Exception {
+        final Rendition original = rendition("original", "png", 1600, 1200);
+        final Rendition web = rendition("cq5dam.web.1280.1280.png", "png", 1280, 960);
+
+        final Rendition selected = SourceImageSelector.select(asset("1600", "1200"), Arrays.asList(original, web),
+                web, new Dimension(1280, 960), new Dimension(1500, 0));
+
+        assertSame(web, selected);
+    }
+
+    @Test
+    public void testChoose() throws Exception {
+        final Rendition original = rendition("original", "png", 1600, 1200);
+        final Rendition web = rendition("cq5dam.web.1280.1280.png", "png", 1280, 960);
+        final Rendition thumbnail = rendition("cq5dam.thumbnail.319.319.png", "png", 319, 239);
+
+        final Asset asset = asset("1600", "1200");
+
+        final SourceImageSelector.Source source = SourceImageSelector.choose(asset,
+                Arrays.asList(original, web, thumbnail), original, params("resize", params("width", 300)));
+
+        assertSame(thumbnail, source.getRendition());
+        assertSame(original, source.getCurrent());
+        // The decode is charged for the rendition decoded, not the original
+        assertEquals(319L * 239, source.getDecodePixels());
+        assertEquals(new Dimension(300, 0), source.getRequired());
+
+        assertNull(SourceImageSelector.choose(asset, Arrays.asList(original, web, thumbnail), original,
+                params("greyscale", params("greyscale", "true"))));
+    }
+
+    @Test
+    public void testGetSize() throws Exception {
+        final Rendition original = rendition("original", "png", 1600, 1200);
+        final Rendition web = rendition("cq5dam.web.1280.1280.png", "png", 1280, 960);
+        final Rendition portrait = rendition("cq5dam.web.1280.1280.png", "png", 720, 1280);
+        final Rendition small = rendition("cq5dam.thumbnail.2000.2000.png", "png", 1600, 1200);
+
+        assertEquals(new Dimension(1600, 1200), SourceImageSelector.getSize(asset("1600", "1200"), original));
+        assertEquals(new Dimension(1280, 960), SourceImageSelector.getSize(asset("1600", "1200"), web));
+        assertEquals(new Dimension(720, 1280), SourceImageSelector.getSize(asset("1080", "1920"), portrait));
+        // Renditions are never upscaled
+        assertEquals(new Dimension(1600, 1200), SourceImageSelector.getSize(asset("1600", "1200"), small));
+        verify(web, never()).getStream();
+    }
+
+    @Test
+    public void testGetSize_withoutMetadata() throws Exception {
+        final Rendition web = rendition("cq5dam.web.1280.1280.png", "png", 1280, 960);
+        final Calendar lastModified = Calendar.getInstance();
+        when(web.getPath())
+                .thenReturn("/content/dam/without-metadata.jpg/jcr:content/renditions/cq5dam.web.1280.1280.png");
+        when(web.getProperties()).thenReturn(new ValueMapDecorator(
+                Collections.<String, Object>singletonMap(JcrConstants.JCR_LASTMODIFIED, lastModified)));
+
+        assertEquals(new Dimension(1280, 960), SourceImageSelector.getSize(asset(null, null), web));
+        assertEquals(new Dimension(1280, 960), SourceImageSelector.getSize(asset(null, null), web));
+        // The header is read once, then cached
+        verify(web, times(1)).getStream();
+    }
+
+    @Test
+    public void testDecodeSubsampled() throws Exception {
+        final Rendition original = rendition("original", "jpeg", 1600, 1200);
+
+        final Layer layer = SourceImageSelector.decodeSubsampled(original, new Dimension(1600, 1200),
+                new Dimension(200, 0));
+
+        assertNotNull(layer);
+        assertEquals(400, layer.getWidth());
+        assertEquals(300, layer.getHeight());
+        assertNull(SourceImageSelector.decodeSubsampled(original, new Dimension(1600, 1200),
+                new Dimension(600, 0)));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.Test;
+
+import com.adobe.acs.commons.images.ImageTransformer;
+import com.adobe.acs.commons.images.transformers.impl.MultiplyBlendImageTransformerImpl;
+import com.adobe.acs.commons.images.transformers.impl.RGBShiftImageTransformerImpl;
+import com.day.image.Layer;
+
+public class TransformPipelineTest {
+
+    private final Map<String, ImageTransformer> imageTransformers = new HashMap<>();
+
+    public TransformPipelineTest() {
+        imageTransformers.put("resize", new EmptyImageTransformer());
+        imageTransformers.put("greyscale", new EmptyImageTransformer());
+        imageTransformers.put("crop", new EmptyImageTransformer());
+        imageTransformers.put("rgb-shift", new RGBShiftImageTransformerImpl());
+        imageTransformers.put("multiply", new MultiplyBlendImageTransformerImpl());
+    }
+
+    private static ValueMap params(Object... keyValues) {
+        final ValueMap params = new ValueMapDecorator(new LinkedHashMap<>());
+        for (int i = 0; i < keyValues.length; i += 2) {
+            params.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return params;
+    }
+
+    private static Layer layer(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Random random = new Random(width * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, 0xFF000000 | random.nextInt(0x1000000));
+            }
+        }
+        return new Layer(image);
+    }
+
+    private static int[] pixels(Layer layer) {
+        final BufferedImage image = layer.getImage();
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    public void testDownscaleMovesAheadOfColourTransforms() {
+        final ValueMap transforms = params(
+                "greyscale", params("greyscale", true),
+                "resize", params("width", 100),
+                "crop", params("bounds", "0,0,50,50"));
+
+        final TransformPipeline pipeline = TransformPipeline.plan(layer(400, 300), transforms, imageTransformers, true);
+
+        assertEquals(Arrays.asList("resize", "greyscale", "crop"), pipeline.getStepNames());
+    }
+
+    @Test
+    public void testUpscaleIsNotMoved() {
+        final ValueMap transforms = params(
+                "greyscale", params("greyscale", true),
+                "resize", params("width", 800));
+
+        final TransformPipeline pipeline = TransformPipeline.plan(layer(400, 300), transforms, imageTransformers, true);
+
+        assertEquals(Arrays.asList("greyscale", "resize"), pipeline.getStepNames());
+    }
+
+    @Test
+    public void testNotOptimized() {
+        final ValueMap transforms = params(
+                "rgb-shift", params("red", 0.2),
+                "multiply", params("color", "FF8800", "alpha", 0.5),
+                "quality", params("quality", 90));
+
+        final TransformPipeline pipeline = TransformPipeline.plan(layer(4, 4), transforms, imageTransformers, false);
+
+        assertEquals(Arrays.asList("rgb-shift", "multiply"), pipeline.getStepNames());
+    }
+
+    @Test
+    public void testFusedPixelTransformsMatchSequential() {
+        final ValueMap transforms = params(
+                "rgb-shift", params("red", 0.2, "blue", -0.3),
+                "multiply", params("color", "FF8800", "alpha", 0.5));
+
+        final TransformPipeline fused = TransformPipeline.plan(layer(64, 48), transforms, imageTransformers, true);
+        assertEquals(Arrays.asList("rgb-shift+multiply"), fused.getStepNames());
+
+        final Layer expected = TransformPipeline.plan(layer(64, 48), transforms, imageTransformers, false)
+                .execute(layer(64, 48), null);
+        final Layer actual = fused.execute(layer(64, 48), null);
+
+        assertArrayEquals(pixels(expected), pixels(actual));
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Hashtable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.SlingConstants;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.Event;
+
+public class TransformedImageCacheTest {
+
+    @Rule
+    public TemporaryFolder spillFolder = new TemporaryFolder();
+
+    private final TransformedImageCache cache;
+
+    public TransformedImageCacheTest() throws Exception {
+        cache = new TransformedImageCache();
+    }
+
+    @After
+    public void tearDown() {
+        cache.deactivate();
+    }
+
+    private void activate(int maxSizeMb, int spillMaxSizeMb) throws Exception {
+        final Hashtable<String, Object> props = new Hashtable<>();
+        props.put("max.size.mb", maxSizeMb);
+        props.put("spill.max.size.mb", spillMaxSizeMb);
+        props.put("spill.directory", spillFolder.getRoot().getAbsolutePath());
+
+        final ComponentContext componentContext = mock(ComponentContext.class);
+        when(componentContext.getProperties()).thenReturn(props);
+        cache.activate(componentContext);
+    }
+
+    private static TransformedImageCacheKey key(String path, long lastModified) {
+        return key(path, lastModified, "cq5dam\\.web\\.(.*)");
+    }
+
+    private static TransformedImageCacheKey key(String path, long lastModified, String configuration) {
+        return new TransformedImageCacheKey(path, lastModified, path + "/file", lastModified,
+                "resize{width=100;}", "image/png", 0.82, false, configuration);
+    }
+
+    @Test
+    public void testConcurrentMissesRenderOnce() throws Exception {
+        activate(8, 0);
+        final AtomicInteger renders = new AtomicInteger();
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> cache.get(key("/content/image", 1L), () -> {
+                    renders.incrementAndGet();
+                    rendering.await(1, TimeUnit.SECONDS);
+                    return new byte[]{ 1, 2, 3 };
+                }));
+            }
+            rendering.countDown();
+            for (Future<?> future : futures) {
+                assertArrayEquals(new byte[]{ 1, 2, 3 }, (byte[]) future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, renders.get());
+        assertEquals(1, cache.getCacheEntriesCount());
+    }
+
+    @Test
+    public void testNotRenderableIsNotCached() throws Exception {
+        activate(8, 0);
+        assertNull(cache.get(key("/content/image", 1L), () -> null));
+        assertEquals(0, cache.getCacheEntriesCount());
+    }
+
+    @Test
+    public void testLastModifiedChangesKey() throws Exception {
+        activate(8, 0);
+        final AtomicInteger renders = new AtomicInteger();
+        cache.get(key("/content/image", 1L), () -> new byte[renders.incrementAndGet()]);
+        cache.get(key("/content/image", 1L), () -> new byte[renders.incrementAndGet()]);
+        cache.get(key("/content/image", 2L), () -> new byte[renders.incrementAndGet()]);
+
+        assertEquals(2, renders.get());
+        // the entry rendered from the older version is dropped
+        assertEquals(1, cache.getCacheEntriesCount());
+    }
+
+    @Test
+    public void testConfigurationChangesKey() throws Exception {
+        activate(8, 0);
+        final AtomicInteger renders = new AtomicInteger();
+        cache.get(key("/content/image", 1L, "cq5dam\\.web\\.(.*)"), () -> new byte[renders.incrementAndGet()]);
+        cache.get(key("/content/image", 1L, "original"), () -> new byte[renders.incrementAndGet()]);
+
+        assertEquals(2, renders.get());
+        assertEquals(2, cache.getCacheEntriesCount());
+    }
+
+    @Test(expected = OutOfMemoryError.class)
+    public void testErrorsAreRethrown() throws Exception {
+        activate(8, 0);
+        cache.get(key("/content/image", 1L), () -> {
+            throw new OutOfMemoryError("test");
+        });
+    }
+
+    @Test
+    public void testChangeEventInvalidates() throws Exception {
+        activate(8, 0);
+        cache.get(key("/content/dam/one.png", 1L), () -> new byte[1]);
+        cache.get(key("/content/dam/two.png", 1L), () -> new byte[1]);
+
+        final Hashtable<String, Object> eventProps = new Hashtable<>();
+        eventProps.put(SlingConstants.PROPERTY_PATH, "/content/dam/one.png/file/jcr:content");
+        cache.handleEvent(new Event(SlingConstants.TOPIC_RESOURCE_CHANGED, eventProps));
+
+        assertEquals(1, cache.getCacheEntriesCount());
+
+        // a sibling sharing the name prefix is not a descendant
+        eventProps.put(SlingConstants.PROPERTY_PATH, "/content/dam/two");
+        cache.handleEvent(new Event(SlingConstants.TOPIC_RESOURCE_REMOVED, eventProps));
+        assertEquals(1, cache.getCacheEntriesCount());
+
+        eventProps.put(SlingConstants.PROPERTY_PATH, "/content/dam");
+        cache.handleEvent(new Event(SlingConstants.TOPIC_RESOURCE_REMOVED, eventProps));
+        assertEquals(0, cache.getCacheEntriesCount());
+    }
+
+    @Test
+    public void testEvictedEntriesSpillToDisk() throws Exception {
+        // Entries larger than a cache segment's share of 1MB are evicted as soon as they are loaded
+        activate(1, 8);
+        final byte[] image = new byte[600 * 1024];
+        image[0] = 42;
+        final AtomicInteger renders = new AtomicInteger();
+
+        cache.get(key("/content/image", 1L), () -> {
+            renders.incrementAndGet();
+            return image;
+        });
+        assertEquals(1, cache.getSpilledEntriesCount());
+
+        final byte[] fromDisk = cache.get(key("/content/image", 1L), () -> {
+            renders.incrementAndGet();
+            return new byte[0];
+        });
+
+        assertArrayEquals(image, fromDisk);
+        assertEquals(1, renders.get());
+        assertEquals(1, cache.getSpillHitCount());
+    }
+
+    @Test
+    public void testSpilledEntriesDeletedOnInvalidation() throws Exception {
+        activate(1, 8);
+        cache.get(key("/content/image", 1L), () -> new byte[600 * 1024]);
+        assertEquals(1, cache.getSpilledEntriesCount());
+        assertEquals(1, spillFolder.getRoot().listFiles().length);
+
+        cache.invalidate("/content/image");
+
+        assertEquals(0, cache.getSpilledEntriesCount());
+        assertEquals(0, spillFolder.getRoot().listFiles().length);
+        assertEquals("0 bytes", cache.getSpilledSize());
+    }
+
+    @Test
+    public void testStaleSpilledEntriesDeleted() throws Exception {
+        activate(1, 8);
+        cache.get(key("/content/image", 1L), () -> new byte[600 * 1024]);
+        assertEquals(1, cache.getSpilledEntriesCount());
+
+        // the image changed without an event reaching the cache
+        cache.get(key("/content/image", 2L), () -> new byte[700 * 1024]);
+
+        assertEquals(1, cache.getSpilledEntriesCount());
+        assertEquals(1, spillFolder.getRoot().listFiles().length);
+        assertEquals("700 KB", cache.getSpilledSize());
+    }
+}
@@ -22,6 +22,7 @@ package com.adobe.acs.commons.mcp.impl.processes;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Map;
 import java.util.TreeMap;
@@ -145,6 +146,29 @@ public class RefreshFolderTumbnailsTest {
         assertTrue(ALL.shouldReplace(currentThumbnail));
     }
 
+    @Test
+    public void skipUnchangedFingerprint() throws Exception {
+        Resource folder = mockResource("/fingerprinted");
+        Resource asset = mockResource("/fingerprinted/asset.jpg");
+        when(asset.getResourceType()).thenReturn("dam:Asset");
+        mockResource("/fingerprinted/asset.jpg/jcr:content", modifiedDate(previousDate));
+        when(folder.getChildren()).thenReturn(Arrays.asList(asset));
+        mockResource("/fingerprinted/jcr:content/folderThumbnail", attachBinary(2048));
+
+        String fingerprint = RefreshFolderTumbnails.getFingerprint(folder);
+        Map<String, Object> content = new HashMap<>();
+        content.put(RefreshFolderTumbnails.PN_THUMBNAIL_FINGERPRINT, fingerprint);
+        Resource folderContent = mockResource("/fingerprinted/jcr:content");
+        when(folderContent.getValueMap()).thenReturn(new ValueMapDecorator(content));
+
+        assertTrue(RefreshFolderTumbnails.isFingerprintUnchanged(folder));
+        assertFalse(RefreshFolderTumbnails.isFingerprintUnchanged(currentThumbnail));
+
+        // Modifying the asset changes the fingerprint
+        mockResource("/fingerprinted/asset.jpg/jcr:content", modifiedDate(currentDate));
+        assertFalse(RefreshFolderTumbnails.isFingerprintUnchanged(folder));
+    }
+
     Map<String, Resource> resources = new TreeMap<String, Resource>();
 
     public Resource mockResource(String path, BiConsumer<String, Resource>... setupFunctions) {
@@ -0,0 +1,85 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.mcp.impl.processes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.adobe.acs.commons.util.visitors.TreeFilteringResourceVisitor;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import io.wcm.testing.mock.aem.junit.AemContext;
+
+public class StreamingPrunerTest {
+
+    @Rule
+    public AemContext ctx = new AemContext(ResourceResolverType.JCR_MOCK);
+
+    private StreamingPruner pruner;
+
+    @Before
+    public void setUp() {
+        TreeFilteringResourceVisitor folders = new TreeFilteringResourceVisitor();
+        pruner = new StreamingPruner(
+                res -> folders.isFolder(res) && !"jobs".equals(res.getName()),
+                (res, level) -> folders.isFolder(res) ? level >= 2 && !"jobs".equals(res.getName()) : !"rep:policy".equals(res.getName()),
+                1, 500, 3, 0);
+
+        ctx.create().resource("/var/eventing", "jcr:primaryType", "sling:Folder");
+        ctx.create().resource("/var/eventing/jobs", "jcr:primaryType", "sling:Folder");
+        ctx.create().resource("/var/eventing/jobs/keep", "jcr:primaryType", "nt:unstructured");
+        ctx.create().resource("/var/eventing/2021", "jcr:primaryType", "sling:Folder");
+        ctx.create().resource("/var/eventing/2021/rep:policy", "jcr:primaryType", "nt:unstructured");
+        ctx.create().resource("/var/eventing/2021/01", "jcr:primaryType", "sling:Folder");
+        ctx.create().resource("/var/eventing/2021/01/job1", "jcr:primaryType", "nt:unstructured");
+        ctx.create().resource("/var/eventing/2021/01/job2", "jcr:primaryType", "nt:unstructured");
+    }
+
+    @Test
+    public void pruneShardsBottomUp() throws Exception {
+        ResourceResolver rr = ctx.resourceResolver();
+        List<String> shards = new ArrayList<>();
+
+        pruner.prune(rr, "/var/eventing", 0, shards::add);
+        assertEquals(1, shards.size());
+        assertEquals("/var/eventing/2021", shards.get(0));
+
+        pruner.prune(rr, shards.get(0), 1, null);
+
+        assertNull(rr.getResource("/var/eventing/2021/01/job1"));
+        assertNull(rr.getResource("/var/eventing/2021/01"));
+        // Above the minimum purge depth, ignored, or not traversed
+        assertNotNull(rr.getResource("/var/eventing/2021"));
+        assertNotNull(rr.getResource("/var/eventing/2021/rep:policy"));
+        assertNotNull(rr.getResource("/var/eventing/jobs/keep"));
+
+        assertEquals(3, pruner.getDeletedCount());
+        assertEquals(0, pruner.getFailedCount());
+        // Fast commits double the batch size, so the folder and second job share a commit
+        assertEquals(2, pruner.getCommitCount());
+    }
+}
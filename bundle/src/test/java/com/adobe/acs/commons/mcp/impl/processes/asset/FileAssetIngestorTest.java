@@ -289,6 +289,45 @@ public class FileAssetIngestorTest {
                 containsInAnyOrder(tempDirectory.getAbsolutePath(), rootImage.getAbsolutePath()));
     }
 
+    @Test
+    public void testImportAssetsSkipsUnchanged() throws Exception {
+        ingestor.baseFolder = ingestor.getBaseFolder(ingestor.fileBasePath);
+        ingestor.existingAssetAction = AssetIngestor.AssetAction.replace;
+        ingestor.skipUnchanged = true;
+        final File rootImage = addFile(tempDirectory, "image.png", "/img/test.png");
+        createExistingAsset("/content/dam/image.png", "file:" + rootImage.length() + ":" + rootImage.lastModified());
+
+        ingestor.importAssets(actionManager);
+
+        assertEquals(0, ingestor.getCount(ingestor.importedAssets));
+        assertEquals(1, ingestor.getCount(ingestor.unchangedAssets));
+        verify(assetManager, times(0)).createAsset(anyString(), any(), anyString(), any(Boolean.class));
+    }
+
+    @Test
+    public void testImportAssetsReplacesChanged() throws Exception {
+        ingestor.baseFolder = ingestor.getBaseFolder(ingestor.fileBasePath);
+        ingestor.existingAssetAction = AssetIngestor.AssetAction.replace;
+        ingestor.skipUnchanged = true;
+        addFile(tempDirectory, "image.png", "/img/test.png");
+        createExistingAsset("/content/dam/image.png", "file:0:0");
+        when(assetManager.createAsset(anyString(), any(), anyString(), any(Boolean.class))).thenReturn(createdAsset);
+
+        ingestor.importAssets(actionManager);
+
+        assertEquals(1, ingestor.getCount(ingestor.importedAssets));
+        assertEquals(0, ingestor.getCount(ingestor.unchangedAssets));
+        verify(assetManager, times(1)).createAsset(eq("/content/dam/image.png"), any(), any(), eq(false));
+    }
+
+    private void createExistingAsset(String path, String fingerprint) throws PersistenceException {
+        context.create().resource(path, JcrConstants.JCR_PRIMARYTYPE, JcrConstants.NT_UNSTRUCTURED);
+        context.create().resource(path + "/" + JcrConstants.JCR_CONTENT,
+                JcrConstants.JCR_PRIMARYTYPE, JcrConstants.NT_UNSTRUCTURED,
+                AssetIngestor.PN_MIGRATED_FINGERPRINT, fingerprint);
+        context.resourceResolver().commit();
+    }
+
     private File mkdir(File dir, String name) {
         File newDir = new File(dir, name);
         newDir.mkdir();
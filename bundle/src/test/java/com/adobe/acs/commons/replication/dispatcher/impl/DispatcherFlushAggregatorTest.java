@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.replication.dispatcher.impl;
+
+import com.adobe.acs.commons.replication.dispatcher.DispatcherFlushFilter;
+import com.adobe.acs.commons.replication.dispatcher.DispatcherFlushFilter.FlushType;
+import com.adobe.acs.commons.replication.dispatcher.DispatcherFlusher;
+import com.day.cq.replication.ReplicationActionType;
+import com.day.cq.replication.ReplicationException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DispatcherFlushAggregatorTest {
+    private static final DispatcherFlushFilter HIERARCHICAL =
+            new DispatcherFlushRulesImpl.DispatcherFlushRulesFilter(FlushType.Hierarchical);
+    private static final DispatcherFlushFilter RESOURCE_ONLY =
+            new DispatcherFlushRulesImpl.DispatcherFlushRulesFilter(FlushType.ResourceOnly);
+
+    @Mock
+    private DispatcherFlusher dispatcherFlusher;
+
+    @Mock
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    private DispatcherFlushAggregator aggregator;
+
+    @Before
+    public void setUp() throws Exception {
+        // a window long enough to never elapse during the test
+        aggregator = new DispatcherFlushAggregator(resourceResolverFactory, dispatcherFlusher, 3_600_000L);
+    }
+
+    @After
+    public void tearDown() {
+        aggregator.close();
+    }
+
+    @Test
+    public void testDuplicatesAreSentOnce() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+
+        for (int i = 0; i < 100; i++) {
+            aggregator.add(ReplicationActionType.ACTIVATE, HIERARCHICAL, "/content/site");
+        }
+        assertEquals(1, aggregator.getPendingFlushes());
+
+        aggregator.sendPendingFlushes();
+
+        verify(dispatcherFlusher, times(1)).flush(same(resourceResolver), eq(ReplicationActionType.ACTIVATE),
+                eq(false), same(HIERARCHICAL), eq("/content/site"));
+        verifyNoMoreInteractions(dispatcherFlusher);
+        verify(resourceResolver, times(1)).close();
+
+        assertEquals(100, aggregator.getRequestedFlushes());
+        assertEquals(1, aggregator.getSentFlushes());
+        assertEquals(99, aggregator.getSavedFlushes());
+        assertEquals(1, aggregator.getBatches());
+        assertEquals(0, aggregator.getPendingFlushes());
+    }
+
+    @Test
+    public void testCoveredPathsAreDropped() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+
+        aggregator.add(ReplicationActionType.ACTIVATE, HIERARCHICAL, "/content/site/en");
+        aggregator.add(ReplicationActionType.ACTIVATE, HIERARCHICAL, "/content/site");
+        aggregator.add(ReplicationActionType.ACTIVATE, HIERARCHICAL, "/content/site-b");
+        aggregator.add(ReplicationActionType.ACTIVATE, RESOURCE_ONLY, "/content/site");
+        aggregator.add(ReplicationActionType.ACTIVATE, RESOURCE_ONLY, "/content/site/en/page");
+        aggregator.add(ReplicationActionType.ACTIVATE, RESOURCE_ONLY, "/content/other");
+        aggregator.add(ReplicationActionType.DELETE, RESOURCE_ONLY, "/content/site/en/page");
+
+        aggregator.sendPendingFlushes();
+
+        verify(dispatcherFlusher).flush(same(resourceResolver), eq(ReplicationActionType.ACTIVATE),
+                eq(false), same(HIERARCHICAL), eq("/content/site"), eq("/content/site-b"));
+        verify(dispatcherFlusher).flush(same(resourceResolver), eq(ReplicationActionType.ACTIVATE),
+                eq(false), same(RESOURCE_ONLY), eq("/content/other"));
+        verify(dispatcherFlusher).flush(same(resourceResolver), eq(ReplicationActionType.DELETE),
+                eq(false), same(RESOURCE_ONLY), eq("/content/site/en/page"));
+        verifyNoMoreInteractions(dispatcherFlusher);
+
+        assertEquals(7, aggregator.getRequestedFlushes());
+        assertEquals(4, aggregator.getSentFlushes());
+        assertEquals(3, aggregator.getSavedFlushes());
+        assertEquals(3, aggregator.getBatches());
+    }
+
+    @Test
+    public void testFailedFlushes() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+        when(dispatcherFlusher.flush(any(), any(), eq(false), any(DispatcherFlushFilter.class), any()))
+                .thenThrow(new ReplicationException("failed"));
+
+        aggregator.add(ReplicationActionType.ACTIVATE, HIERARCHICAL, "/content/site");
+        aggregator.add(ReplicationActionType.ACTIVATE, HIERARCHICAL, "/content/other");
+        aggregator.sendPendingFlushes();
+
+        assertEquals(2, aggregator.getFailedFlushes());
+        assertEquals(0, aggregator.getSentFlushes());
+        assertEquals(0, aggregator.getSavedFlushes());
+    }
+
+    @Test
+    public void testNothingPending() {
+        aggregator.sendPendingFlushes();
+
+        verifyNoInteractions(resourceResolverFactory, dispatcherFlusher);
+    }
+}
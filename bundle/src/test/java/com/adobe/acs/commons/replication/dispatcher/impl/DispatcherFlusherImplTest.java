@@ -25,7 +25,9 @@ import com.day.cq.replication.Agent;
 import com.day.cq.replication.AgentConfig;
 import com.day.cq.replication.AgentManager;
 import com.day.cq.replication.ReplicationActionType;
+import com.day.cq.replication.ReplicationException;
 import com.day.cq.replication.ReplicationOptions;
+import com.day.cq.replication.ReplicationResult;
 import com.day.cq.replication.Replicator;
 
 import org.apache.sling.api.resource.ResourceResolver;
@@ -33,22 +35,36 @@ import org.apache.sling.api.wrappers.ValueMapDecorator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.osgi.framework.BundleContext;
 
 import javax.jcr.Session;
 
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -64,6 +80,9 @@ public class DispatcherFlusherImplTest {
     @InjectMocks
     private DispatcherFlusher dispatcherFlusher = new DispatcherFlusherImpl();
 
+    @Mock
+    private ResourceResolver resourceResolver;
+
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
@@ -71,6 +90,7 @@ public class DispatcherFlusherImplTest {
 
     @After
     public void tearDown() throws Exception {
+        ((DispatcherFlusherImpl) dispatcherFlusher).deactivate();
         reset(replicator);
         reset(agentManager);
     }
@@ -168,4 +188,101 @@ public class DispatcherFlusherImplTest {
 
         assertEquals("Agent 1", actual[0].getId());
     }
+
+    @Test
+    public void testFlushAsync() throws Exception {
+        final ResourceResolver agentResourceResolver = activateWithAgents(1, "Agent 1", "Agent 2");
+        final Session session = mock(Session.class);
+        when(agentResourceResolver.adaptTo(Session.class)).thenReturn(session);
+
+        final Map<Agent, CompletableFuture<ReplicationResult>> futures = dispatcherFlusher.flushAsync(resourceResolver,
+                ReplicationActionType.ACTIVATE, true, agent -> true, "/content/foo");
+        // the resolvers are cloned on the calling thread, not inside the pool tasks
+        verify(resourceResolver, times(2)).clone(null);
+
+        assertEquals(2, futures.size());
+        for (final CompletableFuture<ReplicationResult> future : futures.values()) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        final ArgumentCaptor<ReplicationOptions> options = ArgumentCaptor.forClass(ReplicationOptions.class);
+        verify(replicator, times(2)).replicate(eq(session), eq(ReplicationActionType.ACTIVATE), eq("/content/foo"),
+                options.capture());
+        // each agent is flushed on its own
+        final Agent agent1 = futures.keySet().iterator().next();
+        assertEquals(1, options.getAllValues().stream().filter(o -> o.getFilter().isIncluded(agent1)).count());
+        verify(agentResourceResolver, times(2)).close();
+    }
+
+    @Test
+    public void testFlushAsync_circuitBreaker() throws Exception {
+        activateWithAgents(2, "Agent 1");
+        doThrow(new ReplicationException("unreachable")).when(replicator)
+                .replicate(any(), any(), any(), any(ReplicationOptions.class));
+
+        for (int i = 0; i < 2; i++) {
+            assertFailed(ReplicationException.class, dispatcherFlusher.flushAsync(resourceResolver,
+                    ReplicationActionType.ACTIVATE, true, agent -> true, "/content/foo"));
+        }
+        // the agent is skipped now
+        assertFailed(ReplicationException.class, dispatcherFlusher.flushAsync(resourceResolver,
+                ReplicationActionType.ACTIVATE, true, agent -> true, "/content/foo"));
+
+        verify(replicator, times(2)).replicate(any(), any(), any(), any(ReplicationOptions.class));
+    }
+
+    @Test
+    public void testFlushAsync_timeout() throws Exception {
+        final ResourceResolver agentResourceResolver = activateWithAgents(3, "Agent 1");
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        doAnswer(invocation -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            return null;
+        }).when(replicator).replicate(any(), any(), any(), any(ReplicationOptions.class));
+
+        assertFailed(TimeoutException.class, dispatcherFlusher.flushAsync(resourceResolver,
+                ReplicationActionType.ACTIVATE, true, agent -> true, "/content/foo"));
+
+        // the timed out flush is not interrupted and closes its resolver when it ends
+        release.countDown();
+        verify(agentResourceResolver, timeout(5000)).close();
+        assertFalse(interrupted.get());
+    }
+
+    private ResourceResolver activateWithAgents(final int circuitBreakerFailures, final String... agentIds)
+            throws Exception {
+        final Map<String, Agent> agents = new LinkedHashMap<>();
+        for (final String agentId : agentIds) {
+            final Agent agent = mock(Agent.class);
+            when(agent.getId()).thenReturn(agentId);
+            agents.put(agentId, agent);
+        }
+        when(agentManager.getAgents()).thenReturn(agents);
+
+        final ResourceResolver agentResourceResolver = mock(ResourceResolver.class);
+        when(resourceResolver.clone(null)).thenReturn(agentResourceResolver);
+
+        final Map<String, Object> config = new HashMap<>();
+        config.put(DispatcherFlusherImpl.PROP_AGENT_TIMEOUT, 100L);
+        config.put(DispatcherFlusherImpl.PROP_CIRCUIT_BREAKER_FAILURES, circuitBreakerFailures);
+        ((DispatcherFlusherImpl) dispatcherFlusher).activate(mock(BundleContext.class), config);
+
+        return agentResourceResolver;
+    }
+
+    private static void assertFailed(final Class<? extends Exception> expected,
+                                     final Map<Agent, CompletableFuture<ReplicationResult>> futures) throws Exception {
+        assertEquals(1, futures.size());
+        try {
+            futures.values().iterator().next().get(5, TimeUnit.SECONDS);
+            fail("Expected the flush to fail");
+        } catch (ExecutionException e) {
+            assertEquals(expected, e.getCause().getClass());
+        }
+    }
 }
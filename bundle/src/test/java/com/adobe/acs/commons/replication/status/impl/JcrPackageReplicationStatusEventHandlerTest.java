@@ -26,6 +26,8 @@ import com.day.cq.replication.ReplicationAction;
 import com.day.cq.replication.ReplicationActionType;
 import com.day.cq.replication.ReplicationEvent;
 import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.vault.fs.api.ProgressTrackerListener;
+import org.apache.jackrabbit.vault.fs.io.ImportOptions;
 import org.apache.jackrabbit.vault.packaging.JcrPackage;
 import org.apache.jackrabbit.vault.packaging.JcrPackageDefinition;
 import org.apache.jackrabbit.vault.packaging.PackageId;
@@ -55,7 +57,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -96,6 +100,8 @@ public class JcrPackageReplicationStatusEventHandlerTest {
     @Mock
     Resource contentResource3;
 
+    JcrPackage jcrPackage;
+
     @InjectMocks
     JcrPackageReplicationStatusEventHandler eventHandler= new JcrPackageReplicationStatusEventHandler();
 
@@ -110,7 +116,7 @@ public class JcrPackageReplicationStatusEventHandlerTest {
 
         final Resource packageResource = mock(Resource.class);
         final Node packageNode = mock(Node.class);
-        final JcrPackage jcrPackage = mock(JcrPackage.class);
+        jcrPackage = mock(JcrPackage.class);
         final VaultPackage vaultPackage = mock(VaultPackage.class);
         final Node jcrPackageNode = mock(Node.class);
         final JcrPackageDefinition jcrPackageDefinition = mock(JcrPackageDefinition.class);
@@ -180,6 +186,85 @@ public class JcrPackageReplicationStatusEventHandlerTest {
                 eq(contentResource1), eq(contentResource2), eq(contentResource3));
     }
 
+    @Test
+    public void testProcess_Chunked() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put("chunk.size", "2");
+
+        doAnswer(invocation -> {
+            final ProgressTrackerListener listener = ((ImportOptions) invocation.getArgument(0)).getListener();
+            listener.onMessage(ProgressTrackerListener.Mode.PATHS, "A", "/content/foo/jcr:content");
+            listener.onMessage(ProgressTrackerListener.Mode.PATHS, "A", "/content/bar");
+            listener.onMessage(ProgressTrackerListener.Mode.PATHS, "A", "/content/dam/folder/jcr:content");
+            return null;
+        }).when(jcrPackage).extract(any(ImportOptions.class));
+        when(jobManager.addJob(eq("acs-commons/replication/package/chunk"), anyMap())).thenReturn(mock(Job.class));
+
+        eventHandler.activate(config);
+        assertEquals(Job.JobResult.OK, eventHandler.process(job));
+
+        final ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+        verify(jobManager, times(2)).addJob(eq("acs-commons/replication/package/chunk"), captor.capture());
+        verify(packageHelper, never()).getContents(jcrPackage);
+        verifyNoInteractions(replicationStatusManager);
+
+        final Map<String, Object> first = captor.getAllValues().get(0);
+        assertEquals(0, first.get("chunk"));
+        assertEquals(calendar, first.get("replicatedAt"));
+        assertArrayEquals(new String[]{"/content/foo/jcr:content", "/content/bar"}, (String[]) first.get("contentPaths"));
+
+        final Map<String, Object> second = captor.getAllValues().get(1);
+        assertEquals(1, second.get("chunk"));
+        assertArrayEquals(new String[]{"/content/dam/folder/jcr:content"}, (String[]) second.get("contentPaths"));
+    }
+
+    @Test
+    public void testProcess_ChunkNotEnqueued() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put("chunk.size", "2");
+
+        doAnswer(invocation -> {
+            final ProgressTrackerListener listener = ((ImportOptions) invocation.getArgument(0)).getListener();
+            listener.onMessage(ProgressTrackerListener.Mode.PATHS, "A", "/content/foo/jcr:content");
+            listener.onMessage(ProgressTrackerListener.Mode.PATHS, "A", "/content/bar");
+            listener.onMessage(ProgressTrackerListener.Mode.PATHS, "A", "/content/dam/folder/jcr:content");
+            return null;
+        }).when(jcrPackage).extract(any(ImportOptions.class));
+        when(jobManager.addJob(eq("acs-commons/replication/package/chunk"), anyMap()))
+                .thenReturn(null)
+                .thenReturn(mock(Job.class));
+
+        eventHandler.activate(config);
+
+        // The package job fails so it is retried, after enqueuing the remaining chunks
+        assertEquals(Job.JobResult.FAILED, eventHandler.process(job));
+        verify(jobManager, times(2)).addJob(eq("acs-commons/replication/package/chunk"), anyMap());
+    }
+
+    @Test
+    public void testProcess_Chunk() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put("replicated-by.override", "Package Replication");
+        config.put("chunk.size", "2");
+
+        final Job chunkJob = mock(Job.class);
+        when(chunkJob.getTopic()).thenReturn("acs-commons/replication/package/chunk");
+        when(chunkJob.getProperty("contentPaths", String[].class)).thenReturn(new String[]{
+                "/content/foo/jcr:content", "/content/bar", "/content/dam/folder/jcr:content"});
+        when(chunkJob.getProperty("replicatedAt", Calendar.class)).thenReturn(calendar);
+
+        eventHandler.activate(config);
+        assertEquals(Job.JobResult.OK, eventHandler.process(chunkJob));
+
+        verify(replicationStatusManager, times(1)).setReplicationStatus(
+                eq(resourceResolver),
+                eq("Package Replication"),
+                eq(calendar),
+                eq(ReplicationStatusManager.Status.ACTIVATED),
+                eq(contentResource1), eq(contentResource2), eq(contentResource3));
+        verifyNoInteractions(packaging);
+    }
+
     @Test
     public void testHandleEvent() throws LoginException {
         final Map<String, Object> eventParams  = new HashMap<>();
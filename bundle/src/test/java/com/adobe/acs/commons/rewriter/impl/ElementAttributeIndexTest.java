@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.rewriter.impl;
+
+import org.junit.Test;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ElementAttributeIndexTest {
+
+    @Test
+    public void testBuild() {
+        final Map<String, Set<String>> index = ElementAttributeIndex.build(
+                Collections.singletonMap("img", new String[]{ "src", "srcset" }));
+
+        assertEquals(1, index.size());
+        assertTrue(index.get("img").contains("srcset"));
+        assertFalse(index.get("img").contains("alt"));
+        assertNull(index.get("a"));
+    }
+
+    @Test
+    public void testToPrefixPattern() {
+        final Pattern pattern = ElementAttributeIndex.toPrefixPattern(new String[]{ "/content/dam", "/etc.clientlibs/" });
+
+        assertTrue(pattern.matcher("/content/dam/image.png").lookingAt());
+        assertTrue(pattern.matcher("/etc.clientlibs/site.css").lookingAt());
+        assertFalse(pattern.matcher("/content/site/page.html").lookingAt());
+        assertFalse(pattern.matcher("https://host/content/dam/image.png").lookingAt());
+        assertNull(ElementAttributeIndex.toPrefixPattern(new String[0]));
+    }
+
+    @Test
+    public void testToPrefixPatternQuotesPrefixes() {
+        final Pattern pattern = ElementAttributeIndex.toPrefixPattern(new String[]{ "/a.b" });
+
+        assertTrue(pattern.matcher("/a.b/c").lookingAt());
+        assertFalse(pattern.matcher("/axb/c").lookingAt());
+    }
+
+    @Test
+    public void testSetValueCopiesOnce() {
+        final AttributesImpl attrs = new AttributesImpl();
+        attrs.addAttribute("", "src", "src", "CDATA", "/a.png");
+        attrs.addAttribute("", "srcset", "srcset", "CDATA", "/b.png");
+
+        final AttributesImpl copy = ElementAttributeIndex.setValue(attrs, null, 0, "//static/a.png");
+        assertSame(copy, ElementAttributeIndex.setValue(attrs, copy, 1, "//static/b.png"));
+
+        assertEquals("/a.png", attrs.getValue(0));
+        assertEquals("//static/a.png", copy.getValue(0));
+        assertEquals("//static/b.png", copy.getValue(1));
+    }
+}
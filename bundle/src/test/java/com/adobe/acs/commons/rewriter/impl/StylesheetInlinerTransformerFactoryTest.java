@@ -21,15 +21,19 @@
 package com.adobe.acs.commons.rewriter.impl;
 
 import static org.mockito.AdditionalMatchers.not;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 
+import org.apache.sling.api.SlingConstants;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.api.resource.Resource;
@@ -42,6 +46,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.osgi.service.event.Event;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -229,6 +234,38 @@ public final class StylesheetInlinerTransformerFactoryTest {
         verify(handler).startElement(isNull(), eq(LINK), isNull(), any(Attributes.class));
     }
 
+    @Test
+    public void testClientLibContentCached() throws IOException, SAXException {
+        startHeadSection();
+        startBodySection();
+        addStylesheetLink(CLIENTLIB_PATH);
+        inlineInNewTransformer(CLIENTLIB_PATH);
+
+        verify(htmlLibrary, times(1)).getInputStream();
+        verify(handler, times(2)).characters(aryEq(CSS_CONTENTS.toCharArray()), eq(0), eq(CSS_CONTENTS.length()));
+
+        when(htmlLibrary.getInputStream()).thenReturn(new java.io.ByteArrayInputStream(CSS_CONTENTS.getBytes()));
+        factory.handleEvent(new Event("com/adobe/granite/ui/librarymanager/INVALIDATED",
+                Collections.singletonMap(SlingConstants.PROPERTY_PATH, CLIENTLIB_PATH)));
+        inlineInNewTransformer(CLIENTLIB_PATH);
+
+        verify(htmlLibrary, times(2)).getInputStream();
+        verify(handler, times(3)).characters(aryEq(CSS_CONTENTS.toCharArray()), eq(0), eq(CSS_CONTENTS.length()));
+    }
+
+    @Test
+    public void testClientLibContentVersioned() throws IOException, SAXException {
+        startHeadSection();
+        startBodySection();
+        addStylesheetLink(CLIENTLIB_PATH);
+
+        when(htmlLibrary.getLastModified()).thenReturn(1L);
+        when(htmlLibrary.getInputStream()).thenReturn(new java.io.ByteArrayInputStream(CSS_CONTENTS.getBytes()));
+        inlineInNewTransformer(CLIENTLIB_PATH);
+
+        verify(htmlLibrary, times(2)).getInputStream();
+    }
+
     @Test
     public void testDefaultTransformer() throws IOException {
         when(requestPathInfo.getSelectors()).thenReturn(new String[] { });
@@ -241,6 +278,18 @@ public final class StylesheetInlinerTransformerFactoryTest {
         }
     }
 
+    private void inlineInNewTransformer(final String path) throws IOException, SAXException {
+        final Transformer other = factory.createTransformer();
+        other.init(processingContext, null);
+        other.setContentHandler(handler);
+        other.endElement(null, HEAD, null);
+        final AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("", "href", "", CDATA, path + ".css");
+        attributes.addAttribute("", "type", "", CDATA, "text/css");
+        attributes.addAttribute("", "rel", "", CDATA, "stylesheet");
+        other.startElement(null, LINK, null, attributes);
+    }
+
     private void endBodySection() throws SAXException {
         transformer.endElement(null, BODY, null);
         transformer.endElement(null, HTML, null);
@@ -36,7 +36,9 @@ import org.apache.sling.rewriter.ProcessingContext;
 import org.apache.sling.rewriter.Transformer;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
@@ -53,21 +55,28 @@ import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.only;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -100,6 +109,9 @@ public class VersionedClientlibsTransformerFactoryTest {
     @Mock
     private FilterChain filterChain;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private VersionedClientlibsTransformerFactory factory;
 
     private Filter filter;
@@ -221,6 +233,156 @@ public class VersionedClientlibsTransformerFactoryTest {
         assertEquals(PATH + "."+ FAKE_STREAM_CHECKSUM +".css", attributesCaptor.getValue().getValue(0));
     }
 
+    @Test
+    public void testCssClientLibraryWithPersistedMd5() throws Exception {
+        final File file = temporaryFolder.newFile();
+        final ClientLibraryMd5Store store = new ClientLibraryMd5Store(file, "");
+        store.put(new VersionedClientLibraryMd5CacheKey(PATH, LibraryType.CSS), 42L, false, "0123456789abcdef");
+        store.save();
+
+        when(bundleContext.getDataFile(anyString())).thenReturn(file);
+        when(htmlLibrary.getType()).thenReturn(LibraryType.CSS);
+        when(htmlLibrary.getLastModified()).thenReturn(42L);
+        when(htmlLibraryManager.getLibrary(eq(LibraryType.CSS), eq(PATH))).thenReturn(htmlLibrary);
+
+        final AttributesImpl in = new AttributesImpl();
+        in.addAttribute("", "href", "", "CDATA", PATH + ".css");
+        in.addAttribute("", "type", "", "CDATA", "text/css");
+        in.addAttribute("", "rel", "", "CDATA", "stylesheet");
+
+        transformer.startElement(null, "link", null, in);
+
+        ArgumentCaptor<Attributes> attributesCaptor = ArgumentCaptor.forClass(Attributes.class);
+
+        verify(handler, only()).startElement(isNull(), eq("link"), isNull(),
+                attributesCaptor.capture());
+
+        assertEquals(PATH + ".0123456789abcdef.css", attributesCaptor.getValue().getValue(0));
+        verify(htmlLibrary, never()).getInputStream(anyBoolean());
+    }
+
+    @Test
+    public void testMd5Store() throws Exception {
+        final File file = temporaryFolder.newFile();
+        final VersionedClientLibraryMd5CacheKey key = new VersionedClientLibraryMd5CacheKey(PATH, LibraryType.JS);
+        ClientLibraryMd5Store store = new ClientLibraryMd5Store(file, "");
+        store.put(key, 42L, true, INPUTSTREAM_MD5);
+        store.save();
+
+        store = new ClientLibraryMd5Store(file, "");
+        assertEquals(1, store.size());
+        assertEquals(INPUTSTREAM_MD5, store.get(key, 42L, true));
+        // outdated or differently minified libraries need to be recalculated
+        assertNull(store.get(key, 43L, true));
+        assertNull(store.get(key, 42L, false));
+        assertNull(store.get(new VersionedClientLibraryMd5CacheKey(PATH, LibraryType.CSS), 42L, true));
+    }
+
+    @Test
+    public void testMd5StoreDiscardedWhenConfigurationChanges() throws Exception {
+        final File file = temporaryFolder.newFile();
+        final VersionedClientLibraryMd5CacheKey key = new VersionedClientLibraryMd5CacheKey(PATH, LibraryType.JS);
+        ClientLibraryMd5Store store = new ClientLibraryMd5Store(file, "before");
+        store.put(key, 42L, true, INPUTSTREAM_MD5);
+        store.save();
+
+        assertEquals(INPUTSTREAM_MD5, new ClientLibraryMd5Store(file, "before").get(key, 42L, true));
+
+        store = new ClientLibraryMd5Store(file, "after");
+        assertEquals(0, store.size());
+        assertNull(store.get(key, 42L, true));
+    }
+
+    @Test
+    public void testConfigurationFingerprint() throws Exception {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("htmllibmanager.minify", true);
+        properties.put("htmllibmanager.processor.js", new String[] { "min:gcc" });
+        properties.put("service.id", 1L);
+        final String fingerprint = VersionedClientlibsTransformerFactory.getConfigurationFingerprint(properties);
+
+        // the properties assigned by the framework differ between restarts
+        properties.put("service.id", 2L);
+        assertEquals(fingerprint, VersionedClientlibsTransformerFactory.getConfigurationFingerprint(properties));
+
+        properties.put("htmllibmanager.processor.js", new String[] { "min:yui" });
+        assertNotEquals(fingerprint, VersionedClientlibsTransformerFactory.getConfigurationFingerprint(properties));
+    }
+
+    @Test
+    public void testHtmlLibraryManagerConfigurationChangeDropsMd5s() throws Exception {
+        when(htmlLibraryManager.getLibrary(eq(LibraryType.CSS), eq(PATH))).thenReturn(htmlLibrary);
+        factory.bindHtmlLibraryManager(htmlLibraryManager, Collections.<String, Object>singletonMap("htmllibmanager.minify", false));
+
+        final AttributesImpl in = new AttributesImpl();
+        in.addAttribute("", "href", "", "CDATA", PATH + ".css");
+        in.addAttribute("", "type", "", "CDATA", "text/css");
+        in.addAttribute("", "rel", "", "CDATA", "stylesheet");
+
+        transformer.startElement(null, "link", null, in);
+        assertEquals(1, factory.getCache().size());
+
+        factory.updatedHtmlLibraryManager(htmlLibraryManager, Collections.<String, Object>singletonMap("htmllibmanager.minify", false));
+        assertEquals(1, factory.getCache().size());
+
+        factory.updatedHtmlLibraryManager(htmlLibraryManager, Collections.<String, Object>singletonMap("htmllibmanager.minify", true));
+        assertEquals(0, factory.getCache().size());
+    }
+
+    @Test
+    public void testInvalidatedMd5Precomputed() throws Exception {
+        when(htmlLibrary.getType()).thenReturn(LibraryType.CSS);
+        when(htmlLibrary.getInputStream(false)).thenAnswer(invocation -> new ByteArrayInputStream("I love strings".getBytes()));
+        when(htmlLibraryManager.getLibrary(eq(LibraryType.CSS), eq(PATH))).thenReturn(htmlLibrary);
+
+        final AttributesImpl in = new AttributesImpl();
+        in.addAttribute("", "href", "", "CDATA", PATH + ".css");
+        in.addAttribute("", "type", "", "CDATA", "text/css");
+        in.addAttribute("", "rel", "", "CDATA", "stylesheet");
+
+        transformer.startElement(null, "link", null, in);
+        // the pool is only started once there is something to precompute
+        assertNull(PrivateAccessor.getField(factory, "md5Precomputer"));
+
+        // a file within the library changed
+        factory.handleEvent(new Event("com/adobe/granite/ui/librarymanager/INVALIDATED",
+                Collections.singletonMap(SlingConstants.PROPERTY_PATH, PATH + "/css/style.css")));
+
+        verify(htmlLibrary, timeout(5000).times(2)).getInputStream(false);
+        final VersionedClientLibraryMd5CacheKey key = new VersionedClientLibraryMd5CacheKey(PATH, LibraryType.CSS);
+        for (int i = 0; i < 50 && factory.getCache().getIfPresent(key) == null; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(FAKE_STREAM_CHECKSUM, factory.getCache().getIfPresent(key));
+
+        factory.deactivate();
+        assertNull(PrivateAccessor.getField(factory, "md5Precomputer"));
+    }
+
+    @Test
+    public void testInvalidatedMd5NotPrecomputedWithoutThreads() throws Exception {
+        final Hashtable<String, Object> props = new Hashtable<>();
+        props.put("md5cache.precompute.threads", 0);
+        when(componentContext.getProperties()).thenReturn(props);
+        factory.activate(componentContext);
+
+        when(htmlLibrary.getType()).thenReturn(LibraryType.CSS);
+        when(htmlLibraryManager.getLibrary(eq(LibraryType.CSS), eq(PATH))).thenReturn(htmlLibrary);
+
+        final AttributesImpl in = new AttributesImpl();
+        in.addAttribute("", "href", "", "CDATA", PATH + ".css");
+        in.addAttribute("", "type", "", "CDATA", "text/css");
+        in.addAttribute("", "rel", "", "CDATA", "stylesheet");
+
+        transformer.startElement(null, "link", null, in);
+        factory.handleEvent(new Event("com/adobe/granite/ui/librarymanager/INVALIDATED",
+                Collections.singletonMap(SlingConstants.PROPERTY_PATH, PATH)));
+
+        assertEquals(0, factory.getCache().size());
+        assertNull(PrivateAccessor.getField(factory, "md5Precomputer"));
+        verify(htmlLibrary, times(1)).getInputStream(false);
+    }
+
     @Test
     public void testCssClientLibraryWithMd5Enforce() throws Exception {
         PrivateAccessor.setField(factory, "enforceMd5", true);
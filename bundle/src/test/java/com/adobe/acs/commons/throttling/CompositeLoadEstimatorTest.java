@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+
+import org.junit.Test;
+
+public class CompositeLoadEstimatorTest {
+
+    private static final long NOW = 1_000_000_000L;
+
+    private final ThrottlingConfiguration tc = new ThrottlingConfiguration(100, 50);
+
+    @Test
+    public void inFlightLoad() {
+        RequestLoadTracker tracker = new RequestLoadTracker();
+        InFlightLoadEstimator estimator = new InFlightLoadEstimator(tc, tracker, 20);
+        for (int i = 0; i < 15; i++) {
+            tracker.requestStarted();
+        }
+        assertEquals(75, estimator.getLoadPercentage());
+        assertEquals(50, estimator.getMaxRequestPerMinute());
+    }
+
+    @Test
+    public void latencyLoad() {
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(NOW);
+        RequestLoadTracker tracker = new RequestLoadTracker();
+        LatencyLoadEstimator estimator = new LatencyLoadEstimator(tc, tracker, 1000, clock);
+        assertEquals(0, estimator.getLoadPercentage());
+        assertEquals(100, estimator.getMaxRequestPerMinute());
+
+        for (int i = 0; i < 50; i++) {
+            tracker.requestStarted();
+            tracker.requestFinished(NOW, 400);
+        }
+        assertEquals(39, estimator.getLoadPercentage());
+
+        for (int i = 0; i < 50; i++) {
+            tracker.requestStarted();
+            tracker.requestFinished(NOW, 100_000);
+        }
+        assertEquals(100, estimator.getLoadPercentage());
+        assertEquals(0, estimator.getMaxRequestPerMinute());
+    }
+
+    @Test
+    public void latencyLoadAtThresholdBoundary() {
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(NOW);
+        RequestLoadTracker tracker = new RequestLoadTracker();
+        LatencyLoadEstimator estimator = new LatencyLoadEstimator(tc, tracker, 5000, clock);
+
+        // just over half the threshold throttles a little, not completely
+        for (int i = 0; i < 100; i++) {
+            tracker.requestStarted();
+            tracker.requestFinished(NOW, 2501);
+        }
+        assertEquals(54, estimator.getLoadPercentage());
+        assertEquals(92, estimator.getMaxRequestPerMinute());
+
+        tracker = new RequestLoadTracker();
+        estimator = new LatencyLoadEstimator(tc, tracker, 5000, clock);
+        for (int i = 0; i < 100; i++) {
+            tracker.requestStarted();
+            tracker.requestFinished(NOW, 5000);
+        }
+        assertEquals(99, estimator.getLoadPercentage());
+        assertEquals(2, estimator.getMaxRequestPerMinute());
+    }
+
+    @Test
+    public void threadPoolLookupNotRepeatedWithoutMBean() throws Exception {
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(NOW);
+        ThreadPoolLoadEstimator estimator = new ThreadPoolLoadEstimator(tc, "org.eclipse.jetty.util.thread:type=queuedthreadpool,*",
+                "busyThreads", "queueSize", "maxThreads");
+        estimator.mbs = mock(MBeanServer.class);
+        estimator.clock = clock;
+        when(estimator.mbs.queryNames(estimator.pattern, null)).thenReturn(Collections.emptySet());
+
+        assertEquals(0, estimator.getLoadPercentage());
+        assertEquals(0, estimator.getLoadPercentage());
+        verify(estimator.mbs, times(1)).queryNames(estimator.pattern, null);
+
+        when(clock.millis()).thenReturn(NOW + ThreadPoolLoadEstimator.LOOKUP_RETRY_MS);
+        assertEquals(0, estimator.getLoadPercentage());
+        verify(estimator.mbs, times(2)).queryNames(estimator.pattern, null);
+    }
+
+    @Test
+    public void highestWeightedLoadWins() {
+        Map<AbstractLoadEstimator, Double> estimators = new LinkedHashMap<>();
+        estimators.put(new FixedLoadEstimator(tc, 60), 1.0);
+        estimators.put(new FixedLoadEstimator(tc, 80), 0.5);
+        CompositeLoadEstimator composite = new CompositeLoadEstimator(tc, estimators);
+        assertEquals(60, composite.getLoadPercentage());
+        assertEquals(80, composite.getMaxRequestPerMinute());
+
+        estimators.put(new FixedLoadEstimator(tc, 90), 2.0);
+        assertEquals(100, new CompositeLoadEstimator(tc, estimators).getLoadPercentage());
+    }
+
+    private static final class FixedLoadEstimator extends AbstractLoadEstimator {
+        private final int load;
+
+        private FixedLoadEstimator(ThrottlingConfiguration tc, int load) {
+            super(tc);
+            this.load = load;
+        }
+
+        @Override
+        public int getLoadPercentage() {
+            return load;
+        }
+    }
+}
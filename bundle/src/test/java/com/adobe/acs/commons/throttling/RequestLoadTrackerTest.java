@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RequestLoadTrackerTest {
+
+    private static final long NOW = 1_000_000_000L;
+
+    @Test
+    public void countsRequestsInFlight() {
+        RequestLoadTracker tracker = new RequestLoadTracker();
+        tracker.requestStarted();
+        tracker.requestStarted();
+        assertEquals(2, tracker.getInFlight());
+        tracker.requestFinished(NOW, 10);
+        assertEquals(1, tracker.getInFlight());
+    }
+
+    @Test
+    public void latencyPercentile() {
+        RequestLoadTracker tracker = new RequestLoadTracker();
+        record(tracker, NOW, 90, 20);
+        record(tracker, NOW, 10, 3000);
+
+        // too few requests
+        assertEquals(0, new RequestLoadTracker().getLatencyPercentile(NOW, 95));
+
+        assertEquals(25, tracker.getLatencyPercentile(NOW, 90));
+        // interpolated within the 2750 - 3000 bucket
+        assertEquals(2875, tracker.getLatencyPercentile(NOW, 95));
+    }
+
+    @Test
+    public void latencyPercentileInterpolated() {
+        RequestLoadTracker tracker = new RequestLoadTracker();
+        record(tracker, NOW, 100, 2501);
+        // not the upper bound of a coarse bucket
+        assertEquals(2737, tracker.getLatencyPercentile(NOW, 95));
+
+        tracker = new RequestLoadTracker();
+        record(tracker, NOW, 100, 100_000);
+        assertEquals(Long.MAX_VALUE, tracker.getLatencyPercentile(NOW, 95));
+    }
+
+    @Test
+    public void latencyWindowRolls() {
+        RequestLoadTracker tracker = new RequestLoadTracker();
+        record(tracker, NOW, 50, 3000);
+        record(tracker, NOW + 30_000, 50, 20);
+        assertEquals(2975, tracker.getLatencyPercentile(NOW + 30_000, 95));
+
+        // the slow requests are more than a minute old
+        assertEquals(24, tracker.getLatencyPercentile(NOW + 61_000, 95));
+
+        // and their window is reused
+        record(tracker, NOW + 120_000, 50, 1);
+        assertEquals(4, tracker.getLatencyPercentile(NOW + 120_000, 95));
+    }
+
+    private static void record(RequestLoadTracker tracker, long now, int count, long latency) {
+        for (int i = 0; i < count; i++) {
+            tracker.requestStarted();
+            tracker.requestFinished(now, latency);
+        }
+    }
+}
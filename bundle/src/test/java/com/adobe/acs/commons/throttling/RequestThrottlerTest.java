@@ -19,7 +19,10 @@
  */
 package com.adobe.acs.commons.throttling;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -81,6 +84,54 @@ public class RequestThrottlerTest {
         assertFalse(rt.needsFiltering("/foo/content"));
     }
 
+    @Test
+    public void bucketKeys() {
+        when(config.filtered_paths()).thenReturn(new String[] { "/content.*" });
+        when(config.bucket_header()).thenReturn("X-Forwarded-For");
+        when(config.bucket_path_depth()).thenReturn(1);
+        rt.activate(config);
+        context.request().setResource(context.resourceResolver().getResource("/content/foobar"));
+        SlingHttpServletRequest request = spy(context.request());
+        doReturn("10.0.0.1").when(request).getRemoteAddr();
+        doReturn("192.168.0.1, 10.0.0.2").when(request).getHeader("X-Forwarded-For");
+
+        assertEquals(RequestThrottler.BUCKET_GLOBAL, rt.getBucket(request));
+        when(config.bucket_key()).thenReturn(RequestThrottler.BUCKET_CLIENT_IP);
+        assertEquals("10.0.0.1", rt.getBucket(request));
+        when(config.bucket_key()).thenReturn(RequestThrottler.BUCKET_HEADER);
+        // the client can send the header itself, so the value added by the trusted proxy is used
+        when(config.bucket_header_trusted_proxies()).thenReturn(1);
+        assertEquals("10.0.0.2", rt.getBucket(request));
+        when(config.bucket_header_trusted_proxies()).thenReturn(2);
+        assertEquals("192.168.0.1", rt.getBucket(request));
+        when(config.bucket_key()).thenReturn(RequestThrottler.BUCKET_PATH_PREFIX);
+        assertEquals("/content", rt.getBucket(request));
+
+        assertEquals("/content/foo", RequestThrottler.getPathPrefix("/content/foo/bar", 2));
+        assertEquals("/content", RequestThrottler.getPathPrefix("/content", 3));
+
+        assertEquals("10.0.0.3", RequestThrottler.getForwardedValue("spoofed, 10.0.0.3", 1));
+        assertEquals("spoofed", RequestThrottler.getForwardedValue("spoofed, 10.0.0.3", 5));
+        assertNull(RequestThrottler.getForwardedValue(null, 1));
+    }
+
+    @Test
+    public void loadEstimators() {
+        when(config.filtered_paths()).thenReturn(new String[] { "/content.*" });
+        rt.activate(config);
+        assertTrue(rt.loadEstimator instanceof CpuLoadEstimator);
+        assertNull(rt.tracker);
+
+        when(config.load_estimators()).thenReturn(new String[] { "in-flight" });
+        rt.activate(config);
+        assertTrue(rt.loadEstimator instanceof InFlightLoadEstimator);
+        assertNotNull(rt.tracker);
+
+        when(config.load_estimators()).thenReturn(new String[] { "in-flight=0.5", "latency", "unknown" });
+        rt.activate(config);
+        assertTrue(rt.loadEstimator instanceof CompositeLoadEstimator);
+    }
+
     @Test
     public void noMatchingPath() throws Exception {
         when(config.filtered_paths()).thenReturn(new String[] { "/content" });
@@ -105,6 +156,8 @@ public class RequestThrottlerTest {
         when(config.max_requests_per_minute()).thenReturn(10);
         rt.activate(config);
         rt.clock = c;
+        // the CPU load is real, do not actually wait if requests get throttled
+        doNothing().when(rt).delay(anyLong());
         /*
          * The implementation of context.response() is current incomplete and throws an
          * UnsupportedOperationException when calling getRequestProgressTracker
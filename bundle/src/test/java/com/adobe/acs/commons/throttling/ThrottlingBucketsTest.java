@@ -0,0 +1,151 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.throttling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThrottlingBucketsTest {
+
+    private static final long START = 1_000_000L;
+
+    Clock clock;
+
+    AtomicInteger limit = new AtomicInteger(3);
+
+    ThrottlingBuckets buckets;
+
+    @Before
+    public void setup() throws Exception {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(START);
+        buckets = new ThrottlingBuckets(clock, limit::get, 5, 100, 100, 0);
+    }
+
+    @Test
+    public void throttlesEachBucketSeparately() throws Exception {
+        limit.set(4);
+        buckets = new ThrottlingBuckets(clock, limit::get, 5, 100, 50, 0);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling("crawler").getState());
+        }
+        ThrottlingDecision decision = buckets.evaluateThrottling("crawler");
+        assertEquals(ThrottlingDecision.State.THROTTLE, decision.getState());
+        assertEquals(ThrottlingBucket.ONE_MINUTE, decision.getDelay());
+
+        // other clients are not affected
+        assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling("user").getState());
+
+        // the window slides
+        when(clock.millis()).thenReturn(START + ThrottlingBucket.ONE_MINUTE + 1);
+        assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling("crawler").getState());
+    }
+
+    @Test
+    public void bucketsShareTheGlobalLimit() throws Exception {
+        limit.set(4);
+        buckets = new ThrottlingBuckets(clock, limit::get, 5, 100, 50, 0);
+        for (String client : new String[]{"a", "a", "b", "b"}) {
+            assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling(client).getState());
+        }
+        // c is within its share, but all buckets together used up the limit
+        assertEquals(ThrottlingDecision.State.THROTTLE, buckets.evaluateThrottling("c").getState());
+
+        // throttled requests of a bucket do not use up the global limit
+        when(clock.millis()).thenReturn(START + ThrottlingBucket.ONE_MINUTE + 1);
+        assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling("a").getState());
+        assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling("a").getState());
+        assertEquals(ThrottlingDecision.State.THROTTLE, buckets.evaluateThrottling("a").getState());
+        assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling("c").getState());
+        assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling("c").getState());
+
+        CompositeData global = buckets.getBuckets().get(new Object[]{RequestThrottler.BUCKET_GLOBAL});
+        assertEquals(8L, global.get("admitted"));
+        assertEquals(1L, global.get("throttled"));
+    }
+
+    @Test
+    public void followsTheLoadEstimation() {
+        limit.set(1);
+        assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling("a").getState());
+        assertEquals(ThrottlingDecision.State.THROTTLE, buckets.evaluateThrottling("a").getState());
+
+        // more than the configured maximum is never permitted
+        limit.set(100);
+        assertEquals(5, buckets.getCurrentLimit());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(ThrottlingDecision.State.NOTHROTTLE, buckets.evaluateThrottling("a").getState());
+        }
+        assertEquals(ThrottlingDecision.State.THROTTLE, buckets.evaluateThrottling("a").getState());
+
+        limit.set(0);
+        assertEquals(ThrottlingDecision.State.THROTTLE, buckets.evaluateThrottling("b").getState());
+    }
+
+    @Test
+    public void exportsBucketStatistics() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            buckets.evaluateThrottling("crawler");
+        }
+        buckets.recordRejected("crawler");
+
+        TabularData data = buckets.getBuckets();
+        // the crawler's bucket and the global one
+        assertEquals(2, data.size());
+        CompositeData crawler = data.get(new Object[]{"crawler"});
+        assertEquals(3L, crawler.get("admitted"));
+        assertEquals(2L, crawler.get("throttled"));
+        assertEquals(1L, crawler.get("rejected"));
+        assertEquals(3, crawler.get("recentRequests"));
+
+        buckets.resetBuckets();
+        assertEquals(0, buckets.getBuckets().size());
+    }
+
+    @Test
+    public void waitListRejectsLongestWaitWhenFull() throws Exception {
+        ThrottlingWaitList waitList = new ThrottlingWaitList(1);
+        CompletableFuture<Boolean> longWait = CompletableFuture.supplyAsync(() -> waitList.await(START, 30_000));
+        while (waitList.size() == 0) {
+            Thread.sleep(5);
+        }
+
+        // a request with a later deadline is rejected right away
+        assertFalse(waitList.await(START, 60_000));
+        // one with an earlier deadline takes the place of the long waiting one
+        assertTrue(waitList.await(START, 10));
+        assertFalse(longWait.get(5, TimeUnit.SECONDS));
+        assertEquals(0, waitList.size());
+    }
+}
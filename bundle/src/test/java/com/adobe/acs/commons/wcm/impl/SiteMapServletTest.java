@@ -21,7 +21,11 @@ package com.adobe.acs.commons.wcm.impl;
 
 import com.day.cq.commons.Externalizer;
 import io.wcm.testing.mock.aem.junit.AemContext;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
 import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.servlet.MockRequestPathInfo;
 import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
 import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
 import org.junit.Before;
@@ -128,4 +132,128 @@ public class SiteMapServletTest {
         assertThat(output, hasXPath("(//ns:loc)[3]/text()", equalTo("http://test.com/content/geometrixx/en/about")).withNamespaceContext(NS));
     }
 
+    @Test
+    public void testShardedSiteMap() throws Exception {
+        servlet.activate(new HashMap<String, Object>() {{
+                put("externalizer.domain", "external");
+                put("shard.size", 2);
+            }
+        });
+
+        ((MockRequestPathInfo) request.getRequestPathInfo()).setSelectorString("sitemap");
+        servlet.doGet(request, response);
+
+        String output = response.getOutputAsString();
+
+        assertThat(output, hasXPath("count(//ns:sitemap)", equalTo("2")).withNamespaceContext(NS));
+        assertThat(output, hasXPath("(//ns:sitemap/ns:loc)[2]/text()", equalTo("http://test.com/content/geometrixx/en.sitemap.2.xml")).withNamespaceContext(NS));
+
+        ((MockRequestPathInfo) request.getRequestPathInfo()).setSelectorString("sitemap.2");
+        MockSlingHttpServletResponse shardResponse = new MockSlingHttpServletResponse();
+        servlet.doGet(request, shardResponse);
+
+        String shard = shardResponse.getOutputAsString();
+
+        assertThat(shard, hasXPath("count(//ns:loc)", equalTo("1")).withNamespaceContext(NS));
+        assertThat(shard, hasXPath("(//ns:loc)[1]/text()", equalTo("http://test.com/content/geometrixx/en/about.html")).withNamespaceContext(NS));
+
+        ((MockRequestPathInfo) request.getRequestPathInfo()).setSelectorString("sitemap.3");
+        MockSlingHttpServletResponse missingResponse = new MockSlingHttpServletResponse();
+        servlet.doGet(request, missingResponse);
+
+        assertEquals(404, missingResponse.getStatus());
+    }
+
+    @Test
+    public void testCachedSiteMap() throws Exception {
+        servlet.activate(new HashMap<String, Object>() {{
+                put("externalizer.domain", "external");
+                put("cache.enabled", true);
+            }
+        });
+
+        servlet.doGet(request, response);
+        assertThat(response.getOutputAsString(), hasXPath("count(//ns:loc)", equalTo("3")).withNamespaceContext(NS));
+
+        context.create().page("/content/geometrixx/en/news");
+
+        MockSlingHttpServletResponse cachedResponse = new MockSlingHttpServletResponse();
+        servlet.doGet(request, cachedResponse);
+        assertThat(cachedResponse.getOutputAsString(), hasXPath("count(//ns:loc)", equalTo("3")).withNamespaceContext(NS));
+
+        servlet.onChange(Collections.singletonList(new ResourceChange(ChangeType.ADDED, "/content/geometrixx/en/news", false, null, null, null)));
+
+        MockSlingHttpServletResponse changedResponse = new MockSlingHttpServletResponse();
+        servlet.doGet(request, changedResponse);
+        assertThat(changedResponse.getOutputAsString(), hasXPath("count(//ns:loc)", equalTo("4")).withNamespaceContext(NS));
+
+        servlet.deactivate();
+    }
+
+    @Test
+    public void testCachedSiteMapCompressed() throws Exception {
+        servlet.activate(new HashMap<String, Object>() {{
+                put("externalizer.domain", "external");
+                put("cache.enabled", true);
+            }
+        });
+
+        request.setHeader("Accept-Encoding", "gzip, deflate");
+        servlet.doGet(request, response);
+
+        // the dispatcher caches the sitemap URL for all clients, so it is never sent compressed
+        assertNull(response.getHeader("Content-Encoding"));
+        assertThat(response.getOutputAsString(), hasXPath("(//ns:loc)[1]/text()", equalTo("http://test.com/content/geometrixx/en.html")).withNamespaceContext(NS));
+
+        servlet.deactivate();
+    }
+
+    @Test
+    public void testCachedSiteMapRegenerated() throws Exception {
+        servlet.activate(new HashMap<String, Object>() {{
+                put("externalizer.domain", "external");
+                put("cache.enabled", true);
+                put("cache.refresh-delay", 1);
+            }
+        });
+
+        servlet.doGet(request, response);
+        assertThat(response.getOutputAsString(), hasXPath("count(//ns:loc)", equalTo("3")).withNamespaceContext(NS));
+
+        context.create().page("/content/geometrixx/en/news");
+        servlet.onChange(Collections.singletonList(new ResourceChange(ChangeType.ADDED, "/content/geometrixx/en/news", false, null, null, null)));
+
+        // the cached sitemap is served until the refresh delay has passed
+        MockSlingHttpServletResponse staleResponse = new MockSlingHttpServletResponse();
+        servlet.doGet(request, staleResponse);
+        assertThat(staleResponse.getOutputAsString(), hasXPath("count(//ns:loc)", equalTo("3")).withNamespaceContext(NS));
+
+        // then it is dropped and regenerated by the next request, with the request's resolver
+        Thread.sleep(1500);
+        MockSlingHttpServletResponse changedResponse = new MockSlingHttpServletResponse();
+        servlet.doGet(request, changedResponse);
+        assertThat(changedResponse.getOutputAsString(), hasXPath("count(//ns:loc)", equalTo("4")).withNamespaceContext(NS));
+        verify(externalizer).externalLink(context.resourceResolver(), "external", "/content/geometrixx/en/news.html");
+
+        servlet.deactivate();
+    }
+
+    @Test
+    public void testChangeListenerOnlyRegisteredWithCache() throws Exception {
+        servlet.start(context.bundleContext(), new HashMap<String, Object>() {{
+                put("externalizer.domain", "external");
+            }
+        });
+        assertEquals(0, context.getServices(ResourceChangeListener.class, null).length);
+        servlet.deactivate();
+
+        servlet.start(context.bundleContext(), new HashMap<String, Object>() {{
+                put("externalizer.domain", "external");
+                put("shard.size", 2);
+            }
+        });
+        assertEquals(1, context.getServices(ResourceChangeListener.class, null).length);
+        servlet.deactivate();
+        assertEquals(0, context.getServices(ResourceChangeListener.class, null).length);
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2021 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.workflow.bulk.execution.impl.runners;
+
+import com.adobe.acs.commons.fam.ThrottledTaskRunner;
+import com.adobe.acs.commons.workflow.bulk.execution.model.Config;
+import com.adobe.acs.commons.workflow.bulk.execution.model.Payload;
+import com.adobe.acs.commons.workflow.bulk.execution.model.PayloadGroup;
+import com.adobe.acs.commons.workflow.bulk.execution.model.Status;
+import com.adobe.acs.commons.workflow.bulk.execution.model.Workspace;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowBatchListener;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowModel;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowRunner;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SyntheticWorkflowRunnerImplTest {
+
+    @Mock
+    ResourceResolverFactory resourceResolverFactory;
+
+    @Mock
+    Scheduler scheduler;
+
+    @Mock
+    SyntheticWorkflowRunner swr;
+
+    @Mock
+    ThrottledTaskRunner throttledTaskRunner;
+
+    @InjectMocks
+    SyntheticWorkflowRunnerImpl runner = new SyntheticWorkflowRunnerImpl();
+
+    @Mock
+    ResourceResolver resourceResolver;
+
+    @Mock
+    Config config;
+
+    @Mock
+    Workspace workspace;
+
+    @Mock
+    PayloadGroup payloadGroup;
+
+    final List<Payload> payloads = new ArrayList<>();
+
+    final Set<String> processed = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws Exception {
+        final Resource configResource = mock(Resource.class);
+        when(resourceResolverFactory.getServiceResourceResolver(anyMap())).thenReturn(resourceResolver);
+        when(config.getPath()).thenReturn("/etc/acs-commons/bulk-workflow-manager/test/jcr:content");
+        when(resourceResolver.getResource("/etc/acs-commons/bulk-workflow-manager/test/jcr:content")).thenReturn(configResource);
+        when(configResource.adaptTo(Config.class)).thenReturn(config);
+        when(config.getWorkspace()).thenReturn(workspace);
+        when(config.getWorkflowModelId()).thenReturn("/var/workflow/models/test");
+        when(config.getThreads()).thenReturn(2);
+        when(swr.getSyntheticWorkflowModel(resourceResolver, "/var/workflow/models/test", true))
+                .thenReturn(mock(SyntheticWorkflowModel.class));
+        when(workspace.getActivePayloadGroups()).thenReturn(Collections.singletonList(payloadGroup));
+
+        for (int i = 0; i < 4; i++) {
+            final Payload payload = mock(Payload.class);
+            when(payload.getPayloadPath()).thenReturn("/content/dam/asset-" + i);
+            payloads.add(payload);
+        }
+
+        // workers run on their own threads, as they do on the ThrottledTaskRunner
+        doAnswer(invocation -> {
+            new Thread((Runnable) invocation.getArgument(0)).start();
+            return null;
+        }).when(throttledTaskRunner).scheduleWork(any(Runnable.class));
+
+        runner.stopCheckInterval = 10;
+    }
+
+    @Test
+    public void testParallelRun() throws Exception {
+        when(config.isAutoThrottle()).thenReturn(true);
+        when(workspace.getActivePayloads()).thenReturn(payloads, Collections.emptyList());
+        doAnswer(invocation -> {
+            final Iterator<String> payloadPaths = invocation.getArgument(1);
+            final SyntheticWorkflowBatchListener listener = invocation.getArgument(3);
+            while (payloadPaths.hasNext()) {
+                final String payloadPath = payloadPaths.next();
+                processed.add(payloadPath);
+                listener.completed(payloadPath);
+            }
+            return null;
+        }).when(swr).execute(eq(resourceResolver), any(), any(), any());
+
+        runner.getRunnable(config).run();
+
+        assertEquals(4, processed.size());
+        // every worker throttles before each payload
+        verify(throttledTaskRunner, times(4)).waitForLowCpuAndLowMemory();
+        verify(workspace, times(4)).incrementCompleteCount();
+        verify(workspace).setStatus(Status.COMPLETED);
+    }
+
+    @Test
+    public void testParallelRun_stop() throws Exception {
+        final AtomicBoolean stopping = new AtomicBoolean(false);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch stopSeen = new CountDownLatch(1);
+        when(workspace.getActivePayloads()).thenReturn(payloads);
+        when(workspace.isStopping()).then(invocation -> {
+            if (stopping.get()) {
+                stopSeen.countDown();
+                return true;
+            }
+            return false;
+        });
+        doAnswer(invocation -> {
+            final Iterator<String> payloadPaths = invocation.getArgument(1);
+            final SyntheticWorkflowBatchListener listener = invocation.getArgument(3);
+            while (payloadPaths.hasNext()) {
+                final String payloadPath = payloadPaths.next();
+                processed.add(payloadPath);
+                listener.completed(payloadPath);
+
+                // Stop is requested once both workers processed their first payload
+                started.countDown();
+                started.await(5, TimeUnit.SECONDS);
+                stopping.set(true);
+                stopSeen.await(5, TimeUnit.SECONDS);
+                Thread.sleep(50);
+            }
+            return null;
+        }).when(swr).execute(eq(resourceResolver), any(), any(), any());
+
+        runner.getRunnable(config).run();
+
+        // each of the two workers stops after its current payload
+        assertEquals(2, processed.size());
+        verify(workspace, times(2)).incrementCompleteCount();
+        verify(workspace, never()).incrementFailCount();
+        verify(workspace).setStatus(Status.STOPPED);
+        verify(workspace, never()).setStatus(Status.COMPLETED);
+    }
+}
@@ -20,10 +20,18 @@
 package com.adobe.acs.commons.workflow.bulk.removal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
+import com.adobe.acs.commons.fam.ThrottledTaskRunner;
 import com.adobe.acs.commons.workflow.bulk.removal.impl.WorkflowInstanceRemoverImpl;
 import com.adobe.granite.workflow.WorkflowSession;
 import com.adobe.granite.workflow.exec.WorkItem;
@@ -33,6 +41,14 @@ import io.wcm.testing.mock.aem.junit.AemContext;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.apache.sling.api.resource.ResourceResolver;
@@ -171,4 +187,123 @@ public class WorkflowInstanceRemoverTest {
         assertEquals("All workflows should have been checked",3, workflowInstanceRemover.getStatus().getChecked());
         assertEquals("Only workflows with specified modelID should be deleted", 2, workflowInstanceRemover.getStatus().getRemoved());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void removeWholeFolder() throws Exception {
+        Collection<String> statuses = new ArrayList<>();
+        statuses.add("COMPLETED");
+        statuses.add("ABORTED");
+        statuses.add("RUNNING");
+
+        WorkflowRemovalConfig workflowRemovalConfig = new WorkflowRemovalConfig(new ArrayList<>(), statuses, new ArrayList<>(), null, -1);
+        workflowRemovalConfig.setRemoveWholeFolders(true);
+
+        WorkflowInstanceRemover workflowInstanceRemover = ctx.getService(WorkflowInstanceRemover.class);
+        workflowInstanceRemover.removeWorkflowInstances(ctx.resourceResolver(), workflowRemovalConfig);
+
+        assertEquals("All workflows should be deleted", 3, workflowInstanceRemover.getStatus().getRemoved());
+        assertNull(ctx.resourceResolver().getResource("/var/workflow/instances/server0/2021-05-06"));
+        assertTrue(workflowInstanceRemover.getStatus().getCompletedFolders().contains("/var/workflow/instances/server0/2021-05-06"));
+    }
+
+    @Test
+    public void removeWholeFolderKeepsNonMatching() throws Exception {
+        Collection<String> statuses = new ArrayList<>();
+        statuses.add("COMPLETED");
+
+        WorkflowRemovalConfig workflowRemovalConfig = new WorkflowRemovalConfig(new ArrayList<>(), statuses, new ArrayList<>(), null, -1);
+        workflowRemovalConfig.setRemoveWholeFolders(true);
+
+        WorkflowInstanceRemover workflowInstanceRemover = ctx.getService(WorkflowInstanceRemover.class);
+        workflowInstanceRemover.removeWorkflowInstances(ctx.resourceResolver(), workflowRemovalConfig);
+
+        assertEquals("Only completed workflows should be deleted", 1, workflowInstanceRemover.getStatus().getRemoved());
+        assertNotNull(ctx.resourceResolver().getResource("/var/workflow/instances/server0/2021-05-06"));
+    }
+
+    @Test
+    public void removeInParallel() throws Exception {
+        final String server = "/var/workflow/instances/server0";
+        final Set<String> expectedFolders = new HashSet<>();
+        for (int day = 1; day <= 4; day++) {
+            final String folder = server + "/2021-05-0" + day;
+            ctx.create().resource(folder, "jcr:primaryType", "sling:Folder");
+            for (int i = 1; i <= 2; i++) {
+                final String instance = folder + "/test-workflow_" + i;
+                ctx.create().resource(instance, "jcr:primaryType", "cq:Workflow", "status", "COMPLETED",
+                        "modelId", "/var/workflow/models/test-workflow");
+                ctx.create().resource(instance + "/data", "jcr:primaryType", "cq:WorkflowData");
+                ctx.create().resource(instance + "/data/payload", "jcr:primaryType", "cq:Payload",
+                        "path", "/content/dam/day-" + day);
+            }
+            expectedFolders.add(folder);
+        }
+
+        final Set<String> cloneThreads = ConcurrentHashMap.newKeySet();
+        final ResourceResolver resourceResolver = spy(ctx.resourceResolver());
+        doAnswer(invocation -> {
+            cloneThreads.add(Thread.currentThread().getName());
+            return resourceResolver;
+        }).when(resourceResolver).clone(any());
+        doNothing().when(resourceResolver).close();
+
+        // The mock repository is not thread safe, so workers hold a lock for as long as they run
+        final ReentrantLock repositoryLock = new ReentrantLock();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final Set<String> workerThreads = ConcurrentHashMap.newKeySet();
+        final ThrottledTaskRunner taskRunner = Mockito.mock(ThrottledTaskRunner.class);
+        doAnswer(invocation -> {
+            final Runnable work = invocation.getArgument(0);
+            executor.execute(() -> {
+                workerThreads.add(Thread.currentThread().getName());
+                repositoryLock.lock();
+                try {
+                    work.run();
+                } finally {
+                    repositoryLock.unlock();
+                }
+            });
+            return null;
+        }).when(taskRunner).scheduleWork(any(Runnable.class));
+        ctx.registerService(ThrottledTaskRunner.class, taskRunner);
+        final WorkflowInstanceRemover workflowInstanceRemover =
+                ctx.registerInjectActivateService(new WorkflowInstanceRemoverImpl());
+
+        Collection<String> statuses = new ArrayList<>();
+        statuses.add("COMPLETED");
+        WorkflowRemovalConfig workflowRemovalConfig = new WorkflowRemovalConfig(new ArrayList<>(), statuses, new ArrayList<>(), null, -1);
+        workflowRemovalConfig.setParallel(true);
+
+        try {
+            workflowInstanceRemover.removeWorkflowInstances(resourceResolver, workflowRemovalConfig);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue("Folders should have been swept by more than one thread", workerThreads.size() > 1);
+        assertEquals("Resolvers should be cloned on the calling thread",
+                Collections.singleton(Thread.currentThread().getName()), cloneThreads);
+        final List<String> completedFolders = workflowInstanceRemover.getStatus().getCompletedFolders();
+        assertEquals("Only emptied folders should be completed, each exactly once", expectedFolders.size(), completedFolders.size());
+        assertEquals(expectedFolders, new HashSet<>(completedFolders));
+        assertEquals("All workflows should have been checked", 11, workflowInstanceRemover.getStatus().getChecked());
+        assertEquals("Only completed workflows should be deleted", 9, workflowInstanceRemover.getStatus().getRemoved());
+        for (int day = 1; day <= 4; day++) {
+            assertNull(ctx.resourceResolver().getResource(server + "/2021-05-0" + day));
+        }
+        assertNotNull(ctx.resourceResolver().getResource(server + "/2021-05-06"));
+        assertFalse(repositoryLock.isLocked());
+    }
+
+    @Test
+    public void skipCompletedFolders() throws Exception {
+        WorkflowRemovalConfig workflowRemovalConfig = new WorkflowRemovalConfig(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null, -1);
+        workflowRemovalConfig.setSkipFolders(Arrays.asList("/var/workflow/instances/server0/2021-05-06"));
+
+        WorkflowInstanceRemover workflowInstanceRemover = ctx.getService(WorkflowInstanceRemover.class);
+        workflowInstanceRemover.removeWorkflowInstances(ctx.resourceResolver(), workflowRemovalConfig);
+
+        assertEquals(0, workflowInstanceRemover.getStatus().getChecked());
+        assertEquals(0, workflowInstanceRemover.getStatus().getRemoved());
+    }
+}
@@ -20,8 +20,10 @@
 
 package com.adobe.acs.commons.workflow.synthetic.impl;
 
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowBatchListener;
 import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowRunner;
 import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowStep;
+import com.adobe.acs.commons.workflow.synthetic.impl.granitetestprocesses.FailOnPayloadWorkflowProcess;
 import com.adobe.acs.commons.workflow.synthetic.impl.granitetestprocesses.NoNextWorkflowProcess;
 import com.adobe.acs.commons.workflow.synthetic.impl.granitetestprocesses.ReadDataWorkflowProcess;
 import com.adobe.acs.commons.workflow.synthetic.impl.granitetestprocesses.RestartWorkflowProcess;
@@ -43,11 +45,16 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.jcr.Session;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -260,4 +267,34 @@ public class SyntheticGraniteWorkflowRunnerImplTest {
                 false,
                 false);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testExecute_Batch_IsolatesFailures() throws Exception {
+        final Map<Object, Object> map = new HashMap<Object, Object>();
+        map.put("process.label", "fail-on-payload");
+        swr.bindGraniteWorkflowProcesses(new FailOnPayloadWorkflowProcess("/content/fail"), map);
+
+        workflowSteps.add(swr.getSyntheticWorkflowStep("fail-on-payload",
+                SyntheticWorkflowRunner.WorkflowProcessIdType.PROCESS_LABEL));
+
+        when(resourceResolver.hasChanges()).thenReturn(true);
+        SyntheticWorkflowBatchListener listener = mock(SyntheticWorkflowBatchListener.class);
+
+        int completed = swr.execute(resourceResolver,
+                Arrays.asList("/content/a", "/content/fail", "/content/b", "/content/c").iterator(),
+                workflowSteps,
+                listener);
+
+        assertEquals(3, completed);
+
+        // Only the failing payload's changes are discarded and no payload is executed twice
+        verify(resourceResolver, times(1)).revert();
+        verify(resourceResolver, times(3)).commit();
+
+        verify(listener).completed("/content/a");
+        verify(listener).completed("/content/b");
+        verify(listener).completed("/content/c");
+        verify(listener).failed(eq("/content/fail"), any(Exception.class));
+        verify(listener, never()).completed("/content/fail");
+    }
+}
@@ -29,6 +29,28 @@
            placeholder="# of payloads to process per commit [ Default: 10 ]"/>
 </div>
 
+<div class="coral-Form-fieldwrapper">
+    <label class="coral-Form-fieldlabel">Threads</label>
+
+    <input name="threads"
+           type="number"
+           min="1"
+           class="coral-Form-field coral-Textfield"
+           ng-model="form.threads"
+           placeholder="# of payloads to process in parallel, each thread with its own session [ Default: 1 ]"/>
+</div>
+
+<div class="coral-Form-fieldwrapper">
+    <label class="coral-Form-fieldlabel">Checkpoint Interval</label>
+
+    <input name="checkpointInterval"
+           type="number"
+           min="0"
+           class="coral-Form-field coral-Textfield"
+           ng-model="form.checkpointInterval"
+           placeholder="Minimum # of seconds between saves of execution progress [ Default: 10 ]"/>
+</div>
+
 <div class="coral-Form-fieldwrapper">
     <label class="coral-Form-fieldlabel">Auto-Throttle</label>
 
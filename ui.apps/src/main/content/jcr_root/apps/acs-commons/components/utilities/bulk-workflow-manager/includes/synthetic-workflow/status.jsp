@@ -132,6 +132,16 @@
             <td class="coral-Table-cell">{{ data.status.batchSize }}</td>
         </tr>
 
+        <tr class="coral-Table-row">
+            <td class="coral-Table-cell">Threads</td>
+            <td class="coral-Table-cell">{{ data.status.threads }}</td>
+        </tr>
+
+        <tr class="coral-Table-row">
+            <td class="coral-Table-cell">Checkpoint Interval</td>
+            <td class="coral-Table-cell">{{ data.status.checkpointInterval }} seconds</td>
+        </tr>
+
         <tr class="coral-Table-row">
             <td class="coral-Table-cell">Workflow Model</td>
             <td class="coral-Table-cell">{{ data.status.workflowModel }}</td>
@@ -161,6 +171,12 @@
             <td class="coral-Table-cell">{{ timeTaken() }}</td>
         </tr>
 
+        <tr class="coral-Table-row"
+            ng-show="data.status.payloadsPerSecond">
+            <td class="coral-Table-cell">Throughput</td>
+            <td class="coral-Table-cell">{{ data.status.payloadsPerSecond }} payloads/sec</td>
+        </tr>
+
         <tr class="coral-Table-row"
             ng-show="data.status.timeTakenInMillis && !data.status.completedAt">
             <td class="coral-Table-cell">Projected Time Remaining</td>